@@ -2,11 +2,13 @@ package io.github.don194.obsidianagent;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Obsidian AI Agent 主应用类
  */
 @SpringBootApplication
+@EnableScheduling
 public class ObsidianAgentApplication {
 
 	public static void main(String[] args) {
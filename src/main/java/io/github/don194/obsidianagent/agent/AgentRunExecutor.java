@@ -0,0 +1,132 @@
+package io.github.don194.obsidianagent.agent;
+
+import io.github.don194.obsidianagent.config.AgentProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Agent 运行专用的有界执行器
+ * <p>
+ * 每次运行都会长时间阻塞在模型和工具调用上，因此不放在公共 ForkJoinPool 中，而是使用独立的线程池：
+ * 同时执行的运行数不超过 obsidian.agent.run-concurrency，超出的运行在容量为 run-queue-capacity 的队列中等待。
+ * 队列也满时立即抛出 {@link RejectedExecutionException}，由调用方向客户端返回“繁忙”，而不是让请求无限堆积。
+ * <p>
+ * run-virtual-threads 开启且运行环境支持虚拟线程（JDK 21+）时，运行在虚拟线程上，并发数和队列上限保持不变；
+ * 不支持时退回平台线程。
+ */
+@Slf4j
+@Component
+public class AgentRunExecutor implements Executor {
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final Timer waitTimer;
+    private final Counter rejectedCounter;
+
+    public AgentRunExecutor(AgentProperties properties, MeterRegistry meterRegistry) {
+        int threads = Math.max(1, properties.getRunConcurrency());
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getRunQueueCapacity())),
+                threadFactory(properties.isRunVirtualThreads()));
+        this.executor.allowCoreThreadTimeOut(true);
+        Gauge.builder("agent.runs.active", activeCount, AtomicInteger::get)
+                .description("正在执行的 Agent 运行数")
+                .register(meterRegistry);
+        Gauge.builder("agent.runs.queue.depth", executor, pool -> pool.getQueue().size())
+                .description("等待执行的 Agent 运行数")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder("agent.runs.wait")
+                .description("Agent 运行从提交到开始执行的等待时间")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("agent.runs.rejected")
+                .description("因执行器已满被拒绝的 Agent 运行数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 提交一次运行
+     *
+     * @throws RejectedExecutionException 并发数和等待队列都已满，或执行器已关闭
+     */
+    @Override
+    public void execute(Runnable task) {
+        long submittedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                waitTimer.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                activeCount.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    activeCount.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            throw new RejectedExecutionException("服务繁忙，当前运行数已达上限", e);
+        }
+    }
+
+    /**
+     * 正在执行的运行数
+     */
+    public int activeRuns() {
+        return activeCount.get();
+    }
+
+    /**
+     * 等待执行的运行数
+     */
+    public int queuedRuns() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static ThreadFactory threadFactory(boolean virtualThreads) {
+        if (virtualThreads) {
+            ThreadFactory factory = virtualThreadFactory();
+            if (factory != null) {
+                return factory;
+            }
+            log.warn("Virtual threads are not available on Java {}, using platform threads for agent runs",
+                    Runtime.version().feature());
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "agent-run-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 通过反射获取 Thread.ofVirtual().name("agent-run-v-", 1).factory()，项目以 Java 17 编译，JDK 21+ 上运行时可用
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "agent-run-v-", 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
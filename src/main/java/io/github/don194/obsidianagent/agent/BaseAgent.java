@@ -4,6 +4,10 @@ import cn.hutool.core.util.StrUtil;
 
 import io.github.don194.obsidianagent.memory.ConversationMemoryManager;
 import io.github.don194.obsidianagent.model.AgentState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
@@ -13,6 +17,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * 抽象基础代理类，用于管理代理状态和执行流程。
@@ -42,6 +50,18 @@ public abstract class BaseAgent {
     // LLM 大模型 - 依赖外部注入的ChatClient（包含advisor）
     private ChatClient chatClient;
 
+    // 流式运行使用的执行器，为 null 时使用公共线程池；会话邮箱保证同一会话的运行依次执行
+    private Executor runExecutor;
+
+    // 流式运行期间接收模型输出的文本增量，由 runStream 设置为以 token 事件发送到 SSE
+    private Consumer<String> tokenListener;
+
+    // 客户端断开、连接出错或超时时取消当前运行；每次运行开始时换成该运行自己的标记
+    private volatile CancellationToken cancellationToken = new CancellationToken();
+
+    // 记录步骤耗时、取消节省量等指标，为 null 时不记录
+    private MeterRegistry meterRegistry;
+
     /**
      * 运行代理
      * @param userPrompt 用户提示词
@@ -99,21 +119,36 @@ public abstract class BaseAgent {
         // 创建一个超时时间较长的 SseEmitter
         SseEmitter sseEmitter = new SseEmitter(300000L); // 5 分钟超时
 
+        // 每次运行使用新的取消标记，排队期间发生的断开、出错或超时也记录在这个标记上
+        CancellationToken token = new CancellationToken();
+
         // 使用线程异步处理，避免阻塞主线程
-        CompletableFuture.runAsync(() -> {
+        Runnable run = () -> {
+            this.cancellationToken = token;
+            token.bind(Thread.currentThread());
+            if (token.isCancelled()) {
+                // 排队期间客户端已经断开、连接出错或超时，不再执行，也不再消耗模型调用
+                log.info("Run of session {} cancelled ({}) before it started", sessionId, token.reason());
+                token.unbind();
+                Thread.interrupted();
+                return;
+            }
             // 1、基础校验
             try {
                 if (this.state != AgentState.IDLE) {
+                    token.unbind();
                     sseEmitter.send("错误：无法从状态运行代理：" + this.state);
                     sseEmitter.complete();
                     return;
                 }
                 if (StrUtil.isBlank(userPrompt)) {
+                    token.unbind();
                     sseEmitter.send("错误：不能使用空提示词运行代理");
                     sseEmitter.complete();
                     return;
                 }
             } catch (Exception e) {
+                token.unbind();
                 sseEmitter.completeWithError(e);
                 return;
             }
@@ -122,30 +157,69 @@ public abstract class BaseAgent {
             }
             // 2、执行，更改状态
             this.state = AgentState.RUNNING;
+            // 模型输出的文本增量以 token 事件实时发送，每一步的结果仍以默认事件发送
+            this.tokenListener = delta -> {
+                try {
+                    sseEmitter.send(SseEmitter.event().name("token").data(delta));
+                } catch (IOException | IllegalStateException e) {
+                    log.debug("Failed to send token event: {}", e.getMessage());
+                }
+            };
 
             // 保存结果列表
             try {
-                // 执行循环
-                for (int i = 0; i < maxSteps && state != AgentState.FINISHED; i++) {
+                // 执行循环，每一步开始前检查是否已被取消
+                for (int i = 0; i < maxSteps && state != AgentState.FINISHED && !token.isCancelled(); i++) {
                     int stepNumber = i + 1;
                     currentStep = stepNumber;
                     log.info("Executing step {}/{}", stepNumber, maxSteps);
                     // 单步执行
+                    long stepStart = System.nanoTime();
                     String stepResult = step();
+                    if (token.isCancelled()) {
+                        break;
+                    }
+                    if (meterRegistry != null) {
+                        Timer.builder("agent.step.duration")
+                                .description("单个步骤（思考和行动）的耗时")
+                                .register(meterRegistry)
+                                .record(System.nanoTime() - stepStart, TimeUnit.NANOSECONDS);
+                    }
                     String result = "Step " + stepNumber + ": " + stepResult;
                     // 输出当前每一步的结果到 SSE
                     sseEmitter.send(result);
                 }
+                if (token.isCancelled()) {
+                    // 客户端已经不在，不再发送任何内容
+                    state = cancelledState(token);
+                    log.info("Run of session {} cancelled ({}) at step {}/{}", sessionId,
+                            token.reason(), currentStep, maxSteps);
+                    return;
+                }
                 // 检查是否超出步骤限制
                 if (currentStep >= maxSteps) {
                     state = AgentState.FINISHED;
                     sseEmitter.send("执行结束：达到最大步骤（" + maxSteps + "）");
                 }
-                // 正常完成
+                if (meterRegistry != null) {
+                    DistributionSummary.builder("agent.run.steps")
+                            .description("正常结束的运行所用的步骤数")
+                            .register(meterRegistry)
+                            .record(currentStep);
+                }
+                // 正常完成：先解绑，完成回调不会再把这次运行当作被取消
+                token.unbind();
                 sseEmitter.complete();
             } catch (Exception e) {
+                if (token.isCancelled()) {
+                    state = cancelledState(token);
+                    log.info("Run of session {} cancelled ({}): {}", sessionId, token.reason(),
+                            e.getMessage());
+                    return;
+                }
                 state = AgentState.ERROR;
                 log.error("error executing agent", e);
+                token.unbind();
                 try {
                     sseEmitter.send("执行错误：" + e.getMessage());
                     sseEmitter.complete();
@@ -153,28 +227,119 @@ public abstract class BaseAgent {
                     sseEmitter.completeWithError(ex);
                 }
             } finally {
-                // 3、清理资源
+                // 3、清理资源：先解绑并清除中断标记，保证落库不受取消影响，线程回到线程池时也是干净的
+                token.unbind();
+                Thread.interrupted();
+                this.tokenListener = null;
                 this.cleanup();
             }
-        });
+        };
+        try {
+            if (runExecutor != null) {
+                // 在会话邮箱中排队后才被执行器拒绝时，同样以 busy 事件答复
+                runExecutor.execute(new RejectableRun(run, e -> sendBusy(sseEmitter, e)));
+            } else {
+                CompletableFuture.runAsync(run);
+            }
+        } catch (RejectedExecutionException e) {
+            sendBusy(sseEmitter, e);
+            return sseEmitter;
+        }
 
+        // 以下回调在容器线程上执行，此时执行线程可能仍在 step() 中：回调只发出取消信号，
+        // 状态更新、清理和落库都留给执行线程的 finally，避免与正在进行的步骤竞争
         // 设置超时回调
         sseEmitter.onTimeout(() -> {
-            this.state = AgentState.ERROR;
-            this.cleanup();
+            cancel(token, "timeout");
             log.warn("SSE connection timeout");
         });
-        // 设置完成回调
+        // 设置出错回调：通常是客户端断开后写入失败
+        sseEmitter.onError(e -> cancel(token, "error"));
+        // 设置完成回调：运行仍在进行说明连接由客户端一侧结束
         sseEmitter.onCompletion(() -> {
-            if (this.state == AgentState.RUNNING) {
-                this.state = AgentState.FINISHED;
-            }
-            this.cleanup();
+            cancel(token, "disconnect");
             log.info("SSE connection completed");
         });
         return sseEmitter;
     }
 
+    /**
+     * 被取消的运行结束时的状态：超时视为出错，客户端断开视为结束
+     */
+    private AgentState cancelledState(CancellationToken token) {
+        return "timeout".equals(token.reason()) ? AgentState.ERROR : AgentState.FINISHED;
+    }
+
+    /**
+     * 运行被拒绝：以 busy 事件立即答复，不占用执行线程
+     */
+    private void sendBusy(SseEmitter sseEmitter, RejectedExecutionException e) {
+        log.warn("Run rejected for session {}: {}", sessionId, e.getMessage());
+        try {
+            sseEmitter.send(SseEmitter.event().name("busy").data("错误：" + e.getMessage() + "，请稍后再试"));
+            sseEmitter.complete();
+        } catch (IOException | IllegalStateException ex) {
+            sseEmitter.completeWithError(ex);
+        }
+    }
+
+    /**
+     * 交给执行器的运行，排队后被拒绝时通知调用方
+     */
+    private record RejectableRun(Runnable task, Consumer<RejectedExecutionException> onRejected)
+            implements Runnable, SessionMailbox.RejectionAware {
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public void rejected(RejectedExecutionException e) {
+            onRejected.accept(e);
+        }
+    }
+
+    /**
+     * 取消排队中或仍在执行的运行，并估算因此节省的 token 和时间
+     * <p>
+     * 按已正常结束的运行平均所用步骤数估算剩余步骤（至少为被中止的当前这一步），
+     * 再乘以每次模型调用的平均 token 数和每步的平均耗时；还没有历史数据时只记录取消次数。
+     * 还在排队的运行尚未开始任何步骤，按从第一步起全部节省估算。
+     */
+    private void cancel(CancellationToken token, String reason) {
+        if (!token.cancel(reason)) {
+            return;
+        }
+        int currentStep = token.isBound() ? this.currentStep : 1;
+        log.info("Cancelling run of session {} ({}) at step {}/{}", sessionId, reason, currentStep, maxSteps);
+        if (meterRegistry == null) {
+            return;
+        }
+        Counter.builder("agent.runs.cancelled")
+                .description("因客户端断开、连接出错或超时被取消的运行数")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+        DistributionSummary runSteps = meterRegistry.find("agent.run.steps").summary();
+        double remainingSteps = Math.max(1.0, Math.min(maxSteps - currentStep + 1,
+                (runSteps != null && runSteps.count() > 0 ? runSteps.mean() : 0) - currentStep + 1));
+        DistributionSummary callTokens = meterRegistry.find("agent.llm.tokens").summary();
+        if (callTokens != null && callTokens.count() > 0) {
+            DistributionSummary.builder("agent.cancel.tokens.saved")
+                    .description("取消运行估算节省的 token 数")
+                    .register(meterRegistry)
+                    .record(callTokens.mean() * remainingSteps);
+        }
+        Timer stepDuration = meterRegistry.find("agent.step.duration").timer();
+        if (stepDuration != null && stepDuration.count() > 0) {
+            double savedNanos = stepDuration.mean(TimeUnit.NANOSECONDS) * remainingSteps;
+            Timer.builder("agent.cancel.time.saved")
+                    .description("取消运行估算节省的执行时间")
+                    .register(meterRegistry)
+                    .record((long) savedNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
     /**
      * 定义单个步骤
      *
@@ -188,7 +353,8 @@ public abstract class BaseAgent {
         // 子类可以重写此方法来清理资源
         log.debug("Cleaning up agent resources");
         if (getMemoryManager() != null && getSessionId() != null) { // 新增代码块
-            getMemoryManager().clearWorkingMemory(getSessionId());
+            // 运行结束前确保本次运行的消息已经落库；工作记忆留在缓存中供同一会话的下一条消息复用
+            getMemoryManager().flush(getSessionId());
         }
     }
 }
\ No newline at end of file
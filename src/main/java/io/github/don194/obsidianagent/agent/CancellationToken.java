@@ -0,0 +1,66 @@
+package io.github.don194.obsidianagent.agent;
+
+/**
+ * 一次 Agent 运行的取消标记
+ * <p>
+ * 每次运行使用一个新的标记。SSE 连接完成、出错或超时时由回调调用 {@link #cancel}：标记被置位，
+ * 已绑定执行线程时线程被中断，正在阻塞的模型流式调用和工具调用随之中止，步骤循环在下一次检查时退出。
+ * 运行还在排队时取消同样被记录，运行开始时检查到标记即放弃执行。
+ * 运行结束时解绑，之后的取消不再生效，也不再中断线程（线程可能已在执行别的任务）。
+ */
+public class CancellationToken {
+
+    private volatile String reason;
+    private Thread worker;
+    private boolean ended;
+
+    /**
+     * 运行开始，绑定执行线程；排队期间已被取消时标记保持不变，由调用方检查后放弃执行
+     */
+    public synchronized void bind(Thread thread) {
+        this.worker = thread;
+    }
+
+    /**
+     * 运行结束，解绑执行线程
+     */
+    public synchronized void unbind() {
+        this.worker = null;
+        this.ended = true;
+    }
+
+    /**
+     * 请求取消
+     *
+     * @param reason 取消原因，如 disconnect、error、timeout
+     * @return 是否取消了一个排队中或仍在执行的运行；运行已结束或已被取消时返回 false
+     */
+    public synchronized boolean cancel(String reason) {
+        if (ended || this.reason != null) {
+            return false;
+        }
+        this.reason = reason;
+        if (worker != null) {
+            worker.interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * 运行是否已经开始执行
+     */
+    public synchronized boolean isBound() {
+        return worker != null;
+    }
+
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * 取消原因，未取消时为 null
+     */
+    public String reason() {
+        return reason;
+    }
+}
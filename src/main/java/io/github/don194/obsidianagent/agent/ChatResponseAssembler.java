@@ -0,0 +1,122 @@
+package io.github.don194.obsidianagent.agent;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把流式返回的 ChatResponse 片段拼装成一个完整的响应
+ * <p>
+ * 文本增量按到达顺序拼接；工具调用增量按 ID 归并：带新 ID 的片段开始一个新的调用，
+ * 没有 ID 的片段（部分模型只在第一个片段中给出 ID）续接到最近的调用上，名称取第一个非空值，参数依次拼接。
+ * 模型已经在一个片段中给出完整的工具调用时同样适用。token 用量取最后一个带有用量的片段。
+ */
+class ChatResponseAssembler {
+
+    private static final class ToolCallBuilder {
+        private final String id;
+        private String type;
+        private String name;
+        private final StringBuilder arguments = new StringBuilder();
+
+        private ToolCallBuilder(String id) {
+            this.id = id;
+        }
+
+        private AssistantMessage.ToolCall build() {
+            return new AssistantMessage.ToolCall(id, type != null ? type : "function", name != null ? name : "",
+                    arguments.toString());
+        }
+    }
+
+    private final StringBuilder text = new StringBuilder();
+    private final Map<String, ToolCallBuilder> toolCalls = new LinkedHashMap<>();
+    private ToolCallBuilder lastToolCall;
+    private ChatResponseMetadata metadata;
+    private boolean received;
+
+    /**
+     * 合并一个片段
+     *
+     * @return 这个片段带来的文本增量，没有时返回空字符串
+     */
+    String accept(ChatResponse chunk) {
+        if (chunk == null) {
+            return "";
+        }
+        if (chunk.getMetadata() != null && (metadata == null || hasUsage(chunk.getMetadata().getUsage()))) {
+            metadata = chunk.getMetadata();
+        }
+        if (chunk.getResult() == null || chunk.getResult().getOutput() == null) {
+            return "";
+        }
+        AssistantMessage output = chunk.getResult().getOutput();
+        if (output.getToolCalls() != null) {
+            for (AssistantMessage.ToolCall delta : output.getToolCalls()) {
+                mergeToolCall(delta);
+                received = true;
+            }
+        }
+        String delta = output.getText();
+        if (delta == null || delta.isEmpty()) {
+            return "";
+        }
+        text.append(delta);
+        received = true;
+        return delta;
+    }
+
+    /**
+     * 是否已经收到文本或工具调用，用于记录首个 token 的时间
+     */
+    boolean hasContent() {
+        return received;
+    }
+
+    /**
+     * 拼装好的完整响应
+     */
+    ChatResponse toChatResponse() {
+        List<AssistantMessage.ToolCall> calls = new ArrayList<>(toolCalls.size());
+        for (ToolCallBuilder builder : toolCalls.values()) {
+            calls.add(builder.build());
+        }
+        AssistantMessage message = new AssistantMessage(text.toString(), Map.of(), calls);
+        return new ChatResponse(List.of(new Generation(message)),
+                metadata != null ? metadata : new ChatResponseMetadata());
+    }
+
+    private void mergeToolCall(AssistantMessage.ToolCall delta) {
+        ToolCallBuilder builder;
+        if (delta.id() != null && !delta.id().isEmpty()) {
+            builder = toolCalls.computeIfAbsent(delta.id(), ToolCallBuilder::new);
+        } else if (lastToolCall != null) {
+            builder = lastToolCall;
+        } else {
+            // 没有 ID 的第一个片段：生成占位 ID，保证调用和结果能够对应
+            String id = "call_" + toolCalls.size();
+            builder = toolCalls.computeIfAbsent(id, ToolCallBuilder::new);
+        }
+        if (builder.type == null && delta.type() != null && !delta.type().isEmpty()) {
+            builder.type = delta.type();
+        }
+        if ((builder.name == null || builder.name.isEmpty()) && delta.name() != null) {
+            builder.name = delta.name();
+        }
+        if (delta.arguments() != null) {
+            builder.arguments.append(delta.arguments());
+        }
+        lastToolCall = builder;
+    }
+
+    private static boolean hasUsage(Usage usage) {
+        return usage != null && usage.getTotalTokens() != null && usage.getTotalTokens() > 0;
+    }
+}
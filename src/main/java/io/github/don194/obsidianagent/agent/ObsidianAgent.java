@@ -3,7 +3,6 @@ package io.github.don194.obsidianagent.agent;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
 import org.springframework.ai.chat.model.ChatModel;
-import org.springframework.ai.tool.ToolCallback;
 import org.springframework.stereotype.Component;
 
 import io.github.don194.obsidianagent.agent.ToolCallAgent;
@@ -27,12 +26,12 @@ public class ObsidianAgent extends ToolCallAgent {
     /**
      * 构造 ObsidianAgent。
      *
-     * @param allTools 一组 `ToolCallback` 函数
+     * @param toolRegistry 所有 Agent 共享的工具注册表
      * @param chatModel 为代理的推理能力提供支持的底层 AI 聊天模型。
      */
-    public ObsidianAgent(ToolCallback[] allTools, ChatModel chatModel) {
+    public ObsidianAgent(ToolRegistry toolRegistry, ChatModel chatModel) {
         // 调用 ToolCallAgent 的父类构造函数
-        super(allTools);
+        super(toolRegistry);
 
         // 设置代理的名称，用于日志记录和识别
         this.setName("ObsidianAgent");
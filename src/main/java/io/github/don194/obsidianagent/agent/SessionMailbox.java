@@ -0,0 +1,185 @@
+package io.github.don194.obsidianagent.agent;
+
+import io.github.don194.obsidianagent.config.AgentProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按会话串行执行 Agent 运行的邮箱
+ * <p>
+ * 每个会话有独立的邮箱：同一时刻最多只有一个运行在执行，后到的运行排队，前一个结束后按到达顺序接着执行；
+ * 不同会话的邮箱互不影响，运行在 {@link AgentRunExecutor} 上并行。同一会话的工作记忆因此不会被两个 Agent 同时修改。
+ * <p>
+ * 会话已有运行时，新的运行按 obsidian.agent.session-queue-policy 排队或立即拒绝，
+ * 拒绝时 {@link Executor#execute} 抛出 {@link RejectedExecutionException}。邮箱空闲后即被移除。
+ * <p>
+ * 排队的运行轮到执行时如果被执行器拒绝（执行器已满），不会在当前线程中直接执行，而是通知该运行被拒绝
+ * （运行实现 {@link RejectionAware} 时，由它向客户端返回繁忙），然后继续处理下一个排队的运行。
+ */
+@Slf4j
+@Component
+public class SessionMailbox {
+
+    public static final String POLICY_QUEUE = "queue";
+    public static final String POLICY_REJECT = "reject";
+
+    private static final class Mailbox {
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+        private boolean running;
+        // 已从映射中移除，新的运行需要创建新的邮箱
+        private boolean retired;
+    }
+
+    private final AgentProperties properties;
+    private final Executor delegate;
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final Counter rejectedCounter;
+
+    /**
+     * 排队后才被拒绝时需要收到通知的任务
+     */
+    public interface RejectionAware {
+        void rejected(RejectedExecutionException e);
+    }
+
+    @Autowired
+    public SessionMailbox(AgentProperties properties, MeterRegistry meterRegistry, AgentRunExecutor runExecutor) {
+        this(properties, meterRegistry, (Executor) runExecutor);
+    }
+
+    SessionMailbox(AgentProperties properties, MeterRegistry meterRegistry, Executor delegate) {
+        this.properties = properties;
+        this.delegate = delegate;
+        this.rejectedCounter = Counter.builder("agent.session.rejected")
+                .description("在会话邮箱中被拒绝的运行数：同一会话已有运行，或排队后执行器已满")
+                .register(meterRegistry);
+        Gauge.builder("agent.session.queue.depth", waitingCount, AtomicInteger::get)
+                .description("在会话邮箱中排队等待的运行数")
+                .register(meterRegistry);
+        Gauge.builder("agent.session.active", activeCount, AtomicInteger::get)
+                .description("正在执行运行的会话数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 会话的串行执行器：提交的任务在该会话的邮箱中按顺序执行
+     */
+    public Executor executorFor(String sessionId) {
+        return task -> submit(sessionId, task);
+    }
+
+    /**
+     * 会话中排队等待的运行数，不含正在执行的
+     */
+    public int depth(String sessionId) {
+        Mailbox mailbox = mailboxes.get(sessionId);
+        if (mailbox == null) {
+            return 0;
+        }
+        synchronized (mailbox) {
+            return mailbox.waiting.size();
+        }
+    }
+
+    /**
+     * 会话当前是否有运行在执行
+     */
+    public boolean isBusy(String sessionId) {
+        Mailbox mailbox = mailboxes.get(sessionId);
+        if (mailbox == null) {
+            return false;
+        }
+        synchronized (mailbox) {
+            return mailbox.running;
+        }
+    }
+
+    private void submit(String sessionId, Runnable task) {
+        while (true) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(sessionId, id -> new Mailbox());
+            synchronized (mailbox) {
+                if (mailbox.retired) {
+                    continue;
+                }
+                if (mailbox.running) {
+                    if (POLICY_REJECT.equalsIgnoreCase(properties.getSessionQueuePolicy())
+                            || mailbox.waiting.size() >= properties.getSessionQueueCapacity()) {
+                        rejectedCounter.increment();
+                        throw new RejectedExecutionException("会话 " + sessionId + " 正在处理上一条消息");
+                    }
+                    mailbox.waiting.add(task);
+                    waitingCount.incrementAndGet();
+                    log.debug("Queued run for session {}, {} waiting", sessionId, mailbox.waiting.size());
+                    return;
+                }
+                mailbox.running = true;
+            }
+            activeCount.incrementAndGet();
+            try {
+                dispatch(sessionId, mailbox, task);
+            } catch (RejectedExecutionException e) {
+                // 执行器拒绝时让出邮箱，避免后续运行永远等待；提交者收到异常
+                next(sessionId, mailbox);
+                throw e;
+            }
+            return;
+        }
+    }
+
+    private void dispatch(String sessionId, Mailbox mailbox, Runnable task) {
+        delegate.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                next(sessionId, mailbox);
+            }
+        });
+    }
+
+    /**
+     * 当前运行结束：取出下一个排队的运行，没有时让出并移除邮箱；执行器拒绝的排队运行被通知后跳过
+     */
+    private void next(String sessionId, Mailbox mailbox) {
+        while (true) {
+            Runnable task;
+            synchronized (mailbox) {
+                task = mailbox.waiting.poll();
+                if (task == null) {
+                    mailbox.running = false;
+                    mailbox.retired = true;
+                    mailboxes.remove(sessionId, mailbox);
+                } else {
+                    waitingCount.decrementAndGet();
+                }
+            }
+            if (task == null) {
+                activeCount.decrementAndGet();
+                return;
+            }
+            try {
+                dispatch(sessionId, mailbox, task);
+                return;
+            } catch (RejectedExecutionException e) {
+                rejectedCounter.increment();
+                log.warn("Queued run for session {} rejected: {}", sessionId, e.getMessage());
+                if (task instanceof RejectionAware rejectionAware) {
+                    rejectionAware.rejected(e);
+                }
+            }
+        }
+    }
+}
@@ -1,16 +1,24 @@
 package io.github.don194.obsidianagent.agent;
 
 import cn.hutool.core.util.StrUtil;
+import io.github.don194.obsidianagent.memory.ToolResultCompactor;
 import io.github.don194.obsidianagent.model.AgentState;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.*;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.ai.model.tool.ToolCallingChatOptions;
 import org.springframework.ai.tool.ToolCallback;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -21,22 +29,25 @@ import java.util.stream.Collectors;
 @Slf4j
 public class ToolCallAgent extends ReActAgent {
 
-    // 可用的工具
-    private final ToolCallback[] availableTools;
+    // 可用的工具，所有 Agent 共享同一个注册表
+    private final ToolRegistry toolRegistry;
 
     // 保存工具调用信息的响应结果（要调用那些工具）
     private ChatResponse toolCallChatResponse;
 
-    // 工具调用选项
+    // 工具调用选项，来自注册表，不能修改
     private final ToolCallingChatOptions chatOptions;
 
-    public ToolCallAgent(ToolCallback[] availableTools) {
+    // 并发执行同一步中工具调用的执行器，为 null 时按顺序逐个执行
+    private ToolExecutor toolExecutor;
+
+    // 是否以流式方式调用模型，文本增量通过 getTokenListener() 转发
+    private boolean streaming = true;
+
+    public ToolCallAgent(ToolRegistry toolRegistry) {
         super();
-        this.availableTools = availableTools;
-        this.chatOptions = ToolCallingChatOptions.builder()
-                .toolCallbacks(availableTools)
-                .internalToolExecutionEnabled(false)  // 禁用自动工具执行
-                .build();
+        this.toolRegistry = toolRegistry;
+        this.chatOptions = toolRegistry.chatOptions();
     }
 
     /**
@@ -57,21 +68,25 @@ public class ToolCallAgent extends ReActAgent {
                 conversationHistory.add(nextStepMessage);
             }
 
-            ChatResponse chatResponse = getChatClient()
-                    .prompt()
-                    .system(systemPrompt)
-                    .messages(conversationHistory)
-                    .options(chatOptions)
-                    .call()
-                    .chatResponse();
+            ChatResponse chatResponse = streaming
+                    ? streamChatResponse(systemPrompt, conversationHistory)
+                    : getChatClient()
+                            .prompt()
+                            .system(systemPrompt)
+                            .messages(conversationHistory)
+                            .options(chatOptions)
+                            .call()
+                            .chatResponse();
 
             // 记录响应，用于后续 act() 方法
             this.toolCallChatResponse = chatResponse;
+            recordTokens(chatResponse);
 
             // 解析工具调用结果
             AssistantMessage assistantMessage = chatResponse.getResult().getOutput();
             if (getMemoryManager() != null && getSessionId() != null) {
-                getMemoryManager().addAssistantMessage(getSessionId(), assistantMessage.getText(), assistantMessage.getToolCalls());
+                getMemoryManager().addAssistantMessage(getSessionId(), assistantMessage.getText(),
+                        assistantMessage.getToolCalls(), chatResponse.getMetadata().getUsage());
             }
             List<AssistantMessage.ToolCall> toolCallList = assistantMessage.getToolCalls();
 
@@ -92,11 +107,68 @@ public class ToolCallAgent extends ReActAgent {
             return !toolCallList.isEmpty();
 
         } catch (Exception e) {
+            if (getCancellationToken().isCancelled()) {
+                log.info(getName() + "的思考因运行被取消而中止");
+                return false;
+            }
             log.error(getName() + "的思考过程遇到了问题：" + e.getMessage(), e);
             return false;
         }
     }
 
+    /**
+     * 以流式方式调用模型：文本增量到达时立即转发，工具调用增量边收边拼装，结束后得到与阻塞调用相同的完整响应
+     */
+    private ChatResponse streamChatResponse(String systemPrompt, List<Message> conversationHistory) {
+        ChatResponseAssembler assembler = new ChatResponseAssembler();
+        long start = System.nanoTime();
+        getChatClient()
+                .prompt()
+                .system(systemPrompt)
+                .messages(conversationHistory)
+                .options(chatOptions)
+                .stream()
+                .chatResponse()
+                .doOnNext(chunk -> {
+                    boolean first = !assembler.hasContent();
+                    String delta = assembler.accept(chunk);
+                    if (first && assembler.hasContent() && getMeterRegistry() != null) {
+                        Timer.builder("agent.llm.ttft")
+                                .description("流式调用模型到收到第一个文本或工具调用片段的时间")
+                                .register(getMeterRegistry())
+                                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                    if (!delta.isEmpty() && getTokenListener() != null) {
+                        getTokenListener().accept(delta);
+                    }
+                })
+                .blockLast();
+        if (getMeterRegistry() != null) {
+            Timer.builder("agent.llm.stream.duration")
+                    .description("一次流式模型调用的总耗时")
+                    .register(getMeterRegistry())
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return assembler.toChatResponse();
+    }
+
+    /**
+     * 记录一次模型调用消耗的 token 数，用于估算取消运行节省的 token
+     */
+    private void recordTokens(ChatResponse chatResponse) {
+        if (getMeterRegistry() == null || chatResponse.getMetadata() == null
+                || chatResponse.getMetadata().getUsage() == null) {
+            return;
+        }
+        Integer totalTokens = chatResponse.getMetadata().getUsage().getTotalTokens();
+        if (totalTokens != null && totalTokens > 0) {
+            DistributionSummary.builder("agent.llm.tokens")
+                    .description("单次模型调用消耗的 token 数")
+                    .register(getMeterRegistry())
+                    .record(totalTokens);
+        }
+    }
+
     /**
      * 执行工具调用并处理结果
      * @return 执行结果
@@ -112,29 +184,23 @@ public class ToolCallAgent extends ReActAgent {
             }
 
 
-            // 1. 执行所有工具调用，并收集结果
-            List<ToolResponseMessage.ToolResponse> toolResponses = toolCalls.stream().map(toolCall -> {
-                log.info("Executing tool: {} with args: {}", toolCall.name(), toolCall.arguments());
-                String result;
-                try {
-                    ToolCallback tool = findTool(toolCall.name());
-                    if (tool != null) {
-                        result = tool.call(toolCall.arguments());
-                        // 检查是否调用了终止工具
-                        if ("doTerminate".equals(toolCall.name())) {
-                            setState(AgentState.FINISHED);
-                        }
-                    } else {
-                        result = "Error: Tool not found: " + toolCall.name();
-                        log.warn(result);
-                    }
-                } catch (Exception e) {
-                    log.error("Error executing tool {}", toolCall.name(), e);
-                    result = "Error: " + e.getMessage();
-                }
-                return new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(), result);
-            }).toList();
+            // 1. 执行所有工具调用，并按调用顺序收集结果；有工具执行器时相互独立的调用并发执行。
+            // 运行已被取消时不再执行，但仍为每个调用记录结果，保持历史中调用与结果一一对应
+            List<String> results = getCancellationToken().isCancelled()
+                    ? Collections.nCopies(toolCalls.size(), ToolExecutor.CANCELLED_RESULT)
+                    : toolExecutor != null
+                    ? toolExecutor.execute(toolCalls, this::invokeTool)
+                    : toolCalls.stream().map(this::invokeTool).toList();
+            List<ToolResponseMessage.ToolResponse> toolResponses = new ArrayList<>(toolCalls.size());
+            for (int i = 0; i < toolCalls.size(); i++) {
+                AssistantMessage.ToolCall toolCall = toolCalls.get(i);
+                toolResponses.add(new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(), results.get(i)));
+            }
 
+            if (getCancellationToken().isCancelled()) {
+                // 取消已由标记记录，清除中断标记，保证工具结果能够落库
+                Thread.interrupted();
+            }
             getMemoryManager().addToolResponses(getSessionId(), toolResponses);
             String finalResults = toolResponses.stream()
                     .map(tr -> "工具 " + tr.name() + " 返回的结果：" + tr.responseData())
@@ -151,15 +217,31 @@ public class ToolCallAgent extends ReActAgent {
     }
 
     /**
-     * 查找指定名称的工具
+     * 执行单个工具调用，工具不存在或执行出错时返回错误信息作为结果
      */
-    private ToolCallback findTool(String toolName) {
-        for (ToolCallback tool : availableTools) {
-            if (tool.getToolDefinition().name().equals(toolName)) {
-                return tool;
+    private String invokeTool(AssistantMessage.ToolCall toolCall) {
+        log.info("Executing tool: {} with args: {}", toolCall.name(), toolCall.arguments());
+        try {
+            ToolCallback tool = toolRegistry.find(toolCall.name());
+            if (tool == null) {
+                String result = "Error: Tool not found: " + toolCall.name();
+                log.warn(result);
+                return result;
             }
+            // 展开外存结果的工具需要知道当前会话，其它工具不接受 ToolContext
+            String result = ToolResultCompactor.EXPAND_TOOL_NAME.equals(toolCall.name())
+                    ? tool.call(toolCall.arguments(),
+                            new ToolContext(Map.of(ToolResultCompactor.SESSION_CONTEXT_KEY, String.valueOf(getSessionId()))))
+                    : tool.call(toolCall.arguments());
+            // 检查是否调用了终止工具
+            if ("doTerminate".equals(toolCall.name())) {
+                setState(AgentState.FINISHED);
+            }
+            return result;
+        } catch (Exception e) {
+            log.error("Error executing tool {}", toolCall.name(), e);
+            return "Error: " + e.getMessage();
         }
-        return null;
     }
 
     /**
@@ -0,0 +1,242 @@
+package io.github.don194.obsidianagent.agent;
+
+import io.github.don194.obsidianagent.config.AgentProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 执行一步中的全部工具调用
+ * <p>
+ * 模型一次返回多个工具调用时，相邻的可并发调用一起提交到共享的有界线程池，这一步的耗时取决于最慢的调用而不是总和。
+ * obsidian.agent.serial-tools 中的工具（如写笔记）单独执行，作为前后调用之间的分界，保持原有的先后关系。
+ * 每个调用有各自的超时时间，从调用在线程池中真正开始执行时计算，排队等待的时间不占用预算；
+ * 排队超过自己的超时时间仍未开始的调用从队列中撤回，改在 Agent 线程中执行。
+ * 可并发的调用超时后取消（中断执行线程）并以错误信息作为结果；串行工具可能已经写入，超时后不中断，
+ * 继续等待它结束并按迟到的结果记录（agent.tool.late）。等待期间 Agent 线程被中断时取消全部未完成的可并发调用。
+ * 结果按调用的原始顺序返回。
+ */
+@Slf4j
+@Component
+public class ToolExecutor {
+
+    static final String TIMEOUT_RESULT = "Error: 工具执行超时（%d ms），已取消";
+    static final String CANCELLED_RESULT = "Error: 工具调用已取消";
+
+    private final AgentProperties properties;
+    private final ThreadPoolExecutor executor;
+    private final MeterRegistry meterRegistry;
+    private final Counter timeoutCounter;
+    private final Counter inlineCounter;
+    private final Counter lateCounter;
+
+    public ToolExecutor(AgentProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        int threads = Math.max(1, properties.getToolConcurrency());
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Math.max(1, properties.getToolQueueCapacity())), runnable -> {
+            Thread thread = new Thread(runnable, "agent-tool-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timeoutCounter = Counter.builder("agent.tool.timeouts")
+                .description("超时被取消的工具调用数")
+                .register(meterRegistry);
+        this.inlineCounter = Counter.builder("agent.tool.inline")
+                .description("工具线程池已满或排队过久、在 Agent 线程中直接执行的工具调用数")
+                .register(meterRegistry);
+        this.lateCounter = Counter.builder("agent.tool.late")
+                .description("超过超时时间但未被中断、迟到返回结果的串行工具调用数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 执行工具调用
+     *
+     * @param toolCalls 模型返回的工具调用
+     * @param invoker   执行单个调用并返回结果文本，自行处理工具不存在和执行异常
+     * @return 与 toolCalls 顺序一致的结果
+     */
+    public List<String> execute(List<AssistantMessage.ToolCall> toolCalls,
+                                Function<AssistantMessage.ToolCall, String> invoker) {
+        String[] results = new String[toolCalls.size()];
+        if (properties.getToolConcurrency() <= 0) {
+            for (int i = 0; i < toolCalls.size(); i++) {
+                results[i] = timed(toolCalls.get(i), invoker);
+            }
+            return Arrays.asList(results);
+        }
+        int start = 0;
+        while (start < toolCalls.size()) {
+            // 相邻的可并发调用组成一批，不可并发的调用单独成批
+            int end = start + 1;
+            if (!isSerial(toolCalls.get(start).name())) {
+                while (end < toolCalls.size() && !isSerial(toolCalls.get(end).name())) {
+                    end++;
+                }
+            }
+            runBatch(toolCalls, start, end, invoker, results);
+            start = end;
+            if (Thread.currentThread().isInterrupted()) {
+                // 被中断后不再开始后面的调用
+                Arrays.fill(results, start, results.length, CANCELLED_RESULT);
+                break;
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 工具是否不能与其他调用并发执行
+     */
+    boolean isSerial(String toolName) {
+        for (String serial : properties.getSerialTools()) {
+            if (toolName.equals(serial) || toolName.endsWith("_" + serial)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long timeoutFor(String toolName) {
+        Long timeout = properties.getToolTimeouts().get(toolName);
+        return timeout != null ? timeout : properties.getToolTimeoutMs();
+    }
+
+    private void runBatch(List<AssistantMessage.ToolCall> toolCalls, int start, int end,
+                          Function<AssistantMessage.ToolCall, String> invoker, String[] results) {
+        List<Future<String>> futures = new ArrayList<>(end - start);
+        // 每个调用开始执行的时间，尚未开始时为 0
+        List<AtomicLong> startedAt = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            AssistantMessage.ToolCall toolCall = toolCalls.get(i);
+            AtomicLong started = new AtomicLong();
+            startedAt.add(started);
+            try {
+                futures.add(executor.submit(() -> {
+                    started.set(System.nanoTime());
+                    return timed(toolCall, invoker);
+                }));
+            } catch (RejectedExecutionException e) {
+                // 线程池和队列都已满：不再等待，直接在当前线程执行
+                inlineCounter.increment();
+                results[i] = timed(toolCall, invoker);
+                futures.add(null);
+            }
+        }
+        for (int i = start; i < end; i++) {
+            Future<String> future = futures.get(i - start);
+            if (future == null) {
+                continue;
+            }
+            AssistantMessage.ToolCall toolCall = toolCalls.get(i);
+            try {
+                results[i] = await(toolCall, future, startedAt.get(i - start), invoker);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                log.error("Error executing tool {}", toolCall.name(), cause);
+                results[i] = "Error: " + cause.getMessage();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelRemaining(toolCalls, futures, start, i, results);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 等待一个调用的结果，超时时间从调用开始执行时计算
+     */
+    private String await(AssistantMessage.ToolCall toolCall, Future<String> future, AtomicLong startedAt,
+                         Function<AssistantMessage.ToolCall, String> invoker)
+            throws ExecutionException, InterruptedException {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutFor(toolCall.name()));
+        long waitingSince = System.nanoTime();
+        while (true) {
+            long started = startedAt.get();
+            long remainingNanos = started != 0
+                    ? started + timeoutNanos - System.nanoTime()
+                    : waitingSince + timeoutNanos - System.nanoTime();
+            try {
+                return future.get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (startedAt.get() == 0) {
+                    // 排队超过自己的超时时间仍未开始：撤回后在当前线程执行，撤回失败说明恰好开始了，按开始时间继续等待
+                    if (future.cancel(false)) {
+                        inlineCounter.increment();
+                        log.warn("Tool {} ({}) waited too long in the queue, running it inline", toolCall.name(),
+                                toolCall.id());
+                        return timed(toolCall, invoker);
+                    }
+                    continue;
+                }
+                if (startedAt.get() + timeoutNanos - System.nanoTime() > 0) {
+                    // 等待期间才开始执行，还没有用完自己的预算
+                    continue;
+                }
+                long timeoutMs = TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+                timeoutCounter.increment();
+                if (isSerial(toolCall.name())) {
+                    // 串行工具可能已经写入，中断会留下不完整的修改：等它结束，按迟到的结果记录
+                    log.warn("Tool {} ({}) exceeded {} ms, waiting for it without interrupting", toolCall.name(),
+                            toolCall.id(), timeoutMs);
+                    String result = future.get();
+                    lateCounter.increment();
+                    return result;
+                }
+                future.cancel(true);
+                log.warn("Tool {} ({}) timed out after {} ms", toolCall.name(), toolCall.id(), timeoutMs);
+                return String.format(TIMEOUT_RESULT, timeoutMs);
+            }
+        }
+    }
+
+    private void cancelRemaining(List<AssistantMessage.ToolCall> toolCalls, List<Future<String>> futures,
+                                 int start, int from, String[] results) {
+        for (int i = from; i < start + futures.size(); i++) {
+            Future<String> future = futures.get(i - start);
+            if (future != null) {
+                // 串行工具只撤回尚未开始的，已经开始的让它执行完
+                future.cancel(!isSerial(toolCalls.get(i).name()));
+            }
+            if (results[i] == null) {
+                results[i] = CANCELLED_RESULT;
+            }
+        }
+        log.warn("Agent interrupted, cancelled {} pending tool calls", start + futures.size() - from);
+    }
+
+    private String timed(AssistantMessage.ToolCall toolCall, Function<AssistantMessage.ToolCall, String> invoker) {
+        return Timer.builder("agent.tool.duration")
+                .description("单个工具调用的耗时")
+                .tag("tool", toolCall.name())
+                .register(meterRegistry)
+                .record(() -> invoker.apply(toolCall));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,116 @@
+package io.github.don194.obsidianagent.agent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 启动时构建一次、所有 Agent 共享的不可变工具注册表
+ * <p>
+ * 工具定义（包括 JSON Schema）在构建时解析一次并缓存：MCP 工具的 getToolDefinition() 每次都会重新序列化 Schema，
+ * 而模型每次请求都要读取全部工具的定义。按名称查找使用哈希表，不再逐个比较；
+ * 工具调用选项也只创建一次，由所有 Agent 共用。
+ * <p>
+ * 共享的选项对象不能被修改：调用模型时不要再通过请求追加 tools()、toolContext()，它们会写回选项对象。
+ */
+@Slf4j
+public final class ToolRegistry {
+
+    /**
+     * 缓存了定义的工具，调用仍交给原始工具
+     */
+    private static final class ResolvedToolCallback implements ToolCallback {
+        private final ToolCallback delegate;
+        private final ToolDefinition definition;
+        private final ToolMetadata metadata;
+
+        private ResolvedToolCallback(ToolCallback delegate) {
+            this.delegate = delegate;
+            ToolDefinition source = delegate.getToolDefinition();
+            this.definition = ToolDefinition.builder()
+                    .name(source.name())
+                    .description(source.description())
+                    .inputSchema(source.inputSchema())
+                    .build();
+            this.metadata = delegate.getToolMetadata();
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return definition;
+        }
+
+        @Override
+        public ToolMetadata getToolMetadata() {
+            return metadata;
+        }
+
+        @Override
+        public String call(String toolInput) {
+            return delegate.call(toolInput);
+        }
+
+        @Override
+        public String call(String toolInput, ToolContext toolContext) {
+            return delegate.call(toolInput, toolContext);
+        }
+    }
+
+    private final Map<String, ToolCallback> byName;
+    private final ToolCallingChatOptions chatOptions;
+
+    public ToolRegistry(ToolCallback[] tools) {
+        Map<String, ToolCallback> index = new HashMap<>(tools.length * 2);
+        List<ToolCallback> unique = new ArrayList<>(tools.length);
+        for (ToolCallback tool : tools) {
+            ResolvedToolCallback resolved = new ResolvedToolCallback(tool);
+            String name = resolved.getToolDefinition().name();
+            if (index.putIfAbsent(name, resolved) != null) {
+                // 与原来按顺序查找的结果一致：同名时保留第一个
+                log.warn("Duplicate tool name {}, keeping the first one", name);
+                continue;
+            }
+            unique.add(resolved);
+        }
+        this.byName = Collections.unmodifiableMap(index);
+        this.chatOptions = ToolCallingChatOptions.builder()
+                .toolCallbacks(unique.toArray(new ToolCallback[0]))
+                .internalToolExecutionEnabled(false)  // 禁用自动工具执行
+                .build();
+        log.info("Tool registry built with {} tools", unique.size());
+    }
+
+    /**
+     * 按名称查找工具
+     *
+     * @return 工具，不存在时返回 null
+     */
+    public ToolCallback find(String name) {
+        return name != null ? byName.get(name) : null;
+    }
+
+    /**
+     * 所有 Agent 共用的工具调用选项
+     */
+    public ToolCallingChatOptions chatOptions() {
+        return chatOptions;
+    }
+
+    public Set<String> names() {
+        return byName.keySet();
+    }
+
+    public int size() {
+        return byName.size();
+    }
+}
@@ -1,9 +1,12 @@
 package io.github.don194.obsidianagent.config;
 
 import io.github.don194.obsidianagent.agent.ObsidianAgent;
+import io.github.don194.obsidianagent.agent.AgentRunExecutor;
+import io.github.don194.obsidianagent.agent.ToolExecutor;
+import io.github.don194.obsidianagent.agent.ToolRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.model.ChatModel; // 导入 ChatModel
-import org.springframework.ai.tool.ToolCallback;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Scope;
@@ -17,11 +20,23 @@ public class AgentConfig {
     @Bean
     @Scope("prototype") // 确保每个请求获取独立的Agent实例
     public ObsidianAgent obsidianAgent(
-            ToolCallback[] allTools,
-            ChatModel chatModel
+            ToolRegistry toolRegistry,
+            ChatModel chatModel,
+            ToolExecutor toolExecutor,
+            AgentRunExecutor agentRunExecutor,
+            AgentProperties agentProperties,
+            MeterRegistry meterRegistry
     ) {
 
-        var agent = new ObsidianAgent(allTools, chatModel);
+        // 工具注册表在启动时构建一次，Agent 直接共用其中的工具和调用选项
+        var agent = new ObsidianAgent(toolRegistry, chatModel);
+        // 同一步中相互独立的工具调用并发执行
+        agent.setToolExecutor(toolExecutor);
+        // 运行默认放在专用的有界执行器上，ChatService 会再包一层会话邮箱
+        agent.setRunExecutor(agentRunExecutor);
+        // 流式调用模型，文本增量实时发送给前端
+        agent.setStreaming(agentProperties.isStreamLlm());
+        agent.setMeterRegistry(meterRegistry);
 
         // 但构造时需要ChatModel来初始化内部默认的ChatClient
         return agent;
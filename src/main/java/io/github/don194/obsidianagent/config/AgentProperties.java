@@ -0,0 +1,83 @@
+package io.github.don194.obsidianagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 将 application.yml 中的 obsidian.agent 配置映射到Java对象。
+ * 控制 Agent 运行的调度方式。
+ */
+@Configuration
+@ConfigurationProperties(prefix = "obsidian.agent")
+@Data
+public class AgentProperties {
+
+    /**
+     * 前端展示的欢迎语。
+     */
+    private String welcomeMessage;
+
+    /**
+     * 同一会话已有运行在进行时，新请求的处理方式：queue（排队，按到达顺序依次运行）或 reject（立即拒绝）。
+     */
+    private String sessionQueuePolicy = "queue";
+
+    /**
+     * queue 模式下每个会话最多排队等待的请求数，超出时拒绝。
+     */
+    private int sessionQueueCapacity = 4;
+
+    /**
+     * 同一步中多个工具调用并发执行的线程数，所有 Agent 共享；0 表示按顺序逐个执行。
+     */
+    private int toolConcurrency = 8;
+
+    /**
+     * 工具线程池的等待队列长度，队列满时在 Agent 线程中直接执行。
+     */
+    private int toolQueueCapacity = 64;
+
+    /**
+     * 单个工具调用的默认超时时间（毫秒），从调用开始执行时计算。可并发的调用超时后取消并返回错误结果，
+     * serialTools 中的工具不中断，等待其结束。
+     */
+    private long toolTimeoutMs = 60000;
+
+    /**
+     * 按工具名单独配置的超时时间（毫秒），覆盖 toolTimeoutMs。
+     */
+    private Map<String, Long> toolTimeouts = new HashMap<>();
+
+    /**
+     * 不能与其他调用并发执行的工具（如写同一路径的笔记），按工具名结尾匹配以兼容 MCP 工具名的前缀。
+     * 这些调用单独执行，并且与前后的调用保持原有顺序。
+     */
+    private List<String> serialTools = new ArrayList<>(List.of(
+            "obsidian_append_content", "obsidian_patch_content", "obsidian_put_content", "obsidian_delete_file"));
+
+    /**
+     * 是否以流式方式调用模型：文本增量以 SSE 的 token 事件实时发送，关闭时每一步结束后才有输出。
+     */
+    private boolean streamLlm = true;
+
+    /**
+     * 同时执行的 Agent 运行数上限
+     */
+    private int runConcurrency = 16;
+
+    /**
+     * 等待执行的 Agent 运行数上限，超出时立即以 busy 事件拒绝
+     */
+    private int runQueueCapacity = 32;
+
+    /**
+     * 是否在虚拟线程上执行 Agent 运行，需要 JDK 21+，不支持时使用平台线程
+     */
+    private boolean runVirtualThreads = false;
+}
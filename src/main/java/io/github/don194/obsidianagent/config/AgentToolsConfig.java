@@ -1,5 +1,6 @@
 package io.github.don194.obsidianagent.config;
 
+import io.github.don194.obsidianagent.agent.ToolRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -28,4 +29,12 @@ public class AgentToolsConfig {
         allToolCallbacks.addAll(mcpToolCallbacks);
         return allToolCallbacks.toArray(new ToolCallback[0]);
     }
+
+    /**
+     * 由全部工具构建的注册表，启动时创建一次，所有 Agent 共享
+     */
+    @Bean
+    public ToolRegistry toolRegistry(ToolCallback[] allTools) {
+        return new ToolRegistry(allTools);
+    }
 }
\ No newline at end of file
@@ -1,7 +1,9 @@
 package io.github.don194.obsidianagent.config;
 
+import io.github.don194.obsidianagent.memory.ToolResultCompactor;
 import io.github.don194.obsidianagent.tool.TerminateTool;
 import io.github.don194.obsidianagent.tool.TimeTools;
+import io.github.don194.obsidianagent.tool.ToolResultTools;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.ToolCallbacks;
 import org.springframework.context.annotation.Bean;
@@ -16,10 +18,13 @@ public class LocalToolsConfig {
 
     @Bean public TimeTools timeTools() { return new TimeTools(); }
     @Bean public TerminateTool terminateTool() { return new TerminateTool(); }
+    @Bean public ToolResultTools toolResultTools(ToolResultCompactor toolResultCompactor) {
+        return new ToolResultTools(toolResultCompactor);
+    }
 
     @Bean
-    public List<ToolCallback> localToolCallbacks(TimeTools timeTools, TerminateTool terminateTool
-                                                  )  {
-        return List.of(ToolCallbacks.from(timeTools, terminateTool));
+    public List<ToolCallback> localToolCallbacks(TimeTools timeTools, TerminateTool terminateTool,
+                                                 ToolResultTools toolResultTools)  {
+        return List.of(ToolCallbacks.from(timeTools, terminateTool, toolResultTools));
     }
 }
\ No newline at end of file
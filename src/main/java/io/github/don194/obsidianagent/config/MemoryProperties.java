@@ -0,0 +1,183 @@
+package io.github.don194.obsidianagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 将 application.yml 中的 obsidian.memory 配置映射到Java对象。
+ * 控制会话记忆的持久化方式。
+ */
+@Configuration
+@ConfigurationProperties(prefix = "obsidian.memory")
+@Data
+public class MemoryProperties {
+
+    /**
+     * 是否启用异步回写：工作记忆立即更新，消息写入本地日志后由后台线程批量落库，Agent 循环不等待数据库提交。
+     * 进程崩溃后，日志中尚未落库的消息在下次启动时补写。
+     */
+    private boolean writeBehind = true;
+
+    /**
+     * 回写日志的目录，段大小和刷盘策略与 segment-log 后端相同。
+     */
+    private String writeBehindJournalPath = "./data/write-behind-journal";
+
+    /**
+     * 回写线程数，不同会话可以并行回写，同一会话始终按顺序回写。
+     */
+    private int writeBehindThreads = 2;
+
+    /**
+     * 等待回写完成的最长时间（毫秒），用于运行结束和应用关闭时的flush。
+     */
+    private long flushTimeoutMs = 10000;
+
+    /**
+     * 已解码消息历史缓存的内存上限（字节，按消息内容估算），0 表示关闭缓存。
+     */
+    private long historyCacheMaxBytes = 64L * 1024 * 1024;
+
+    /**
+     * 每个会话最多缓存的最近消息条数。
+     */
+    private int historyCacheMaxMessages = 500;
+
+    /**
+     * 对话记忆的持久化后端：sqlite（默认），或 segment-log（只追加的内存映射段文件，不经过 SQL）。
+     * segment-log 只接管 ChatMemory 的读写，会话列表、分页浏览和全文搜索仍然来自 SQLite。
+     */
+    private String backend = "sqlite";
+
+    /**
+     * segment-log 后端的段文件目录。
+     */
+    private String segmentLogPath = "./data/chat-log";
+
+    /**
+     * 单个段文件的大小（字节），写满后切换到新的段。
+     */
+    private int segmentSizeBytes = 16 * 1024 * 1024;
+
+    /**
+     * 每次追加后是否把映射页强制刷到磁盘；关闭时进程崩溃不丢数据，但断电可能丢失最近的写入。
+     */
+    private boolean segmentForceOnAppend = false;
+
+    /**
+     * 后台压缩的检查间隔（毫秒）。
+     */
+    private long segmentCompactionIntervalMs = 300000;
+
+    /**
+     * 已封存段中失效数据的比例达到该值时压缩。
+     */
+    private double segmentCompactionGarbageRatio = 0.5;
+
+    /**
+     * 发送给模型的对话历史的默认 token 预算，超出时从最早的消息开始裁剪。
+     * 只统计对话历史，系统提示词和工具定义另算，所以应明显小于模型的上下文长度。
+     */
+    private int contextTokenBudget = 16000;
+
+    /**
+     * 按模型名单独配置的 token 预算，覆盖 contextTokenBudget。
+     */
+    private Map<String, Integer> contextTokenBudgets = new HashMap<>();
+
+    /**
+     * 是否把离开上下文窗口的较早轮次在后台压缩成滚动摘要；关闭时超出预算的消息直接丢弃。
+     */
+    private boolean summaryEnabled = true;
+
+    /**
+     * 生成摘要使用的模型，应选便宜的小模型；为空时使用对话模型。
+     */
+    private String summaryModel = "";
+
+    /**
+     * 压缩后保留的最近消息占 token 预算的比例，其余较早的消息并入摘要。
+     */
+    private double summaryRetainRatio = 0.5;
+
+    /**
+     * 摘要的最大 token 数。
+     */
+    private int summaryMaxTokens = 800;
+
+    /**
+     * 工作记忆缓存的内存上限（字节，按消息内容估算），超出时淘汰最久未使用的会话。
+     * 工作记忆在多次运行之间保留，同一会话的下一条消息不需要重新从存储加载。
+     */
+    private long workingCacheMaxBytes = 64L * 1024 * 1024;
+
+    /**
+     * 会话的工作记忆闲置超过该时间（毫秒）后被淘汰。
+     */
+    private long workingCacheIdleMs = 1800000;
+
+    /**
+     * 检查闲置工作记忆的间隔（毫秒）。
+     */
+    private long workingCacheSweepIntervalMs = 60000;
+
+    /**
+     * 是否启用跨会话的长期记忆：每轮问答的最终回答连同问题写入本地向量索引，
+     * 新的运行开始时按与用户消息的相似度召回其他会话的相关内容。
+     */
+    private boolean longTermEnabled = true;
+
+    /**
+     * 长期记忆向量索引文件的路径，默认与 SQLite 数据库放在同一目录。
+     */
+    private String longTermIndexPath = "./data/long-term-memory.idx";
+
+    /**
+     * 每次运行召回内容的 token 上限，占用对话历史的 token 预算。
+     */
+    private int longTermRecallTokens = 1000;
+
+    /**
+     * 每次运行最多召回的条数。
+     */
+    private int longTermRecallTopK = 8;
+
+    /**
+     * 召回的最低余弦相似度，低于该值的条目不召回。
+     */
+    private double longTermMinScore = 0.3;
+
+    /**
+     * 单条长期记忆的最大字符数，过长的问答截断后再写入。
+     */
+    private int longTermItemMaxChars = 1200;
+
+    /**
+     * 长期记忆请求的向量维度，较低的维度让本地索引更小、检索更快；只作用于长期记忆自己的嵌入请求，0 表示使用模型的默认维度。
+     */
+    private int longTermEmbeddingDimensions = 256;
+
+    /**
+     * 召回时等待查询向量化的最长时间（毫秒），超时则跳过本次召回，不阻塞运行的开始。
+     */
+    private long longTermRecallTimeoutMs = 2000;
+
+    /**
+     * 单个工具结果超过该字符数时外存，对话历史中只保留摘录和 handle，0 表示不外存。
+     */
+    private int toolResultCompactChars = 4000;
+
+    /**
+     * 外存工具结果在对话历史中保留的摘录字符数（开头和结尾）。
+     */
+    private int toolResultDigestChars = 800;
+
+    /**
+     * 展开外存工具结果时每次最多返回的字符数。
+     */
+    private int toolResultPageChars = 4000;
+}
@@ -0,0 +1,137 @@
+package io.github.don194.obsidianagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 将 application.yml 中的 obsidian.sqlite 配置映射到Java对象。
+ * 控制单写线程、只读连接池以及启动时应用的 PRAGMA。
+ */
+@Configuration
+@ConfigurationProperties(prefix = "obsidian.sqlite")
+@Data
+public class SqliteProperties {
+
+    /**
+     * 单次提交最多合并的写操作数量（组提交大小）。
+     */
+    private int writerBatchSize = 64;
+
+    /**
+     * 写队列容量，队列满时提交方会阻塞等待。
+     */
+    private int writerQueueCapacity = 10000;
+
+    /**
+     * 遇到 SQLITE_BUSY 时的最大重试次数。
+     */
+    private int busyMaxRetries = 5;
+
+    /**
+     * SQLITE_BUSY 重试的基础退避时间（毫秒），每次重试翻倍。
+     */
+    private long busyRetryBackoffMs = 20;
+
+    /**
+     * 连接级 busy_timeout（毫秒）。
+     */
+    private int busyTimeoutMs = 5000;
+
+    /**
+     * 只读连接池大小，用于历史消息读取。
+     */
+    private int readerPoolSize = 4;
+
+    /**
+     * journal_mode，默认 WAL 以允许读写并发。
+     */
+    private String journalMode = "WAL";
+
+    /**
+     * synchronous 级别，WAL 模式下 NORMAL 已足够安全。
+     */
+    private String synchronous = "NORMAL";
+
+    /**
+     * 每个连接的页缓存大小（KB）。
+     */
+    private int cacheSizeKb = 16384;
+
+    /**
+     * mmap_size（字节），0 表示关闭内存映射。
+     */
+    private long mmapSizeBytes = 268435456L;
+
+    /**
+     * 助手/工具消息是否以二进制（Smile）形式存储；关闭后新消息写回 JSON 文本，已有数据均可读取。
+     */
+    private boolean binaryPayloads = true;
+
+    /**
+     * 二进制内容超过该字节数时使用 Deflate 压缩。
+     */
+    private int payloadCompressionThreshold = 1024;
+
+    /**
+     * 是否把长期不活跃的会话归档到冷库，打开时再按需加载回来。
+     * 冷库只挂在主库上，分片数大于 1 时必须关闭。
+     */
+    private boolean archiveEnabled = true;
+
+    /**
+     * 冷库文件路径，为空时在主库旁边使用 “主库名_archive.db”。
+     */
+    private String archivePath = "";
+
+    /**
+     * 会话最后活动超过该天数后归档。
+     */
+    private int archiveAfterDays = 30;
+
+    /**
+     * 每次维护最多归档的会话数，避免长时间占用写线程。
+     */
+    private int archiveBatchSize = 50;
+
+    /**
+     * 是否启用定期维护（归档、增量 VACUUM、ANALYZE、WAL checkpoint）。
+     */
+    private boolean maintenanceEnabled = true;
+
+    /**
+     * 维护任务的检查间隔（毫秒）。
+     */
+    private long maintenanceIntervalMs = 600000;
+
+    /**
+     * 写线程空闲超过该时间（毫秒）且队列为空时才执行维护。
+     */
+    private long maintenanceIdleMs = 60000;
+
+    /**
+     * 每次增量 VACUUM 最多回收的页数，0 表示回收全部空闲页。
+     */
+    private int incrementalVacuumPages = 0;
+
+    /**
+     * ANALYZE 时每个索引最多采样的行数（analysis_limit），0 表示不限制。
+     */
+    private int analysisLimit = 1000;
+
+    /**
+     * 导出聊天历史时游标每次预取的行数。
+     */
+    private int exportFetchSize = 500;
+
+    /**
+     * 导入聊天历史时每批插入的行数，每批在写线程中作为一个事务提交。
+     */
+    private int importBatchSize = 500;
+
+    /**
+     * 分片数，大于 1 时会话按 ID 哈希分布到多个数据库文件，各自独立写入。
+     * 已有数据后不能直接修改，需要先导出再导入。不能与会话归档同时启用。
+     */
+    private int shardCount = 1;
+}
@@ -2,15 +2,24 @@ package io.github.don194.obsidianagent.controller;
 
 import io.github.don194.obsidianagent.entity.ChatSession;
 import io.github.don194.obsidianagent.model.ChatRequest;
+import io.github.don194.obsidianagent.model.CursorPage;
 import io.github.don194.obsidianagent.service.ChatService;
+import io.github.don194.obsidianagent.memory.ConversationMemoryManager;
 import io.github.don194.obsidianagent.memory.SqliteChatMemory;
+import io.github.don194.obsidianagent.storage.ChatHistoryTransfer;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -23,11 +32,20 @@ import java.util.UUID;
 @RestController
 @RequestMapping("/api/chat")
 @RequiredArgsConstructor
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = {"X-Next-Cursor", "X-Prev-Cursor"})
 public class ChatController {
 
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final String PREV_CURSOR_HEADER = "X-Prev-Cursor";
+    /**
+     * 会话列表、消息分页和搜索每次最多返回的条数
+     */
+    private static final int MAX_PAGE_SIZE = 200;
+
     private final ChatService chatService;
     private final SqliteChatMemory sqliteChatMemory;
+    private final ChatHistoryTransfer chatHistoryTransfer;
+    private final ConversationMemoryManager conversationMemoryManager;
 
     /**
      * 发送消息并获取流式响应
@@ -82,13 +100,18 @@ public class ChatController {
     }
 
     /**
-     * 获取所有会话列表
+     * 分页获取会话列表，下一页游标通过 X-Next-Cursor 响应头返回
      */
     @GetMapping("/sessions")
-    public ResponseEntity<List<Map<String, Object>>> getAllSessions() {
+    public ResponseEntity<List<Map<String, Object>>> getAllSessions(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int limit) {
+        int pageSize = pageSize(limit);
         try {
-            List<Map<String, Object>> sessions = chatService.getAllSessions();
-            return ResponseEntity.ok(sessions);
+            CursorPage<Map<String, Object>> page = chatService.getAllSessions(cursor, pageSize);
+            return withCursorHeaders(page);
+        } catch (IllegalArgumentException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error getting sessions", e);
             return ResponseEntity.internalServerError().build();
@@ -153,16 +176,23 @@ public class ChatController {
     }
 
     /**
-     * 获取会话的聊天历史
+     * 以游标分页获取会话的聊天历史，消息按时间正序返回
+     * <p>
+     * 不带游标时返回最新的一页；X-Prev-Cursor 作为 before 参数可加载更早的消息，
+     * X-Next-Cursor 作为 after 参数可加载更新的消息。
      */
     @GetMapping("/sessions/{sessionId}/messages")
     public ResponseEntity<List<Map<String, Object>>> getSessionMessages(
             @PathVariable String sessionId,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after,
             @RequestParam(defaultValue = "50") int limit) {
+        int pageSize = pageSize(limit);
         try {
-            // 需要在ChatService中添加这个方法
-            List<Map<String, Object>> messages = chatService.getSessionMessages(sessionId, limit);
-            return ResponseEntity.ok(messages);
+            CursorPage<Map<String, Object>> page = chatService.getSessionMessages(sessionId, before, after, pageSize);
+            return withCursorHeaders(page);
+        } catch (IllegalArgumentException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error getting session messages: {}", sessionId, e);
             return ResponseEntity.internalServerError().build();
@@ -170,14 +200,16 @@ public class ChatController {
     }
 
     /**
-     * 搜索消息
+     * 搜索消息，可通过 sessionId 限定在单个会话内
      */
     @GetMapping("/search")
     public ResponseEntity<List<Map<String, Object>>> searchMessages(
             @RequestParam String keyword,
+            @RequestParam(required = false) String sessionId,
             @RequestParam(defaultValue = "20") int limit) {
+        int pageSize = pageSize(limit);
         try {
-            List<Map<String, Object>> results = chatService.searchMessages(keyword, limit);
+            List<Map<String, Object>> results = chatService.searchSessionMessages(sessionId, keyword, pageSize);
             return ResponseEntity.ok(results);
         } catch (Exception e) {
             log.error("Error searching messages with keyword: {}", keyword, e);
@@ -186,13 +218,49 @@ public class ChatController {
     }
 
     /**
-     * 获取统计信息
+     * 导出聊天历史为 gzip 压缩的 NDJSON，边查询边写出
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportHistory(@RequestParam(required = false) String sessionId) {
+        StreamingResponseBody body = out -> chatHistoryTransfer.export(out, sessionId);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=chat-export.ndjson.gz")
+                .contentType(MediaType.parseMediaType("application/gzip"))
+                .body(body);
+    }
+
+    /**
+     * 导入 NDJSON 格式的聊天历史（可以是 gzip 压缩的），已存在的消息会被跳过
+     */
+    @PostMapping("/import")
+    public ResponseEntity<Map<String, Object>> importHistory(HttpServletRequest request) throws IOException {
+        ChatHistoryTransfer.ImportResult result;
+        try {
+            result = chatHistoryTransfer.importFrom(request.getInputStream());
+        } finally {
+            // 出错前已提交的批次同样需要让缓存失效
+            sqliteChatMemory.invalidateCachedHistory();
+            conversationMemoryManager.clearAllWorkingMemory();
+        }
+        return ResponseEntity.ok(Map.of(
+                "sessions", result.sessions(),
+                "messages", result.messages(),
+                "skipped", result.skipped()));
+    }
+
+    /**
+     * 获取统计信息；传入 from/to 时附带按 granularity（hour/day）聚合的统计桶
      */
     @GetMapping("/stats")
-    public ResponseEntity<Map<String, Object>> getStatistics() {
+    public ResponseEntity<Map<String, Object>> getStatistics(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String granularity) {
         try {
-            Map<String, Object> stats = sqliteChatMemory.getStatistics();
+            Map<String, Object> stats = sqliteChatMemory.getStatistics(from, to, granularity);
             return ResponseEntity.ok(stats);
+        } catch (IllegalArgumentException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error getting statistics", e);
             return ResponseEntity.internalServerError().build();
@@ -206,4 +274,28 @@ public class ChatController {
     public ResponseEntity<Map<String, String>> health() {
         return ResponseEntity.ok(Map.of("status", "ok"));
     }
+
+    /**
+     * 校验每页数量，小于 1 时返回 400，超过上限时按上限返回
+     */
+    private static int pageSize(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit 必须大于 0");
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * 将分页游标写入响应头，响应体保持为列表
+     */
+    private ResponseEntity<List<Map<String, Object>>> withCursorHeaders(CursorPage<Map<String, Object>> page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        if (page.getPrevCursor() != null) {
+            response.header(PREV_CURSOR_HEADER, page.getPrevCursor());
+        }
+        return response.body(page.getItems());
+    }
 }
\ No newline at end of file
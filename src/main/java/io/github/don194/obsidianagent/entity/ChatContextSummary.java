@@ -0,0 +1,63 @@
+package io.github.don194.obsidianagent.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 会话上下文的滚动摘要实体
+ * <p>
+ * 较早的对话轮次离开上下文窗口后被后台压缩成一段摘要，随后每次调用模型时以系统消息的形式代替这些轮次发送。
+ * 会话开头的 coveredMessages 条消息已经包含在摘要中。
+ */
+@Entity
+@Table(name = "chat_context_summaries")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatContextSummary {
+
+    @Id
+    @Column(name = "session_id", length = 36)
+    private String sessionId;
+
+    @Column(name = "summary", columnDefinition = "TEXT", nullable = false)
+    private String summary;
+
+    /**
+     * 摘要覆盖的消息条数，从会话的第一条消息算起
+     */
+    @Column(name = "covered_messages", nullable = false)
+    private long coveredMessages;
+
+    /**
+     * 被摘要代替的消息原本的 token 数
+     */
+    @Column(name = "summarized_tokens", nullable = false)
+    private long summarizedTokens;
+
+    /**
+     * 摘要本身的 token 数
+     */
+    @Column(name = "summary_tokens", nullable = false)
+    private int summaryTokens;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    /**
+     * 读取时一并查询的会话消息总数，用于定位摘要之后的消息，不落库
+     */
+    @Transient
+    private long sessionMessageCount;
+
+    /**
+     * 每次调用模型节省的 token 数
+     */
+    public long getTokensSaved() {
+        return Math.max(0, summarizedTokens - summaryTokens);
+    }
+}
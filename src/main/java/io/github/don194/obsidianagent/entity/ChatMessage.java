@@ -15,7 +15,8 @@ import java.time.LocalDateTime;
 @Entity
 @Table(name = "chat_messages", indexes = {
         @Index(name = "idx_session_id", columnList = "session_id"),
-        @Index(name = "idx_created_at", columnList = "created_at")
+        @Index(name = "idx_created_at", columnList = "created_at"),
+        @Index(name = "idx_session_created_id", columnList = "session_id, created_at, id")
 })
 @Data
 @NoArgsConstructor
@@ -40,6 +41,25 @@ public class ChatMessage {
     @Column(name = "content", columnDefinition = "TEXT", nullable = false)
     private String content;
 
+    /**
+     * 助手/工具消息的存储字节（见 {@link io.github.don194.obsidianagent.storage.PayloadCodec}），
+     * 由 JDBC 层直接读写，不经过 JSON 文本；设置后优先于 content 写入
+     */
+    @Transient
+    private byte[] payload;
+
+    /**
+     * 写入时计入统计的工具调用数和 token 用量（见 {@link io.github.don194.obsidianagent.storage.ChatStats}），不落库
+     */
+    @Transient
+    private int toolCallCount;
+
+    @Transient
+    private int promptTokens;
+
+    @Transient
+    private int completionTokens;
+
     @Column(name = "created_at", nullable = false)
     @CreatedDate
     private LocalDateTime createdAt;
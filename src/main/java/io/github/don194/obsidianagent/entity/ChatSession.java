@@ -16,7 +16,9 @@ import java.util.List;
  * 聊天会话实体
  */
 @Entity
-@Table(name = "chat_sessions")
+@Table(name = "chat_sessions", indexes = {
+        @Index(name = "idx_sessions_updated_at", columnList = "updated_at, session_id")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -41,6 +43,18 @@ public class ChatSession {
     @Column(name = "message_count")
     private Integer messageCount = 0;
 
+    /**
+     * 消息被移到冷库的时间，为 null 表示消息在主库中
+     */
+    @Column(name = "archived_at")
+    private LocalDateTime archivedAt;
+
+    /**
+     * 最近一次从冷库加载回来的时间，避免刚打开的旧会话被马上再次归档
+     */
+    @Column(name = "restored_at")
+    private LocalDateTime restoredAt;
+
     @OneToMany(mappedBy = "session", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     private List<ChatMessage> messages = new ArrayList<>();
 
@@ -0,0 +1,43 @@
+package io.github.don194.obsidianagent.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 超出长度阈值、存放在上下文之外的工具结果实体
+ * <p>
+ * 对话历史中的工具结果只保留摘录和 handle，完整内容按会话和工具调用 ID 存放在这里，
+ * 模型需要时通过 expandToolResult 工具分段读取。
+ */
+@Entity
+@Table(name = "chat_tool_results", indexes = {
+        @Index(name = "idx_tool_results_session_call", columnList = "session_id, call_id", unique = true)
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatToolResult {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "session_id", length = 36, nullable = false)
+    private String sessionId;
+
+    @Column(name = "call_id", length = 100, nullable = false)
+    private String callId;
+
+    @Column(name = "tool_name", length = 100)
+    private String toolName;
+
+    @Column(name = "content", columnDefinition = "TEXT", nullable = false)
+    private String content;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+}
@@ -1,11 +1,14 @@
 package io.github.don194.obsidianagent.memory;
 
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.entity.ChatContextSummary;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.*;
+import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.stereotype.Component;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 会话记忆管理器 - 管理内存中的工作记忆和持久化存储的协调
@@ -15,22 +18,41 @@ import java.util.concurrent.ConcurrentHashMap;
 @RequiredArgsConstructor
 public class ConversationMemoryManager {
 
-    private final SqliteChatMemory persistentMemory;
+    /**
+     * 助手消息元数据中记录本次模型调用 token 用量的键，写入时计入统计
+     */
+    public static final String PROMPT_TOKENS_METADATA = "promptTokens";
+    public static final String COMPLETION_TOKENS_METADATA = "completionTokens";
 
-    // 会话ID -> 工作记忆的映射
-    private final Map<String, List<Message>> workingMemoryMap = new ConcurrentHashMap<>();
+    /**
+     * 对话记忆的持久化后端，由 obsidian.memory.backend 选择
+     */
+    private final ChatMemory persistentMemory;
+    private final WriteBehindQueue writeBehindQueue;
+    private final MemoryProperties memoryProperties;
+    private final MessageTokenCounter tokenCounter;
+    private final ConversationSummarizer summarizer;
+    private final WorkingMemoryCache workingMemoryCache;
+    private final LongTermMemory longTermMemory;
+    private final ToolResultCompactor toolResultCompactor;
 
     /**
      * 初始化或获取会话的工作记忆
      */
-    public List<Message> getOrCreateWorkingMemory(String sessionId) {
-        return workingMemoryMap.computeIfAbsent(sessionId, id -> {
-            // 从持久化存储加载历史消息
+    WorkingMemory getOrCreateWorkingMemory(String sessionId) {
+        return workingMemoryCache.getOrLoad(sessionId, id -> writeBehindQueue.readWithPending(id, pending -> {
+            // 从持久化存储加载历史消息；尚未回写的消息接在后面，不需要等待回写完成
             List<Message> history = persistentMemory.get(id, 50);
-            log.info("Loaded {} messages from persistent memory for session {}",
-                    history.size(), id);
-            return new ArrayList<>(history);
-        });
+            WorkingMemory workingMemory = new WorkingMemory(tokenCounter::count);
+            // 恢复滚动摘要，已经并入摘要的消息不再放回工作记忆
+            ChatContextSummary summary = summarizer.load(id);
+            summarizer.restore(workingMemory, summary, history)
+                    .forEach(workingMemory::add);
+            pending.forEach(workingMemory::add);
+            log.info("Loaded {} messages ({} tokens) from persistent memory for session {}",
+                    workingMemory.size(), workingMemory.totalTokens(), id);
+            return workingMemory;
+        }));
     }
 
     /**
@@ -40,11 +62,17 @@ public class ConversationMemoryManager {
         Message userMsg = new UserMessage(content);
 
         // 添加到工作记忆
-        List<Message> workingMemory = getOrCreateWorkingMemory(sessionId);
-        workingMemory.add(userMsg);
+        append(sessionId, userMsg);
 
         // 持久化
-        persistentMemory.add(sessionId, Arrays.asList(userMsg));
+        persist(sessionId, userMsg);
+
+        // 新的运行开始：按这条消息召回其他会话的相关内容，替换上一次运行的召回
+        if (longTermMemory.isEnabled()) {
+            LongTermMemory.Recall recall = longTermMemory.recall(sessionId, content);
+            getOrCreateWorkingMemory(sessionId).setRecalled(recall != null ? recall.text() : null,
+                    recall != null ? recall.tokens() : 0);
+        }
 
         log.debug("Added user message to session {}", sessionId);
     }
@@ -54,15 +82,32 @@ public class ConversationMemoryManager {
      */
     public void addAssistantMessage(String sessionId, String content,
                                     List<AssistantMessage.ToolCall> toolCalls) {
-        AssistantMessage assistantMsg = new AssistantMessage(content,
-                Collections.emptyMap(), toolCalls);
+        addAssistantMessage(sessionId, content, toolCalls, null);
+    }
+
+    /**
+     * 添加助手消息（包含工具调用），并记录生成这条消息的模型调用的 token 用量
+     */
+    public void addAssistantMessage(String sessionId, String content,
+                                    List<AssistantMessage.ToolCall> toolCalls, Usage usage) {
+        Map<String, Object> metadata = new HashMap<>();
+        if (usage != null) {
+            metadata.put(PROMPT_TOKENS_METADATA, usage.getPromptTokens() != null ? usage.getPromptTokens() : 0);
+            metadata.put(COMPLETION_TOKENS_METADATA,
+                    usage.getCompletionTokens() != null ? usage.getCompletionTokens() : 0);
+        }
+        AssistantMessage assistantMsg = new AssistantMessage(content, metadata, toolCalls);
 
         // 添加到工作记忆
-        List<Message> workingMemory = getOrCreateWorkingMemory(sessionId);
-        workingMemory.add(assistantMsg);
+        append(sessionId, assistantMsg);
 
         // 持久化
-        persistentMemory.add(sessionId, Arrays.asList(assistantMsg));
+        persist(sessionId, assistantMsg);
+
+        // 不再调用工具的回答是这一轮的结论，连同问题写入长期记忆
+        if ((toolCalls == null || toolCalls.isEmpty()) && content != null && !content.isBlank()) {
+            longTermMemory.remember(sessionId, getOrCreateWorkingMemory(sessionId).lastUserText(), content);
+        }
 
         log.debug("Added assistant message with {} tool calls to session {}",
                 toolCalls != null ? toolCalls.size() : 0, sessionId);
@@ -75,87 +120,95 @@ public class ConversationMemoryManager {
         if (toolResponses == null || toolResponses.isEmpty()) {
             return;
         }
+        // 过长的结果外存，上下文和持久化的消息中只保留摘录和 handle
+        toolResponses = toolResultCompactor.compact(sessionId, toolResponses);
+
         // 创建包含所有工具结果的单个消息
         ToolResponseMessage toolMsg = new ToolResponseMessage(toolResponses);
 
         // 添加到工作记忆
-        List<Message> workingMemory = getOrCreateWorkingMemory(sessionId);
-        workingMemory.add(toolMsg);
+        append(sessionId, toolMsg);
 
         // 持久化
-        persistentMemory.add(sessionId, List.of(toolMsg));
+        persist(sessionId, toolMsg);
 
         log.debug("Added {} tool responses to session {}", toolResponses.size(), sessionId);
     }
 
+    /**
+     * 把消息加入工作记忆，超出预算时在后台把最早的轮次并入滚动摘要
+     */
+    private void append(String sessionId, Message message) {
+        WorkingMemory workingMemory = getOrCreateWorkingMemory(sessionId);
+        workingMemory.add(message);
+        workingMemoryCache.touch(sessionId);
+        summarizer.scheduleIfNeeded(sessionId, workingMemory,
+                () -> workingMemoryCache.peek(sessionId) == workingMemory);
+    }
+
     /**
      * 获取完整的消息历史用于发送给LLM
      */
     public List<Message> getConversationHistory(String sessionId) {
-        List<Message> workingMemory = getOrCreateWorkingMemory(sessionId);
+        WorkingMemory workingMemory = getOrCreateWorkingMemory(sessionId);
 
-        // 验证消息链完整性
-        validateMessageChain(workingMemory);
-
-        // 如果消息太多，进行窗口管理
-        if (workingMemory.size() > 100) {
-            return truncateMessages(workingMemory);
+        // 消息链在添加时已逐条校验；只剩还没有返回结果的工具调用需要补上错误结果（例如上次运行在执行工具时中断）
+        if (workingMemory.repairChain()) {
+            log.warn("Repaired tool calls without results in session {}", sessionId);
         }
 
-        return new ArrayList<>(workingMemory);
+        // 按当前模型的 token 预算裁剪窗口，工具调用和工具结果不会被拆开
+        return workingMemory.window(tokenCounter.budget());
     }
 
     /**
-     * 验证消息链完整性
+     * 等待会话已添加的消息全部落库，在一次运行结束时调用
      */
-    private void validateMessageChain(List<Message> messages) {
-        for (int i = 0; i < messages.size(); i++) {
-            Message msg = messages.get(i);
-
-            if (msg instanceof AssistantMessage) {
-                AssistantMessage assistantMsg = (AssistantMessage) msg;
-                if (assistantMsg.getToolCalls() != null && !assistantMsg.getToolCalls().isEmpty()) {
-                    // 检查是否有对应的工具响应
-                    boolean hasToolResponse = false;
-                    for (int j = i + 1; j < messages.size(); j++) {
-                        if (messages.get(j) instanceof ToolResponseMessage) {
-                            hasToolResponse = true;
-                            break;
-                        }
-                    }
-
-                    if (!hasToolResponse) {
-                        log.warn("Missing tool response after assistant message with tool calls at index {}", i);
-                    }
-                }
-            }
-        }
+    public void flush(String sessionId) {
+        writeBehindQueue.flush(sessionId);
     }
 
     /**
-     * 截断消息保持在合理范围内
+     * 丢弃会话的工作记忆、尚未落库的消息和写入的长期记忆，在删除或清空会话前调用
      */
-    private List<Message> truncateMessages(List<Message> messages) {
-        List<Message> truncated = new ArrayList<>();
-
-        // 保留系统消息（如果有）
-        if (!messages.isEmpty() && messages.get(0) instanceof SystemMessage) {
-            truncated.add(messages.get(0));
+    public void discard(String sessionId) {
+        writeBehindQueue.discard(sessionId);
+        workingMemoryCache.remove(sessionId);
+        longTermMemory.forget(sessionId);
+        // 独立的持久化后端不会随 SQLite 中的会话一起删除
+        if (!(persistentMemory instanceof SqliteChatMemory)) {
+            persistentMemory.clear(sessionId);
         }
+    }
 
-        // 保留最近的50条消息
-        int startIndex = Math.max(0, messages.size() - 50);
-        truncated.addAll(messages.subList(startIndex, messages.size()));
-
-        log.info("Truncated messages from {} to {}", messages.size(), truncated.size());
-        return truncated;
+    /**
+     * 持久化单条消息：回写模式下写入日志后入队，不等待数据库提交
+     */
+    private void persist(String sessionId, Message message) {
+        if (memoryProperties.isWriteBehind()) {
+            writeBehindQueue.enqueue(sessionId, List.of(message));
+            return;
+        }
+        try {
+            persistentMemory.add(sessionId, List.of(message));
+        } catch (RuntimeException e) {
+            // 消息已在工作记忆中，本次运行照常进行
+            log.error("向会话 {} 添加消息失败", sessionId, e);
+        }
     }
 
     /**
      * 清理会话的工作记忆
      */
     public void clearWorkingMemory(String sessionId) {
-        workingMemoryMap.remove(sessionId);
+        workingMemoryCache.remove(sessionId);
         log.info("Cleared working memory for session {}", sessionId);
     }
+
+    /**
+     * 清理所有会话的工作记忆，在批量导入等绕过工作记忆的写入之后调用
+     */
+    public void clearAllWorkingMemory() {
+        workingMemoryCache.clear();
+    }
 }
\ No newline at end of file
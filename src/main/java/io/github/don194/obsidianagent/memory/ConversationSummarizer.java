@@ -0,0 +1,233 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.entity.ChatContextSummary;
+import io.github.don194.obsidianagent.repository.ChatShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 对话的滚动摘要
+ * <p>
+ * 工作记忆超出 token 预算时，把最早的若干轮对话连同已有的摘要交给便宜的小模型压缩成新的摘要，
+ * 之后发给模型的历史以这段摘要代替这些轮次。压缩在后台线程中进行，不阻塞 Agent 循环；
+ * 压缩完成前窗口照常按预算裁剪。摘要按会话持久化，会话重新加载时一并恢复。
+ */
+@Slf4j
+@Component
+public class ConversationSummarizer {
+
+    private static final String SYSTEM_PROMPT = """
+            你负责压缩一段对话的早期内容，供之后继续对话时参考。
+            请把已有摘要和新的对话内容合并成一份新的摘要，要求：
+            1. 保留用户的目标、偏好和约束，以及已经得出的结论
+            2. 保留涉及的笔记路径、文件名、关键数据和工具调用得到的重要结果
+            3. 省略寒暄、重复内容和中间的试错过程
+            4. 使用简洁的中文，只返回摘要正文
+            """;
+
+    /**
+     * 渲染给摘要模型时，单个工具结果最多保留的字符数
+     */
+    private static final int MAX_TOOL_RESULT_CHARS = 2000;
+
+    private final ChatModel chatModel;
+    private final ChatShardRouter shardRouter;
+    private final MessageTokenCounter tokenCounter;
+    private final MemoryProperties properties;
+    private final ExecutorService executor;
+    private final Counter tokensSavedCounter;
+    private final Counter foldCounter;
+
+    public ConversationSummarizer(ChatModel chatModel,
+                                  ChatShardRouter shardRouter,
+                                  MessageTokenCounter tokenCounter,
+                                  MemoryProperties properties,
+                                  MeterRegistry meterRegistry) {
+        this.chatModel = chatModel;
+        this.shardRouter = shardRouter;
+        this.tokenCounter = tokenCounter;
+        this.properties = properties;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "memory-summarizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.tokensSavedCounter = Counter.builder("memory.summary.tokens.saved")
+                .description("滚动摘要代替原消息后，每次压缩减少的历史 token 数")
+                .register(meterRegistry);
+        this.foldCounter = Counter.builder("memory.summary.folds")
+                .description("滚动摘要的压缩次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 读取会话持久化的摘要和消息总数
+     *
+     * @param sessionId 会话ID
+     * @return 会话不存在或读取失败时返回 null；还没有摘要时 summary 为 null
+     */
+    public ChatContextSummary load(String sessionId) {
+        try {
+            return shardRouter.repositoryFor(sessionId).findContextSummary(sessionId);
+        } catch (Exception e) {
+            log.warn("读取会话 {} 的上下文摘要失败: {}", sessionId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 把持久化的摘要恢复到新建的工作记忆中，并跳过已加载的历史里被摘要覆盖的消息
+     *
+     * @param workingMemory 新建的工作记忆
+     * @param saved         {@link #load} 的结果，可以为 null
+     * @param history       从持久化存储加载的最近消息
+     * @return 需要放入工作记忆的消息
+     */
+    List<Message> restore(WorkingMemory workingMemory, ChatContextSummary saved, List<Message> history) {
+        if (saved == null) {
+            return history;
+        }
+        // 已加载的消息是会话的最后 history.size() 条；消息总数不可用时（非 SQLite 后端）视为紧接在摘要之后
+        long firstLoaded = saved.getSessionMessageCount() >= history.size()
+                ? saved.getSessionMessageCount() - history.size()
+                : saved.getCoveredMessages();
+        int skip = (int) Math.min(history.size(), Math.max(0, saved.getCoveredMessages() - firstLoaded));
+        workingMemory.restoreSummary(saved.getSummary(), saved.getSummaryTokens(), firstLoaded + skip,
+                saved.getSummarizedTokens());
+        return history.subList(skip, history.size());
+    }
+
+    /**
+     * 工作记忆超出预算时提交一次后台压缩
+     *
+     * @param sessionId     会话ID
+     * @param workingMemory 会话的工作记忆
+     * @param active        压缩完成时工作记忆是否仍属于该会话（会话被清空或删除后结果作废）
+     */
+    void scheduleIfNeeded(String sessionId, WorkingMemory workingMemory, BooleanSupplier active) {
+        if (!properties.isSummaryEnabled()) {
+            return;
+        }
+        int budget = tokenCounter.budget();
+        WorkingMemory.Fold fold = workingMemory.beginFold(budget, (int) (budget * properties.getSummaryRetainRatio()));
+        if (fold == null) {
+            return;
+        }
+        try {
+            executor.execute(() -> summarize(sessionId, workingMemory, fold, active));
+        } catch (RejectedExecutionException e) {
+            workingMemory.abortFold();
+        }
+    }
+
+    void summarize(String sessionId, WorkingMemory workingMemory, WorkingMemory.Fold fold, BooleanSupplier active) {
+        try {
+            String text = chatModel.call(new Prompt(List.of(new SystemMessage(SYSTEM_PROMPT),
+                    new UserMessage(render(fold))), options())).getResult().getOutput().getText();
+            if (text == null || text.isBlank()) {
+                throw new IllegalStateException("摘要模型返回了空内容");
+            }
+            text = text.strip();
+            int tokens = tokenCounter.count(new SystemMessage(WorkingMemory.SUMMARY_PREFIX + text));
+            if (!active.getAsBoolean()) {
+                workingMemory.abortFold();
+                return;
+            }
+            int previousTokens = workingMemory.summaryTokens();
+            workingMemory.completeFold(fold, text, tokens);
+
+            ChatContextSummary summary = new ChatContextSummary(sessionId, text, workingMemory.coveredMessages(),
+                    workingMemory.summarizedTokens(), tokens, LocalDateTime.now(), 0);
+            shardRouter.repositoryFor(sessionId).saveContextSummary(summary);
+            tokensSavedCounter.increment(Math.max(0, fold.tokens() + previousTokens - tokens));
+            foldCounter.increment();
+            log.info("Summarized {} messages ({} tokens) of session {} into {} tokens, {} tokens saved per call",
+                    fold.messages().size(), fold.tokens(), sessionId, tokens, summary.getTokensSaved());
+        } catch (Exception e) {
+            workingMemory.abortFold();
+            log.warn("压缩会话 {} 的早期对话失败，保留原消息: {}", sessionId, e.getMessage());
+        }
+    }
+
+    private ChatOptions options() {
+        ChatOptions.Builder builder = ChatOptions.builder()
+                .maxTokens(properties.getSummaryMaxTokens())
+                .temperature(0.2);
+        String model = properties.getSummaryModel();
+        if (model != null && !model.isBlank()) {
+            builder.model(model);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 把已有摘要和待压缩的消息渲染成给摘要模型的文本
+     */
+    static String render(WorkingMemory.Fold fold) {
+        StringBuilder text = new StringBuilder();
+        if (fold.previousSummary() != null) {
+            text.append("已有摘要：\n").append(fold.previousSummary()).append("\n\n");
+        }
+        text.append("新的对话内容：\n");
+        for (Message message : fold.messages()) {
+            if (message instanceof ToolResponseMessage toolResponseMessage) {
+                for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+                    text.append("[工具 ").append(response.name()).append(" 的结果] ")
+                            .append(truncate(response.responseData())).append('\n');
+                }
+            } else if (message instanceof AssistantMessage assistantMessage) {
+                if (assistantMessage.getText() != null && !assistantMessage.getText().isBlank()) {
+                    text.append("[助手] ").append(assistantMessage.getText()).append('\n');
+                }
+                List<AssistantMessage.ToolCall> toolCalls = assistantMessage.getToolCalls() != null
+                        ? assistantMessage.getToolCalls() : List.of();
+                for (AssistantMessage.ToolCall toolCall : toolCalls) {
+                    text.append("[助手调用工具 ").append(toolCall.name()).append("] ")
+                            .append(toolCall.arguments()).append('\n');
+                }
+            } else if (message instanceof UserMessage) {
+                text.append("[用户] ").append(message.getText()).append('\n');
+            } else {
+                text.append("[系统] ").append(message.getText()).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    private static String truncate(String text) {
+        if (text == null || text.length() <= MAX_TOOL_RESULT_CHARS) {
+            return text;
+        }
+        return text.substring(0, MAX_TOOL_RESULT_CHARS) + "…（已截断）";
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(properties.getFlushTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 已解码消息历史的缓存，供 {@link SqliteChatMemory#get} 使用
+ * <p>
+ * 每个会话缓存最近的一段消息（不可变列表），任意 lastN 直接返回其后缀视图；
+ * {@code add} 时把新消息追加到已缓存的会话，{@code clear} 时移除。
+ * 总大小按消息内容估算的字节数限制，超出时淘汰最久未访问的会话。
+ * <p>
+ * 未命中时从数据库加载期间可能有并发写入：加载前记下会话所在分段的版本号，
+ * 版本变化或仍有写入未完成时，加载结果可能已过期或与随后的追加重复，这次就不放入缓存。
+ */
+@Slf4j
+@Component
+public class HistoryCache {
+
+    private static final int STRIPES = 64;
+
+    /**
+     * 每条消息对象本身（对象头、列表槽位、元数据 Map 等）的估算开销
+     */
+    private static final int MESSAGE_OVERHEAD = 160;
+    private static final int TOOL_ENTRY_OVERHEAD = 96;
+
+    private final MemoryProperties properties;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long[] versions = new long[STRIPES];
+    private final int[] pendingWrites = new int[STRIPES];
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
+    private long totalBytes;
+
+    /**
+     * 单个会话的缓存项
+     *
+     * @param messages 按时间正序的最近消息
+     * @param complete 是否包含了该会话的全部消息
+     * @param bytes    估算的内存占用
+     */
+    private record Entry(List<Message> messages, boolean complete, long bytes) {
+    }
+
+    public HistoryCache(MemoryProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.hitCounter = Counter.builder("chat.history.cache.requests")
+                .tag("result", "hit")
+                .description("历史缓存命中次数")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("chat.history.cache.requests")
+                .tag("result", "miss")
+                .description("历史缓存未命中次数")
+                .register(meterRegistry);
+        this.evictionCounter = Counter.builder("chat.history.cache.evictions")
+                .description("因超出容量被淘汰的会话数")
+                .register(meterRegistry);
+        Gauge.builder("chat.history.cache.bytes", this, HistoryCache::estimatedBytes)
+                .description("缓存消息的估算内存占用")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("chat.history.cache.sessions", this, HistoryCache::size)
+                .description("已缓存的会话数")
+                .register(meterRegistry);
+        Gauge.builder("chat.history.cache.hit.ratio", this, HistoryCache::hitRatio)
+                .description("历史缓存命中率")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 缓存是否启用
+     */
+    public boolean isEnabled() {
+        return properties.getHistoryCacheMaxBytes() > 0;
+    }
+
+    /**
+     * 读取会话最近的 lastN 条消息
+     *
+     * @return 缓存后缀的只读视图；未缓存或缓存不足 lastN 条时返回 null
+     */
+    public synchronized List<Message> get(String sessionId, int lastN) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry entry = entries.get(sessionId);
+        if (entry == null || (entry.messages().size() < lastN && !entry.complete())) {
+            missCounter.increment();
+            return null;
+        }
+        hitCounter.increment();
+        List<Message> messages = entry.messages();
+        int from = Math.max(0, messages.size() - Math.max(lastN, 0));
+        return messages.subList(from, messages.size());
+    }
+
+    /**
+     * 记下会话当前的版本，在从数据库加载前调用
+     */
+    public synchronized long version(String sessionId) {
+        return versions[stripe(sessionId)];
+    }
+
+    /**
+     * 放入从数据库加载的历史
+     *
+     * @param sessionId 会话ID
+     * @param lastN     加载时请求的数量，结果不足该数量说明已包含全部消息
+     * @param loaded    加载结果
+     * @param version   加载前通过 {@link #version} 取得的版本
+     */
+    public synchronized void put(String sessionId, int lastN, List<Message> loaded, long version) {
+        int stripe = stripe(sessionId);
+        if (!isEnabled() || version != versions[stripe] || pendingWrites[stripe] > 0) {
+            return;
+        }
+        storeTail(sessionId, loaded, loaded.size() < lastN);
+    }
+
+    /**
+     * 开始写入新消息，在写数据库之前调用；之后必须调用 {@link #completeAppend} 或 {@link #abortAppend}
+     */
+    public synchronized void beginAppend(String sessionId) {
+        int stripe = stripe(sessionId);
+        versions[stripe]++;
+        pendingWrites[stripe]++;
+    }
+
+    /**
+     * 新消息已持久化，追加到已缓存的会话
+     */
+    public synchronized void completeAppend(String sessionId, List<Message> added) {
+        endWrite(sessionId);
+        Entry entry = entries.get(sessionId);
+        if (entry == null) {
+            return;
+        }
+        List<Message> messages = new ArrayList<>(entry.messages().size() + added.size());
+        messages.addAll(entry.messages());
+        messages.addAll(added);
+        storeTail(sessionId, messages, entry.complete());
+    }
+
+    /**
+     * 写入失败，结果不确定，丢弃会话的缓存
+     */
+    public synchronized void abortAppend(String sessionId) {
+        endWrite(sessionId);
+        invalidate(sessionId);
+    }
+
+    /**
+     * 移除会话的缓存
+     */
+    public synchronized void invalidate(String sessionId) {
+        versions[stripe(sessionId)]++;
+        Entry removed = entries.remove(sessionId);
+        if (removed != null) {
+            totalBytes -= removed.bytes();
+        }
+    }
+
+    /**
+     * 移除全部缓存，用于批量导入等绕过 {@link SqliteChatMemory#add} 的写入
+     */
+    public synchronized void invalidateAll() {
+        for (int i = 0; i < versions.length; i++) {
+            versions[i]++;
+        }
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public synchronized long estimatedBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private double hitRatio() {
+        double hits = hitCounter.count();
+        double total = hits + missCounter.count();
+        return total > 0 ? hits / total : 0.0;
+    }
+
+    private void endWrite(String sessionId) {
+        int stripe = stripe(sessionId);
+        versions[stripe]++;
+        pendingWrites[stripe] = Math.max(0, pendingWrites[stripe] - 1);
+    }
+
+    /**
+     * 只保留最近的 historyCacheMaxMessages 条后放入缓存
+     */
+    private void storeTail(String sessionId, List<Message> messages, boolean complete) {
+        int maxMessages = properties.getHistoryCacheMaxMessages();
+        if (messages.size() > maxMessages) {
+            messages = messages.subList(messages.size() - maxMessages, messages.size());
+            complete = false;
+        }
+        store(sessionId, List.copyOf(messages), complete);
+    }
+
+    private void store(String sessionId, List<Message> messages, boolean complete) {
+        long bytes = 0;
+        for (Message message : messages) {
+            bytes += estimateBytes(message);
+        }
+        Entry previous = entries.remove(sessionId);
+        if (previous != null) {
+            totalBytes -= previous.bytes();
+        }
+        long maxBytes = properties.getHistoryCacheMaxBytes();
+        if (bytes > maxBytes) {
+            log.debug("会话 {} 的历史（约 {} 字节）超过缓存上限，不缓存", sessionId, bytes);
+            return;
+        }
+        entries.put(sessionId, new Entry(messages, complete, bytes));
+        totalBytes += bytes;
+        // 按访问顺序淘汰最久未使用的会话
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Entry> candidate = eldest.next();
+            totalBytes -= candidate.getValue().bytes();
+            eldest.remove();
+            evictionCounter.increment();
+        }
+    }
+
+    /**
+     * 按字符串内容估算一条消息的内存占用（字符按 2 字节计）
+     */
+    static long estimateBytes(Message message) {
+        long bytes = MESSAGE_OVERHEAD + chars(message.getText());
+        if (message instanceof AssistantMessage assistantMessage && assistantMessage.getToolCalls() != null) {
+            for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+                bytes += TOOL_ENTRY_OVERHEAD + chars(toolCall.id()) + chars(toolCall.type())
+                        + chars(toolCall.name()) + chars(toolCall.arguments());
+            }
+        } else if (message instanceof ToolResponseMessage toolResponseMessage) {
+            for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+                bytes += TOOL_ENTRY_OVERHEAD + chars(response.id()) + chars(response.name())
+                        + chars(response.responseData());
+            }
+        }
+        return bytes;
+    }
+
+    private static long chars(String value) {
+        return value != null ? 2L * value.length() : 0L;
+    }
+
+    private static int stripe(String sessionId) {
+        return (sessionId.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+}
@@ -0,0 +1,297 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.storage.VectorIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 跨会话的长期记忆
+ * <p>
+ * 每轮问答得到最终回答后，把问题和回答一起向量化写入本地的 {@link VectorIndex}（与 SQLite 数据库放在同一目录），
+ * 向量化在后台线程中进行，不阻塞 Agent 循环。新的运行开始时用用户消息的向量检索其他会话的相关问答，
+ * 按相似度从高到低取，总量不超过 longTermRecallTokens，作为系统消息放进本次运行的上下文。
+ * <p>
+ * 检索在内存中完成，只有查询本身的向量化需要调用嵌入模型。查询的向量化最多等待 longTermRecallTimeoutMs，
+ * 超时或嵌入模型不可用时跳过本次召回；写入失败只记录警告，都不影响对话。
+ * 向量维度通过长期记忆自己的 {@link EmbeddingOptions} 指定，不修改全局的嵌入模型配置。
+ */
+@Slf4j
+@Component
+public class LongTermMemory {
+
+    /**
+     * 一次召回的结果
+     *
+     * @param text   渲染好的召回内容
+     * @param tokens 召回内容的 token 数
+     * @param items  召回的条数
+     */
+    record Recall(String text, int tokens, int items) {
+    }
+
+    private final EmbeddingModel embeddingModel;
+    private final MessageTokenCounter tokenCounter;
+    private final MemoryProperties properties;
+    private final VectorIndex index;
+    private final EmbeddingOptions embeddingOptions;
+    private final ExecutorService executor;
+    private final ThreadPoolExecutor recallExecutor;
+    private final Timer searchTimer;
+    private final Counter recalledCounter;
+    private final Counter storedCounter;
+    private final MeterRegistry meterRegistry;
+
+    public LongTermMemory(EmbeddingModel embeddingModel,
+                          MessageTokenCounter tokenCounter,
+                          MemoryProperties properties,
+                          MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.tokenCounter = tokenCounter;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.index = properties.isLongTermEnabled() ? openIndex(properties.getLongTermIndexPath()) : null;
+        this.embeddingOptions = EmbeddingOptionsBuilder.builder()
+                .withDimensions(properties.getLongTermEmbeddingDimensions() > 0
+                        ? properties.getLongTermEmbeddingDimensions() : null)
+                .build();
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "memory-embedder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 查询的向量化在独立的线程中进行，不与后台写入排队；嵌入模型卡住时最多占用几个线程，其余召回直接跳过
+        this.recallExecutor = new ThreadPoolExecutor(0, 4, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "memory-recall");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.searchTimer = Timer.builder("memory.longterm.search")
+                .description("长期记忆向量检索的耗时，不含查询的向量化")
+                .register(meterRegistry);
+        this.recalledCounter = Counter.builder("memory.longterm.recalled")
+                .description("召回并放入上下文的长期记忆条数")
+                .register(meterRegistry);
+        this.storedCounter = Counter.builder("memory.longterm.stored")
+                .description("写入长期记忆的条数")
+                .register(meterRegistry);
+        if (index != null) {
+            Gauge.builder("memory.longterm.items", index, VectorIndex::size)
+                    .description("长期记忆的条数")
+                    .register(meterRegistry);
+            Gauge.builder("memory.longterm.file.bytes", index, VectorIndex::fileBytes)
+                    .description("长期记忆索引文件的字节数")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+        }
+    }
+
+    public boolean isEnabled() {
+        return index != null;
+    }
+
+    /**
+     * 在后台把一轮问答写入长期记忆
+     *
+     * @param sessionId 会话ID
+     * @param question  用户的问题，可以为 null
+     * @param answer    最终回答
+     */
+    public void remember(String sessionId, String question, String answer) {
+        if (index == null || answer == null || answer.isBlank()) {
+            return;
+        }
+        String text = question != null && !question.isBlank()
+                ? "问：" + question.strip() + "\n答：" + answer.strip()
+                : answer.strip();
+        if (text.length() > properties.getLongTermItemMaxChars()) {
+            text = text.substring(0, properties.getLongTermItemMaxChars()) + "…";
+        }
+        String item = text;
+        try {
+            executor.execute(() -> store(sessionId, item));
+        } catch (RejectedExecutionException e) {
+            log.debug("Long-term memory is shutting down, dropped item from session {}", sessionId);
+        }
+    }
+
+    /**
+     * 召回与查询相关的其他会话的内容
+     *
+     * @param sessionId 当前会话，自身的内容已经在工作记忆中，不再召回
+     * @param query     用户消息
+     * @return 没有相关内容或召回失败时返回 null
+     */
+    Recall recall(String sessionId, String query) {
+        if (index == null || index.size() == 0 || query == null || query.isBlank()) {
+            return null;
+        }
+        float[] vector = embedQuery(query);
+        if (vector == null) {
+            return null;
+        }
+        List<VectorIndex.Hit> hits = searchTimer.record(() -> index.search(vector,
+                properties.getLongTermRecallTopK(), sessionId, (float) properties.getLongTermMinScore()));
+        if (hits == null || hits.isEmpty()) {
+            return null;
+        }
+
+        // 按相似度从高到低取，放不下的条目跳过，继续尝试更短的
+        StringBuilder text = new StringBuilder();
+        int budget = properties.getLongTermRecallTokens();
+        int used = MessageTokenCounter.MESSAGE_OVERHEAD;
+        int items = 0;
+        for (VectorIndex.Hit hit : hits) {
+            if (used + hit.tokens() > budget) {
+                continue;
+            }
+            LocalDate date = Instant.ofEpochMilli(hit.createdAt()).atZone(ZoneId.systemDefault()).toLocalDate();
+            text.append("[").append(date).append("] ").append(hit.text()).append("\n\n");
+            used += hit.tokens();
+            items++;
+        }
+        if (items == 0) {
+            return null;
+        }
+        recalledCounter.increment(items);
+        log.debug("Recalled {} long-term memory items ({} tokens) for session {}", items, used, sessionId);
+        return new Recall(text.toString().strip(), used, items);
+    }
+
+    /**
+     * 在召回线程中向量化查询，最多等待 longTermRecallTimeoutMs
+     *
+     * @return 超时、召回线程已满或向量化失败时返回 null
+     */
+    private float[] embedQuery(String query) {
+        Future<float[]> future;
+        try {
+            future = recallExecutor.submit(() -> embed(query));
+        } catch (RejectedExecutionException e) {
+            log.warn("长期记忆召回线程已满，跳过本次召回");
+            skipped("busy");
+            return null;
+        }
+        try {
+            return future.get(properties.getLongTermRecallTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            log.warn("长期记忆召回时向量化超过 {} ms，跳过本次召回", properties.getLongTermRecallTimeoutMs());
+            skipped("timeout");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            skipped("interrupted");
+        } catch (ExecutionException e) {
+            log.warn("长期记忆召回时向量化失败: {}", e.getCause().getMessage());
+            skipped("error");
+        }
+        return null;
+    }
+
+    private void skipped(String reason) {
+        Counter.builder("memory.longterm.recall.skipped")
+                .description("因查询向量化超时或失败而跳过的召回次数")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * 使用长期记忆自己的嵌入选项向量化文本
+     */
+    private float[] embed(String text) {
+        return embeddingModel.call(new EmbeddingRequest(List.of(text), embeddingOptions)).getResult().getOutput();
+    }
+
+    /**
+     * 删除会话写入的长期记忆，在删除或清空会话时调用
+     */
+    public void forget(String sessionId) {
+        if (index == null) {
+            return;
+        }
+        try {
+            int removed = index.forget(sessionId);
+            if (removed > 0) {
+                log.info("Forgot {} long-term memory items of session {}", removed, sessionId);
+            }
+        } catch (IOException e) {
+            log.warn("删除会话 {} 的长期记忆失败: {}", sessionId, e.getMessage());
+        }
+    }
+
+    /**
+     * 向量化并写入索引；更换嵌入模型导致维度变化时清空旧索引
+     */
+    void store(String sessionId, String text) {
+        try {
+            float[] vector = embed(text);
+            int tokens = tokenCounter.count(new UserMessage(text)) - MessageTokenCounter.MESSAGE_OVERHEAD;
+            if (index.dimension() != 0 && index.dimension() != vector.length) {
+                log.warn("Embedding dimension changed from {} to {}, resetting long-term memory",
+                        index.dimension(), vector.length);
+                index.reset(vector.length);
+            }
+            index.add(sessionId, text, tokens, System.currentTimeMillis(), vector);
+            storedCounter.increment();
+        } catch (Exception e) {
+            log.warn("写入会话 {} 的长期记忆失败: {}", sessionId, e.getMessage());
+        }
+    }
+
+    private static VectorIndex openIndex(String path) {
+        Path file = Path.of(path).toAbsolutePath();
+        try {
+            return VectorIndex.open(file);
+        } catch (IOException e) {
+            log.error("无法打开长期记忆索引 {}，长期记忆已停用", file, e);
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        recallExecutor.shutdownNow();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(properties.getFlushTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (index != null) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                log.warn("关闭长期记忆索引失败: {}", e.getMessage());
+            }
+        }
+    }
+}
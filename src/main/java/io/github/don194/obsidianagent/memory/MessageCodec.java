@@ -0,0 +1,171 @@
+package io.github.don194.obsidianagent.memory;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.storage.PayloadCodec;
+import io.github.don194.obsidianagent.storage.SegmentLog;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 助手/工具消息与存储字节之间的类型化编解码
+ * <p>
+ * 读写器在启动时按具体的记录类型构建好并复用，解码时从字节直接流式绑定到 Spring AI 的
+ * {@link AssistantMessage.ToolCall} / {@link ToolResponseMessage.ToolResponse} 记录，
+ * 不再经过 {@code Map} 中转和 {@code convertValue} 的第二次对象图遍历。
+ * 存储格式由 {@link PayloadCodec} 决定，旧版本写入的 JSON 文本同样可以读取。
+ */
+@Component
+public class MessageCodec {
+
+    /**
+     * 助手消息的存储结构，字段名与旧版本的 JSON 保持一致
+     */
+    record AssistantPayload(String text, List<AssistantMessage.ToolCall> toolCalls) {
+    }
+
+    /**
+     * 工具响应消息的存储结构，字段名与旧版本的 JSON 保持一致
+     */
+    record ToolPayload(List<ToolResponseMessage.ToolResponse> responses) {
+    }
+
+    /**
+     * 分段日志记录的消息类型标签
+     */
+    public static final byte TAG_USER = 1;
+    public static final byte TAG_ASSISTANT = 2;
+    public static final byte TAG_SYSTEM = 3;
+    public static final byte TAG_TOOL = 4;
+
+    private final PayloadCodec payloadCodec;
+
+    private final ObjectWriter assistantSmileWriter;
+    private final ObjectWriter toolSmileWriter;
+    private final ObjectWriter assistantJsonWriter;
+    private final ObjectWriter toolJsonWriter;
+    private final ObjectReader assistantSmileReader;
+    private final ObjectReader toolSmileReader;
+    private final ObjectReader assistantJsonReader;
+    private final ObjectReader toolJsonReader;
+
+    public MessageCodec(PayloadCodec payloadCodec) {
+        this.payloadCodec = payloadCodec;
+        ObjectMapper smileMapper = new SmileMapper()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        ObjectMapper jsonMapper = new ObjectMapper()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.assistantSmileWriter = smileMapper.writerFor(AssistantPayload.class);
+        this.toolSmileWriter = smileMapper.writerFor(ToolPayload.class);
+        this.assistantJsonWriter = jsonMapper.writerFor(AssistantPayload.class);
+        this.toolJsonWriter = jsonMapper.writerFor(ToolPayload.class);
+        this.assistantSmileReader = smileMapper.readerFor(AssistantPayload.class);
+        this.toolSmileReader = smileMapper.readerFor(ToolPayload.class);
+        this.assistantJsonReader = jsonMapper.readerFor(AssistantPayload.class);
+        this.toolJsonReader = jsonMapper.readerFor(ToolPayload.class);
+    }
+
+    /**
+     * 编码助手消息
+     *
+     * @param text      文本内容
+     * @param toolCalls 工具调用
+     * @return 存储字节
+     */
+    public byte[] encodeAssistant(String text, List<AssistantMessage.ToolCall> toolCalls) {
+        AssistantPayload payload = new AssistantPayload(text, toolCalls != null ? toolCalls : Collections.emptyList());
+        return encode(payload, assistantSmileWriter, assistantJsonWriter);
+    }
+
+    /**
+     * 编码工具响应消息
+     *
+     * @param responses 各工具的响应
+     * @return 存储字节
+     */
+    public byte[] encodeTool(List<ToolResponseMessage.ToolResponse> responses) {
+        return encode(new ToolPayload(responses), toolSmileWriter, toolJsonWriter);
+    }
+
+    /**
+     * 解码助手/工具消息
+     *
+     * @param type   消息类型，只接受 ASSISTANT 或 TOOL
+     * @param stored 存储字节（Smile 或旧的 JSON 文本）
+     * @return Spring AI 消息
+     * @throws UncheckedIOException 内容无法解析（如旧的纯文本回退数据）
+     */
+    public org.springframework.ai.chat.messages.Message decode(ChatMessage.MessageType type, byte[] stored) {
+        boolean smile = PayloadCodec.isSmile(stored);
+        try {
+            if (type == ChatMessage.MessageType.TOOL) {
+                ToolPayload payload = smile
+                        ? payloadCodec.readSmile(stored, toolSmileReader)
+                        : toolJsonReader.readValue(stored);
+                return new ToolResponseMessage(payload.responses() != null ? payload.responses() : Collections.emptyList());
+            }
+            AssistantPayload payload = smile
+                    ? payloadCodec.readSmile(stored, assistantSmileReader)
+                    : assistantJsonReader.readValue(stored);
+            return new AssistantMessage(payload.text(), Collections.emptyMap(),
+                    payload.toolCalls() != null ? payload.toolCalls() : Collections.emptyList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("解码 " + type + " 消息失败", e);
+        }
+    }
+
+    /**
+     * 把消息编码为分段日志的一条记录，用户/系统消息保存原文，助手/工具消息使用与 SQLite 相同的编码
+     */
+    public SegmentLog.Entry toEntry(org.springframework.ai.chat.messages.Message message) {
+        if (message instanceof AssistantMessage assistantMessage) {
+            return new SegmentLog.Entry(TAG_ASSISTANT,
+                    encodeAssistant(assistantMessage.getText(), assistantMessage.getToolCalls()));
+        }
+        if (message instanceof ToolResponseMessage toolResponseMessage) {
+            return new SegmentLog.Entry(TAG_TOOL, encodeTool(toolResponseMessage.getResponses()));
+        }
+        byte tag = message instanceof SystemMessage ? TAG_SYSTEM : TAG_USER;
+        String text = message.getText() != null ? message.getText() : "";
+        return new SegmentLog.Entry(tag, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码分段日志的一条消息记录
+     *
+     * @return 标签不是消息类型时返回 null
+     */
+    public org.springframework.ai.chat.messages.Message fromEntry(SegmentLog.Entry entry) {
+        return switch (entry.tag()) {
+            case TAG_USER -> new UserMessage(new String(entry.payload(), StandardCharsets.UTF_8));
+            case TAG_SYSTEM -> new SystemMessage(new String(entry.payload(), StandardCharsets.UTF_8));
+            case TAG_ASSISTANT -> decode(ChatMessage.MessageType.ASSISTANT, entry.payload());
+            case TAG_TOOL -> decode(ChatMessage.MessageType.TOOL, entry.payload());
+            default -> null;
+        };
+    }
+
+    private byte[] encode(Object payload, ObjectWriter smileWriter, ObjectWriter jsonWriter) {
+        try {
+            if (payloadCodec.isBinaryEnabled()) {
+                return payloadCodec.wrapSmile(smileWriter.writeValueAsBytes(payload));
+            }
+            return jsonWriter.writeValueAsBytes(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException("编码消息失败", e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 估算消息占用的 token 数，并给出当前模型的上下文预算
+ * <p>
+ * 文本、工具调用的名称和参数、工具返回结果都用 cl100k_base 编码计数，
+ * 每条消息另加角色和分隔符的固定开销。不同模型的分词略有差异，这里只用于窗口裁剪，不要求精确。
+ */
+@Component
+public class MessageTokenCounter {
+
+    /**
+     * 每条消息的角色、分隔符等固定开销
+     */
+    static final int MESSAGE_OVERHEAD = 4;
+
+    /**
+     * 每个工具调用/工具结果的 id、类型等字段的开销
+     */
+    static final int TOOL_ENTRY_OVERHEAD = 8;
+
+    private final TokenCountEstimator estimator = new JTokkitTokenCountEstimator();
+    private final MemoryProperties properties;
+    private final String model;
+
+    public MessageTokenCounter(MemoryProperties properties,
+                               @Value("${spring.ai.openai.chat.options.model:}") String model) {
+        this.properties = properties;
+        this.model = model;
+    }
+
+    /**
+     * 估算单条消息的 token 数
+     */
+    public int count(Message message) {
+        int tokens = MESSAGE_OVERHEAD + estimate(message.getText());
+        if (message instanceof AssistantMessage assistantMessage && assistantMessage.getToolCalls() != null) {
+            for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+                tokens += TOOL_ENTRY_OVERHEAD + estimate(toolCall.name()) + estimate(toolCall.arguments());
+            }
+        } else if (message instanceof ToolResponseMessage toolResponseMessage) {
+            for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+                tokens += TOOL_ENTRY_OVERHEAD + estimate(response.name()) + estimate(response.responseData());
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 当前配置的模型可用于对话历史的 token 预算
+     */
+    public int budget() {
+        return budgetFor(model);
+    }
+
+    /**
+     * 指定模型可用于对话历史的 token 预算，未单独配置的模型使用默认预算
+     */
+    public int budgetFor(String modelName) {
+        Integer budget = modelName != null ? properties.getContextTokenBudgets().get(modelName) : null;
+        return budget != null ? budget : properties.getContextTokenBudget();
+    }
+
+    private int estimate(String text) {
+        return text == null || text.isEmpty() ? 0 : estimator.estimate(text);
+    }
+}
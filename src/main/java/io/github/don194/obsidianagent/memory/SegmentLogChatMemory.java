@@ -0,0 +1,166 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.storage.SegmentLog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.*;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 基于只追加分段日志的聊天记忆实现
+ * <p>
+ * 通过 obsidian.memory.backend=segment-log 启用，替代 {@link SqliteChatMemory} 作为对话记忆的持久化后端：
+ * 消息按会话追加到内存映射的段文件，读取最近 N 条不经过 SQL。消息编码与 SQLite 后端相同，
+ * 由 {@link MessageCodec#toEntry} 完成。失效数据由后台定期压缩回收。
+ * <p>
+ * 会话列表、分页浏览和全文搜索仍然依赖 SQLite 中的数据，这个后端只负责 ChatMemory 的读写。
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(prefix = "obsidian.memory", name = "backend", havingValue = "segment-log")
+public class SegmentLogChatMemory implements ChatMemory {
+
+    private final SegmentLog segmentLog;
+    private final MessageCodec messageCodec;
+    private final MemoryProperties properties;
+    private final Counter reclaimedBytesCounter;
+
+    public SegmentLogChatMemory(MemoryProperties properties, MessageCodec messageCodec, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.messageCodec = messageCodec;
+        Path directory = Path.of(properties.getSegmentLogPath()).toAbsolutePath();
+        try {
+            this.segmentLog = SegmentLog.open(directory, properties.getSegmentSizeBytes(),
+                    properties.isSegmentForceOnAppend());
+        } catch (IOException e) {
+            throw new IllegalStateException("无法打开消息日志目录: " + directory, e);
+        }
+        this.reclaimedBytesCounter = Counter.builder("chat.segment.log.compaction.reclaimed")
+                .description("压缩回收的字节数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("chat.segment.log.segments", segmentLog, SegmentLog::segmentCount)
+                .description("段文件数")
+                .register(meterRegistry);
+        Gauge.builder("chat.segment.log.file.bytes", segmentLog, SegmentLog::fileBytes)
+                .description("段文件占用的字节数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("chat.segment.log.live.bytes", segmentLog, SegmentLog::liveBytes)
+                .description("仍然有效的记录字节数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        log.info("Using segment log chat memory at {}", directory);
+    }
+
+    /**
+     * 添加消息到指定会话
+     *
+     * @param conversationId 会话ID
+     * @param messages       消息列表
+     */
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        if (conversationId == null || conversationId.trim().isEmpty()) {
+            log.warn("会话ID为空，跳过消息保存");
+            return;
+        }
+        // 写入失败时抛出，由调用方决定记录还是重试
+        List<SegmentLog.Entry> entries = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            entries.add(messageCodec.toEntry(message));
+        }
+        segmentLog.append(conversationId, entries);
+        log.debug("向会话 {} 添加了 {} 条消息", conversationId, messages.size());
+    }
+
+    /**
+     * 获取指定会话的最近N条消息
+     *
+     * @param conversationId 会话ID
+     * @param lastN          要获取的消息数量
+     * @return 消息列表
+     */
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        if (conversationId == null || conversationId.trim().isEmpty()) {
+            log.warn("会话ID为空，返回空消息列表");
+            return Collections.emptyList();
+        }
+        try {
+            return segmentLog.readLast(conversationId, lastN).stream()
+                    .map(this::decode)
+                    .filter(Objects::nonNull)
+                    .toList();
+        } catch (Exception e) {
+            log.error("从会话 {} 获取消息失败", conversationId, e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 清除指定会话的所有消息
+     *
+     * @param conversationId 会话ID
+     */
+    @Override
+    public void clear(String conversationId) {
+        if (conversationId == null || conversationId.trim().isEmpty()) {
+            log.warn("会话ID为空，跳过清除操作");
+            return;
+        }
+        try {
+            segmentLog.clear(conversationId);
+            log.debug("已清除会话 {}", conversationId);
+        } catch (Exception e) {
+            log.error("清除会话 {} 失败", conversationId, e);
+        }
+    }
+
+    /**
+     * 定期压缩失效数据较多的段
+     */
+    @Scheduled(fixedDelayString = "${obsidian.memory.segment-compaction-interval-ms:300000}",
+            initialDelayString = "${obsidian.memory.segment-compaction-interval-ms:300000}")
+    public void compact() {
+        try {
+            SegmentLog.CompactionResult result = segmentLog.compact(properties.getSegmentCompactionGarbageRatio());
+            if (result.segments() > 0) {
+                reclaimedBytesCounter.increment(result.reclaimedBytes());
+                log.info("Segment log compaction: removed {} segments, moved {} records, reclaimed {} bytes",
+                        result.segments(), result.movedRecords(), result.reclaimedBytes());
+            }
+        } catch (Exception e) {
+            log.error("消息日志压缩失败", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        segmentLog.close();
+    }
+
+    private Message decode(SegmentLog.Entry entry) {
+        Message message = messageCodec.fromEntry(entry);
+        if (message == null) {
+            log.warn("未知的消息标签: {}，已跳过", entry.tag());
+        }
+        return message;
+    }
+}
@@ -1,20 +1,21 @@
 package io.github.don194.obsidianagent.memory;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import io.github.don194.obsidianagent.entity.ChatMessage;
-import io.github.don194.obsidianagent.entity.ChatSession;
-import io.github.don194.obsidianagent.repository.ChatMessageRepository;
-import io.github.don194.obsidianagent.repository.ChatSessionRepository;
+import io.github.don194.obsidianagent.model.CursorPage;
+import io.github.don194.obsidianagent.model.KeysetCursor;
+import io.github.don194.obsidianagent.model.MessageSearchResult;
+import io.github.don194.obsidianagent.model.SessionSummary;
+import io.github.don194.obsidianagent.model.StatsBucket;
+import io.github.don194.obsidianagent.repository.ChatShardRouter;
+import io.github.don194.obsidianagent.storage.ChatStats;
+import io.github.don194.obsidianagent.storage.SessionArchive;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.*;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -28,37 +29,42 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class SqliteChatMemory implements ChatMemory {
 
-    private final ChatSessionRepository sessionRepository;
-    private final ChatMessageRepository messageRepository;
-    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final ChatShardRouter shardRouter;
+    private final MessageCodec messageCodec;
+    private final HistoryCache historyCache;
+    private final SessionArchive sessionArchive;
 
     /**
      * 添加消息到指定会话
      *
      * @param conversationId 会话ID
      * @param messages       消息列表
+     * @throws RuntimeException 写入失败，由调用方决定记录还是重试
      */
     @Override
-    @Transactional
     public void add(String conversationId, List<Message> messages) {
         if (conversationId == null || conversationId.trim().isEmpty()) {
             log.warn("会话ID为空，跳过消息保存");
             return;
         }
+        List<ChatMessage> chatMessages = messages.stream()
+                .map(message -> convertToChatMessage(conversationId, message))
+                .collect(Collectors.toList());
+        // 会话创建、消息插入和计数更新在单写线程的同一个写操作中完成
+        historyCache.beginAppend(conversationId);
         try {
-            // 确保会话存在
-            ensureSessionExists(conversationId);
-            // 遍历并保存每一条消息
-            for (Message message : messages) {
-                ChatMessage chatMessage = convertToChatMessage(conversationId, message);
-                messageRepository.save(chatMessage);
+            // 向已归档的会话追加消息前先把它移回主库
+            if (isArchived(conversationId)) {
+                sessionArchive.restore(conversationId);
             }
-            // 更新会话的统计信息
-            updateSessionMessageCount(conversationId);
-            log.debug("向会话 {} 添加了 {} 条消息", messages.size(), conversationId);
-        } catch (Exception e) {
-            log.error("向会话 {} 添加消息失败", conversationId, e);
+            shardRouter.repositoryFor(conversationId).appendMessages(conversationId, chatMessages);
+        } catch (RuntimeException e) {
+            // 写入结果不确定，丢弃缓存，下次从数据库重新加载
+            historyCache.abortAppend(conversationId);
+            throw e;
         }
+        historyCache.completeAppend(conversationId, messages);
+        log.debug("向会话 {} 添加了 {} 条消息", conversationId, messages.size());
     }
 
     /**
@@ -75,16 +81,20 @@ public class SqliteChatMemory implements ChatMemory {
             return Collections.emptyList();
         }
         try {
-            // 从数据库按时间倒序查询最新的N条消息
-            List<ChatMessage> chatMessages = messageRepository.findBySessionIdOrderByCreatedAtDesc(
-                    conversationId, PageRequest.of(0, lastN));
-            // 将数据库实体转换为Spring AI的Message对象，并按时间正序排列
+            List<Message> cached = historyCache.get(conversationId, lastN);
+            if (cached != null) {
+                return cached;
+            }
+            long version = historyCache.version(conversationId);
+            // 通过只读连接池查询最新的N条消息（已按时间正序排列），已归档的会话直接从冷库读取
+            List<ChatMessage> chatMessages = shardRouter.repositoryFor(conversationId)
+                    .findRecentMessages(conversationId, lastN, isArchived(conversationId));
+            // 将数据库实体转换为Spring AI的Message对象
             List<Message> messages = chatMessages.stream()
-                    .filter(msg -> msg.getCreatedAt() != null)
-                    .sorted(Comparator.comparing(ChatMessage::getCreatedAt, Comparator.nullsFirst(Comparator.naturalOrder())))
                     .map(this::convertToSpringAIMessage)
                     .filter(Objects::nonNull)
                     .collect(Collectors.toList());
+            historyCache.put(conversationId, lastN, messages, version);
             log.debug("从会话 {} 中获取了 {} 条消息", conversationId, messages.size());
             return messages;
         } catch (Exception e) {
@@ -93,39 +103,61 @@ public class SqliteChatMemory implements ChatMemory {
         }
     }
 
+    /**
+     * 以游标分页获取会话消息（按时间正序），用于前端向前/向后滚动浏览历史
+     *
+     * @param conversationId 会话ID
+     * @param before         只返回该游标之前的消息
+     * @param after          只返回该游标之后的消息
+     * @param limit          每页数量
+     * @return 当前页的消息实体和前后游标
+     */
+    public CursorPage<ChatMessage> getMessagePage(String conversationId, KeysetCursor before, KeysetCursor after, int limit) {
+        return shardRouter.repositoryFor(conversationId)
+                .findMessagePage(conversationId, before, after, limit, isArchived(conversationId));
+    }
+
+    private boolean isArchived(String conversationId) {
+        return sessionArchive.isEnabled() && sessionArchive.isArchived(conversationId);
+    }
+
     /**
      * 清除指定会话的所有消息和会话本身
      *
      * @param conversationId 会话ID
      */
     @Override
-    @Transactional
     public void clear(String conversationId) {
         if (conversationId == null || conversationId.trim().isEmpty()) {
             log.warn("会话ID为空，跳过清除操作");
             return;
         }
         try {
-            messageRepository.deleteBySessionId(conversationId);
-            sessionRepository.deleteById(conversationId);
+            shardRouter.repositoryFor(conversationId).deleteSession(conversationId);
+            sessionArchive.purge(conversationId);
+            historyCache.invalidate(conversationId);
             log.debug("已清除会话 {}", conversationId);
         } catch (Exception e) {
             log.error("清除会话 {} 失败", conversationId, e);
         }
     }
 
+    /**
+     * 丢弃已缓存的消息历史，批量导入后调用
+     */
+    public void invalidateCachedHistory() {
+        historyCache.invalidateAll();
+    }
+
     /**
      * 设置会话标题
      *
      * @param sessionId 会话ID
      * @param title     标题
      */
-    @Transactional
     public void setSessionTitle(String sessionId, String title) {
         try {
-            ChatSession session = ensureSessionExists(sessionId);
-            session.setTitle(title);
-            sessionRepository.save(session);
+            shardRouter.repositoryFor(sessionId).upsertSessionTitle(sessionId, title);
         } catch (Exception e) {
             log.error("为会话 {} 设置标题失败", sessionId, e);
         }
@@ -139,9 +171,7 @@ public class SqliteChatMemory implements ChatMemory {
      */
     public String getSessionTitle(String sessionId) {
         try {
-            return sessionRepository.findById(sessionId)
-                    .map(ChatSession::getTitle)
-                    .orElse(null);
+            return shardRouter.repositoryFor(sessionId).findSessionTitle(sessionId);
         } catch (Exception e) {
             log.error("获取会话 {} 的标题失败", sessionId, e);
             return null;
@@ -149,35 +179,42 @@ public class SqliteChatMemory implements ChatMemory {
     }
 
     /**
-     * 获取所有会话及其标题
+     * 按最后活动时间倒序分页获取会话列表
      *
-     * @return 包含所有会话ID和标题的Map
+     * @param cursor 上一页返回的游标，为 null 时从第一页开始
+     * @param limit  每页数量
+     * @return 当前页的会话摘要和下一页游标
+     */
+    public CursorPage<SessionSummary> listSessions(KeysetCursor cursor, int limit) {
+        return shardRouter.findSessionPage(cursor, limit);
+    }
+
+    /**
+     * 获取单个会话的摘要
+     *
+     * @param sessionId 会话ID
+     * @return 会话摘要，不存在时返回 null
      */
-    public Map<String, String> getAllSessionsWithTitles() {
+    public SessionSummary getSessionSummary(String sessionId) {
         try {
-            return sessionRepository.findAllByOrderByUpdatedAtDesc().stream()
-                    .collect(Collectors.toMap(
-                            ChatSession::getSessionId,
-                            session -> session.getTitle() != null ? session.getTitle() : "",
-                            (existing, replacement) -> existing,
-                            LinkedHashMap::new
-                    ));
+            return shardRouter.repositoryFor(sessionId).findSessionSummary(sessionId);
         } catch (Exception e) {
-            log.error("获取所有会话失败", e);
-            return new HashMap<>();
+            log.error("获取会话 {} 的摘要失败", sessionId, e);
+            return null;
         }
     }
 
     /**
-     * 根据关键词搜索消息内容
+     * 根据关键词全文搜索消息内容
      *
-     * @param keyword 关键词
-     * @param limit   返回结果数量
-     * @return ChatMessage实体列表
+     * @param keyword   关键词
+     * @param sessionId 限定的会话ID，为 null 时搜索全部会话
+     * @param limit     返回结果数量
+     * @return 按相关度排序的搜索结果
      */
-    public List<ChatMessage> searchMessages(String keyword, int limit) {
+    public List<MessageSearchResult> searchMessages(String keyword, String sessionId, int limit) {
         try {
-            return messageRepository.searchByContent(keyword, PageRequest.of(0, limit));
+            return shardRouter.search(keyword, sessionId, limit);
         } catch (Exception e) {
             log.error("使用关键词 '{}' 搜索消息失败", keyword, e);
             return Collections.emptyList();
@@ -190,14 +227,41 @@ public class SqliteChatMemory implements ChatMemory {
      * @return 包含统计数据的Map
      */
     public Map<String, Object> getStatistics() {
+        return getStatistics(null, null, null);
+    }
+
+    /**
+     * 获取统计信息，指定时间范围时附带按小时/天聚合的统计桶
+     * <p>
+     * 计数在写入时维护，这里只读统计表，与消息总量无关。
+     *
+     * @param from        起始时间（含），为 null 时从最早的统计桶开始；与 to 都为 null 时不返回统计桶
+     * @param to          结束时间（不含），为 null 时到当前时间为止
+     * @param granularity hour 或 day，默认 day
+     * @return 包含统计数据的Map
+     * @throws IllegalArgumentException 粒度不支持或时间范围无效
+     */
+    public Map<String, Object> getStatistics(LocalDateTime from, LocalDateTime to, String granularity) {
+        String unit = ChatStats.granularity(granularity);
+        boolean withBuckets = from != null || to != null;
+        LocalDateTime rangeTo = to != null ? to : LocalDateTime.now().plusSeconds(1);
+        if (from != null && !from.isBefore(rangeTo)) {
+            throw new IllegalArgumentException("统计的起始时间必须早于结束时间");
+        }
         try {
-            long sessionCount = sessionRepository.count();
-            long messageCount = messageRepository.count();
+            StatsBucket totals = shardRouter.statsTotals();
             Map<String, Object> stats = new HashMap<>();
-            stats.put("totalSessions", sessionCount);
-            stats.put("totalMessages", messageCount);
+            stats.put("totalSessions", totals.getSessions());
+            stats.put("totalMessages", totals.getMessages());
             stats.put("averageMessagesPerSession",
-                    sessionCount > 0 ? (double) messageCount / sessionCount : 0.0);
+                    totals.getSessions() > 0 ? (double) totals.getMessages() / totals.getSessions() : 0.0);
+            stats.put("totalToolCalls", totals.getToolCalls());
+            stats.put("totalPromptTokens", totals.getPromptTokens());
+            stats.put("totalCompletionTokens", totals.getCompletionTokens());
+            if (withBuckets) {
+                stats.put("granularity", unit);
+                stats.put("buckets", shardRouter.statsBuckets(unit, from, rangeTo));
+            }
             return stats;
         } catch (Exception e) {
             log.error("获取统计信息失败", e);
@@ -205,33 +269,6 @@ public class SqliteChatMemory implements ChatMemory {
         }
     }
 
-    /**
-     * 确保会话存在，如果不存在则创建
-     *
-     * @param sessionId 会话ID
-     * @return ChatSession实体
-     */
-    private ChatSession ensureSessionExists(String sessionId) {
-        return sessionRepository.findById(sessionId)
-                .orElseGet(() -> {
-                    ChatSession newSession = new ChatSession(sessionId);
-                    return sessionRepository.save(newSession);
-                });
-    }
-
-    /**
-     * 更新会话的消息计数
-     *
-     * @param sessionId 会话ID
-     */
-    private void updateSessionMessageCount(String sessionId) {
-        sessionRepository.findById(sessionId).ifPresent(session -> {
-            long messageCount = messageRepository.countBySessionId(sessionId);
-            session.setMessageCount((int) messageCount);
-            sessionRepository.save(session);
-        });
-    }
-
     /**
      * 将Spring AI的Message对象转换为用于数据库存储的ChatMessage实体。
      * @param sessionId 会话ID
@@ -240,7 +277,9 @@ public class SqliteChatMemory implements ChatMemory {
      */
     private ChatMessage convertToChatMessage(String sessionId, Message message) {
         ChatMessage.MessageType messageType;
-        String content;
+        String content = null;
+        byte[] payload = null;
+        int toolCallCount = 0;
 
         try {
             // 使用 instanceof 进行类型判断，兼容 Java 17
@@ -249,20 +288,16 @@ public class SqliteChatMemory implements ChatMemory {
                 content = message.getText();
             } else if (message instanceof AssistantMessage assistantMessage) {
                 messageType = ChatMessage.MessageType.ASSISTANT;
-                // 对于助手消息，将文本和工具调用信息打包成一个Map再序列化为JSON
-                Map<String, Object> assistantData = new HashMap<>();
-                assistantData.put("text", assistantMessage.getText());
-                assistantData.put("toolCalls", assistantMessage.getToolCalls());
-                content = objectMapper.writeValueAsString(assistantData);
+                // 对于助手消息，文本和工具调用信息直接编码为存储字节
+                payload = messageCodec.encodeAssistant(assistantMessage.getText(), assistantMessage.getToolCalls());
+                toolCallCount = assistantMessage.getToolCalls().size();
             } else if (message instanceof SystemMessage) {
                 messageType = ChatMessage.MessageType.SYSTEM;
                 content = message.getText();
             } else if (message instanceof ToolResponseMessage toolResponseMessage) {
                 messageType = ChatMessage.MessageType.TOOL;
-                // 对于工具响应消息，将响应列表打包成一个Map再序列化为JSON
-                Map<String, Object> toolData = new HashMap<>();
-                toolData.put("responses", toolResponseMessage.getResponses());
-                content = objectMapper.writeValueAsString(toolData);
+                // 对于工具响应消息，响应列表直接编码为存储字节
+                payload = messageCodec.encodeTool(toolResponseMessage.getResponses());
             } else {
                 // 对于未知的消息类型，提供一个默认处理方式
                 messageType = ChatMessage.MessageType.ASSISTANT;
@@ -270,9 +305,10 @@ public class SqliteChatMemory implements ChatMemory {
             }
         } catch (Exception e) {
             // 如果序列化失败，记录错误并回退到只保存纯文本内容
-            log.error("序列化消息为JSON时出错", e);
+            log.error("序列化消息时出错", e);
             messageType = ChatMessage.MessageType.valueOf(message.getMessageType().name());
             content = message.getText();
+            payload = null;
         }
 
         ChatMessage chatMessage = new ChatMessage(
@@ -281,6 +317,10 @@ public class SqliteChatMemory implements ChatMemory {
                 messageType,
                 content
         );
+        chatMessage.setPayload(payload);
+        chatMessage.setToolCallCount(toolCallCount);
+        chatMessage.setPromptTokens(tokenCount(message, ConversationMemoryManager.PROMPT_TOKENS_METADATA));
+        chatMessage.setCompletionTokens(tokenCount(message, ConversationMemoryManager.COMPLETION_TOKENS_METADATA));
 
         // 确保创建时间不为空
         if (chatMessage.getCreatedAt() == null) {
@@ -289,13 +329,21 @@ public class SqliteChatMemory implements ChatMemory {
         return chatMessage;
     }
 
+    /**
+     * 读取由 {@link ConversationMemoryManager} 附在消息元数据上的 token 用量
+     */
+    private static int tokenCount(Message message, String key) {
+        return message.getMetadata().get(key) instanceof Number number ? number.intValue() : 0;
+    }
+
     /**
      * 将数据库中的ChatMessage实体转换回Spring AI的Message对象。
      *
      * @param chatMessage 数据库实体
      * @return Spring AI的Message对象
      */
-    private Message convertToSpringAIMessage(ChatMessage chatMessage) {
+    public Message convertToSpringAIMessage(ChatMessage chatMessage) {
+        byte[] stored = null;
         try {
             switch (chatMessage.getMessageType()) {
                 case USER:
@@ -303,24 +351,29 @@ public class SqliteChatMemory implements ChatMemory {
                 case SYSTEM:
                     return new SystemMessage(chatMessage.getContent());
                 case ASSISTANT:
-                    // 从JSON反序列化回Map，然后手动重建AssistantMessage对象
-                    Map<String, Object> assistantData = objectMapper.readValue(chatMessage.getContent(), new TypeReference<>() {});
-                    String text = (String) assistantData.get("text");
-                    List<AssistantMessage.ToolCall> toolCalls = objectMapper.convertValue(assistantData.get("toolCalls"), new TypeReference<>() {});
-                    return new AssistantMessage(text, Collections.emptyMap(), toolCalls);
                 case TOOL:
-                    // 从JSON反序列化回Map，然后手动重建ToolResponseMessage对象
-                    Map<String, Object> toolData = objectMapper.readValue(chatMessage.getContent(), new TypeReference<>() {});
-                    List<ToolResponseMessage.ToolResponse> responses = objectMapper.convertValue(toolData.get("responses"), new TypeReference<>() {});
-                    return new ToolResponseMessage(responses);
+                    // 从存储字节直接绑定到工具调用/工具响应记录，不经过 Map 中转
+                    stored = storedPayload(chatMessage);
+                    return messageCodec.decode(chatMessage.getMessageType(), stored);
                 default:
                     log.warn("未知的消息类型: {}，将作为助手消息处理。", chatMessage.getMessageType());
                     return new AssistantMessage(chatMessage.getContent());
             }
         } catch (Exception e) {
-            // 如果JSON解析失败（例如处理旧的纯文本数据），则回退到简单文本模式
-            log.error("将ChatMessage转换为Spring AI Message失败，回退到纯文本模式。内容: {}", chatMessage.getContent(), e);
-            return new AssistantMessage(chatMessage.getContent());
+            // 如果解析失败（例如处理旧的纯文本数据），则回退到简单文本模式
+            String text = stored != null ? new String(stored, StandardCharsets.UTF_8) : chatMessage.getContent();
+            log.error("将ChatMessage转换为Spring AI Message失败，回退到纯文本模式。内容: {}", text, e);
+            return new AssistantMessage(text);
+        }
+    }
+
+    /**
+     * 助手/工具消息的存储字节：JDBC 读出的原始字节，或尚未编码的 JSON 文本
+     */
+    private static byte[] storedPayload(ChatMessage chatMessage) {
+        if (chatMessage.getPayload() != null) {
+            return chatMessage.getPayload();
         }
+        return chatMessage.getContent().getBytes(StandardCharsets.UTF_8);
     }
 }
\ No newline at end of file
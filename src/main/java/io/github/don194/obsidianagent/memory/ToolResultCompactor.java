@@ -0,0 +1,171 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.entity.ChatToolResult;
+import io.github.don194.obsidianagent.repository.ChatShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 过长工具结果的外存与按需展开
+ * <p>
+ * 单个工具结果超过 toolResultCompactChars 时，完整内容按 (会话, 工具调用ID) 存入 chat_tool_results，
+ * 对话历史中只保留开头和结尾的摘录以及一个 handle（即工具调用ID）。之后每一步发给模型的上下文都只包含摘录，
+ * 模型需要完整内容时调用 {@link #EXPAND_TOOL_NAME} 工具按 handle 分段读取。
+ * <p>
+ * 展开只在发起调用的会话内查找：会话ID由 Agent 通过 ToolContext 传入，不取自模型给出的 handle，
+ * 因此模型（或笔记中注入的指令）无法读取其它会话外存的结果。
+ * <p>
+ * 替换发生在工具结果进入工作记忆和持久化之前，重新加载的会话同样只包含摘录。外存写入失败时保留原始结果。
+ */
+@Slf4j
+@Component
+public class ToolResultCompactor {
+
+    /**
+     * 展开工具的名称，它的结果本身不再外存
+     */
+    public static final String EXPAND_TOOL_NAME = "expandToolResult";
+
+    /**
+     * Agent 调用展开工具时，在 ToolContext 中放入当前会话ID的键
+     */
+    public static final String SESSION_CONTEXT_KEY = "sessionId";
+
+    /**
+     * 旧版本的 handle 形如 "会话ID#调用ID"，仍然接受，但会话部分必须与当前会话一致
+     */
+    static final String LEGACY_HANDLE_SEPARATOR = "#";
+
+    private final ChatShardRouter shardRouter;
+    private final MemoryProperties properties;
+    private final Counter compactedCounter;
+    private final Counter charsSavedCounter;
+    private final Counter expandedCounter;
+
+    public ToolResultCompactor(ChatShardRouter shardRouter, MemoryProperties properties, MeterRegistry meterRegistry) {
+        this.shardRouter = shardRouter;
+        this.properties = properties;
+        this.compactedCounter = Counter.builder("memory.tool.results.compacted")
+                .description("外存并以摘录代替的工具结果数")
+                .register(meterRegistry);
+        this.charsSavedCounter = Counter.builder("memory.tool.results.chars.saved")
+                .description("工具结果外存后上下文中减少的字符数")
+                .register(meterRegistry);
+        this.expandedCounter = Counter.builder("memory.tool.results.expanded")
+                .description("模型按需展开外存工具结果的次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 把超出阈值的工具结果外存，并以摘录和 handle 代替
+     *
+     * @param sessionId 会话ID
+     * @param responses 一次行动的全部工具结果
+     * @return 替换后的工具结果，顺序不变
+     */
+    public List<ToolResponseMessage.ToolResponse> compact(String sessionId,
+                                                          List<ToolResponseMessage.ToolResponse> responses) {
+        int threshold = properties.getToolResultCompactChars();
+        if (threshold <= 0) {
+            return responses;
+        }
+        List<ToolResponseMessage.ToolResponse> compacted = null;
+        for (int i = 0; i < responses.size(); i++) {
+            ToolResponseMessage.ToolResponse response = responses.get(i);
+            String data = response.responseData();
+            if (data == null || data.length() <= threshold || EXPAND_TOOL_NAME.equals(response.name())) {
+                continue;
+            }
+            try {
+                shardRouter.repositoryFor(sessionId).saveToolResult(new ChatToolResult(null, sessionId,
+                        response.id(), response.name(), data, LocalDateTime.now()));
+            } catch (Exception e) {
+                log.warn("外存会话 {} 的工具结果 {} 失败，保留原始结果: {}", sessionId, response.id(), e.getMessage());
+                continue;
+            }
+            String digest = digest(response.id(), data, properties.getToolResultDigestChars());
+            if (compacted == null) {
+                compacted = new ArrayList<>(responses);
+            }
+            compacted.set(i, new ToolResponseMessage.ToolResponse(response.id(), response.name(), digest));
+            compactedCounter.increment();
+            charsSavedCounter.increment(data.length() - digest.length());
+            log.info("Stored {} chars of {} result {} out of context", data.length(), response.name(), response.id());
+        }
+        return compacted != null ? compacted : responses;
+    }
+
+    /**
+     * 读取当前会话中外存工具结果的一段
+     *
+     * @param sessionId 发起调用的会话ID，由 Agent 提供
+     * @param handle    摘录中给出的 handle
+     * @param offset    起始字符位置
+     * @param length    读取的字符数，超过 toolResultPageChars 时按其截断
+     * @return 这一段内容，以及剩余内容的提示
+     * @throws IllegalArgumentException 没有会话ID、handle 为空或属于其它会话、结果不存在
+     */
+    public String expand(String sessionId, String handle, int offset, int length) {
+        if (sessionId == null || sessionId.isBlank()) {
+            throw new IllegalArgumentException("缺少当前会话，无法展开工具结果");
+        }
+        if (handle == null || handle.isBlank()) {
+            throw new IllegalArgumentException("无效的工具结果 handle: " + handle);
+        }
+        String callId = handle.trim();
+        int separator = callId.lastIndexOf(LEGACY_HANDLE_SEPARATOR);
+        if (separator >= 0) {
+            if (!callId.substring(0, separator).equals(sessionId)) {
+                throw new IllegalArgumentException("工具结果不属于当前会话: " + handle);
+            }
+            callId = callId.substring(separator + 1);
+        }
+        String content = shardRouter.repositoryFor(sessionId).findToolResult(sessionId, callId);
+        if (content == null) {
+            throw new IllegalArgumentException("工具结果不存在或已被删除: " + handle);
+        }
+        expandedCounter.increment();
+        int start = Math.max(0, Math.min(offset, content.length()));
+        int pageChars = properties.getToolResultPageChars();
+        int end = Math.min(content.length(), start + (length > 0 ? Math.min(length, pageChars) : pageChars));
+        StringBuilder page = new StringBuilder()
+                .append("[字符 ").append(start).append("-").append(end).append("，共 ").append(content.length())
+                .append("]\n")
+                .append(content, start, end);
+        if (end < content.length()) {
+            page.append("\n[还有 ").append(content.length() - end).append(" 个字符，继续读取请使用 offset=")
+                    .append(end).append("]");
+        }
+        return page.toString();
+    }
+
+    /**
+     * 开头和结尾的摘录，以及展开方式的说明
+     */
+    static String digest(String handle, String data, int digestChars) {
+        int head = Math.min(data.length(), digestChars * 3 / 4);
+        int tail = Math.min(data.length() - head, digestChars - head);
+        if (head + tail == data.length()) {
+            head = data.length();
+            tail = 0;
+        }
+        StringBuilder digest = new StringBuilder()
+                .append("[结果较长（共 ").append(data.length()).append(" 个字符），完整内容已另行存储，以下为摘录。")
+                .append("需要其余内容时调用 ").append(EXPAND_TOOL_NAME).append("，handle=").append(handle)
+                .append("，可用 offset 分段读取]\n")
+                .append(data, 0, head);
+        if (tail > 0) {
+            digest.append("\n……（省略 ").append(data.length() - head - tail).append(" 个字符）……\n")
+                    .append(data, data.length() - tail, data.length());
+        }
+        return digest.toString();
+    }
+}
@@ -0,0 +1,375 @@
+package io.github.don194.obsidianagent.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * 单个会话的工作记忆：消息列表，以及添加时就计算好的每条消息的 token 数
+ * <p>
+ * 裁剪窗口时直接使用缓存的计数，不需要每轮重新分词。较早的消息被并入滚动摘要后从列表中移除，
+ * 摘要以系统消息的形式放在窗口开头，其后是从其他会话召回的长期记忆（每次运行开始时更新）。
+ * <p>
+ * 添加消息时同步维护工具调用链：记录还没有收到结果的工具调用 ID，工具结果到达时逐个核销。
+ * 调用在收到结果前就被新的消息打断时补一条错误结果，没有对应调用的工具结果直接丢弃，
+ * 保证发给模型的历史中每个工具调用都有结果、每个结果都有调用。修复只作用于工作记忆，不改动持久化的消息。
+ */
+@Slf4j
+class WorkingMemory {
+
+    /**
+     * 一次待压缩的消息前缀
+     *
+     * @param messages        要并入摘要的消息
+     * @param tokens          这些消息的 token 数
+     * @param previousSummary 已有的摘要文本，没有时为 null
+     */
+    record Fold(List<Message> messages, long tokens, String previousSummary) {
+    }
+
+    static final String SUMMARY_PREFIX = "以下是本次对话较早部分的摘要：\n";
+
+    static final String RECALL_PREFIX = "以下是从之前其他对话中召回的可能相关的内容，仅供参考：\n";
+
+    static final String MISSING_RESULT = "Error: 工具调用没有返回结果（执行被中断），请根据需要重新调用";
+
+    private final ToIntFunction<Message> tokenCounter;
+    private final List<Message> messages = new ArrayList<>();
+    private final List<Integer> tokenCounts = new ArrayList<>();
+    // 每条消息代表的持久化消息数：补上的错误结果为 0，被丢弃的工具结果计入前一条
+    private final List<Integer> persistedCounts = new ArrayList<>();
+    private long totalTokens;
+    private long estimatedBytes;
+
+    // 滚动摘要，工作记忆之前的持久化消息数（从会话第一条消息算起），以及被摘要代替的消息原本的 token 数
+    private String summary;
+    private SystemMessage summaryMessage;
+    private int summaryTokens;
+    private long coveredMessages;
+    private long summarizedTokens;
+    private boolean folding;
+
+    // 本次运行召回的长期记忆，不属于会话的消息，不持久化
+    private SystemMessage recalledMessage;
+    private int recalledTokens;
+
+    // 还没有收到结果的工具调用，按调用顺序
+    private final Map<String, AssistantMessage.ToolCall> pendingToolCalls = new LinkedHashMap<>();
+    private long repairedCalls;
+    private long droppedResponses;
+
+    /**
+     * @param tokenCounter 估算单条消息 token 数的函数，每条消息只在加入时计算一次
+     */
+    WorkingMemory(ToIntFunction<Message> tokenCounter) {
+        this.tokenCounter = tokenCounter;
+    }
+
+    /**
+     * 追加一条消息，并按工具调用链的状态修复
+     */
+    synchronized void add(Message message) {
+        if (message instanceof ToolResponseMessage toolResponseMessage) {
+            message = matchResponses(toolResponseMessage);
+            if (message == null) {
+                if (messages.isEmpty()) {
+                    coveredMessages++;
+                } else {
+                    persistedCounts.set(messages.size() - 1, persistedCounts.get(messages.size() - 1) + 1);
+                }
+                return;
+            }
+        } else if (!pendingToolCalls.isEmpty()) {
+            closePendingToolCalls();
+        }
+        append(message, 1);
+        if (message instanceof AssistantMessage assistantMessage && assistantMessage.getToolCalls() != null) {
+            for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+                pendingToolCalls.put(toolCall.id(), toolCall);
+            }
+        }
+    }
+
+    /**
+     * 发送给模型前检查工具调用链，有未返回结果的调用时补上错误结果
+     *
+     * @return 是否做了修复
+     */
+    synchronized boolean repairChain() {
+        if (pendingToolCalls.isEmpty()) {
+            return false;
+        }
+        closePendingToolCalls();
+        return true;
+    }
+
+    synchronized long repairedCalls() {
+        return repairedCalls;
+    }
+
+    synchronized long droppedResponses() {
+        return droppedResponses;
+    }
+
+    synchronized int size() {
+        return messages.size();
+    }
+
+    synchronized long totalTokens() {
+        return totalTokens;
+    }
+
+    /**
+     * 消息和摘要的估算内存占用（字节）
+     */
+    synchronized long estimatedBytes() {
+        return estimatedBytes + (summary != null ? 2L * summary.length() : 0)
+                + (recalledMessage != null ? 2L * recalledMessage.getText().length() : 0);
+    }
+
+    synchronized List<Message> snapshot() {
+        return new ArrayList<>(messages);
+    }
+
+    synchronized String summary() {
+        return summary;
+    }
+
+    synchronized long coveredMessages() {
+        return coveredMessages;
+    }
+
+    synchronized long summarizedTokens() {
+        return summarizedTokens;
+    }
+
+    /**
+     * 设置本次运行召回的长期记忆，放在窗口中摘要之后并占用 token 预算
+     *
+     * @param text   召回内容，为 null 时清除
+     * @param tokens 召回内容的 token 数
+     */
+    synchronized void setRecalled(String text, int tokens) {
+        recalledMessage = text != null ? new SystemMessage(RECALL_PREFIX + text) : null;
+        recalledTokens = text != null ? tokens : 0;
+    }
+
+    /**
+     * 最近一条用户消息的文本，没有时返回 null
+     */
+    synchronized String lastUserText() {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof UserMessage userMessage) {
+                return userMessage.getText();
+            }
+        }
+        return null;
+    }
+
+    synchronized int summaryTokens() {
+        return summaryTokens;
+    }
+
+    /**
+     * 恢复持久化的摘要，在加载消息之前调用
+     *
+     * @param text             摘要文本，没有摘要时为 null
+     * @param tokens           摘要的 token 数
+     * @param covered          工作记忆第一条消息之前的消息数
+     * @param summarizedTokens 被摘要代替的消息原本的 token 数
+     */
+    synchronized void restoreSummary(String text, int tokens, long covered, long summarizedTokens) {
+        setSummary(text, tokens);
+        this.coveredMessages = covered;
+        this.summarizedTokens = summarizedTokens;
+    }
+
+    /**
+     * 取总 token 数不超过预算的最近消息
+     * <p>
+     * 开头的系统消息和滚动摘要始终保留。从最新的消息往前按单元取：工具结果和发起调用的助手消息是一个单元，
+     * 要么一起保留要么一起丢弃，避免发给模型的历史里出现没有调用的工具结果。
+     * 最新的一个单元即使超出预算也会保留。
+     */
+    synchronized List<Message> window(int budget) {
+        int first = leadingSystemCount();
+        if (totalTokens + summaryTokens + recalledTokens <= budget) {
+            return withSummary(first, first);
+        }
+
+        long used = summaryTokens + recalledTokens;
+        for (int i = 0; i < first; i++) {
+            used += tokenCounts.get(i);
+        }
+        int start = messages.size();
+        while (start > first) {
+            int unitStart = unitStart(start - 1, first);
+            long unitTokens = tokensBetween(unitStart, start);
+            if (used + unitTokens > budget && start < messages.size()) {
+                break;
+            }
+            used += unitTokens;
+            start = unitStart;
+        }
+
+        List<Message> window = withSummary(first, start);
+        if (used > budget) {
+            log.warn("Latest message unit alone takes {} tokens, exceeding the budget of {}", used, budget);
+        }
+        log.info("Truncated messages from {} to {} ({} of {} tokens)",
+                messages.size(), window.size(), used, totalTokens + summaryTokens + recalledTokens);
+        return window;
+    }
+
+    /**
+     * 超出预算时取出需要并入摘要的最早消息，压缩到剩余消息不超过 retainTokens 为止
+     * <p>
+     * 同一时刻只有一次压缩；前缀在单元边界处截断，并且至少留下最新的一个单元。
+     *
+     * @return 待压缩的前缀，不需要压缩或已有压缩在进行时返回 null
+     */
+    synchronized Fold beginFold(int budget, int retainTokens) {
+        if (folding || totalTokens + summaryTokens + recalledTokens <= budget) {
+            return null;
+        }
+        int first = leadingSystemCount();
+        int lastUnit = unitStart(messages.size() - 1, first);
+        int end = first;
+        long remaining = totalTokens;
+        for (int i = 0; i < first; i++) {
+            remaining -= tokenCounts.get(i);
+        }
+        while (end < lastUnit && (remaining > retainTokens || messages.get(end) instanceof ToolResponseMessage)) {
+            remaining -= tokenCounts.get(end);
+            end++;
+        }
+        if (end == first) {
+            return null;
+        }
+        folding = true;
+        return new Fold(new ArrayList<>(messages.subList(first, end)), tokensBetween(first, end), summary);
+    }
+
+    /**
+     * 用新的摘要替换已压缩的前缀
+     *
+     * @param fold   {@link #beginFold} 返回的前缀
+     * @param text   新的摘要文本
+     * @param tokens 新摘要的 token 数
+     */
+    synchronized void completeFold(Fold fold, String text, int tokens) {
+        int first = leadingSystemCount();
+        int count = fold.messages().size();
+        for (int i = first; i < first + count; i++) {
+            coveredMessages += persistedCounts.get(i);
+            estimatedBytes -= HistoryCache.estimateBytes(messages.get(i));
+        }
+        messages.subList(first, first + count).clear();
+        tokenCounts.subList(first, first + count).clear();
+        persistedCounts.subList(first, first + count).clear();
+        totalTokens -= fold.tokens();
+        summarizedTokens += fold.tokens();
+        setSummary(text, tokens);
+        folding = false;
+    }
+
+    /**
+     * 压缩失败，保留原消息，下次超出预算时重试
+     */
+    synchronized void abortFold() {
+        folding = false;
+    }
+
+    private void append(Message message, int persisted) {
+        int tokens = tokenCounter.applyAsInt(message);
+        messages.add(message);
+        tokenCounts.add(tokens);
+        persistedCounts.add(persisted);
+        totalTokens += tokens;
+        estimatedBytes += HistoryCache.estimateBytes(message);
+    }
+
+    /**
+     * 核销工具结果对应的调用，去掉没有对应调用的结果
+     *
+     * @return 保留下来的工具结果消息，全部没有对应调用时返回 null
+     */
+    private Message matchResponses(ToolResponseMessage message) {
+        List<ToolResponseMessage.ToolResponse> matched = new ArrayList<>();
+        for (ToolResponseMessage.ToolResponse response : message.getResponses()) {
+            if (pendingToolCalls.remove(response.id()) != null) {
+                matched.add(response);
+            }
+        }
+        int dropped = message.getResponses().size() - matched.size();
+        if (dropped == 0) {
+            return message;
+        }
+        droppedResponses += dropped;
+        log.warn("Dropped {} tool responses without a matching tool call", dropped);
+        return matched.isEmpty() ? null : new ToolResponseMessage(matched, message.getMetadata());
+    }
+
+    private void closePendingToolCalls() {
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(pendingToolCalls.size());
+        for (AssistantMessage.ToolCall toolCall : pendingToolCalls.values()) {
+            responses.add(new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(), MISSING_RESULT));
+        }
+        repairedCalls += responses.size();
+        log.warn("Added error responses for {} tool calls without results: {}",
+                responses.size(), pendingToolCalls.keySet());
+        pendingToolCalls.clear();
+        append(new ToolResponseMessage(responses), 0);
+    }
+
+    private void setSummary(String text, int tokens) {
+        summary = text;
+        summaryMessage = text != null ? new SystemMessage(SUMMARY_PREFIX + text) : null;
+        summaryTokens = text != null ? tokens : 0;
+    }
+
+    private List<Message> withSummary(int first, int start) {
+        List<Message> window = new ArrayList<>(first + 1 + messages.size() - start);
+        window.addAll(messages.subList(0, first));
+        if (summaryMessage != null) {
+            window.add(summaryMessage);
+        }
+        if (recalledMessage != null) {
+            window.add(recalledMessage);
+        }
+        window.addAll(messages.subList(start, messages.size()));
+        return window;
+    }
+
+    private int leadingSystemCount() {
+        return !messages.isEmpty() && messages.get(0) instanceof SystemMessage ? 1 : 0;
+    }
+
+    /**
+     * index 所在单元的起点：连续的工具结果向前归入发起调用的助手消息
+     */
+    private int unitStart(int index, int first) {
+        int start = index;
+        while (start > first && messages.get(start) instanceof ToolResponseMessage) {
+            start--;
+        }
+        return start;
+    }
+
+    private long tokensBetween(int from, int to) {
+        long tokens = 0;
+        for (int i = from; i < to; i++) {
+            tokens += tokenCounts.get(i);
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,200 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * 会话工作记忆的缓存，供 {@link ConversationMemoryManager} 使用
+ * <p>
+ * 工作记忆在多次运行之间保留：同一会话连续发送消息时直接复用，不再从存储重新加载和解码。
+ * 闲置超过 workingCacheIdleMs 的会话由定时任务淘汰；所有会话的估算内存总量超过 workingCacheMaxBytes 时，
+ * 淘汰最久未使用的会话，但最近使用的一个会话始终保留。
+ */
+@Slf4j
+@Component
+public class WorkingMemoryCache {
+
+    private static final class Entry {
+        private final WorkingMemory memory;
+        private long lastAccess;
+
+        private Entry(WorkingMemory memory, long lastAccess) {
+            this.memory = memory;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private final MemoryProperties properties;
+    private final LongSupplier clock;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter idleEvictionCounter;
+    private final Counter sizeEvictionCounter;
+
+    @Autowired
+    public WorkingMemoryCache(MemoryProperties properties, MeterRegistry meterRegistry) {
+        this(properties, meterRegistry, System::currentTimeMillis);
+    }
+
+    WorkingMemoryCache(MemoryProperties properties, MeterRegistry meterRegistry, LongSupplier clock) {
+        this.properties = properties;
+        this.clock = clock;
+        this.hitCounter = Counter.builder("memory.working.cache.requests")
+                .tag("result", "hit")
+                .description("工作记忆缓存命中次数")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("memory.working.cache.requests")
+                .tag("result", "miss")
+                .description("工作记忆缓存未命中次数")
+                .register(meterRegistry);
+        this.idleEvictionCounter = Counter.builder("memory.working.cache.evictions")
+                .tag("reason", "idle")
+                .description("因闲置被淘汰的会话数")
+                .register(meterRegistry);
+        this.sizeEvictionCounter = Counter.builder("memory.working.cache.evictions")
+                .tag("reason", "size")
+                .description("因超出内存上限被淘汰的会话数")
+                .register(meterRegistry);
+        Gauge.builder("memory.working.cache.bytes", this, WorkingMemoryCache::estimatedBytes)
+                .description("工作记忆的估算内存占用")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("memory.working.cache.sessions", this, WorkingMemoryCache::size)
+                .description("缓存工作记忆的会话数")
+                .register(meterRegistry);
+        Gauge.builder("memory.working.cache.hit.ratio", this, WorkingMemoryCache::hitRatio)
+                .description("工作记忆缓存命中率")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 取会话的工作记忆，未缓存时用 loader 加载
+     * <p>
+     * 加载在锁外进行；并发加载同一会话时以先放入的为准。
+     */
+    public WorkingMemory getOrLoad(String sessionId, Function<String, WorkingMemory> loader) {
+        synchronized (this) {
+            Entry entry = entries.get(sessionId);
+            if (entry != null) {
+                hitCounter.increment();
+                entry.lastAccess = clock.getAsLong();
+                return entry.memory;
+            }
+            missCounter.increment();
+        }
+        WorkingMemory loaded = loader.apply(sessionId);
+        synchronized (this) {
+            Entry entry = entries.get(sessionId);
+            if (entry == null) {
+                entry = new Entry(loaded, clock.getAsLong());
+                entries.put(sessionId, entry);
+            }
+            enforceLimit();
+            return entry.memory;
+        }
+    }
+
+    /**
+     * 取已缓存的工作记忆，不计入命中率也不更新访问时间
+     *
+     * @return 未缓存时返回 null
+     */
+    public synchronized WorkingMemory peek(String sessionId) {
+        Entry entry = entries.get(sessionId);
+        return entry != null ? entry.memory : null;
+    }
+
+    /**
+     * 会话的工作记忆变大后调用，按内存上限淘汰其他会话
+     */
+    public synchronized void touch(String sessionId) {
+        Entry entry = entries.get(sessionId);
+        if (entry != null) {
+            entry.lastAccess = clock.getAsLong();
+        }
+        enforceLimit();
+    }
+
+    /**
+     * 移除会话的工作记忆
+     */
+    public synchronized void remove(String sessionId) {
+        entries.remove(sessionId);
+    }
+
+    /**
+     * 移除全部工作记忆，用于批量导入等绕过工作记忆的写入
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * 淘汰闲置的会话
+     */
+    @Scheduled(fixedDelayString = "${obsidian.memory.working-cache-sweep-interval-ms:60000}",
+            initialDelayString = "${obsidian.memory.working-cache-sweep-interval-ms:60000}")
+    public synchronized void evictIdle() {
+        long cutoff = clock.getAsLong() - properties.getWorkingCacheIdleMs();
+        int evicted = 0;
+        // 按访问顺序遍历，遇到第一个未闲置的会话即可停止
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.lastAccess > cutoff) {
+                break;
+            }
+            iterator.remove();
+            evicted++;
+        }
+        if (evicted > 0) {
+            idleEvictionCounter.increment(evicted);
+            log.debug("Evicted {} idle working memories", evicted);
+        }
+    }
+
+    public synchronized long estimatedBytes() {
+        long bytes = 0;
+        for (Entry entry : entries.values()) {
+            bytes += entry.memory.estimatedBytes();
+        }
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private double hitRatio() {
+        double hits = hitCounter.count();
+        double total = hits + missCounter.count();
+        return total > 0 ? hits / total : 0.0;
+    }
+
+    /**
+     * 按访问顺序淘汰最久未使用的会话，直到总量不超过上限或只剩最近使用的一个
+     */
+    private void enforceLimit() {
+        long maxBytes = properties.getWorkingCacheMaxBytes();
+        long totalBytes = estimatedBytes();
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (totalBytes > maxBytes && entries.size() > 1 && eldest.hasNext()) {
+            totalBytes -= eldest.next().memory.estimatedBytes();
+            eldest.remove();
+            sizeEvictionCounter.increment();
+        }
+    }
+}
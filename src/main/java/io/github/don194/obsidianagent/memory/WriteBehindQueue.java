@@ -0,0 +1,384 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.storage.SegmentLog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 会话消息的异步回写队列
+ * <p>
+ * 每个会话有独立的待写缓冲区，同一时刻最多只有一个回写任务在处理某个会话，
+ * 因此同一会话的消息严格按添加顺序落库；回写任务每次把缓冲区里积压的消息一次性写入。
+ * 运行结束和应用关闭时通过 {@link #flush(String)} / {@link #flushAll()} 等待落库完成。
+ * <p>
+ * 入队的消息先追加到只追加的日志（{@link SegmentLog}，内存映射，不经过 SQL）再返回，每批落库后追加一条
+ * 已落库标记，会话的消息全部落库后清空它在日志中的记录。进程崩溃或被强制结束后，下次启动时把日志中
+ * 尚未标记落库的消息补写到持久化后端；落库与写入标记之间崩溃时，最后一批可能被补写两次。
+ * 日志的刷盘策略与 segment-log 后端相同（obsidian.memory.segment-force-on-append）。
+ * <p>
+ * 会话的消息全部落库后移除它的缓冲区，缓冲区的数量只与仍有待写消息的会话数有关。
+ * 写入日志、写入已落库标记、清空日志和移除缓冲区都在缓冲区映射的同一个键上原子地进行，互不交错。
+ * <p>
+ * 每个缓冲区有一把回写锁，取出一批消息到写入完成都在锁内：{@link #discard} 会等待正在进行的回写结束，
+ * 已取出的一批不会在会话删除之后才落库；{@link #readWithPending} 在锁内读取持久化的历史和尚未回写的消息，
+ * 两者之间既不重复也不遗漏，加载会话不需要等待全部回写完成。
+ */
+@Slf4j
+@Component
+public class WriteBehindQueue {
+
+    private static final class SessionBuffer {
+        private final Queue<Message> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicLong enqueued = new AtomicLong();
+        // 取出一批消息到写入完成期间持有
+        private final ReentrantLock drainLock = new ReentrantLock();
+        // 已被丢弃，之后的回写任务不再写入；在获取 drainLock 之前置位，等待锁的回写任务拿到锁后即可看到
+        private volatile boolean discarded;
+        // 由 this 监视器保护
+        private long persisted;
+    }
+
+    /**
+     * 日志中已落库标记的标签，内容为该批消息的条数
+     */
+    private static final byte TAG_PERSISTED = 100;
+
+    private final ChatMemory persistentMemory;
+    private final MessageCodec messageCodec;
+    private final MemoryProperties properties;
+    /**
+     * 待写消息的日志，未启用回写时为 null
+     */
+    private final SegmentLog journal;
+    private final Map<String, SessionBuffer> buffers = new ConcurrentHashMap<>();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final ExecutorService executor;
+    private final DistributionSummary batchSizeSummary;
+    private final Counter failedCounter;
+
+    public WriteBehindQueue(ChatMemory persistentMemory,
+                            MessageCodec messageCodec,
+                            MemoryProperties properties,
+                            MeterRegistry meterRegistry) {
+        this.persistentMemory = persistentMemory;
+        this.messageCodec = messageCodec;
+        this.properties = properties;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(properties.getWriteBehindThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "memory-write-behind-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.batchSizeSummary = DistributionSummary.builder("memory.write-behind.batch.size")
+                .description("每次回写落库的消息数量")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("memory.write-behind.failed")
+                .description("回写失败而丢失的消息数量")
+                .register(meterRegistry);
+        Gauge.builder("memory.write-behind.pending", pendingCount, AtomicLong::get)
+                .description("等待回写的消息数量")
+                .register(meterRegistry);
+        Gauge.builder("memory.write-behind.sessions", buffers, Map::size)
+                .description("有待写消息的会话数量")
+                .register(meterRegistry);
+        // 关闭回写后仍然补写上次留下的日志
+        Path directory = Path.of(properties.getWriteBehindJournalPath()).toAbsolutePath();
+        SegmentLog opened = properties.isWriteBehind() || Files.isDirectory(directory)
+                ? openJournal(directory, properties) : null;
+        if (opened != null) {
+            replayJournal(opened);
+            if (!properties.isWriteBehind()) {
+                opened.close();
+                opened = null;
+            }
+        }
+        this.journal = opened;
+    }
+
+    private static SegmentLog openJournal(Path directory, MemoryProperties properties) {
+        try {
+            return SegmentLog.open(directory, properties.getSegmentSizeBytes(), properties.isSegmentForceOnAppend());
+        } catch (IOException e) {
+            throw new IllegalStateException("无法打开回写日志目录: " + directory, e);
+        }
+    }
+
+    /**
+     * 把上次进程退出时日志中尚未落库的消息补写到持久化后端；补写失败时启动失败，日志保留到下次启动
+     */
+    private void replayJournal(SegmentLog journal) {
+        for (String sessionId : journal.sessionIds()) {
+            List<Message> unpersisted = new ArrayList<>();
+            for (SegmentLog.Entry entry : journal.readLast(sessionId, journal.size(sessionId))) {
+                if (entry.tag() == TAG_PERSISTED) {
+                    int count = ByteBuffer.wrap(entry.payload()).getInt();
+                    unpersisted.subList(0, Math.min(count, unpersisted.size())).clear();
+                    continue;
+                }
+                Message message = messageCodec.fromEntry(entry);
+                if (message != null) {
+                    unpersisted.add(message);
+                }
+            }
+            if (!unpersisted.isEmpty()) {
+                try {
+                    persistentMemory.add(sessionId, unpersisted);
+                } catch (RuntimeException e) {
+                    throw new IllegalStateException("补写会话 " + sessionId + " 的回写日志失败", e);
+                }
+                log.info("补写会话 {} 在上次退出前未落库的 {} 条消息", sessionId, unpersisted.size());
+            }
+            journal.clear(sessionId);
+        }
+    }
+
+    /**
+     * 将消息加入会话的待写缓冲区
+     *
+     * @param sessionId 会话ID
+     * @param messages  消息列表
+     */
+    public void enqueue(String sessionId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<SegmentLog.Entry> entries = journal != null ? messages.stream().map(messageCodec::toEntry).toList() : null;
+        SessionBuffer buffer = buffers.compute(sessionId, (id, existing) -> {
+            SessionBuffer target = existing != null ? existing : new SessionBuffer();
+            // 先写日志再加入缓冲区：返回之后进程崩溃，消息也能在下次启动时补写
+            if (entries != null) {
+                journal.append(id, entries);
+            }
+            target.pending.addAll(messages);
+            target.enqueued.addAndGet(messages.size());
+            return target;
+        });
+        pendingCount.addAndGet(messages.size());
+        schedule(sessionId, buffer);
+    }
+
+    /**
+     * 等待指定会话当前已入队的消息全部落库
+     *
+     * @param sessionId 会话ID
+     */
+    public void flush(String sessionId) {
+        SessionBuffer buffer = buffers.get(sessionId);
+        if (buffer == null) {
+            return;
+        }
+        long target = buffer.enqueued.get();
+        long deadline = System.currentTimeMillis() + properties.getFlushTimeoutMs();
+        synchronized (buffer) {
+            while (buffer.persisted < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    log.warn("等待会话 {} 回写超时，仍有 {} 条消息未落库", sessionId, target - buffer.persisted);
+                    return;
+                }
+                try {
+                    buffer.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 在会话的回写锁内读取：持久化的历史加上尚未回写的消息即为完整历史，不需要等待回写完成
+     *
+     * @param sessionId 会话ID
+     * @param reader    接收尚未回写的消息（按添加顺序），在其中读取持久化的历史
+     * @return reader 的返回值
+     */
+    public <T> T readWithPending(String sessionId, Function<List<Message>, T> reader) {
+        SessionBuffer buffer = buffers.get(sessionId);
+        if (buffer == null) {
+            return reader.apply(List.of());
+        }
+        buffer.drainLock.lock();
+        try {
+            return reader.apply(List.copyOf(buffer.pending));
+        } finally {
+            buffer.drainLock.unlock();
+        }
+    }
+
+    /**
+     * 丢弃会话尚未落库的消息（会话被删除或清空时使用）；正在进行的回写会先完成，返回后不会再有该会话的写入
+     *
+     * @param sessionId 会话ID
+     */
+    public void discard(String sessionId) {
+        SessionBuffer[] removed = new SessionBuffer[1];
+        buffers.compute(sessionId, (id, existing) -> {
+            if (existing != null) {
+                existing.discarded = true;
+            }
+            if (journal != null) {
+                journal.clear(id);
+            }
+            removed[0] = existing;
+            return null;
+        });
+        SessionBuffer buffer = removed[0];
+        if (buffer == null) {
+            return;
+        }
+        int dropped = 0;
+        // 等待正在进行的回写结束
+        buffer.drainLock.lock();
+        try {
+            while (buffer.pending.poll() != null) {
+                dropped++;
+            }
+        } finally {
+            buffer.drainLock.unlock();
+        }
+        if (dropped > 0) {
+            pendingCount.addAndGet(-dropped);
+            markPersisted(buffer, dropped);
+            log.info("丢弃会话 {} 的 {} 条未落库消息", sessionId, dropped);
+        }
+    }
+
+    /**
+     * 等待所有会话的消息落库，应用关闭时调用；超时未落库的消息留在日志中，下次启动时补写
+     */
+    @PreDestroy
+    public void flushAll() {
+        buffers.keySet().forEach(this::flush);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(properties.getFlushTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                log.warn("回写线程未能在超时时间内结束，剩余 {} 条消息", pendingCount.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * 定期压缩回写日志中已清空的记录
+     */
+    @Scheduled(fixedDelayString = "${obsidian.memory.segment-compaction-interval-ms:300000}",
+            initialDelayString = "${obsidian.memory.segment-compaction-interval-ms:300000}")
+    public void compactJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.compact(properties.getSegmentCompactionGarbageRatio());
+        } catch (Exception e) {
+            log.error("回写日志压缩失败", e);
+        }
+    }
+
+    private void schedule(String sessionId, SessionBuffer buffer) {
+        if (buffer.scheduled.compareAndSet(false, true)) {
+            executor.execute(() -> drain(sessionId, buffer));
+        }
+    }
+
+    private void drain(String sessionId, SessionBuffer buffer) {
+        buffer.drainLock.lock();
+        try {
+            if (buffer.discarded) {
+                return;
+            }
+            List<Message> batch = new ArrayList<>();
+            Message message;
+            while ((message = buffer.pending.poll()) != null) {
+                batch.add(message);
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    persistentMemory.add(sessionId, batch);
+                    batchSizeSummary.record(batch.size());
+                } catch (Exception e) {
+                    failedCounter.increment(batch.size());
+                    log.error("会话 {} 的 {} 条消息回写失败", sessionId, batch.size(), e);
+                } finally {
+                    pendingCount.addAndGet(-batch.size());
+                    // 先在日志中记下这一批再唤醒 flush，flush 返回后重启不会重复补写；
+                    // 失败的一批已计入 failed，同样标记，不会在下次启动时补写
+                    try {
+                        completeBatch(sessionId, buffer, batch.size());
+                    } finally {
+                        markPersisted(buffer, batch.size());
+                    }
+                }
+            }
+        } finally {
+            buffer.drainLock.unlock();
+            buffer.scheduled.set(false);
+            // 处理期间新入队的消息由下一轮任务负责
+            if (!buffer.pending.isEmpty() && !buffer.discarded) {
+                schedule(sessionId, buffer);
+            }
+        }
+    }
+
+    /**
+     * 一批消息处理完毕：会话没有待写消息时清空它的日志并移除缓冲区，否则在日志中记下这一批已落库
+     */
+    private void completeBatch(String sessionId, SessionBuffer buffer, int count) {
+        buffers.computeIfPresent(sessionId, (id, current) -> {
+            if (current != buffer) {
+                return current;
+            }
+            if (buffer.pending.isEmpty()) {
+                if (journal != null) {
+                    journal.clear(id);
+                }
+                return null;
+            }
+            if (journal != null) {
+                byte[] payload = ByteBuffer.allocate(Integer.BYTES).putInt(count).array();
+                journal.append(id, List.of(new SegmentLog.Entry(TAG_PERSISTED, payload)));
+            }
+            return current;
+        });
+    }
+
+    private void markPersisted(SessionBuffer buffer, int count) {
+        synchronized (buffer) {
+            buffer.persisted += count;
+            buffer.notifyAll();
+        }
+    }
+}
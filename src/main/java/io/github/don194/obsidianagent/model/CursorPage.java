@@ -0,0 +1,21 @@
+package io.github.don194.obsidianagent.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 基于游标的分页结果
+ *
+ * @param <T> 元素类型
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPage<T> {
+    private List<T> items;
+    private String nextCursor;     // 继续向后翻页的游标，没有更多数据时为 null
+    private String prevCursor;     // 向前翻页的游标，已到开头时为 null
+}
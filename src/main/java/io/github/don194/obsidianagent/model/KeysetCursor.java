@@ -0,0 +1,43 @@
+package io.github.don194.obsidianagent.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 键集分页游标：排序时间戳（毫秒）加上用于打破并列的唯一键
+ * <p>
+ * 对外以不透明的 Base64URL 字符串传递，客户端只需原样带回。
+ *
+ * @param timestamp 排序列的毫秒时间戳
+ * @param key       同一时间戳内的唯一键
+ */
+public record KeysetCursor(long timestamp, String key) {
+
+    /**
+     * 编码为不透明字符串
+     */
+    public String encode() {
+        String raw = timestamp + ":" + key;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析客户端带回的游标
+     *
+     * @param cursor 不透明字符串，为空时返回 null
+     * @return 游标
+     * @throws IllegalArgumentException 游标格式不正确
+     */
+    public static KeysetCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            return new KeysetCursor(Long.parseLong(raw.substring(0, separator)), raw.substring(separator + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("无效的分页游标: " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package io.github.don194.obsidianagent.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 消息搜索结果DTO
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessageSearchResult {
+    private String messageId;
+    private String sessionId;
+    private String type;
+    private String content;        // 可读文本（工具调用等已展开）
+    private String snippet;        // 命中位置附近的片段，命中词以 <mark> 包裹
+    private double score;          // BM25 得分，越小越相关
+    private LocalDateTime timestamp;
+}
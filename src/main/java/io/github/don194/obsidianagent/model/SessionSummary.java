@@ -0,0 +1,23 @@
+package io.github.don194.obsidianagent.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 会话列表投影DTO，由一条SQL查询得到，不加载会话中的消息
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SessionSummary {
+    private String sessionId;
+    private String title;
+    private int messageCount;
+    private LocalDateTime createdAt;
+    private LocalDateTime lastActivity;     // 即 chat_sessions.updated_at
+    private String lastMessageType;         // 最后一条消息的类型（小写），没有消息时为 null
+    private String lastMessagePreview;      // 最后一条消息的单行预览
+}
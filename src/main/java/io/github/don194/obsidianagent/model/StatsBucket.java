@@ -0,0 +1,33 @@
+package io.github.don194.obsidianagent.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 一个时间桶内的聊天统计，总计时 bucketStart 为 null
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatsBucket {
+    private LocalDateTime bucketStart;
+    private long sessions;          // 新建的会话数（总计为现有会话数）
+    private long messages;          // 写入的消息数（总计为现有消息数）
+    private long toolCalls;         // 助手发起的工具调用数
+    private long promptTokens;      // 模型调用的输入 token
+    private long completionTokens;  // 模型调用的输出 token
+
+    /**
+     * 累加另一个桶的计数，用于合并各分片的统计
+     */
+    public void add(StatsBucket other) {
+        sessions += other.sessions;
+        messages += other.messages;
+        toolCalls += other.toolCalls;
+        promptTokens += other.promptTokens;
+        completionTokens += other.completionTokens;
+    }
+}
@@ -0,0 +1,537 @@
+package io.github.don194.obsidianagent.repository;
+
+import io.github.don194.obsidianagent.entity.ChatContextSummary;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.entity.ChatToolResult;
+import io.github.don194.obsidianagent.model.CursorPage;
+import io.github.don194.obsidianagent.model.KeysetCursor;
+import io.github.don194.obsidianagent.model.SessionSummary;
+import io.github.don194.obsidianagent.storage.ChatStats;
+import io.github.don194.obsidianagent.storage.MessageText;
+import io.github.don194.obsidianagent.storage.PayloadCodec;
+import io.github.don194.obsidianagent.storage.SessionArchive;
+import io.github.don194.obsidianagent.storage.SqliteReaderPool;
+import io.github.don194.obsidianagent.storage.SqliteWriter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 聊天数据的JDBC访问层
+ * <p>
+ * 写操作全部经过 {@link SqliteWriter} 的单写线程，读操作走 {@link SqliteReaderPool} 的只读连接。
+ * 表结构仍由 {@link ChatMessage} / {@link io.github.don194.obsidianagent.entity.ChatSession} 实体定义，
+ * 时间字段与 Hibernate 一致，以毫秒时间戳存储。
+ */
+@Repository
+@RequiredArgsConstructor
+public class ChatJdbcRepository {
+
+    private static final String MESSAGE_COLUMNS = "id, message_id, session_id, message_type, content, created_at";
+
+    private static final int PREVIEW_LENGTH = 80;
+
+    /**
+     * 会话列表投影：最后一条消息通过 idx_session_created_id 定位，每个会话只读一行
+     */
+    private static final String SESSION_SUMMARY_SELECT =
+            "SELECT s.session_id, s.title, s.message_count, s.created_at, s.updated_at, " +
+                    "m.message_type AS last_type, m.content AS last_content " +
+                    "FROM chat_sessions s LEFT JOIN chat_messages m ON m.id = (" +
+                    "SELECT id FROM chat_messages WHERE session_id = s.session_id ORDER BY created_at DESC, id DESC LIMIT 1) ";
+
+    /**
+     * 挂载了冷库时的会话列表投影：已归档会话的最后一条消息在冷库中
+     */
+    private static final String ARCHIVED_SESSION_SUMMARY_SELECT =
+            "SELECT s.session_id, s.title, s.message_count, s.created_at, s.updated_at, " +
+                    "COALESCE(m.message_type, a.message_type) AS last_type, " +
+                    "COALESCE(m.content, a.content) AS last_content " +
+                    "FROM chat_sessions s LEFT JOIN chat_messages m ON m.id = (" +
+                    "SELECT id FROM chat_messages WHERE session_id = s.session_id ORDER BY created_at DESC, id DESC LIMIT 1) " +
+                    "LEFT JOIN archive.chat_messages a ON s.archived_at IS NOT NULL AND a.id = (" +
+                    "SELECT id FROM archive.chat_messages WHERE session_id = s.session_id " +
+                    "ORDER BY created_at DESC, id DESC LIMIT 1) ";
+
+    /**
+     * 已归档会话的消息：冷库中的消息沿用原 id，归档后才写入主库的消息（如导入）一并返回
+     */
+    private static final String ARCHIVED_MESSAGES =
+            "(SELECT COALESCE(source_id, id) AS id, message_id, session_id, message_type, content, created_at " +
+                    "FROM archive.chat_messages UNION ALL " +
+                    "SELECT " + MESSAGE_COLUMNS + " FROM main.chat_messages)";
+
+    private final RowMapper<ChatMessage> messageRowMapper = (rs, rowNum) -> {
+        ChatMessage message = new ChatMessage();
+        message.setId(rs.getLong("id"));
+        message.setMessageId(rs.getString("message_id"));
+        message.setSessionId(rs.getString("session_id"));
+        String type = rs.getString("message_type");
+        message.setMessageType(ChatMessage.MessageType.valueOf(type));
+        if (PayloadCodec.isStructured(type)) {
+            // 原始字节交给 MessageCodec 直接解码，这里不再还原成 JSON 文本
+            message.setPayload(rs.getBytes("content"));
+        } else {
+            message.setContent(rs.getString("content"));
+        }
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        message.setCreatedAt(createdAt != null ? createdAt.toLocalDateTime() : null);
+        return message;
+    };
+
+    private final RowMapper<SessionSummary> sessionSummaryRowMapper = (rs, rowNum) -> {
+        SessionSummary summary = new SessionSummary();
+        summary.setSessionId(rs.getString("session_id"));
+        summary.setTitle(rs.getString("title"));
+        summary.setMessageCount(rs.getInt("message_count"));
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        summary.setCreatedAt(createdAt != null ? createdAt.toLocalDateTime() : null);
+        Timestamp updatedAt = rs.getTimestamp("updated_at");
+        summary.setLastActivity(updatedAt != null ? updatedAt.toLocalDateTime() : null);
+        String lastType = rs.getString("last_type");
+        if (lastType != null) {
+            summary.setLastMessageType(lastType.toLowerCase(Locale.ROOT));
+            summary.setLastMessagePreview(MessageText.preview(
+                    MessageText.extract(lastType, readContent(rs, "last_content", lastType)), PREVIEW_LENGTH));
+        }
+        return summary;
+    };
+
+    private final SqliteWriter writer;
+    private final SqliteReaderPool readerPool;
+    private final PayloadCodec payloadCodec;
+
+    /**
+     * 追加消息：确保会话存在、批量插入消息并更新会话计数和统计，在同一个写操作中完成
+     *
+     * @param sessionId 会话ID
+     * @param messages  待插入的消息
+     */
+    public void appendMessages(String sessionId, List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        writer.execute(connection -> {
+            insertMessages(connection, sessionId, messages);
+            return null;
+        });
+    }
+
+    /**
+     * 查询指定会话最近的N条消息，按时间正序返回
+     *
+     * @param sessionId 会话ID
+     * @param lastN     数量
+     * @return 消息实体列表
+     */
+    public List<ChatMessage> findRecentMessages(String sessionId, int lastN) {
+        return findRecentMessages(sessionId, lastN, false);
+    }
+
+    /**
+     * 查询指定会话最近的N条消息，按时间正序返回
+     *
+     * @param sessionId 会话ID
+     * @param lastN     数量
+     * @param archived  会话是否已归档，已归档时从冷库读取
+     * @return 消息实体列表
+     */
+    public List<ChatMessage> findRecentMessages(String sessionId, int lastN, boolean archived) {
+        List<ChatMessage> messages = readerPool.getJdbcTemplate().query(
+                "SELECT " + MESSAGE_COLUMNS + " FROM " + messageSource(archived) + " WHERE session_id = ? " +
+                        "ORDER BY created_at DESC, id DESC LIMIT ?",
+                messageRowMapper, sessionId, lastN);
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * 以游标分页查询会话消息，结果按时间正序排列
+     * <p>
+     * 游标为 (created_at, id)，由 idx_session_created_id 复合索引直接定位，任意深度的翻页代价相同。
+     * 返回的 prevCursor 指向更早的消息（配合 before 使用），nextCursor 指向更新的消息（配合 after 使用）。
+     *
+     * @param sessionId 会话ID
+     * @param before    只返回该游标之前的消息，与 after 同时为 null 时返回最新的一页
+     * @param after     只返回该游标之后的消息
+     * @param limit     每页数量
+     * @return 当前页的消息和前后游标
+     */
+    public CursorPage<ChatMessage> findMessagePage(String sessionId, KeysetCursor before, KeysetCursor after, int limit) {
+        return findMessagePage(sessionId, before, after, limit, false);
+    }
+
+    /**
+     * 以游标分页查询会话消息，结果按时间正序排列
+     *
+     * @param sessionId 会话ID
+     * @param before    只返回该游标之前的消息，与 after 同时为 null 时返回最新的一页
+     * @param after     只返回该游标之后的消息
+     * @param limit     每页数量
+     * @param archived  会话是否已归档，已归档时从冷库读取
+     * @return 当前页的消息和前后游标
+     */
+    public CursorPage<ChatMessage> findMessagePage(String sessionId, KeysetCursor before, KeysetCursor after, int limit,
+                                                   boolean archived) {
+        String source = messageSource(archived);
+        List<ChatMessage> messages;
+        boolean hasOlder;
+        boolean hasNewer;
+        if (after != null) {
+            messages = readerPool.getJdbcTemplate().query(
+                    "SELECT " + MESSAGE_COLUMNS + " FROM " + source + " WHERE session_id = ? AND (created_at, id) > (?, ?) " +
+                            "ORDER BY created_at ASC, id ASC LIMIT ?",
+                    messageRowMapper, sessionId, after.timestamp(), messageIdOf(after), limit + 1);
+            hasNewer = messages.size() > limit;
+            if (hasNewer) {
+                messages = new ArrayList<>(messages.subList(0, limit));
+            }
+            hasOlder = true;
+        } else {
+            if (before != null) {
+                messages = readerPool.getJdbcTemplate().query(
+                        "SELECT " + MESSAGE_COLUMNS + " FROM " + source + " WHERE session_id = ? AND (created_at, id) < (?, ?) " +
+                                "ORDER BY created_at DESC, id DESC LIMIT ?",
+                        messageRowMapper, sessionId, before.timestamp(), messageIdOf(before), limit + 1);
+            } else {
+                messages = readerPool.getJdbcTemplate().query(
+                        "SELECT " + MESSAGE_COLUMNS + " FROM " + source + " WHERE session_id = ? " +
+                                "ORDER BY created_at DESC, id DESC LIMIT ?",
+                        messageRowMapper, sessionId, limit + 1);
+            }
+            hasOlder = messages.size() > limit;
+            if (hasOlder) {
+                messages = new ArrayList<>(messages.subList(0, limit));
+            }
+            Collections.reverse(messages);
+            hasNewer = before != null;
+        }
+        if (messages.isEmpty()) {
+            return new CursorPage<>(messages, null, null);
+        }
+        String prevCursor = hasOlder ? cursorOf(messages.get(0)) : null;
+        String nextCursor = hasNewer ? cursorOf(messages.get(messages.size() - 1)) : null;
+        return new CursorPage<>(messages, nextCursor, prevCursor);
+    }
+
+    /**
+     * 按最后活动时间倒序分页查询会话列表
+     * <p>
+     * 键集分页：以 (updated_at, session_id) 作为游标，由 idx_sessions_updated_at 索引直接定位，
+     * 翻到任意深度的代价都相同。
+     *
+     * @param after 上一页返回的游标，为 null 时从最新的会话开始
+     * @param limit 每页数量
+     * @return 当前页的会话摘要和下一页游标
+     */
+    public CursorPage<SessionSummary> findSessionPage(KeysetCursor after, int limit) {
+        // 多取一条用于判断是否还有下一页
+        List<SessionSummary> sessions;
+        if (after == null) {
+            sessions = readerPool.getJdbcTemplate().query(
+                    sessionSummarySelect() + "ORDER BY s.updated_at DESC, s.session_id DESC LIMIT ?",
+                    sessionSummaryRowMapper, limit + 1);
+        } else {
+            sessions = readerPool.getJdbcTemplate().query(
+                    sessionSummarySelect() + "WHERE (s.updated_at, s.session_id) < (?, ?) " +
+                            "ORDER BY s.updated_at DESC, s.session_id DESC LIMIT ?",
+                    sessionSummaryRowMapper, after.timestamp(), after.key(), limit + 1);
+        }
+        String nextCursor = null;
+        if (sessions.size() > limit) {
+            sessions = new ArrayList<>(sessions.subList(0, limit));
+            SessionSummary last = sessions.get(limit - 1);
+            nextCursor = new KeysetCursor(toEpochMilli(last.getLastActivity()), last.getSessionId()).encode();
+        }
+        return new CursorPage<>(sessions, nextCursor, null);
+    }
+
+    /**
+     * 查询单个会话的摘要
+     *
+     * @param sessionId 会话ID
+     * @return 会话摘要，不存在时返回 null
+     */
+    public SessionSummary findSessionSummary(String sessionId) {
+        List<SessionSummary> summaries = readerPool.getJdbcTemplate().query(
+                sessionSummarySelect() + "WHERE s.session_id = ?",
+                sessionSummaryRowMapper, sessionId);
+        return summaries.isEmpty() ? null : summaries.get(0);
+    }
+
+    /**
+     * 查询会话上下文的滚动摘要，并带出会话当前的消息总数
+     *
+     * @param sessionId 会话ID
+     * @return 摘要，会话不存在时返回 null；会话还没有摘要时 summary 为 null
+     */
+    public ChatContextSummary findContextSummary(String sessionId) {
+        List<ChatContextSummary> summaries = readerPool.getJdbcTemplate().query(
+                "SELECT s.session_id, c.summary, COALESCE(c.covered_messages, 0) AS covered_messages, " +
+                        "COALESCE(c.summarized_tokens, 0) AS summarized_tokens, " +
+                        "COALESCE(c.summary_tokens, 0) AS summary_tokens, c.updated_at, " +
+                        "COALESCE(s.message_count, 0) AS message_count FROM chat_sessions s " +
+                        "LEFT JOIN chat_context_summaries c ON c.session_id = s.session_id WHERE s.session_id = ?",
+                (rs, rowNum) -> {
+                    ChatContextSummary summary = new ChatContextSummary();
+                    summary.setSessionId(rs.getString("session_id"));
+                    summary.setSummary(rs.getString("summary"));
+                    summary.setCoveredMessages(rs.getLong("covered_messages"));
+                    summary.setSummarizedTokens(rs.getLong("summarized_tokens"));
+                    summary.setSummaryTokens(rs.getInt("summary_tokens"));
+                    Timestamp updatedAt = rs.getTimestamp("updated_at");
+                    summary.setUpdatedAt(updatedAt != null ? updatedAt.toLocalDateTime() : null);
+                    summary.setSessionMessageCount(rs.getLong("message_count"));
+                    return summary;
+                }, sessionId);
+        return summaries.isEmpty() ? null : summaries.get(0);
+    }
+
+    /**
+     * 保存会话上下文的滚动摘要，覆盖之前的摘要
+     *
+     * @param summary 摘要
+     */
+    public void saveContextSummary(ChatContextSummary summary) {
+        writer.execute(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO chat_context_summaries (session_id, summary, covered_messages, summarized_tokens, " +
+                            "summary_tokens, updated_at) VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT(session_id) DO UPDATE SET " +
+                            "summary = excluded.summary, covered_messages = excluded.covered_messages, " +
+                            "summarized_tokens = excluded.summarized_tokens, summary_tokens = excluded.summary_tokens, " +
+                            "updated_at = excluded.updated_at")) {
+                statement.setString(1, summary.getSessionId());
+                statement.setString(2, summary.getSummary());
+                statement.setLong(3, summary.getCoveredMessages());
+                statement.setLong(4, summary.getSummarizedTokens());
+                statement.setInt(5, summary.getSummaryTokens());
+                statement.setTimestamp(6, Timestamp.valueOf(summary.getUpdatedAt() != null
+                        ? summary.getUpdatedAt() : LocalDateTime.now()));
+                statement.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 保存超出长度阈值的完整工具结果，同一次工具调用重复保存时覆盖
+     *
+     * @param result 工具结果
+     */
+    public void saveToolResult(ChatToolResult result) {
+        writer.execute(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO chat_tool_results (session_id, call_id, tool_name, content, created_at) " +
+                            "VALUES (?, ?, ?, ?, ?) ON CONFLICT(session_id, call_id) DO UPDATE SET " +
+                            "tool_name = excluded.tool_name, content = excluded.content, created_at = excluded.created_at")) {
+                statement.setString(1, result.getSessionId());
+                statement.setString(2, result.getCallId());
+                statement.setString(3, result.getToolName());
+                statement.setString(4, result.getContent());
+                statement.setTimestamp(5, Timestamp.valueOf(result.getCreatedAt() != null
+                        ? result.getCreatedAt() : LocalDateTime.now()));
+                statement.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 查询存放在上下文之外的完整工具结果
+     *
+     * @param sessionId 会话ID
+     * @param callId    工具调用ID
+     * @return 完整内容，不存在时返回 null
+     */
+    public String findToolResult(String sessionId, String callId) {
+        List<String> contents = readerPool.getJdbcTemplate().queryForList(
+                "SELECT content FROM chat_tool_results WHERE session_id = ? AND call_id = ?",
+                String.class, sessionId, callId);
+        return contents.isEmpty() ? null : contents.get(0);
+    }
+
+    /**
+     * 查询会话标题
+     *
+     * @param sessionId 会话ID
+     * @return 标题，会话不存在或未设置标题时返回 null
+     */
+    public String findSessionTitle(String sessionId) {
+        List<String> titles = readerPool.getJdbcTemplate().queryForList(
+                "SELECT title FROM chat_sessions WHERE session_id = ?", String.class, sessionId);
+        return titles.isEmpty() ? null : titles.get(0);
+    }
+
+    /**
+     * 删除会话及其所有消息、上下文摘要和外存的工具结果，同时扣减统计总数
+     *
+     * @param sessionId 会话ID
+     */
+    public void deleteSession(String sessionId) {
+        writer.execute(connection -> {
+            long messageCount = -1;
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT COALESCE(message_count, 0) FROM chat_sessions WHERE session_id = ?")) {
+                select.setString(1, sessionId);
+                try (ResultSet rs = select.executeQuery()) {
+                    if (rs.next()) {
+                        messageCount = rs.getLong(1);
+                    }
+                }
+            }
+            try (PreparedStatement deleteMessages = connection.prepareStatement(
+                    "DELETE FROM chat_messages WHERE session_id = ?");
+                 PreparedStatement deleteSummary = connection.prepareStatement(
+                         "DELETE FROM chat_context_summaries WHERE session_id = ?");
+                 PreparedStatement deleteToolResults = connection.prepareStatement(
+                         "DELETE FROM chat_tool_results WHERE session_id = ?");
+                 PreparedStatement deleteSession = connection.prepareStatement(
+                         "DELETE FROM chat_sessions WHERE session_id = ?")) {
+                deleteMessages.setString(1, sessionId);
+                deleteMessages.executeUpdate();
+                deleteSummary.setString(1, sessionId);
+                deleteSummary.executeUpdate();
+                deleteToolResults.setString(1, sessionId);
+                deleteToolResults.executeUpdate();
+                deleteSession.setString(1, sessionId);
+                deleteSession.executeUpdate();
+            }
+            if (messageCount >= 0) {
+                ChatStats.removeSession(connection, messageCount);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 设置会话标题，会话不存在时创建
+     *
+     * @param sessionId 会话ID
+     * @param title     标题
+     */
+    public void upsertSessionTitle(String sessionId, String title) {
+        writer.execute(connection -> {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            boolean exists;
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT 1 FROM chat_sessions WHERE session_id = ?")) {
+                select.setString(1, sessionId);
+                try (ResultSet rs = select.executeQuery()) {
+                    exists = rs.next();
+                }
+            }
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO chat_sessions (session_id, title, created_at, updated_at, message_count) " +
+                            "VALUES (?, ?, ?, ?, 0) " +
+                            "ON CONFLICT(session_id) DO UPDATE SET title = excluded.title, updated_at = excluded.updated_at")) {
+                statement.setString(1, sessionId);
+                statement.setString(2, title);
+                statement.setTimestamp(3, now);
+                statement.setTimestamp(4, now);
+                statement.executeUpdate();
+            }
+            if (!exists) {
+                new ChatStats.Increment().session(now.getTime()).applyTo(connection);
+            }
+            return null;
+        });
+    }
+
+    private String sessionSummarySelect() {
+        return readerPool.isAttached(SessionArchive.SCHEMA) ? ARCHIVED_SESSION_SUMMARY_SELECT : SESSION_SUMMARY_SELECT;
+    }
+
+    private String messageSource(boolean archived) {
+        return archived && readerPool.isAttached(SessionArchive.SCHEMA) ? ARCHIVED_MESSAGES : "chat_messages";
+    }
+
+    /**
+     * 读取消息内容：助手/工具消息经 {@link PayloadCodec} 解码，其它消息为纯文本
+     */
+    private String readContent(ResultSet rs, String column, String type) throws SQLException {
+        if (PayloadCodec.isStructured(type)) {
+            return payloadCodec.decode(rs.getBytes(column));
+        }
+        return rs.getString(column);
+    }
+
+    private void writeContent(PreparedStatement statement, int index, String type, String content) throws SQLException {
+        if (PayloadCodec.isStructured(type) && content != null) {
+            statement.setBytes(index, payloadCodec.encode(content));
+        } else {
+            statement.setString(index, content);
+        }
+    }
+
+    private static String cursorOf(ChatMessage message) {
+        return new KeysetCursor(toEpochMilli(message.getCreatedAt()), String.valueOf(message.getId())).encode();
+    }
+
+    private static long messageIdOf(KeysetCursor cursor) {
+        try {
+            return Long.parseLong(cursor.key());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的消息游标", e);
+        }
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time != null ? Timestamp.valueOf(time).getTime() : 0L;
+    }
+
+    private void insertMessages(Connection connection, String sessionId, List<ChatMessage> messages)
+            throws SQLException {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        ChatStats.Increment stats = new ChatStats.Increment();
+        try (PreparedStatement ensureSession = connection.prepareStatement(
+                "INSERT INTO chat_sessions (session_id, title, created_at, updated_at, message_count) " +
+                        "VALUES (?, '', ?, ?, 0) ON CONFLICT(session_id) DO NOTHING")) {
+            ensureSession.setString(1, sessionId);
+            ensureSession.setTimestamp(2, now);
+            ensureSession.setTimestamp(3, now);
+            if (ensureSession.executeUpdate() > 0) {
+                stats.session(now.getTime());
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO chat_messages (message_id, session_id, message_type, content, created_at) " +
+                        "VALUES (?, ?, ?, ?, ?)")) {
+            for (ChatMessage message : messages) {
+                insert.setString(1, message.getMessageId());
+                insert.setString(2, sessionId);
+                insert.setString(3, message.getMessageType().name());
+                if (message.getPayload() != null) {
+                    insert.setBytes(4, message.getPayload());
+                } else {
+                    writeContent(insert, 4, message.getMessageType().name(), message.getContent());
+                }
+                Timestamp createdAt = Timestamp.valueOf(message.getCreatedAt());
+                insert.setTimestamp(5, createdAt);
+                insert.addBatch();
+                stats.message(createdAt.getTime(), message.getToolCallCount(),
+                        message.getPromptTokens(), message.getCompletionTokens());
+            }
+            insert.executeBatch();
+        }
+        try (PreparedStatement updateSession = connection.prepareStatement(
+                "UPDATE chat_sessions SET message_count = COALESCE(message_count, 0) + ?, updated_at = ? " +
+                        "WHERE session_id = ?")) {
+            updateSession.setInt(1, messages.size());
+            updateSession.setTimestamp(2, now);
+            updateSession.setString(3, sessionId);
+            updateSession.executeUpdate();
+        }
+        stats.applyTo(connection);
+    }
+}
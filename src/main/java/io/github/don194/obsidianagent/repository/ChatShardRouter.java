@@ -0,0 +1,177 @@
+package io.github.don194.obsidianagent.repository;
+
+import io.github.don194.obsidianagent.model.CursorPage;
+import io.github.don194.obsidianagent.model.KeysetCursor;
+import io.github.don194.obsidianagent.model.MessageSearchResult;
+import io.github.don194.obsidianagent.model.SessionSummary;
+import io.github.don194.obsidianagent.model.StatsBucket;
+import io.github.don194.obsidianagent.storage.ChatStats;
+import io.github.don194.obsidianagent.storage.MessageSearchIndex;
+import io.github.don194.obsidianagent.storage.PayloadCodec;
+import io.github.don194.obsidianagent.storage.SqliteShards;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 会话数据的分片路由
+ * <p>
+ * 单个会话的读写直接交给它所在分片的 {@link ChatJdbcRepository} / {@link MessageSearchIndex}；
+ * 会话列表、统计和不限会话的搜索在所有分片上并行执行后合并。未启用分片时只有主库一个分片，
+ * 所有操作与直接使用主库的仓库相同。
+ */
+@Component
+public class ChatShardRouter {
+
+    private static final Comparator<SessionSummary> BY_LAST_ACTIVITY_DESC =
+            Comparator.comparing((SessionSummary summary) -> epochMilli(summary.getLastActivity()))
+                    .thenComparing(SessionSummary::getSessionId)
+                    .reversed();
+
+    private final SqliteShards shards;
+    private final List<ChatJdbcRepository> repositories = new ArrayList<>();
+    private final List<MessageSearchIndex> searchIndexes = new ArrayList<>();
+    private final List<ChatStats> stats = new ArrayList<>();
+
+    @Autowired
+    public ChatShardRouter(SqliteShards shards, ChatJdbcRepository mainRepository, PayloadCodec payloadCodec) {
+        this.shards = shards;
+        for (SqliteShards.Shard shard : shards.all()) {
+            repositories.add(shard.index() == 0
+                    ? mainRepository
+                    : new ChatJdbcRepository(shard.writer(), shard.readerPool(), payloadCodec));
+            searchIndexes.add(shard.searchIndex());
+            stats.add(shard.stats());
+        }
+    }
+
+    private ChatShardRouter(ChatJdbcRepository repository, MessageSearchIndex searchIndex, ChatStats chatStats) {
+        this.shards = null;
+        repositories.add(repository);
+        searchIndexes.add(searchIndex);
+        stats.add(chatStats);
+    }
+
+    /**
+     * 只有一个数据库时的路由，供不经过 Spring 组装的场景使用
+     */
+    public static ChatShardRouter single(ChatJdbcRepository repository, MessageSearchIndex searchIndex,
+                                         ChatStats chatStats) {
+        return new ChatShardRouter(repository, searchIndex, chatStats);
+    }
+
+    /**
+     * 会话所在分片的仓库
+     */
+    public ChatJdbcRepository repositoryFor(String sessionId) {
+        return repositories.get(indexOf(sessionId));
+    }
+
+    /**
+     * 会话所在分片的全文索引
+     */
+    public MessageSearchIndex searchIndexFor(String sessionId) {
+        return searchIndexes.get(indexOf(sessionId));
+    }
+
+    /**
+     * 按最后活动时间倒序分页获取会话列表
+     * <p>
+     * 各分片使用同一个键集游标各取一页，合并后取前 limit 条，游标取自合并结果的最后一条，
+     * 下一页在每个分片上从同一位置继续。
+     *
+     * @param after 上一页返回的游标，为 null 时从最新的会话开始
+     * @param limit 每页数量
+     * @return 当前页的会话摘要和下一页游标
+     */
+    public CursorPage<SessionSummary> findSessionPage(KeysetCursor after, int limit) {
+        if (repositories.size() == 1) {
+            return repositories.get(0).findSessionPage(after, limit);
+        }
+        List<CursorPage<SessionSummary>> pages =
+                shards.fanOut(shard -> repositories.get(shard.index()).findSessionPage(after, limit));
+        List<SessionSummary> merged = new ArrayList<>();
+        boolean more = false;
+        for (CursorPage<SessionSummary> page : pages) {
+            merged.addAll(page.getItems());
+            more |= page.getNextCursor() != null;
+        }
+        merged.sort(BY_LAST_ACTIVITY_DESC);
+        more |= merged.size() > limit;
+        if (merged.size() > limit) {
+            merged = new ArrayList<>(merged.subList(0, limit));
+        }
+        String nextCursor = null;
+        if (more && !merged.isEmpty()) {
+            SessionSummary last = merged.get(merged.size() - 1);
+            nextCursor = new KeysetCursor(epochMilli(last.getLastActivity()), last.getSessionId()).encode();
+        }
+        return new CursorPage<>(merged, nextCursor, null);
+    }
+
+    /**
+     * 全文搜索消息；限定会话时只查询该会话所在的分片
+     * <p>
+     * 各分片的 BM25 得分基于各自的词频统计，合并时直接按得分排序，会话分布均匀时与单库的排序接近。
+     */
+    public List<MessageSearchResult> search(String keyword, String sessionId, int limit) {
+        if (sessionId != null || searchIndexes.size() == 1) {
+            return searchIndexes.get(sessionId != null ? indexOf(sessionId) : 0).search(keyword, sessionId, limit);
+        }
+        List<MessageSearchResult> merged = new ArrayList<>();
+        shards.fanOut(shard -> searchIndexes.get(shard.index()).search(keyword, null, limit)).forEach(merged::addAll);
+        merged.sort(Comparator.comparingDouble(MessageSearchResult::getScore));
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+
+    /**
+     * 所有分片的会话和消息总数
+     */
+    public StatsBucket statsTotals() {
+        if (stats.size() == 1) {
+            return stats.get(0).totals();
+        }
+        StatsBucket totals = new StatsBucket();
+        shards.fanOut(shard -> stats.get(shard.index()).totals()).forEach(totals::add);
+        return totals;
+    }
+
+    /**
+     * 时间范围内的统计桶，各分片同一时间段的计数相加
+     *
+     * @param granularity hour 或 day
+     * @param from        起始时间（含），为 null 时从最早的统计桶开始
+     * @param to          结束时间（不含）
+     * @return 按时间正序排列的统计桶
+     */
+    public List<StatsBucket> statsBuckets(String granularity, LocalDateTime from, LocalDateTime to) {
+        if (stats.size() == 1) {
+            return stats.get(0).buckets(granularity, from, to);
+        }
+        Map<LocalDateTime, StatsBucket> merged = new TreeMap<>();
+        for (List<StatsBucket> buckets : shards.fanOut(shard -> stats.get(shard.index()).buckets(granularity, from, to))) {
+            for (StatsBucket bucket : buckets) {
+                StatsBucket existing = merged.putIfAbsent(bucket.getBucketStart(), bucket);
+                if (existing != null) {
+                    existing.add(bucket);
+                }
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    private int indexOf(String sessionId) {
+        return repositories.size() == 1 ? 0 : shards.all().indexOf(shards.forSession(sessionId));
+    }
+
+    private static long epochMilli(LocalDateTime time) {
+        return time != null ? Timestamp.valueOf(time).getTime() : 0L;
+    }
+}
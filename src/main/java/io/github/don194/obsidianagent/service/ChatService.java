@@ -1,9 +1,16 @@
 package io.github.don194.obsidianagent.service;
 
 import io.github.don194.obsidianagent.agent.ObsidianAgent;
+import io.github.don194.obsidianagent.agent.SessionMailbox;
+import io.github.don194.obsidianagent.entity.ChatContextSummary;
 import io.github.don194.obsidianagent.entity.ChatMessage;
 import io.github.don194.obsidianagent.memory.ConversationMemoryManager;
+import io.github.don194.obsidianagent.memory.ConversationSummarizer;
 import io.github.don194.obsidianagent.memory.SqliteChatMemory;
+import io.github.don194.obsidianagent.model.CursorPage;
+import io.github.don194.obsidianagent.model.KeysetCursor;
+import io.github.don194.obsidianagent.model.MessageSearchResult;
+import io.github.don194.obsidianagent.model.SessionSummary;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
@@ -35,6 +42,8 @@ public class ChatService {
     private final ChatModel chatModel;
     private final SqliteChatMemory sqliteChatMemory;
     private final ConversationMemoryManager conversationMemoryManager;
+    private final ConversationSummarizer conversationSummarizer;
+    private final SessionMailbox sessionMailbox;
 
     /**
      * 流式聊天 - 主要入口点
@@ -57,6 +66,8 @@ public class ChatService {
             // 为 Agent 实例设置记忆管理器和会话 ID
             agent.setMemoryManager(conversationMemoryManager);
             agent.setSessionId(sessionId);
+            // 同一会话的运行在邮箱中依次执行，避免并发修改同一份工作记忆
+            agent.setRunExecutor(sessionMailbox.executorFor(sessionId));
             ChatClient chatClient = ChatClient.builder(chatModel)
                     .build();
 
@@ -166,42 +177,23 @@ public class ChatService {
     }
 
     /**
-     * 获取所有会话列表
+     * 分页获取会话列表，按最后活动时间倒序
+     *
+     * @param cursor 上一页返回的游标，为空时从第一页开始
+     * @param limit  每页数量
      */
-    public List<Map<String, Object>> getAllSessions() {
+    public CursorPage<Map<String, Object>> getAllSessions(String cursor, int limit) {
+        KeysetCursor after = KeysetCursor.decode(cursor);
         try {
-            Map<String, String> sessionsWithTitles = sqliteChatMemory.getAllSessionsWithTitles();
-
-            return sessionsWithTitles.entrySet().stream()
-                    .map(entry -> {
-                        Map<String, Object> sessionInfo = new HashMap<>();
-                        sessionInfo.put("sessionId", entry.getKey());
-                        sessionInfo.put("title",
-                                entry.getValue() != null && !entry.getValue().isEmpty()
-                                        ? entry.getValue()
-                                        : "新对话");
-
-                        // 添加更多会话信息
-                        try {
-                            sessionInfo.put("messageCount", getMessageCount(entry.getKey()));
-                            sessionInfo.put("lastActivity", getLastActivity(entry.getKey()));
-                        } catch (Exception e) {
-                            log.warn("Error getting session details for {}: {}", entry.getKey(), e.getMessage());
-                        }
-
-                        return sessionInfo;
-                    })
-                    .sorted((a, b) -> {
-                        // 按最后活动时间排序
-                        LocalDateTime timeA = (LocalDateTime) a.getOrDefault("lastActivity", LocalDateTime.MIN);
-                        LocalDateTime timeB = (LocalDateTime) b.getOrDefault("lastActivity", LocalDateTime.MIN);
-                        return timeB.compareTo(timeA);
-                    })
+            CursorPage<SessionSummary> page = sqliteChatMemory.listSessions(after, limit);
+            List<Map<String, Object>> sessions = page.getItems().stream()
+                    .map(this::convertSessionSummaryToMap)
                     .collect(Collectors.toList());
+            return new CursorPage<>(sessions, page.getNextCursor(), page.getPrevCursor());
 
         } catch (Exception e) {
             log.error("Error getting all sessions", e);
-            return Collections.emptyList();
+            return new CursorPage<>(Collections.emptyList(), null, null);
         }
     }
 
@@ -210,18 +202,20 @@ public class ChatService {
      */
     public Map<String, Object> getSessionDetails(String sessionId) {
         try {
-            String title = sqliteChatMemory.getSessionTitle(sessionId);
-            if (title == null) {
+            SessionSummary summary = sqliteChatMemory.getSessionSummary(sessionId);
+            if (summary == null) {
                 return null; // 会话不存在
             }
-
-            Map<String, Object> details = new HashMap<>();
-            details.put("sessionId", sessionId);
-            details.put("title", title.isEmpty() ? "新对话" : title);
-            details.put("messageCount", getMessageCount(sessionId));
-            details.put("lastActivity", getLastActivity(sessionId));
-            details.put("createdAt", getSessionCreatedAt(sessionId));
-
+            Map<String, Object> details = convertSessionSummaryToMap(summary);
+            details.put("running", sessionMailbox.isBusy(sessionId));
+            details.put("queuedRuns", sessionMailbox.depth(sessionId));
+            // 较早轮次的滚动摘要：覆盖的消息数，以及每次调用模型节省的 token 数
+            ChatContextSummary contextSummary = conversationSummarizer.load(sessionId);
+            if (contextSummary != null && contextSummary.getSummary() != null) {
+                details.put("summarizedMessages", contextSummary.getCoveredMessages());
+                details.put("summaryTokens", contextSummary.getSummaryTokens());
+                details.put("tokensSavedPerCall", contextSummary.getTokensSaved());
+            }
             return details;
         } catch (Exception e) {
             log.error("Error getting session details for: {}", sessionId, e);
@@ -230,19 +224,26 @@ public class ChatService {
     }
 
     /**
-     * 获取会话的聊天历史（用于显示）
+     * 以游标分页获取会话的聊天历史（用于显示），before 与 after 都为空时返回最新的一页
      */
-    public List<Map<String, Object>> getSessionMessages(String sessionId, int limit) {
+    public CursorPage<Map<String, Object>> getSessionMessages(String sessionId, String before, String after, int limit) {
+        if (before != null && !before.isBlank() && after != null && !after.isBlank()) {
+            throw new IllegalArgumentException("before 和 after 不能同时指定");
+        }
+        KeysetCursor beforeCursor = KeysetCursor.decode(before);
+        KeysetCursor afterCursor = KeysetCursor.decode(after);
         try {
-            List<Message> messages = sqliteChatMemory.get(sessionId, limit);
-
-            return messages.stream()
-                    .map(this::convertMessageToMap)
+            CursorPage<ChatMessage> page = sqliteChatMemory.getMessagePage(sessionId, beforeCursor, afterCursor, limit);
+            List<Map<String, Object>> messages = page.getItems().stream()
+                    .map(this::convertStoredMessageToMap)
                     .collect(Collectors.toList());
+            return new CursorPage<>(messages, page.getNextCursor(), page.getPrevCursor());
 
+        } catch (IllegalArgumentException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error getting session messages for: {}", sessionId, e);
-            return Collections.emptyList();
+            return new CursorPage<>(Collections.emptyList(), null, null);
         }
     }
 
@@ -250,29 +251,16 @@ public class ChatService {
      * 搜索消息
      */
     public List<Map<String, Object>> searchMessages(String keyword, int limit) {
-        try {
-            List<ChatMessage> searchResults = sqliteChatMemory.searchMessages(keyword, limit);
-
-            return searchResults.stream()
-                    .map(this::convertChatMessageToMap)
-                    .collect(Collectors.toList());
-
-        } catch (Exception e) {
-            log.error("Error searching messages with keyword: {}", keyword, e);
-            return Collections.emptyList();
-        }
+        return searchSessionMessages(null, keyword, limit);
     }
 
     /**
-     * 搜索指定会话中的消息
+     * 搜索指定会话中的消息，sessionId 为 null 时搜索全部会话
      */
     public List<Map<String, Object>> searchSessionMessages(String sessionId, String keyword, int limit) {
         try {
-            // 这里需要在SqliteChatMemory中添加相应方法，或者通过repository直接查询
-            // 暂时使用全局搜索然后过滤
-            return searchMessages(keyword, limit * 2).stream()
-                    .filter(msg -> sessionId.equals(msg.get("sessionId")))
-                    .limit(limit)
+            return sqliteChatMemory.searchMessages(keyword, sessionId, limit).stream()
+                    .map(this::convertSearchResultToMap)
                     .collect(Collectors.toList());
 
         } catch (Exception e) {
@@ -305,6 +293,7 @@ public class ChatService {
      */
     public void deleteSession(String sessionId) {
         try {
+            conversationMemoryManager.discard(sessionId);
             sqliteChatMemory.clear(sessionId);
             log.info("Deleted session: {}", sessionId);
         } catch (Exception e) {
@@ -322,6 +311,7 @@ public class ChatService {
             String title = sqliteChatMemory.getSessionTitle(sessionId);
 
             // 清除消息
+            conversationMemoryManager.discard(sessionId);
             sqliteChatMemory.clear(sessionId);
 
             // 恢复标题
@@ -410,42 +400,21 @@ public class ChatService {
     }
 
     /**
-     * 获取会话消息数量
-     */
-    private int getMessageCount(String sessionId) {
-        try {
-            return sqliteChatMemory.get(sessionId, Integer.MAX_VALUE).size();
-        } catch (Exception e) {
-            return 0;
-        }
-    }
-
-    /**
-     * 获取会话最后活动时间
-     */
-    private LocalDateTime getLastActivity(String sessionId) {
-        try {
-            List<Message> messages = sqliteChatMemory.get(sessionId, 1);
-            if (!messages.isEmpty()) {
-                // 这里需要从消息中获取时间戳，可能需要扩展Message类或从数据库直接查询
-                return LocalDateTime.now(); // 临时返回当前时间
-            }
-            return LocalDateTime.MIN;
-        } catch (Exception e) {
-            return LocalDateTime.MIN;
-        }
-    }
-
-    /**
-     * 获取会话创建时间
+     * 将会话摘要转换为Map
      */
-    private LocalDateTime getSessionCreatedAt(String sessionId) {
-        try {
-            // 需要从数据库查询会话创建时间
-            return LocalDateTime.now(); // 临时返回当前时间
-        } catch (Exception e) {
-            return LocalDateTime.MIN;
-        }
+    private Map<String, Object> convertSessionSummaryToMap(SessionSummary summary) {
+        Map<String, Object> sessionInfo = new HashMap<>();
+        sessionInfo.put("sessionId", summary.getSessionId());
+        sessionInfo.put("title",
+                summary.getTitle() != null && !summary.getTitle().isEmpty()
+                        ? summary.getTitle()
+                        : "新对话");
+        sessionInfo.put("messageCount", summary.getMessageCount());
+        sessionInfo.put("createdAt", summary.getCreatedAt());
+        sessionInfo.put("lastActivity", summary.getLastActivity());
+        sessionInfo.put("lastMessageType", summary.getLastMessageType());
+        sessionInfo.put("lastMessagePreview", summary.getLastMessagePreview());
+        return sessionInfo;
     }
 
     /**
@@ -492,15 +461,27 @@ public class ChatService {
     }
 
     /**
-     * 将ChatMessage实体转换为Map
+     * 将存储的消息实体转换为Map，附带真实的创建时间和消息ID
      */
-    private Map<String, Object> convertChatMessageToMap(ChatMessage chatMessage) {
-        Map<String, Object> messageMap = new HashMap<>();
-        messageMap.put("sessionId", chatMessage.getSessionId());
-        messageMap.put("type", chatMessage.getMessageType().name().toLowerCase());
-        messageMap.put("content", chatMessage.getContent());
+    private Map<String, Object> convertStoredMessageToMap(ChatMessage chatMessage) {
+        Map<String, Object> messageMap = convertMessageToMap(sqliteChatMemory.convertToSpringAIMessage(chatMessage));
         messageMap.put("timestamp", chatMessage.getCreatedAt());
         messageMap.put("messageId", chatMessage.getMessageId());
         return messageMap;
     }
+
+    /**
+     * 将搜索结果转换为Map
+     */
+    private Map<String, Object> convertSearchResultToMap(MessageSearchResult result) {
+        Map<String, Object> messageMap = new HashMap<>();
+        messageMap.put("sessionId", result.getSessionId());
+        messageMap.put("type", result.getType());
+        messageMap.put("content", result.getContent());
+        messageMap.put("snippet", result.getSnippet());
+        messageMap.put("score", result.getScore());
+        messageMap.put("timestamp", result.getTimestamp());
+        messageMap.put("messageId", result.getMessageId());
+        return messageMap;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,536 @@
+package io.github.don194.obsidianagent.storage;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 聊天历史的 NDJSON 流式导出/导入
+ * <p>
+ * 每行一个 JSON 对象：第一行是格式头，随后每个会话一行 {@code session}，紧跟该会话按时间正序的
+ * {@code message} 行。助手/工具消息的内容作为 JSON 值内嵌（从 Smile 逐 token 转写），其它消息为字符串。
+ * <p>
+ * 导出在独立的只读连接上用两个只进游标分别按会话主键和 (session_id, created_at, id) 索引顺序扫描，
+ * 归并后逐行写入 gzip 流；
+ * 已归档会话的消息从挂载的冷库中读出。启用分片时依次导出每个分片，导入时每批按会话所在分片拆开交给各自的写线程。
+ * 导入逐行解析，按批交给单写线程插入。
+ * 两个方向的内存占用都只和单条消息及批大小有关，与历史总量无关。
+ */
+@Slf4j
+@Component
+public class ChatHistoryTransfer {
+
+    static final String FORMAT = "obsidian-agent-chat";
+    static final int VERSION = 1;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int GZIP_BUFFER = 64 * 1024;
+
+    private static final String SESSION_SELECT =
+            "SELECT session_id, title, created_at, updated_at, archived_at FROM chat_sessions ";
+
+    private static final String MESSAGE_SELECT =
+            "SELECT session_id, message_id, message_type, content, created_at AS message_created_at " +
+                    "FROM chat_messages INDEXED BY idx_session_created_id ";
+
+    private static final String ARCHIVE_SELECT =
+            "SELECT message_id, message_type, content, created_at AS message_created_at " +
+                    "FROM archive.chat_messages WHERE session_id = ? ORDER BY created_at, id";
+
+    /**
+     * 导出结果
+     */
+    public record ExportResult(int sessions, long messages) {
+    }
+
+    /**
+     * 导入结果
+     *
+     * @param sessions 导入文件中的会话数
+     * @param messages 新插入的消息数
+     * @param skipped  已存在（message_id 相同）而跳过的消息数
+     */
+    public record ImportResult(int sessions, long messages, long skipped) {
+    }
+
+    private record SessionRow(String sessionId, String title, Timestamp createdAt, Timestamp updatedAt) {
+    }
+
+    private record MessageRow(String messageId, String sessionId, String messageType, Object content,
+                              Timestamp createdAt) {
+    }
+
+    private final SqliteShards shards;
+    private final SqliteProperties properties;
+    private final PayloadCodec payloadCodec;
+    private final SessionArchive sessionArchive;
+
+    public ChatHistoryTransfer(SqliteShards shards,
+                               SqliteProperties properties,
+                               PayloadCodec payloadCodec,
+                               SessionArchive sessionArchive) {
+        this.shards = shards;
+        this.properties = properties;
+        this.payloadCodec = payloadCodec;
+        this.sessionArchive = sessionArchive;
+    }
+
+    /**
+     * 导出聊天历史为 gzip 压缩的 NDJSON
+     *
+     * @param out       输出流（不会被关闭）
+     * @param sessionId 只导出该会话，为 null 时导出全部
+     * @return 导出的会话数和消息数
+     */
+    public ExportResult export(OutputStream out, String sessionId) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out, GZIP_BUFFER);
+        ExportResult result = new ExportResult(0, 0);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(gzip, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(new SerializedString("\n"));
+
+            generator.writeStartObject();
+            generator.writeStringField("type", "header");
+            generator.writeStringField("format", FORMAT);
+            generator.writeNumberField("version", VERSION);
+            generator.writeStringField("exportedAt", LocalDateTime.now().toString());
+            generator.writeEndObject();
+
+            List<SqliteShards.Shard> sources = sessionId != null ? List.of(shards.forSession(sessionId)) : shards.all();
+            for (SqliteShards.Shard shard : sources) {
+                ExportResult exported = exportShard(shard, generator, sessionId);
+                result = new ExportResult(result.sessions() + exported.sessions(),
+                        result.messages() + exported.messages());
+            }
+        }
+        gzip.finish();
+        gzip.flush();
+        log.info("Exported {} sessions and {} messages", result.sessions(), result.messages());
+        return result;
+    }
+
+    /**
+     * 导出一个分片：冷库只挂载在主库上
+     */
+    private ExportResult exportShard(SqliteShards.Shard shard, JsonGenerator generator, String sessionId)
+            throws IOException {
+        int sessions = 0;
+        long messages = 0;
+        try (Connection connection = SqlitePragmas.toConfig(properties, true).createConnection(shard.url())) {
+            // 每个分片的导出在同一个读事务中，得到一致的快照
+            connection.setAutoCommit(false);
+            boolean archiveAttached = shard.index() == 0 && attachArchive(connection);
+
+            // 会话和消息各用一个按 session_id 有序的只进游标，归并输出
+            try (PreparedStatement sessionStatement = prepareCursor(connection, sessionQuery(sessionId != null), sessionId);
+                 PreparedStatement messageStatement = prepareCursor(connection, messageQuery(sessionId != null), sessionId);
+                 ResultSet sessionRows = sessionStatement.executeQuery();
+                 ResultSet messageRows = messageStatement.executeQuery()) {
+                boolean hasMessage = messageRows.next();
+                while (sessionRows.next()) {
+                    String current = sessionRows.getString("session_id");
+                    writeSession(generator, sessionRows);
+                    sessions++;
+                    // 冷库中的消息都早于归档后才写入主库的消息，先输出
+                    if (archiveAttached && sessionRows.getTimestamp("archived_at") != null) {
+                        messages += writeArchivedMessages(connection, generator, current);
+                    }
+                    // 跳过没有会话行的孤立消息
+                    while (hasMessage && messageRows.getString("session_id").compareTo(current) < 0) {
+                        hasMessage = messageRows.next();
+                    }
+                    while (hasMessage && messageRows.getString("session_id").equals(current)) {
+                        writeMessage(generator, messageRows, current);
+                        messages++;
+                        hasMessage = messageRows.next();
+                    }
+                }
+            }
+            connection.rollback();
+        } catch (SQLException e) {
+            throw new IllegalStateException("导出聊天历史失败: " + e.getMessage(), e);
+        }
+        return new ExportResult(sessions, messages);
+    }
+
+    /**
+     * 从 NDJSON（可以是 gzip 压缩的）导入聊天历史，已存在的消息按 message_id 跳过
+     *
+     * @param in 输入流（不会被关闭）
+     * @return 导入结果
+     * @throws IllegalArgumentException 内容格式不正确，此前已提交的批次会保留
+     */
+    public ImportResult importFrom(InputStream in) throws IOException {
+        InputStream data = maybeGunzip(in);
+        int batchSize = properties.getImportBatchSize();
+        List<SessionRow> sessionBatch = new ArrayList<>();
+        List<MessageRow> messageBatch = new ArrayList<>(batchSize);
+        int sessions = 0;
+        long inserted = 0;
+        long total = 0;
+        try (JsonParser parser = JSON_FACTORY.createParser(data)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                long line = parser.currentLocation().getLineNr();
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("第 " + line + " 行不是 JSON 对象");
+                }
+                Object row = readRow(parser, line);
+                if (row instanceof SessionRow session) {
+                    sessionBatch.add(session);
+                    sessions++;
+                } else if (row instanceof MessageRow message) {
+                    messageBatch.add(message);
+                    total++;
+                }
+                if (messageBatch.size() + sessionBatch.size() >= batchSize) {
+                    inserted += flush(sessionBatch, messageBatch);
+                }
+            }
+        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+            throw new IllegalArgumentException("导入内容不是合法的 NDJSON: " + e.getOriginalMessage(), e);
+        }
+        inserted += flush(sessionBatch, messageBatch);
+        log.info("Imported {} sessions, {} new messages ({} skipped)", sessions, inserted, total - inserted);
+        return new ImportResult(sessions, inserted, total - inserted);
+    }
+
+    /**
+     * 导出的会话查询：按主键顺序扫描
+     */
+    static String sessionQuery(boolean singleSession) {
+        return SESSION_SELECT + (singleSession ? "WHERE session_id = ? " : "") + "ORDER BY session_id";
+    }
+
+    /**
+     * 导出的消息查询：按 (session_id, created_at, id) 索引顺序扫描，不需要额外排序
+     */
+    static String messageQuery(boolean singleSession) {
+        return MESSAGE_SELECT + (singleSession ? "WHERE session_id = ? " : "")
+                + "ORDER BY session_id, created_at, id";
+    }
+
+    private PreparedStatement prepareCursor(Connection connection, String sql, String sessionId) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(
+                sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(properties.getExportFetchSize());
+        if (sessionId != null) {
+            statement.setString(1, sessionId);
+        }
+        return statement;
+    }
+
+    private boolean attachArchive(Connection connection) throws SQLException {
+        if (!sessionArchive.isEnabled()) {
+            return false;
+        }
+        try (PreparedStatement attach = connection.prepareStatement("ATTACH DATABASE ? AS archive")) {
+            attach.setString(1, sessionArchive.archiveFile().toString());
+            attach.execute();
+        }
+        return true;
+    }
+
+    private void writeSession(JsonGenerator generator, ResultSet rs) throws SQLException, IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", "session");
+        generator.writeStringField("sessionId", rs.getString("session_id"));
+        generator.writeStringField("title", rs.getString("title"));
+        writeTime(generator, "createdAt", rs.getTimestamp("created_at"));
+        writeTime(generator, "updatedAt", rs.getTimestamp("updated_at"));
+        generator.writeEndObject();
+    }
+
+    private long writeArchivedMessages(Connection connection, JsonGenerator generator, String sessionId)
+            throws SQLException, IOException {
+        long count = 0;
+        try (PreparedStatement statement = prepareCursor(connection, ARCHIVE_SELECT, sessionId)) {
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    writeMessage(generator, rs, sessionId);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void writeMessage(JsonGenerator generator, ResultSet rs, String sessionId)
+            throws SQLException, IOException {
+        String type = rs.getString("message_type");
+        generator.writeStartObject();
+        generator.writeStringField("type", "message");
+        generator.writeStringField("sessionId", sessionId);
+        generator.writeStringField("messageId", rs.getString("message_id"));
+        generator.writeStringField("messageType", type);
+        writeTime(generator, "createdAt", rs.getTimestamp("message_created_at"));
+        generator.writeFieldName("content");
+        if (PayloadCodec.isStructured(type)) {
+            payloadCodec.writeJson(rs.getBytes("content"), generator);
+        } else {
+            generator.writeString(rs.getString("content"));
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeTime(JsonGenerator generator, String field, Timestamp time) throws IOException {
+        if (time != null) {
+            generator.writeStringField(field, time.toLocalDateTime().toString());
+        } else {
+            generator.writeNullField(field);
+        }
+    }
+
+    /**
+     * 读取一行，解析器位于该行对象的 START_OBJECT
+     *
+     * @return SessionRow、MessageRow，格式头等其它行返回 null
+     */
+    private Object readRow(JsonParser parser, long line) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        Object content = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("content".equals(name)) {
+                content = value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY
+                        ? payloadCodec.encode(parser)
+                        : parser.getValueAsString();
+            } else if (value.isScalarValue()) {
+                fields.put(name, parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        String type = fields.get("type");
+        if ("header".equals(type)) {
+            if (!FORMAT.equals(fields.get("format"))) {
+                throw new IllegalArgumentException("不支持的导出格式: " + fields.get("format"));
+            }
+            return null;
+        }
+        String sessionId = fields.get("sessionId");
+        if (sessionId == null || sessionId.isBlank()) {
+            throw new IllegalArgumentException("第 " + line + " 行缺少 sessionId");
+        }
+        if ("session".equals(type)) {
+            return new SessionRow(sessionId, fields.getOrDefault("title", ""),
+                    parseTime(fields.get("createdAt"), line), parseTime(fields.get("updatedAt"), line));
+        }
+        if (!"message".equals(type)) {
+            throw new IllegalArgumentException("第 " + line + " 行的类型未知: " + type);
+        }
+        String messageType = fields.get("messageType");
+        try {
+            ChatMessage.MessageType.valueOf(messageType);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException("第 " + line + " 行的消息类型无效: " + messageType);
+        }
+        if (content == null) {
+            throw new IllegalArgumentException("第 " + line + " 行缺少 content");
+        }
+        String messageId = fields.get("messageId");
+        Timestamp createdAt = parseTime(fields.get("createdAt"), line);
+        return new MessageRow(messageId != null ? messageId : UUID.randomUUID().toString(), sessionId, messageType,
+                content, createdAt != null ? createdAt : Timestamp.valueOf(LocalDateTime.now()));
+    }
+
+    private static Timestamp parseTime(String value, long line) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Timestamp.valueOf(LocalDateTime.parse(value));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("第 " + line + " 行的时间格式无效: " + value);
+        }
+    }
+
+    /**
+     * 在一个写操作中插入当前批次，返回新插入的消息数；启用分片时按会话所在分片拆开，每个分片一个写操作
+     */
+    private long flush(List<SessionRow> sessions, List<MessageRow> messages) {
+        if (sessions.isEmpty() && messages.isEmpty()) {
+            return 0;
+        }
+        long inserted = 0;
+        if (!shards.isSharded()) {
+            inserted = insertInto(shards.all().get(0), sessions, messages);
+        } else {
+            for (SqliteShards.Shard shard : shards.all()) {
+                List<SessionRow> shardSessions = sessions.stream()
+                        .filter(session -> shards.forSession(session.sessionId()) == shard).toList();
+                List<MessageRow> shardMessages = messages.stream()
+                        .filter(message -> shards.forSession(message.sessionId()) == shard).toList();
+                if (!shardSessions.isEmpty() || !shardMessages.isEmpty()) {
+                    inserted += insertInto(shard, shardSessions, shardMessages);
+                }
+            }
+        }
+        sessions.clear();
+        messages.clear();
+        return inserted;
+    }
+
+    private long insertInto(SqliteShards.Shard shard, List<SessionRow> sessions, List<MessageRow> messages) {
+        boolean archive = shard.index() == 0 && sessionArchive.isEnabled();
+        return shard.writer().execute(connection -> insertBatch(connection, sessions, messages, archive));
+    }
+
+    private long insertBatch(Connection connection, List<SessionRow> sessions, List<MessageRow> messages,
+                             boolean archive) throws SQLException {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        ChatStats.Increment stats = new ChatStats.Increment();
+        countNewSessions(connection, sessions, messages, now, stats);
+        try (PreparedStatement upsert = connection.prepareStatement(
+                "INSERT INTO chat_sessions (session_id, title, created_at, updated_at, message_count) " +
+                        "VALUES (?, ?, ?, ?, 0) ON CONFLICT(session_id) DO UPDATE SET " +
+                        "title = CASE WHEN chat_sessions.title IS NULL OR chat_sessions.title = '' " +
+                        "THEN excluded.title ELSE chat_sessions.title END, " +
+                        "updated_at = MAX(COALESCE(chat_sessions.updated_at, 0), excluded.updated_at)")) {
+            for (SessionRow session : sessions) {
+                upsert.setString(1, session.sessionId());
+                upsert.setString(2, session.title());
+                upsert.setTimestamp(3, session.createdAt() != null ? session.createdAt() : now);
+                upsert.setTimestamp(4, session.updatedAt() != null ? session.updatedAt() : now);
+                upsert.addBatch();
+            }
+            // 没有会话行的消息也要有对应的会话
+            for (MessageRow message : messages) {
+                upsert.setString(1, message.sessionId());
+                upsert.setString(2, "");
+                upsert.setTimestamp(3, message.createdAt());
+                upsert.setTimestamp(4, message.createdAt());
+                upsert.addBatch();
+            }
+            upsert.executeBatch();
+        }
+        if (messages.isEmpty()) {
+            stats.applyTo(connection);
+            return 0;
+        }
+        int[] results;
+        // 已归档会话的消息在冷库中，同样按 message_id 去重
+        String insertSql = archive
+                ? "INSERT OR IGNORE INTO main.chat_messages (message_id, session_id, message_type, content, created_at) " +
+                "SELECT ?, ?, ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM archive.chat_messages WHERE message_id = ?1)"
+                : "INSERT OR IGNORE INTO chat_messages (message_id, session_id, message_type, content, created_at) " +
+                "VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement insert = connection.prepareStatement(insertSql)) {
+            for (MessageRow message : messages) {
+                insert.setString(1, message.messageId());
+                insert.setString(2, message.sessionId());
+                insert.setString(3, message.messageType());
+                if (message.content() instanceof byte[] bytes) {
+                    insert.setBytes(4, bytes);
+                } else if (PayloadCodec.isStructured(message.messageType())) {
+                    insert.setBytes(4, payloadCodec.encode((String) message.content()));
+                } else {
+                    insert.setString(4, (String) message.content());
+                }
+                insert.setTimestamp(5, message.createdAt());
+                insert.addBatch();
+            }
+            results = insert.executeBatch();
+        }
+        Map<String, Integer> insertedBySession = new HashMap<>();
+        long inserted = 0;
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] > 0) {
+                MessageRow message = messages.get(i);
+                insertedBySession.merge(message.sessionId(), 1, Integer::sum);
+                stats.message(message.createdAt().getTime(), toolCallCount(message), 0, 0);
+                inserted++;
+            }
+        }
+        try (PreparedStatement count = connection.prepareStatement(
+                "UPDATE chat_sessions SET message_count = COALESCE(message_count, 0) + ? WHERE session_id = ?")) {
+            for (Map.Entry<String, Integer> entry : insertedBySession.entrySet()) {
+                count.setInt(1, entry.getValue());
+                count.setString(2, entry.getKey());
+                count.addBatch();
+            }
+            count.executeBatch();
+        }
+        stats.applyTo(connection);
+        return inserted;
+    }
+
+    /**
+     * 本批中第一次出现且库中还不存在的会话计为新建会话，创建时间与写入会话表的一致
+     */
+    private static void countNewSessions(Connection connection, List<SessionRow> sessions, List<MessageRow> messages,
+                                         Timestamp now, ChatStats.Increment stats) throws SQLException {
+        Set<String> seen = new HashSet<>();
+        try (PreparedStatement select = connection.prepareStatement("SELECT 1 FROM chat_sessions WHERE session_id = ?")) {
+            for (SessionRow session : sessions) {
+                if (seen.add(session.sessionId()) && !exists(select, session.sessionId())) {
+                    stats.session((session.createdAt() != null ? session.createdAt() : now).getTime());
+                }
+            }
+            for (MessageRow message : messages) {
+                if (seen.add(message.sessionId()) && !exists(select, message.sessionId())) {
+                    stats.session(message.createdAt().getTime());
+                }
+            }
+        }
+    }
+
+    private static boolean exists(PreparedStatement select, String sessionId) throws SQLException {
+        select.setString(1, sessionId);
+        try (ResultSet rs = select.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    private int toolCallCount(MessageRow message) {
+        if (!"ASSISTANT".equals(message.messageType())) {
+            return 0;
+        }
+        String json = message.content() instanceof byte[] bytes ? payloadCodec.decode(bytes) : (String) message.content();
+        return MessageText.toolCallCount(message.messageType(), json);
+    }
+
+    private static InputStream maybeGunzip(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, GZIP_BUFFER);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        if (first == 0x1f && second == 0x8b) {
+            return new GZIPInputStream(buffered, GZIP_BUFFER);
+        }
+        return buffered;
+    }
+}
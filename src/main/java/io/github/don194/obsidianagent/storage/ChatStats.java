@@ -0,0 +1,297 @@
+package io.github.don194.obsidianagent.storage;
+
+import io.github.don194.obsidianagent.model.StatsBucket;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 在写路径上维护的聊天统计
+ * <p>
+ * chat_stats 表每行是一个 (粒度, 桶起点) 的计数：粒度 total 只有一行，是现有会话和消息的总数；
+ * hour / day 按本地时区对齐，记录每个时间段新建的会话、写入的消息、工具调用和 token 用量。
+ * 计数由 {@link Increment} 在写入消息的同一个写操作中累加，统计查询只读这张小表，不扫描 chat_messages。
+ * <p>
+ * 删除会话只扣减总计，时间桶记录的是当时发生的活动，不随之改变；归档只是搬移消息，计数不变。
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+public class ChatStats {
+
+    public static final String TOTAL = "total";
+    public static final String HOUR = "hour";
+    public static final String DAY = "day";
+
+    public static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS chat_stats (granularity TEXT NOT NULL, bucket_start INTEGER NOT NULL, " +
+                    "sessions INTEGER NOT NULL DEFAULT 0, messages INTEGER NOT NULL DEFAULT 0, " +
+                    "tool_calls INTEGER NOT NULL DEFAULT 0, prompt_tokens INTEGER NOT NULL DEFAULT 0, " +
+                    "completion_tokens INTEGER NOT NULL DEFAULT 0, " +
+                    "PRIMARY KEY (granularity, bucket_start)) WITHOUT ROWID"
+    };
+
+    private static final String UPSERT =
+            "INSERT INTO chat_stats (granularity, bucket_start, sessions, messages, tool_calls, prompt_tokens, " +
+                    "completion_tokens) VALUES (?, ?, ?, ?, ?, ?, ?) ON CONFLICT(granularity, bucket_start) DO UPDATE SET " +
+                    "sessions = sessions + excluded.sessions, messages = messages + excluded.messages, " +
+                    "tool_calls = tool_calls + excluded.tool_calls, " +
+                    "prompt_tokens = prompt_tokens + excluded.prompt_tokens, " +
+                    "completion_tokens = completion_tokens + excluded.completion_tokens";
+
+    private static final String SELECT_COLUMNS =
+            "SELECT bucket_start, sessions, messages, tool_calls, prompt_tokens, completion_tokens FROM chat_stats ";
+
+    private final SqliteWriter writer;
+    private final SqliteReaderPool readerPool;
+    private final PayloadCodec payloadCodec;
+
+    /**
+     * 创建统计表；表是新建的则根据已有的会话和消息补建计数（token 用量无从得知，从此刻开始累计）
+     */
+    @PostConstruct
+    public void initialize() {
+        long[] rebuilt = writer.execute(connection -> {
+            boolean exists;
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(
+                         "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'chat_stats'")) {
+                exists = rs.next();
+            }
+            try (Statement statement = connection.createStatement()) {
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+            }
+            return exists ? null : rebuild(connection);
+        });
+        if (rebuilt != null && (rebuilt[0] > 0 || rebuilt[1] > 0)) {
+            log.info("统计表已创建，为 {} 个会话、{} 条消息补建计数", rebuilt[0], rebuilt[1]);
+        }
+    }
+
+    /**
+     * 现有会话和消息的总数
+     */
+    public StatsBucket totals() {
+        List<StatsBucket> rows = readerPool.getJdbcTemplate().query(
+                SELECT_COLUMNS + "WHERE granularity = ? AND bucket_start = 0", (rs, rowNum) -> mapRow(rs, false), TOTAL);
+        return rows.isEmpty() ? new StatsBucket() : rows.get(0);
+    }
+
+    /**
+     * 查询时间范围内的统计桶，没有活动的时间段不返回
+     *
+     * @param granularity {@link #HOUR} 或 {@link #DAY}
+     * @param from        起始时间（含），按粒度向下对齐；为 null 时从最早的统计桶开始
+     * @param to          结束时间（不含）
+     * @return 按时间正序排列的统计桶
+     */
+    public List<StatsBucket> buckets(String granularity, LocalDateTime from, LocalDateTime to) {
+        ChronoUnit unit = unitOf(granularity);
+        if (from == null) {
+            return readerPool.getJdbcTemplate().query(
+                    SELECT_COLUMNS + "WHERE granularity = ? AND bucket_start < ? ORDER BY bucket_start",
+                    (rs, rowNum) -> mapRow(rs, true),
+                    granularity, toEpochMilli(to));
+        }
+        return readerPool.getJdbcTemplate().query(
+                SELECT_COLUMNS + "WHERE granularity = ? AND bucket_start >= ? AND bucket_start < ? ORDER BY bucket_start",
+                (rs, rowNum) -> mapRow(rs, true),
+                granularity, bucketStart(toEpochMilli(from), unit), toEpochMilli(to));
+    }
+
+    /**
+     * 校验并规范化粒度参数
+     *
+     * @throws IllegalArgumentException 不是 hour 或 day
+     */
+    public static String granularity(String value) {
+        String normalized = value == null ? DAY : value.trim().toLowerCase(Locale.ROOT);
+        unitOf(normalized);
+        return normalized;
+    }
+
+    /**
+     * 删除会话时扣减总计，需在删除会话的同一个写操作中调用
+     *
+     * @param messages 会话的消息数（含已归档的消息）
+     */
+    public static void removeSession(Connection connection, long messages) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE chat_stats SET sessions = MAX(sessions - 1, 0), messages = MAX(messages - ?, 0) " +
+                        "WHERE granularity = ? AND bucket_start = 0")) {
+            update.setLong(1, messages);
+            update.setString(2, TOTAL);
+            update.executeUpdate();
+        }
+    }
+
+    /**
+     * 一次写操作中累积的计数增量，按桶合并后通过 {@link #applyTo} 写入
+     */
+    public static final class Increment {
+
+        private static final int SESSIONS = 0;
+        private static final int MESSAGES = 1;
+        private static final int TOOL_CALLS = 2;
+        private static final int PROMPT_TOKENS = 3;
+        private static final int COMPLETION_TOKENS = 4;
+
+        /**
+         * 键为 “粒度:桶起点”，值按上面的下标存放各项计数
+         */
+        private final Map<String, long[]> buckets = new LinkedHashMap<>();
+
+        /**
+         * 新建了一个会话
+         */
+        public Increment session(long createdAtMillis) {
+            add(createdAtMillis, SESSIONS, 1);
+            return this;
+        }
+
+        /**
+         * 写入了一条消息
+         */
+        public Increment message(long createdAtMillis, long toolCalls, long promptTokens, long completionTokens) {
+            add(createdAtMillis, MESSAGES, 1);
+            add(createdAtMillis, TOOL_CALLS, toolCalls);
+            add(createdAtMillis, PROMPT_TOKENS, promptTokens);
+            add(createdAtMillis, COMPLETION_TOKENS, completionTokens);
+            return this;
+        }
+
+        /**
+         * 在当前写操作中写入累积的增量
+         */
+        public void applyTo(Connection connection) throws SQLException {
+            if (buckets.isEmpty()) {
+                return;
+            }
+            try (PreparedStatement upsert = connection.prepareStatement(UPSERT)) {
+                for (Map.Entry<String, long[]> entry : buckets.entrySet()) {
+                    int separator = entry.getKey().indexOf(':');
+                    long[] counts = entry.getValue();
+                    upsert.setString(1, entry.getKey().substring(0, separator));
+                    upsert.setLong(2, Long.parseLong(entry.getKey().substring(separator + 1)));
+                    upsert.setLong(3, counts[SESSIONS]);
+                    upsert.setLong(4, counts[MESSAGES]);
+                    upsert.setLong(5, counts[TOOL_CALLS]);
+                    upsert.setLong(6, counts[PROMPT_TOKENS]);
+                    upsert.setLong(7, counts[COMPLETION_TOKENS]);
+                    upsert.addBatch();
+                }
+                upsert.executeBatch();
+            }
+            buckets.clear();
+        }
+
+        private void add(long createdAtMillis, int field, long delta) {
+            if (delta == 0) {
+                return;
+            }
+            counts(TOTAL + ":0")[field] += delta;
+            counts(HOUR + ":" + bucketStart(createdAtMillis, ChronoUnit.HOURS))[field] += delta;
+            counts(DAY + ":" + bucketStart(createdAtMillis, ChronoUnit.DAYS))[field] += delta;
+        }
+
+        private long[] counts(String key) {
+            return buckets.computeIfAbsent(key, k -> new long[COMPLETION_TOKENS + 1]);
+        }
+    }
+
+    /**
+     * 根据现有数据重建计数：总计取自会话表（message_count 含已归档的消息），时间桶按消息和会话的创建时间补建
+     *
+     * @return 会话数和消息数
+     */
+    private long[] rebuild(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DELETE FROM chat_stats");
+        }
+        Increment increment = new Increment();
+        long sessions = 0;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT created_at FROM chat_sessions")) {
+            while (rs.next()) {
+                increment.session(epochMilliOrNow(rs.getTimestamp("created_at")));
+                sessions++;
+            }
+        }
+        long messages = 0;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT message_type, content, created_at FROM chat_messages")) {
+            while (rs.next()) {
+                String type = rs.getString("message_type");
+                long toolCalls = "ASSISTANT".equals(type)
+                        ? MessageText.toolCallCount(type, payloadCodec.decode(rs.getBytes("content")))
+                        : 0;
+                increment.message(epochMilliOrNow(rs.getTimestamp("created_at")), toolCalls, 0, 0);
+                messages++;
+            }
+        }
+        increment.applyTo(connection);
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE chat_stats SET messages = (SELECT COALESCE(SUM(message_count), 0) FROM chat_sessions) " +
+                        "WHERE granularity = ? AND bucket_start = 0")) {
+            update.setString(1, TOTAL);
+            update.executeUpdate();
+        }
+        return new long[]{sessions, messages};
+    }
+
+    private static StatsBucket mapRow(ResultSet rs, boolean withStart) throws SQLException {
+        return new StatsBucket(
+                withStart ? new Timestamp(rs.getLong("bucket_start")).toLocalDateTime() : null,
+                rs.getLong("sessions"),
+                rs.getLong("messages"),
+                rs.getLong("tool_calls"),
+                rs.getLong("prompt_tokens"),
+                rs.getLong("completion_tokens"));
+    }
+
+    private static ChronoUnit unitOf(String granularity) {
+        if (HOUR.equals(granularity)) {
+            return ChronoUnit.HOURS;
+        }
+        if (DAY.equals(granularity)) {
+            return ChronoUnit.DAYS;
+        }
+        throw new IllegalArgumentException("不支持的统计粒度: " + granularity + "，可选 hour 或 day");
+    }
+
+    /**
+     * 按本地时区对齐到小时或天的起点
+     */
+    static long bucketStart(long epochMilli, ChronoUnit unit) {
+        return Instant.ofEpochMilli(epochMilli).atZone(ZoneId.systemDefault())
+                .truncatedTo(unit).toInstant().toEpochMilli();
+    }
+
+    private static long epochMilliOrNow(Timestamp time) {
+        return time != null ? time.getTime() : System.currentTimeMillis();
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return Timestamp.valueOf(time).getTime();
+    }
+}
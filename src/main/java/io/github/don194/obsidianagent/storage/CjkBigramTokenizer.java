@@ -0,0 +1,168 @@
+package io.github.don194.obsidianagent.storage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 面向中日韩文本的二元分词器
+ * <p>
+ * SQLite 自带的 unicode61 分词器会把连续的汉字当成一个词，无法按词内子串检索。
+ * 这里在写入全文索引前把文本预处理成以空格分隔的词元：连续的中日韩字符切成重叠的二元组
+ * （"会议记录" → "会议 议记 记录"），其它字母数字按单词切分并转小写。
+ * 查询时用同样的方式切分关键词并拼成短语查询，从而得到与 LIKE 子串匹配相近的语义。
+ * <p>
+ * 二元组只能按前缀匹配单个汉字（"会" 能找到 "会议" 却找不到 "开会"），因此另有一列只存放文本中出现过的单个字符，
+ * 单个汉字的关键词在这一列中检索。
+ */
+public final class CjkBigramTokenizer {
+
+    /**
+     * 全文索引中存放单个中日韩字符的列
+     */
+    public static final String CHARS_COLUMN = "chars";
+
+    private CjkBigramTokenizer() {
+    }
+
+    /**
+     * 将文本切分为词元
+     *
+     * @param text 原始文本
+     * @return 词元列表
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        StringBuilder word = new StringBuilder();
+        List<String> cjkRun = new ArrayList<>();
+        text.codePoints().forEach(codePoint -> {
+            if (isCjk(codePoint)) {
+                flushWord(word, tokens);
+                cjkRun.add(new String(Character.toChars(codePoint)));
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                flushCjkRun(cjkRun, tokens);
+                word.appendCodePoint(Character.toLowerCase(codePoint));
+            } else {
+                flushWord(word, tokens);
+                flushCjkRun(cjkRun, tokens);
+            }
+        });
+        flushWord(word, tokens);
+        flushCjkRun(cjkRun, tokens);
+        return tokens;
+    }
+
+    /**
+     * 将文本切分为写入全文索引的形式（词元以空格分隔）
+     *
+     * @param text 原始文本
+     * @return 分词后的文本
+     */
+    public static String segment(String text) {
+        return String.join(" ", tokenize(text));
+    }
+
+    /**
+     * 文本中出现过的中日韩字符，去重后以空格分隔，写入 {@link #CHARS_COLUMN} 列
+     *
+     * @param text 原始文本
+     * @return 单字列的内容
+     */
+    public static String characters(String text) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+        Set<Integer> seen = new LinkedHashSet<>();
+        text.codePoints().filter(CjkBigramTokenizer::isCjk).forEach(seen::add);
+        StringBuilder chars = new StringBuilder(seen.size() * 2);
+        for (int codePoint : seen) {
+            if (chars.length() > 0) {
+                chars.append(' ');
+            }
+            chars.appendCodePoint(codePoint);
+        }
+        return chars.toString();
+    }
+
+    /**
+     * 将用户输入的关键词转换为 FTS5 MATCH 表达式
+     * <p>
+     * 以空白分隔的每个关键词各自成为一个短语，多个关键词之间为 AND 关系；
+     * 以字母数字结尾的短语使用前缀匹配，单个汉字在单字列中精确匹配。
+     *
+     * @param keyword 关键词
+     * @return MATCH 表达式，关键词中没有可检索的内容时返回 null
+     */
+    public static String toMatchQuery(String keyword) {
+        if (keyword == null || keyword.isBlank()) {
+            return null;
+        }
+        List<String> phrases = new ArrayList<>();
+        for (String term : keyword.trim().split("\\s+")) {
+            List<String> tokens = tokenize(term);
+            if (tokens.isEmpty()) {
+                continue;
+            }
+            String lastToken = tokens.get(tokens.size() - 1);
+            if (tokens.size() == 1 && isCjk(lastToken.codePointAt(0))
+                    && lastToken.codePointCount(0, lastToken.length()) == 1) {
+                phrases.add(CHARS_COLUMN + " : \"" + lastToken + "\"");
+                continue;
+            }
+            boolean prefix = !isCjk(lastToken.codePointAt(0));
+            phrases.add(tokens.stream().collect(Collectors.joining(" ", "\"", "\"")) + (prefix ? "*" : ""));
+        }
+        return phrases.isEmpty() ? null : String.join(" AND ", phrases);
+    }
+
+    /**
+     * 关键词中用于高亮的检索词（小写）
+     *
+     * @param keyword 关键词
+     * @return 检索词列表
+     */
+    public static List<String> highlightTerms(String keyword) {
+        List<String> terms = new ArrayList<>();
+        if (keyword == null || keyword.isBlank()) {
+            return terms;
+        }
+        for (String term : keyword.trim().split("\\s+")) {
+            if (!tokenize(term).isEmpty()) {
+                terms.add(term.toLowerCase(Locale.ROOT));
+            }
+        }
+        return terms;
+    }
+
+    private static void flushWord(StringBuilder word, List<String> tokens) {
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static void flushCjkRun(List<String> run, List<String> tokens) {
+        if (run.size() == 1) {
+            tokens.add(run.get(0));
+        } else {
+            for (int i = 0; i + 1 < run.size(); i++) {
+                tokens.add(run.get(i) + run.get(i + 1));
+            }
+        }
+        run.clear();
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
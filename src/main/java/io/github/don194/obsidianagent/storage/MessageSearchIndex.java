@@ -0,0 +1,264 @@
+package io.github.don194.obsidianagent.storage;
+
+import io.github.don194.obsidianagent.model.MessageSearchResult;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+import org.sqlite.Function;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 基于 SQLite FTS5 的消息全文索引
+ * <p>
+ * chat_messages_fts 是一个无内容（contentless）的 FTS5 表，行号与 chat_messages.id 一致，
+ * 由触发器在消息插入、删除、更新时同步。body 列是经过 {@link CjkBigramTokenizer} 分词的文本，
+ * chars 列是文本中出现过的单个中日韩字符，用于单个汉字的检索。
+ * 查询结果按 BM25 排序，会话过滤在同一条 SQL 中完成。
+ * <p>
+ * 注意：触发器调用的 chat_search_text / chat_search_chars 是只注册在 {@link SqliteWriter} 连接上的自定义函数。
+ * 任何其它连接（其它数据源、sqlite3 命令行等）对 chat_messages 的插入和更新都会因 "no such function" 失败，
+ * 因此 chat_messages 只能通过 SqliteWriter 写入；在其它工具中修改数据前需要先删除这些触发器，之后重启应用重建索引。
+ * <p>
+ * 返回的片段中，除 &lt;mark&gt; 标记外的全部文本都经过 HTML 转义，可以直接作为 HTML 渲染。
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+public class MessageSearchIndex {
+
+    private static final String SEARCH_TEXT_FUNCTION = "chat_search_text";
+    private static final String SEARCH_CHARS_FUNCTION = "chat_search_chars";
+    private static final int SNIPPET_BEFORE = 30;
+    private static final int SNIPPET_LENGTH = 120;
+
+    private static final String INDEX_VALUES = "(new.id, "
+            + SEARCH_TEXT_FUNCTION + "(new.message_type, new.content), "
+            + SEARCH_CHARS_FUNCTION + "(new.message_type, new.content))";
+
+    /**
+     * 索引表和同步触发器；触发器依赖只注册在单写连接上的自定义函数，chat_messages 只能经 SqliteWriter 写入
+     */
+    private static final String[] SCHEMA = {
+            "CREATE VIRTUAL TABLE IF NOT EXISTS chat_messages_fts USING fts5(" +
+                    "body, " + CjkBigramTokenizer.CHARS_COLUMN + ", content='', contentless_delete=1, " +
+                    "tokenize='unicode61 remove_diacritics 2')",
+            "CREATE TRIGGER IF NOT EXISTS chat_messages_fts_insert AFTER INSERT ON chat_messages BEGIN " +
+                    "INSERT INTO chat_messages_fts (rowid, body, chars) VALUES " + INDEX_VALUES + "; " +
+                    "END",
+            "CREATE TRIGGER IF NOT EXISTS chat_messages_fts_delete AFTER DELETE ON chat_messages BEGIN " +
+                    "DELETE FROM chat_messages_fts WHERE rowid = old.id; " +
+                    "END",
+            "CREATE TRIGGER IF NOT EXISTS chat_messages_fts_update AFTER UPDATE OF message_type, content ON chat_messages BEGIN " +
+                    "DELETE FROM chat_messages_fts WHERE rowid = old.id; " +
+                    "INSERT INTO chat_messages_fts (rowid, body, chars) VALUES " + INDEX_VALUES + "; " +
+                    "END"
+    };
+
+    /**
+     * 旧版本只有 body 列：删除索引表和触发器后按新结构重建
+     */
+    private static final String[] DROP_SCHEMA = {
+            "DROP TRIGGER IF EXISTS chat_messages_fts_insert",
+            "DROP TRIGGER IF EXISTS chat_messages_fts_delete",
+            "DROP TRIGGER IF EXISTS chat_messages_fts_update",
+            "DROP TABLE IF EXISTS chat_messages_fts"
+    };
+
+    private final SqliteWriter writer;
+    private final SqliteReaderPool readerPool;
+    private final PayloadCodec payloadCodec;
+
+    /**
+     * 注册分词函数，创建索引表和触发器；索引表是新建的（或由旧结构重建）则为已有消息补建索引
+     */
+    @PostConstruct
+    public void initialize() {
+        int indexed = writer.execute(connection -> {
+            Function.create(connection, SEARCH_TEXT_FUNCTION, new SearchTextFunction(false), 2,
+                    Function.FLAG_DETERMINISTIC);
+            Function.create(connection, SEARCH_CHARS_FUNCTION, new SearchTextFunction(true), 2,
+                    Function.FLAG_DETERMINISTIC);
+            String existingSql = null;
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(
+                         "SELECT sql FROM sqlite_master WHERE type = 'table' AND name = 'chat_messages_fts'")) {
+                if (rs.next()) {
+                    existingSql = rs.getString(1);
+                }
+            }
+            boolean exists = existingSql != null;
+            try (Statement statement = connection.createStatement()) {
+                if (exists && !existingSql.contains(CjkBigramTokenizer.CHARS_COLUMN)) {
+                    log.info("全文索引缺少单字列，按新结构重建");
+                    for (String ddl : DROP_SCHEMA) {
+                        statement.execute(ddl);
+                    }
+                    exists = false;
+                }
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+                if (exists) {
+                    return 0;
+                }
+                return statement.executeUpdate(
+                        "INSERT INTO chat_messages_fts (rowid, body, chars) " +
+                                "SELECT id, " + SEARCH_TEXT_FUNCTION + "(message_type, content), " +
+                                SEARCH_CHARS_FUNCTION + "(message_type, content) FROM chat_messages");
+            }
+        });
+        if (indexed > 0) {
+            log.info("全文索引已创建，为 {} 条历史消息补建索引", indexed);
+        }
+    }
+
+    /**
+     * 全文搜索消息
+     *
+     * @param keyword   关键词，多个关键词以空白分隔
+     * @param sessionId 限定的会话ID，为 null 时搜索全部会话
+     * @param limit     返回结果数量
+     * @return 按相关度排序的搜索结果
+     */
+    public List<MessageSearchResult> search(String keyword, String sessionId, int limit) {
+        String matchQuery = CjkBigramTokenizer.toMatchQuery(keyword);
+        if (matchQuery == null) {
+            return Collections.emptyList();
+        }
+        List<String> terms = CjkBigramTokenizer.highlightTerms(keyword);
+        StringBuilder sql = new StringBuilder(
+                "SELECT m.message_id, m.session_id, m.message_type, m.content, m.created_at, " +
+                        "bm25(chat_messages_fts) AS score " +
+                        "FROM chat_messages_fts JOIN chat_messages m ON m.id = chat_messages_fts.rowid " +
+                        "WHERE chat_messages_fts MATCH ?");
+        List<Object> args = new ArrayList<>();
+        args.add(matchQuery);
+        if (sessionId != null) {
+            sql.append(" AND m.session_id = ?");
+            args.add(sessionId);
+        }
+        sql.append(" ORDER BY score LIMIT ?");
+        args.add(limit);
+
+        return readerPool.getJdbcTemplate().query(sql.toString(), (rs, rowNum) -> {
+            String type = rs.getString("message_type");
+            String text = MessageText.extract(type, PayloadCodec.isStructured(type)
+                    ? payloadCodec.decode(rs.getBytes("content"))
+                    : rs.getString("content"));
+            Timestamp createdAt = rs.getTimestamp("created_at");
+            return new MessageSearchResult(
+                    rs.getString("message_id"),
+                    rs.getString("session_id"),
+                    type.toLowerCase(Locale.ROOT),
+                    text,
+                    buildSnippet(text, terms),
+                    rs.getDouble("score"),
+                    createdAt != null ? createdAt.toLocalDateTime() : null);
+        }, args.toArray());
+    }
+
+    /**
+     * 截取第一个命中词附近的片段，并用 <mark> 标记所有命中词；片段中的文本经过 HTML 转义
+     * <p>
+     * 直接在原文上忽略大小写匹配，不使用转小写后的副本：部分字符转小写后长度会变化，位置无法对应回原文。
+     */
+    static String buildSnippet(String text, List<String> terms) {
+        int first = -1;
+        for (String term : terms) {
+            int index = indexOfIgnoreCase(text, term, 0);
+            if (index >= 0 && (first < 0 || index < first)) {
+                first = index;
+            }
+        }
+        int start = first < 0 ? 0 : Math.max(0, first - SNIPPET_BEFORE);
+        int end = Math.min(text.length(), start + SNIPPET_LENGTH);
+
+        StringBuilder snippet = new StringBuilder();
+        if (start > 0) {
+            snippet.append("…");
+        }
+        int position = start;
+        while (position < end) {
+            int matchAt = -1;
+            int matchLength = 0;
+            for (String term : terms) {
+                int index = indexOfIgnoreCase(text, term, position);
+                if (index >= 0 && index < end && (matchAt < 0 || index < matchAt)) {
+                    matchAt = index;
+                    matchLength = term.length();
+                }
+            }
+            if (matchAt < 0) {
+                appendEscaped(snippet, text, position, end);
+                break;
+            }
+            int matchEnd = Math.min(end, matchAt + matchLength);
+            appendEscaped(snippet, text, position, matchAt);
+            snippet.append("<mark>");
+            appendEscaped(snippet, text, matchAt, matchEnd);
+            snippet.append("</mark>");
+            position = matchEnd;
+        }
+        if (end < text.length()) {
+            snippet.append("…");
+        }
+        return snippet.toString();
+    }
+
+    private static int indexOfIgnoreCase(String text, String term, int from) {
+        if (term.isEmpty()) {
+            return -1;
+        }
+        for (int i = from; i + term.length() <= text.length(); i++) {
+            if (text.regionMatches(true, i, term, 0, term.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void appendEscaped(StringBuilder out, String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '&' -> out.append("&amp;");
+                case '"' -> out.append("&quot;");
+                case '\'' -> out.append("&#39;");
+                default -> out.append(c);
+            }
+        }
+    }
+
+    /**
+     * 触发器调用的分词函数：chat_search_text(message_type, content) 返回 body 列，
+     * chat_search_chars(message_type, content) 返回单字列
+     */
+    private final class SearchTextFunction extends Function {
+        private final boolean characters;
+
+        private SearchTextFunction(boolean characters) {
+            this.characters = characters;
+        }
+
+        @Override
+        protected void xFunc() throws SQLException {
+            String type = value_text(0);
+            String content = PayloadCodec.isStructured(type) ? payloadCodec.decode(value_blob(1)) : value_text(1);
+            String text = MessageText.extract(type, content);
+            result(characters ? CjkBigramTokenizer.characters(text) : CjkBigramTokenizer.segment(text));
+        }
+    }
+}
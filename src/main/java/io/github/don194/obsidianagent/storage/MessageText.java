@@ -0,0 +1,100 @@
+package io.github.don194.obsidianagent.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * 从存储格式中提取消息的可读文本
+ * <p>
+ * 助手消息和工具消息以 JSON 存储，这里把文本、工具调用和工具返回结果展开为纯文本，
+ * 供全文索引、会话列表预览等只需要文字的场景使用，无需重建 Spring AI 消息对象。
+ */
+public final class MessageText {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private MessageText() {
+    }
+
+    /**
+     * 提取可读文本：助手消息包含文本和工具调用，工具消息包含各工具的返回结果
+     *
+     * @param type    消息类型（USER / ASSISTANT / SYSTEM / TOOL）
+     * @param content 存储的消息内容
+     * @return 可读文本
+     */
+    public static String extract(String type, String content) {
+        if (content == null) {
+            return "";
+        }
+        if (!"ASSISTANT".equals(type) && !"TOOL".equals(type)) {
+            return content;
+        }
+        try {
+            JsonNode root = OBJECT_MAPPER.readTree(content);
+            StringBuilder text = new StringBuilder();
+            if ("ASSISTANT".equals(type)) {
+                appendText(text, root.path("text").asText(null));
+                for (JsonNode toolCall : root.path("toolCalls")) {
+                    appendText(text, toolCall.path("name").asText(null));
+                    appendText(text, toolCall.path("arguments").asText(null));
+                }
+            } else {
+                for (JsonNode response : root.path("responses")) {
+                    appendText(text, response.path("name").asText(null));
+                    appendText(text, response.path("responseData").asText(null));
+                }
+            }
+            return text.toString();
+        } catch (Exception e) {
+            // 旧数据可能是纯文本
+            return content;
+        }
+    }
+
+    /**
+     * 助手消息中的工具调用数量，其它类型的消息为 0
+     *
+     * @param type    消息类型
+     * @param content 存储的消息内容
+     * @return 工具调用数量
+     */
+    public static int toolCallCount(String type, String content) {
+        if (content == null || !"ASSISTANT".equals(type)) {
+            return 0;
+        }
+        try {
+            return OBJECT_MAPPER.readTree(content).path("toolCalls").size();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 生成单行预览：合并空白并截断到指定长度
+     *
+     * @param text      文本
+     * @param maxLength 最大长度
+     * @return 预览文本
+     */
+    public static String preview(String text, int maxLength) {
+        if (text == null) {
+            return "";
+        }
+        String singleLine = text.replaceAll("\\s+", " ").trim();
+        if (singleLine.length() <= maxLength) {
+            return singleLine;
+        }
+        return singleLine.substring(0, maxLength) + "…";
+    }
+
+    private static void appendText(StringBuilder text, String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        if (text.length() > 0) {
+            text.append('\n');
+        }
+        text.append(value);
+    }
+}
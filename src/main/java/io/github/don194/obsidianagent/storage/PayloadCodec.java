@@ -0,0 +1,255 @@
+package io.github.don194.obsidianagent.storage;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 助手/工具消息内容的存储编码
+ * <p>
+ * 这两类消息的内容是结构化的 JSON，工具结果里经常是整篇笔记。这里把它们以 Smile 二进制形式写入
+ * chat_messages.content（SQLite 列类型是动态的，TEXT 列可以存 BLOB），超过阈值时再用 Deflate 压缩。
+ * 第一个字节是格式版本：
+ * <ul>
+ *     <li>{@code 0x01}：Smile</li>
+ *     <li>{@code 0x02}：Deflate 压缩的 Smile</li>
+ *     <li>其它：旧版本写入的 UTF-8 JSON 文本，原样读取</li>
+ * </ul>
+ * 消息历史由 {@link io.github.don194.obsidianagent.memory.MessageCodec} 经 {@link #readSmile} 直接绑定为类型化对象；
+ * 搜索、预览等只需要文本的场景通过 {@link #decode} 还原为 JSON 文本。
+ */
+@Component
+@RequiredArgsConstructor
+public class PayloadCodec {
+
+    static final byte FORMAT_SMILE = 0x01;
+    static final byte FORMAT_SMILE_DEFLATE = 0x02;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final SmileFactory SMILE_FACTORY = new SmileFactory();
+
+    private final SqliteProperties properties;
+
+    /**
+     * 是否对该类型的消息内容进行二进制编码
+     */
+    public static boolean isStructured(String messageType) {
+        return "ASSISTANT".equals(messageType) || "TOOL".equals(messageType);
+    }
+
+    /**
+     * 将 JSON 文本编码为存储格式
+     *
+     * @param json JSON 文本
+     * @return 存储字节；关闭二进制存储或内容不是合法 JSON（如旧的纯文本回退）时为 UTF-8 文本
+     */
+    public byte[] encode(String json) {
+        if (!properties.isBinaryPayloads()) {
+            return json.getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] smile = toSmile(json);
+        // 不是合法 JSON（如旧的纯文本回退），按文本存储
+        return smile != null ? wrapSmile(smile) : json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 将存储字节还原为 JSON 文本
+     *
+     * @param stored 存储字节
+     * @return JSON 文本（旧数据原样返回）
+     */
+    public String decode(byte[] stored) {
+        if (stored == null) {
+            return null;
+        }
+        if (!isSmile(stored)) {
+            return new String(stored, StandardCharsets.UTF_8);
+        }
+        StringWriter json = new StringWriter(stored.length * 2);
+        try (JsonParser parser = createSmileParser(stored);
+             JsonGenerator generator = JSON_FACTORY.createGenerator(json)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        } catch (IOException e) {
+            throw new UncheckedIOException("解码消息内容失败", e);
+        }
+        return json.toString();
+    }
+
+    /**
+     * 把存储字节作为一个 JSON 值写入生成器，Smile 逐个 token 转写，不经过中间字符串
+     *
+     * @param stored    存储字节
+     * @param generator 目标生成器
+     */
+    public void writeJson(byte[] stored, JsonGenerator generator) throws IOException {
+        if (!isSmile(stored)) {
+            // 旧的 JSON 文本先确认是完整的 JSON 再转写，避免输出半个值；不是 JSON 的回退内容按字符串输出
+            String text = new String(stored, StandardCharsets.UTF_8);
+            byte[] smile = toSmile(text);
+            if (smile == null) {
+                generator.writeString(text);
+                return;
+            }
+            try (JsonParser parser = SMILE_FACTORY.createParser(smile)) {
+                parser.nextToken();
+                generator.copyCurrentStructure(parser);
+            }
+            return;
+        }
+        try (JsonParser parser = createSmileParser(stored)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+    }
+
+    /**
+     * 把解析器当前所在的 JSON 对象或数组直接编码为存储格式
+     *
+     * @param parser 位于 START_OBJECT 或 START_ARRAY 的解析器
+     * @return 存储字节
+     */
+    public byte[] encode(JsonParser parser) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        boolean binary = isBinaryEnabled();
+        try (JsonGenerator generator = binary ? SMILE_FACTORY.createGenerator(out) : JSON_FACTORY.createGenerator(out)) {
+            generator.copyCurrentStructure(parser);
+        }
+        return binary ? wrapSmile(out.toByteArray()) : out.toByteArray();
+    }
+
+    /**
+     * 是否允许写入二进制格式
+     */
+    public boolean isBinaryEnabled() {
+        return properties.isBinaryPayloads();
+    }
+
+    /**
+     * 存储字节是否为 Smile 格式（否则是旧的 UTF-8 文本）
+     */
+    public static boolean isSmile(byte[] stored) {
+        return stored != null && stored.length > 0
+                && (stored[0] == FORMAT_SMILE || stored[0] == FORMAT_SMILE_DEFLATE);
+    }
+
+    /**
+     * 以给定的 Smile 读取器直接读取存储字节，不经过 JSON 文本
+     *
+     * @param stored 存储字节，必须满足 {@link #isSmile(byte[])}
+     * @param reader 基于 Smile 格式构建的 ObjectReader
+     */
+    public <T> T readSmile(byte[] stored, ObjectReader reader) throws IOException {
+        if (stored[0] == FORMAT_SMILE_DEFLATE) {
+            return reader.readValue(inflate(stored));
+        }
+        return reader.readValue(stored, 1, stored.length - 1);
+    }
+
+    /**
+     * 加上版本字节，超过阈值时压缩
+     *
+     * @param smile Smile 编码的数据
+     * @return 存储字节
+     */
+    public byte[] wrapSmile(byte[] smile) {
+        if (smile.length > properties.getPayloadCompressionThreshold()) {
+            byte[] compressed = deflate(smile);
+            if (compressed.length < smile.length) {
+                return withFormat(FORMAT_SMILE_DEFLATE, compressed);
+            }
+        }
+        return withFormat(FORMAT_SMILE, smile);
+    }
+
+    /**
+     * 把单个 JSON 对象或数组转写为 Smile（不含版本字节）
+     *
+     * @return Smile 数据；不是单个完整的 JSON 对象或数组时返回 null
+     */
+    private static byte[] toSmile(String json) {
+        ByteArrayOutputStream smile = new ByteArrayOutputStream(json.length());
+        try (JsonParser parser = JSON_FACTORY.createParser(json);
+             JsonGenerator generator = SMILE_FACTORY.createGenerator(smile)) {
+            JsonToken first = parser.nextToken();
+            if (first != JsonToken.START_OBJECT && first != JsonToken.START_ARRAY) {
+                return null;
+            }
+            // 逐个 token 转写，不构建中间对象树
+            generator.copyCurrentStructure(parser);
+            if (parser.nextToken() != null) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return smile.toByteArray();
+    }
+
+    private static JsonParser createSmileParser(byte[] stored) throws IOException {
+        if (stored[0] == FORMAT_SMILE_DEFLATE) {
+            return SMILE_FACTORY.createParser(inflate(stored));
+        }
+        return SMILE_FACTORY.createParser(stored, 1, stored.length - 1);
+    }
+
+    private static byte[] withFormat(byte format, byte[] body) {
+        byte[] stored = new byte[body.length + 1];
+        stored[0] = format;
+        System.arraycopy(body, 0, stored, 1, body.length);
+        return stored;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] stored) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored, 1, stored.length - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("压缩的消息内容不完整");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("解压消息内容失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
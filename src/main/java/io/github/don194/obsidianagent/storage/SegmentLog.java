@@ -0,0 +1,588 @@
+package io.github.don194.obsidianagent.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 只追加的分段日志：按会话保存消息流，不经过 SQL
+ * <p>
+ * 所有会话的记录依次追加到内存映射的段文件中，段写满后切换到新段。每条记录带有全局递增的序号，
+ * 内存中为每个会话维护按序号排列的 (序号, 位置) 索引，读取最近 N 条只需定位 N 个位置，与会话总长度无关。
+ * 清空会话时追加一条墓碑记录；压缩把失效数据较多的已封存段中仍然有效的记录原样复制到当前段后删除旧段，
+ * 序号不变，所以复制后会话内的顺序不受影响。
+ * <p>
+ * 记录格式：长度(int) CRC32(int) 序号(long) 类别(byte) 标签(byte) 会话ID长度(short) 会话ID 内容。
+ * 长度最后写入，启动时按段顺序扫描重建索引，遇到长度为 0 或校验失败即视为该段结束，
+ * 同一序号出现多次时（压缩复制后旧段未能删除）以较新的段为准。
+ * <p>
+ * 读写由一把读写锁保护：追加、清空和压缩互斥，读取之间可以并行。
+ */
+@Slf4j
+public class SegmentLog implements AutoCloseable {
+
+    private static final int HEADER_BYTES = 20;
+    private static final byte KIND_ENTRY = 1;
+    private static final byte KIND_TOMBSTONE = 2;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * 一条记录的内容
+     *
+     * @param tag     调用方定义的类型标签
+     * @param payload 内容字节
+     */
+    public record Entry(byte tag, byte[] payload) {
+    }
+
+    /**
+     * 一次压缩的结果
+     *
+     * @param segments       删除的段数
+     * @param movedRecords   复制到当前段的记录数
+     * @param reclaimedBytes 回收的字节数
+     */
+    public record CompactionResult(int segments, int movedRecords, long reclaimedBytes) {
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private long liveBytes;
+
+        private Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private int capacity() {
+            return buffer.capacity();
+        }
+    }
+
+    /**
+     * 会话的记录索引，按序号升序
+     */
+    private static final class SessionIndex {
+        private long[] seqs = new long[8];
+        private long[] positions = new long[8];
+        private int size;
+
+        private void add(long seq, long position) {
+            if (size == seqs.length) {
+                seqs = Arrays.copyOf(seqs, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            seqs[size] = seq;
+            positions[size] = position;
+            size++;
+        }
+
+        private int indexOf(long seq) {
+            return Arrays.binarySearch(seqs, 0, size, seq);
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean forceOnAppend;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Map<String, SessionIndex> sessions = new HashMap<>();
+    /**
+     * 压缩后未能删除的段（如 Windows 上仍被映射），删除前仍视为存在
+     */
+    private final TreeSet<Long> pendingDeletes = new TreeSet<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final CRC32 crc = new CRC32();
+    private long nextSeq = 1;
+
+    private SegmentLog(Path directory, int segmentSize, boolean forceOnAppend) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.forceOnAppend = forceOnAppend;
+    }
+
+    /**
+     * 打开日志目录并重建索引，目录不存在时创建
+     *
+     * @param directory     段文件目录
+     * @param segmentSize   单个段文件的大小
+     * @param forceOnAppend 每次追加后是否把映射页刷到磁盘
+     */
+    public static SegmentLog open(Path directory, int segmentSize, boolean forceOnAppend) throws IOException {
+        if (segmentSize < HEADER_BYTES * 2) {
+            throw new IllegalArgumentException("段文件大小过小: " + segmentSize);
+        }
+        Files.createDirectories(directory);
+        SegmentLog log = new SegmentLog(directory, segmentSize, forceOnAppend);
+        log.recover();
+        return log;
+    }
+
+    /**
+     * 追加会话的记录，同一次调用的记录保持顺序
+     */
+    public void append(String sessionId, List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        byte[] sessionBytes = sessionId.getBytes(StandardCharsets.UTF_8);
+        if (sessionBytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("会话ID过长");
+        }
+        lock.writeLock().lock();
+        try {
+            SessionIndex index = sessions.computeIfAbsent(sessionId, id -> new SessionIndex());
+            for (Entry entry : entries) {
+                long seq = nextSeq++;
+                byte[] record = encode(KIND_ENTRY, entry.tag(), seq, sessionBytes, entry.payload());
+                index.add(seq, write(record));
+            }
+            if (forceOnAppend) {
+                segments.lastEntry().getValue().buffer.force();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 读取会话最近的 N 条记录，按追加顺序返回
+     */
+    public List<Entry> readLast(String sessionId, int n) {
+        lock.readLock().lock();
+        try {
+            SessionIndex index = sessions.get(sessionId);
+            if (index == null || n <= 0) {
+                return new ArrayList<>();
+            }
+            int from = Math.max(0, index.size - n);
+            List<Entry> entries = new ArrayList<>(index.size - from);
+            for (int i = from; i < index.size; i++) {
+                entries.add(read(index.positions[i]));
+            }
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 会话的记录数
+     */
+    public int size(String sessionId) {
+        lock.readLock().lock();
+        try {
+            SessionIndex index = sessions.get(sessionId);
+            return index != null ? index.size : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 清空会话，返回失效的记录数
+     */
+    public int clear(String sessionId) {
+        lock.writeLock().lock();
+        try {
+            SessionIndex index = sessions.remove(sessionId);
+            if (index == null) {
+                return 0;
+            }
+            for (int i = 0; i < index.size; i++) {
+                Segment segment = segmentOf(index.positions[i]);
+                segment.liveBytes -= segment.buffer.getInt(offsetOf(index.positions[i]));
+            }
+            write(encode(KIND_TOMBSTONE, (byte) 0, nextSeq++, sessionId.getBytes(StandardCharsets.UTF_8), new byte[0]));
+            return index.size;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 压缩失效数据比例不低于 garbageRatio 的已封存段
+     */
+    public CompactionResult compact(double garbageRatio) {
+        int compacted = 0;
+        int moved = 0;
+        long reclaimed = 0;
+        retryPendingDeletes();
+        for (long id : sealedSegmentIds()) {
+            lock.writeLock().lock();
+            try {
+                Segment segment = segments.get(id);
+                if (segment == null || segment == segments.lastEntry().getValue()) {
+                    continue;
+                }
+                long garbage = segment.writePosition - segment.liveBytes;
+                if (segment.writePosition > 0 && garbage < garbageRatio * segment.writePosition) {
+                    continue;
+                }
+                moved += relocateLiveRecords(segment);
+                // 复制的记录落盘后再删除旧段，中途崩溃时靠序号去重
+                segments.lastEntry().getValue().buffer.force();
+                segments.remove(id);
+                reclaimed += segment.capacity() - segment.liveBytes;
+                compacted++;
+                deleteSegment(segment);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return new CompactionResult(compacted, moved, reclaimed);
+    }
+
+    /**
+     * 段文件数
+     */
+    public int segmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 段文件占用的总字节数
+     */
+    public long fileBytes() {
+        lock.readLock().lock();
+        try {
+            return segments.values().stream().mapToLong(Segment::capacity).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 仍然有效的记录字节数
+     */
+    public long liveBytes() {
+        lock.readLock().lock();
+        try {
+            return segments.values().stream().mapToLong(segment -> segment.liveBytes).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 有记录的会话
+     */
+    public List<String> sessionIds() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(sessions.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 有记录的会话数
+     */
+    public int sessionCount() {
+        lock.readLock().lock();
+        try {
+            return sessions.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                closeQuietly(segment);
+            }
+            segments.clear();
+            sessions.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(SegmentLog::isSegmentFile).sorted().toList();
+        }
+        Map<String, List<long[]>> found = new HashMap<>();
+        Map<String, Long> tombstones = new HashMap<>();
+        long maxSeq = 0;
+        for (int f = 0; f < files.size(); f++) {
+            Segment segment = map(files.get(f), segmentIdOf(files.get(f)), 0);
+            segments.put(segment.id, segment);
+            ByteBuffer buffer = segment.buffer;
+            int offset = 0;
+            while (offset + HEADER_BYTES <= segment.capacity()) {
+                int length = buffer.getInt(offset);
+                if (length == 0) {
+                    break;
+                }
+                if (length < HEADER_BYTES || offset + length > segment.capacity() || !checksumMatches(buffer, offset, length)) {
+                    log.warn("Segment {} is corrupted at offset {}, ignoring the rest", segment.path, offset);
+                    if (f == files.size() - 1) {
+                        // 当前段之后还要继续追加，清掉残缺的尾部
+                        zero(buffer, offset, segment.capacity());
+                    }
+                    break;
+                }
+                long seq = buffer.getLong(offset + 8);
+                String sessionId = readSessionId(buffer, offset);
+                if (buffer.get(offset + 16) == KIND_TOMBSTONE) {
+                    tombstones.merge(sessionId, seq, Math::max);
+                    segment.liveBytes += length;
+                } else {
+                    found.computeIfAbsent(sessionId, id -> new ArrayList<>())
+                            .add(new long[]{seq, position(segment.id, offset), length});
+                }
+                maxSeq = Math.max(maxSeq, seq);
+                offset += length;
+            }
+            segment.writePosition = offset;
+        }
+        nextSeq = maxSeq + 1;
+        for (Map.Entry<String, List<long[]>> session : found.entrySet()) {
+            long clearedBefore = tombstones.getOrDefault(session.getKey(), 0L);
+            List<long[]> records = session.getValue();
+            // 按序号排序，序号相同时较新的段在后
+            records.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+            SessionIndex index = new SessionIndex();
+            for (int i = 0; i < records.size(); i++) {
+                long[] record = records.get(i);
+                boolean duplicate = i + 1 < records.size() && records.get(i + 1)[0] == record[0];
+                if (duplicate || record[0] < clearedBefore) {
+                    continue;
+                }
+                index.add(record[0], record[1]);
+                segmentOf(record[1]).liveBytes += record[2];
+            }
+            if (index.size > 0) {
+                sessions.put(session.getKey(), index);
+            }
+        }
+        if (segments.isEmpty()) {
+            newSegment(segmentSize);
+        }
+        log.info("Segment log opened: {} segments, {} sessions, next sequence {}",
+                segments.size(), sessions.size(), nextSeq);
+    }
+
+    private byte[] encode(byte kind, byte tag, long seq, byte[] sessionBytes, byte[] payload) {
+        int length = HEADER_BYTES + sessionBytes.length + payload.length;
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(length);
+        record.putInt(0);
+        record.putLong(seq);
+        record.put(kind);
+        record.put(tag);
+        record.putShort((short) sessionBytes.length);
+        record.put(sessionBytes);
+        record.put(payload);
+        crc.reset();
+        crc.update(record.array(), 8, length - 8);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    /**
+     * 写入当前段，空间不足时切换到新段，返回记录位置
+     */
+    private long write(byte[] record) {
+        Segment active = segments.lastEntry().getValue();
+        if (active.writePosition + record.length > active.capacity()) {
+            active = newSegment(Math.max(segmentSize, record.length));
+        }
+        int offset = active.writePosition;
+        // 长度最后写入，扫描时不会读到写了一半的记录
+        active.buffer.put(offset + 4, record, 4, record.length - 4);
+        active.buffer.putInt(offset, record.length);
+        active.writePosition += record.length;
+        active.liveBytes += record.length;
+        return position(active.id, offset);
+    }
+
+    private Entry read(long position) {
+        ByteBuffer buffer = segmentOf(position).buffer;
+        int offset = offsetOf(position);
+        int length = buffer.getInt(offset);
+        int payloadOffset = offset + HEADER_BYTES + buffer.getShort(offset + 18);
+        byte[] payload = new byte[offset + length - payloadOffset];
+        buffer.get(payloadOffset, payload);
+        return new Entry(buffer.get(offset + 17), payload);
+    }
+
+    private int relocateLiveRecords(Segment segment) {
+        boolean hasOlder = segments.firstKey() < segment.id
+                || (!pendingDeletes.isEmpty() && pendingDeletes.first() < segment.id);
+        ByteBuffer buffer = segment.buffer;
+        int moved = 0;
+        int offset = 0;
+        while (offset < segment.writePosition) {
+            int length = buffer.getInt(offset);
+            long seq = buffer.getLong(offset + 8);
+            String sessionId = readSessionId(buffer, offset);
+            long position = position(segment.id, offset);
+            if (buffer.get(offset + 16) == KIND_TOMBSTONE) {
+                // 更早的段里可能还有该会话被清空前的记录
+                if (hasOlder) {
+                    write(copy(buffer, offset, length));
+                    moved++;
+                }
+            } else {
+                SessionIndex index = sessions.get(sessionId);
+                int slot = index != null ? index.indexOf(seq) : -1;
+                if (slot >= 0 && index.positions[slot] == position) {
+                    index.positions[slot] = write(copy(buffer, offset, length));
+                    moved++;
+                }
+            }
+            offset += length;
+        }
+        return moved;
+    }
+
+    private List<Long> sealedSegmentIds() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(segments.headMap(segments.lastKey()).keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Segment newSegment(int capacity) {
+        long id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        if (!pendingDeletes.isEmpty()) {
+            id = Math.max(id, pendingDeletes.last() + 1);
+        }
+        Path path = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        try {
+            Segment segment = map(path, id, capacity);
+            segments.put(id, segment);
+            return segment;
+        } catch (IOException e) {
+            throw new IllegalStateException("无法创建段文件: " + path, e);
+        }
+    }
+
+    private static Segment map(Path path, long id, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), capacity);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        return new Segment(id, path, channel, buffer);
+    }
+
+    private void deleteSegment(Segment segment) {
+        closeQuietly(segment);
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            log.warn("Cannot delete compacted segment {} yet: {}", segment.path, e.getMessage());
+            pendingDeletes.add(segment.id);
+        }
+    }
+
+    private void retryPendingDeletes() {
+        lock.writeLock().lock();
+        try {
+            pendingDeletes.removeIf(id -> {
+                try {
+                    Files.deleteIfExists(directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+                    return true;
+                } catch (IOException e) {
+                    return false;
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean checksumMatches(ByteBuffer buffer, int offset, int length) {
+        crc.reset();
+        crc.update(buffer.slice(offset + 8, length - 8));
+        return (int) crc.getValue() == buffer.getInt(offset + 4);
+    }
+
+    private static String readSessionId(ByteBuffer buffer, int offset) {
+        byte[] sessionBytes = new byte[buffer.getShort(offset + 18)];
+        buffer.get(offset + HEADER_BYTES, sessionBytes);
+        return new String(sessionBytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] copy(ByteBuffer buffer, int offset, int length) {
+        byte[] record = new byte[length];
+        buffer.get(offset, record);
+        return record;
+    }
+
+    private static void zero(ByteBuffer buffer, int from, int to) {
+        byte[] zeros = new byte[Math.min(64 * 1024, to - from)];
+        for (int offset = from; offset < to; offset += zeros.length) {
+            buffer.put(offset, zeros, 0, Math.min(zeros.length, to - offset));
+        }
+    }
+
+    private Segment segmentOf(long position) {
+        return segments.get(position >>> 32);
+    }
+
+    private static int offsetOf(long position) {
+        return (int) position;
+    }
+
+    private static long position(long segmentId, int offset) {
+        return (segmentId << 32) | offset;
+    }
+
+    private static boolean isSegmentFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long segmentIdOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void closeQuietly(Segment segment) {
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            log.debug("Closing segment {} failed", segment.path, e);
+        }
+    }
+}
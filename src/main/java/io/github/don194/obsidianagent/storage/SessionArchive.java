@@ -0,0 +1,328 @@
+package io.github.don194.obsidianagent.storage;
+
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 会话冷热分层
+ * <p>
+ * 长期不活跃会话的消息从主库的 chat_messages 移到旁边的冷库文件（ATTACH 为 {@code archive}），
+ * 会话行本身留在主库并记下 archived_at，会话列表和计数不受影响。已归档的会话直接从冷库读取，
+ * 向它追加消息时才把消息整体移回主库，读请求不会产生写入。内容字节原样搬运，已是压缩后的 Smile，不需要重新编码。
+ * <p>
+ * 冷库记下消息在主库中的原 id（source_id），读取和移回时沿用原 id，键集游标 (created_at, id) 在归档前后保持有效；
+ * 只有原 id 已被主库中后来的消息占用时才分配新的 id。
+ * <p>
+ * 所有搬运都在单写线程中进行，只读连接池同样挂载冷库用于读取；移回主库时插入触发器会重新建立全文索引，
+ * 所以归档期间的消息不出现在搜索结果里。
+ * <p>
+ * 冷库只挂在主库（0 号分片）上，其余分片的会话无法归档，
+ * 因此 shard-count 大于 1 时必须关闭 archive-enabled，否则启动失败。
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+public class SessionArchive {
+
+    /**
+     * 冷库在写连接和只读连接上的挂载名
+     */
+    public static final String SCHEMA = "archive";
+
+    private static final String[] ARCHIVE_DDL = {
+            "CREATE TABLE IF NOT EXISTS archive.chat_messages (id INTEGER PRIMARY KEY, message_id VARCHAR(36) UNIQUE, " +
+                    "session_id VARCHAR(36) NOT NULL, message_type VARCHAR(255) NOT NULL, content TEXT NOT NULL, " +
+                    "created_at TIMESTAMP NOT NULL, source_id INTEGER)",
+            "CREATE INDEX IF NOT EXISTS archive.idx_archive_session_created_id " +
+                    "ON chat_messages (session_id, created_at, id)"
+    };
+
+    /**
+     * 一次归档的结果
+     *
+     * @param sessions 归档的会话数
+     * @param messages 移到冷库的消息数
+     */
+    public record ArchiveResult(int sessions, int messages) {
+    }
+
+    private final String url;
+    private final SqliteProperties properties;
+    private final SqliteWriter writer;
+    private final SqliteReaderPool readerPool;
+    private final Counter archivedCounter;
+    private final Counter restoredCounter;
+    private volatile boolean attached;
+
+    public SessionArchive(@Value("${spring.datasource.url}") String url,
+                          SqliteProperties properties,
+                          SqliteWriter writer,
+                          SqliteReaderPool readerPool,
+                          MeterRegistry meterRegistry) {
+        this.url = url;
+        this.properties = properties;
+        this.writer = writer;
+        this.readerPool = readerPool;
+        this.archivedCounter = Counter.builder("sqlite.archive.sessions")
+                .tag("direction", "archived")
+                .description("移到冷库的会话数")
+                .register(meterRegistry);
+        this.restoredCounter = Counter.builder("sqlite.archive.sessions")
+                .tag("direction", "restored")
+                .description("按需从冷库加载回来的会话数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 在写连接上挂载冷库并建表，再挂载到只读连接上
+     */
+    @PostConstruct
+    public void initialize() {
+        if (!properties.isArchiveEnabled()) {
+            return;
+        }
+        if (properties.getShardCount() > 1) {
+            throw new IllegalStateException("会话归档不支持分片，shard-count 大于 1 时请关闭 obsidian.sqlite.archive-enabled");
+        }
+        Path archiveFile = archiveFile();
+        if (archiveFile == null) {
+            log.info("主库不是文件数据库，跳过会话归档");
+            return;
+        }
+        // ATTACH 不能在事务中执行
+        writer.executeStandalone(connection -> {
+            try (PreparedStatement attach = connection.prepareStatement("ATTACH DATABASE ? AS " + SCHEMA)) {
+                attach.setString(1, archiveFile.toString());
+                attach.execute();
+            }
+            try (Statement statement = connection.createStatement()) {
+                // 只对新建的空库生效，之后可以用增量 VACUUM 回收空间
+                statement.execute("PRAGMA archive.auto_vacuum = INCREMENTAL");
+                for (String ddl : ARCHIVE_DDL) {
+                    statement.execute(ddl);
+                }
+                // 早期的冷库没有记录原 id
+                if (!hasColumn(statement, "source_id")) {
+                    statement.execute("ALTER TABLE archive.chat_messages ADD COLUMN source_id INTEGER");
+                }
+            }
+            return null;
+        });
+        readerPool.attach(SCHEMA, archiveFile);
+        attached = true;
+        log.info("Session archive attached: {}", archiveFile);
+    }
+
+    /**
+     * 冷库是否可用
+     */
+    public boolean isEnabled() {
+        return attached;
+    }
+
+    /**
+     * 冷库文件路径
+     */
+    public Path archiveFile() {
+        if (properties.getArchivePath() != null && !properties.getArchivePath().isBlank()) {
+            return Path.of(properties.getArchivePath()).toAbsolutePath();
+        }
+        Path mainFile = SqlitePragmas.databaseFile(url);
+        if (mainFile == null) {
+            return null;
+        }
+        String name = mainFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return mainFile.resolveSibling(base + "_archive.db");
+    }
+
+    /**
+     * 归档最后活动早于 cutoff 的会话
+     *
+     * @param cutoff 最后活动时间的上限
+     * @param limit  本次最多归档的会话数
+     * @return 归档结果
+     */
+    public ArchiveResult archiveIdleSessions(LocalDateTime cutoff, int limit) {
+        if (!attached) {
+            return new ArchiveResult(0, 0);
+        }
+        Timestamp cutoffTime = Timestamp.valueOf(cutoff);
+        // 候选会话在只读连接上按 idx_sessions_updated_at 查出，写线程中再逐个确认
+        List<String> candidates = readerPool.getJdbcTemplate().queryForList(
+                "SELECT session_id FROM chat_sessions WHERE updated_at < ? AND archived_at IS NULL " +
+                        "AND (restored_at IS NULL OR restored_at < ?) ORDER BY updated_at LIMIT ?",
+                String.class, cutoffTime, cutoffTime, limit);
+        if (candidates.isEmpty()) {
+            return new ArchiveResult(0, 0);
+        }
+        ArchiveResult result = writer.execute(connection -> {
+            int sessions = 0;
+            int messages = 0;
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            for (String sessionId : candidates) {
+                // 候选查出之后会话可能又有了新消息，以写线程中的状态为准
+                try (PreparedStatement mark = connection.prepareStatement(
+                        "UPDATE main.chat_sessions SET archived_at = ? WHERE session_id = ? " +
+                                "AND archived_at IS NULL AND updated_at < ?")) {
+                    mark.setTimestamp(1, now);
+                    mark.setString(2, sessionId);
+                    mark.setTimestamp(3, cutoffTime);
+                    if (mark.executeUpdate() == 0) {
+                        continue;
+                    }
+                }
+                messages += archiveMessages(connection, sessionId);
+                sessions++;
+            }
+            return new ArchiveResult(sessions, messages);
+        });
+        archivedCounter.increment(result.sessions());
+        if (result.sessions() > 0) {
+            log.info("Archived {} idle sessions ({} messages) to {}", result.sessions(), result.messages(), archiveFile());
+        }
+        return result;
+    }
+
+    /**
+     * 会话的消息是否在冷库中
+     */
+    public boolean isArchived(String sessionId) {
+        if (!attached) {
+            return false;
+        }
+        List<Integer> archived = readerPool.getJdbcTemplate().queryForList(
+                "SELECT 1 FROM chat_sessions WHERE session_id = ? AND archived_at IS NOT NULL",
+                Integer.class, sessionId);
+        return !archived.isEmpty();
+    }
+
+    /**
+     * 把已归档会话的消息移回主库，在向会话追加消息之前调用
+     *
+     * @param sessionId 会话ID
+     * @return 移回的消息数，会话未归档时为 0
+     */
+    public int restore(String sessionId) {
+        if (!attached) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        Integer restored = writer.execute(connection -> {
+            try (PreparedStatement unmark = connection.prepareStatement(
+                    "UPDATE main.chat_sessions SET archived_at = NULL, restored_at = ? " +
+                            "WHERE session_id = ? AND archived_at IS NOT NULL")) {
+                unmark.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+                unmark.setString(2, sessionId);
+                if (unmark.executeUpdate() == 0) {
+                    return 0;
+                }
+            }
+            return restoreMessages(connection, sessionId);
+        });
+        if (restored > 0) {
+            restoredCounter.increment();
+            log.info("Restored archived session {} ({} messages) in {} ms",
+                    sessionId, restored, (System.nanoTime() - start) / 1_000_000);
+        }
+        return restored;
+    }
+
+    /**
+     * 删除会话在冷库中的消息
+     */
+    public void purge(String sessionId) {
+        if (!attached) {
+            return;
+        }
+        writer.execute(connection -> {
+            try (PreparedStatement delete = connection.prepareStatement(
+                    "DELETE FROM archive.chat_messages WHERE session_id = ?")) {
+                delete.setString(1, sessionId);
+                return delete.executeUpdate();
+            }
+        });
+    }
+
+    private static int archiveMessages(Connection connection, String sessionId) throws SQLException {
+        int moved;
+        try (PreparedStatement copy = connection.prepareStatement(
+                "INSERT OR REPLACE INTO archive.chat_messages " +
+                        "(message_id, session_id, message_type, content, created_at, source_id) " +
+                        "SELECT message_id, session_id, message_type, content, created_at, id FROM main.chat_messages " +
+                        "WHERE session_id = ? ORDER BY created_at, id")) {
+            copy.setString(1, sessionId);
+            moved = copy.executeUpdate();
+        }
+        deleteMessages(connection, "main", sessionId);
+        return moved;
+    }
+
+    private static int restoreMessages(Connection connection, String sessionId) throws SQLException {
+        int moved;
+        // 原 id 仍空闲时沿用原 id
+        try (PreparedStatement copy = connection.prepareStatement(
+                "INSERT OR IGNORE INTO main.chat_messages (id, message_id, session_id, message_type, content, created_at) " +
+                        "SELECT a.source_id, a.message_id, a.session_id, a.message_type, a.content, a.created_at " +
+                        "FROM archive.chat_messages a WHERE a.session_id = ? AND a.source_id IS NOT NULL " +
+                        "AND NOT EXISTS (SELECT 1 FROM main.chat_messages m WHERE m.id = a.source_id) " +
+                        "ORDER BY a.created_at, a.id")) {
+            copy.setString(1, sessionId);
+            moved = copy.executeUpdate();
+        }
+        // 原 id 已被其它消息占用或没有记录原 id 的消息，在上一步之后按原顺序分配新的 id
+        try (PreparedStatement copy = connection.prepareStatement(
+                "INSERT OR IGNORE INTO main.chat_messages (message_id, session_id, message_type, content, created_at) " +
+                        "SELECT a.message_id, a.session_id, a.message_type, a.content, a.created_at " +
+                        "FROM archive.chat_messages a WHERE a.session_id = ? AND (a.source_id IS NULL " +
+                        "OR NOT EXISTS (SELECT 1 FROM main.chat_messages m WHERE m.id = a.source_id " +
+                        "AND m.session_id = a.session_id AND m.message_id IS a.message_id)) " +
+                        "ORDER BY a.created_at, a.id")) {
+            copy.setString(1, sessionId);
+            int reassigned = copy.executeUpdate();
+            if (reassigned > 0) {
+                log.warn("Restored {} messages of session {} with new ids, their original ids were taken",
+                        reassigned, sessionId);
+            }
+            moved += reassigned;
+        }
+        deleteMessages(connection, SCHEMA, sessionId);
+        return moved;
+    }
+
+    private static void deleteMessages(Connection connection, String schema, String sessionId) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement(
+                "DELETE FROM " + schema + ".chat_messages WHERE session_id = ?")) {
+            delete.setString(1, sessionId);
+            delete.executeUpdate();
+        }
+    }
+
+    private static boolean hasColumn(Statement statement, String column) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("PRAGMA archive.table_info(chat_messages)")) {
+            while (rs.next()) {
+                if (column.equals(rs.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,244 @@
+package io.github.don194.obsidianagent.storage;
+
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQLite 定期维护
+ * <p>
+ * 在写线程空闲时依次执行：归档不活跃会话、增量 VACUUM 回收空闲页、ANALYZE 更新查询计划统计、
+ * WAL checkpoint 截断日志文件。需要在事务外执行的语句都通过 {@link SqliteWriter#executeStandalone} 提交，
+ * 不会和业务写入交错。每次维护的效果记录在日志和指标中。
+ * <p>
+ * 启用分片时每个分片各自维护，只处理写线程空闲的分片；会话归档只作用于主库，见 {@link SessionArchive}。
+ * <p>
+ * 增量 VACUUM 要求 auto_vacuum=INCREMENTAL，旧库第一次维护时会切换模式并做一次完整 VACUUM。
+ */
+@Slf4j
+@Component
+public class SqliteMaintenance {
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * 一次维护的效果，启用分片时为各分片之和
+     *
+     * @param archivedSessions   归档的会话数
+     * @param archivedMessages   移到冷库的消息数
+     * @param freedPages         增量 VACUUM 回收的页数
+     * @param fileBytesBefore    维护前数据库文件大小
+     * @param fileBytesAfter     维护后数据库文件大小
+     * @param walBytesBefore     维护前 WAL 文件大小
+     * @param walBytesAfter      维护后 WAL 文件大小
+     * @param checkpointComplete 各分片的 WAL 是否全部写回数据库（有读事务未结束时可能只完成一部分）
+     * @param durationMs         耗时
+     */
+    public record Report(int archivedSessions, int archivedMessages, long freedPages,
+                         long fileBytesBefore, long fileBytesAfter, long walBytesBefore, long walBytesAfter,
+                         boolean checkpointComplete, long durationMs) {
+    }
+
+    private final SqliteProperties properties;
+    private final SqliteShards shards;
+    private final SessionArchive sessionArchive;
+    private final Timer durationTimer;
+    private final Counter freedPagesCounter;
+    private final Counter skippedCounter;
+    private volatile Report lastReport;
+
+    public SqliteMaintenance(SqliteProperties properties,
+                             SqliteShards shards,
+                             SessionArchive sessionArchive,
+                             MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.shards = shards;
+        this.sessionArchive = sessionArchive;
+        this.durationTimer = Timer.builder("sqlite.maintenance.duration")
+                .description("一次维护的耗时")
+                .register(meterRegistry);
+        this.freedPagesCounter = Counter.builder("sqlite.maintenance.freed.pages")
+                .description("增量 VACUUM 回收的页数")
+                .register(meterRegistry);
+        this.skippedCounter = Counter.builder("sqlite.maintenance.skipped")
+                .description("因写线程繁忙而跳过的分片维护次数")
+                .register(meterRegistry);
+        for (SqliteShards.Shard shard : shards.all()) {
+            Path databaseFile = SqlitePragmas.databaseFile(shard.url());
+            Gauge.builder("sqlite.database.file.bytes", databaseFile, SqliteMaintenance::fileSize)
+                    .tag("shard", String.valueOf(shard.index()))
+                    .description("数据库文件大小")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * 定期检查，对写线程空闲的分片执行维护
+     */
+    @Scheduled(fixedDelayString = "${obsidian.sqlite.maintenance-interval-ms:600000}",
+            initialDelayString = "${obsidian.sqlite.maintenance-interval-ms:600000}")
+    public void runIfIdle() {
+        if (!properties.isMaintenanceEnabled()) {
+            return;
+        }
+        List<SqliteShards.Shard> idle = shards.all().stream().filter(this::isIdle).toList();
+        if (idle.isEmpty()) {
+            return;
+        }
+        try {
+            runMaintenance(idle);
+        } catch (Exception e) {
+            log.error("SQLite 维护失败", e);
+        }
+    }
+
+    /**
+     * 立即对全部分片执行一次维护
+     *
+     * @return 维护效果
+     */
+    public Report runMaintenance() {
+        return runMaintenance(shards.all());
+    }
+
+    private Report runMaintenance(List<SqliteShards.Shard> targets) {
+        long start = System.nanoTime();
+        int archivedSessions = 0;
+        int archivedMessages = 0;
+        long freedPages = 0;
+        long fileBefore = 0;
+        long fileAfter = 0;
+        long walBefore = 0;
+        long walAfter = 0;
+        boolean checkpointComplete = true;
+        for (SqliteShards.Shard shard : targets) {
+            Path databaseFile = SqlitePragmas.databaseFile(shard.url());
+            fileBefore += fileSize(databaseFile);
+            walBefore += fileSize(walFile(databaseFile));
+
+            SqliteWriter writer = shard.writer();
+            if (shard.index() == 0) {
+                // 冷库只挂在主库上
+                SessionArchive.ArchiveResult archived = sessionArchive.archiveIdleSessions(
+                        LocalDateTime.now().minusDays(properties.getArchiveAfterDays()), properties.getArchiveBatchSize());
+                archivedSessions += archived.sessions();
+                archivedMessages += archived.messages();
+            }
+            boolean withArchive = shard.index() == 0 && sessionArchive.isEnabled();
+            freedPages += writer.executeStandalone(connection -> incrementalVacuum(connection, withArchive));
+            writer.executeStandalone(this::analyze);
+            checkpointComplete &= writer.executeStandalone(SqliteMaintenance::checkpoint);
+
+            fileAfter += fileSize(databaseFile);
+            walAfter += fileSize(walFile(databaseFile));
+        }
+
+        long durationNanos = System.nanoTime() - start;
+        durationTimer.record(durationNanos, TimeUnit.NANOSECONDS);
+        freedPagesCounter.increment(freedPages);
+        Report report = new Report(archivedSessions, archivedMessages, freedPages,
+                fileBefore, fileAfter, walBefore, walAfter,
+                checkpointComplete, TimeUnit.NANOSECONDS.toMillis(durationNanos));
+        lastReport = report;
+        log.info("SQLite maintenance on {} of {} shards: archived {} sessions/{} messages, freed {} pages, " +
+                        "db {} -> {} bytes, wal {} -> {} bytes, checkpoint {}, {} ms",
+                targets.size(), shards.all().size(),
+                report.archivedSessions(), report.archivedMessages(), report.freedPages(),
+                report.fileBytesBefore(), report.fileBytesAfter(), report.walBytesBefore(), report.walBytesAfter(),
+                report.checkpointComplete() ? "complete" : "partial", report.durationMs());
+        return report;
+    }
+
+    private boolean isIdle(SqliteShards.Shard shard) {
+        SqliteWriter writer = shard.writer();
+        long idleMs = System.currentTimeMillis() - writer.getLastWriteAt();
+        if (writer.getQueueDepth() > 0 || idleMs < properties.getMaintenanceIdleMs()) {
+            skippedCounter.increment();
+            log.debug("SQLite 分片 {} 写线程空闲 {} ms，队列 {}，推迟维护", shard.index(), idleMs, writer.getQueueDepth());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 最近一次维护的效果，尚未执行过时为 null
+     */
+    public Report getLastReport() {
+        return lastReport;
+    }
+
+    private long incrementalVacuum(Connection connection, boolean withArchive) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            if (queryLong(statement, "PRAGMA main.auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+                log.info("Switching SQLite auto_vacuum to INCREMENTAL, running a full VACUUM once");
+                long before = queryLong(statement, "PRAGMA main.page_count");
+                statement.execute("PRAGMA main.auto_vacuum = INCREMENTAL");
+                statement.execute("VACUUM main");
+                return Math.max(0, before - queryLong(statement, "PRAGMA main.page_count"));
+            }
+            long freed = vacuumSchema(statement, "main");
+            if (withArchive) {
+                freed += vacuumSchema(statement, "archive");
+            }
+            return freed;
+        }
+    }
+
+    private long vacuumSchema(Statement statement, String schema) throws SQLException {
+        long before = queryLong(statement, "PRAGMA " + schema + ".freelist_count");
+        int pages = properties.getIncrementalVacuumPages();
+        statement.execute("PRAGMA " + schema + ".incremental_vacuum" + (pages > 0 ? "(" + pages + ")" : ""));
+        return Math.max(0, before - queryLong(statement, "PRAGMA " + schema + ".freelist_count"));
+    }
+
+    private Void analyze(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA analysis_limit = " + properties.getAnalysisLimit());
+            statement.execute("ANALYZE main");
+        }
+        return null;
+    }
+
+    private static boolean checkpoint(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("PRAGMA main.wal_checkpoint(TRUNCATE)")) {
+            // 返回 (busy, log, checkpointed)，非 WAL 模式下 log 为 -1
+            return rs.next() && rs.getInt(1) == 0 && rs.getInt(2) == rs.getInt(3);
+        }
+    }
+
+    private static long queryLong(Statement statement, String sql) throws SQLException {
+        try (ResultSet rs = statement.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        }
+    }
+
+    private static Path walFile(Path databaseFile) {
+        return databaseFile != null ? databaseFile.resolveSibling(databaseFile.getFileName() + "-wal") : null;
+    }
+
+    private static long fileSize(Path file) {
+        try {
+            return file != null && Files.exists(file) ? Files.size(file) : 0L;
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.don194.obsidianagent.storage;
+
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import org.sqlite.SQLiteConfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * SQLite 连接参数工具 - 写连接和只读连接共用同一套 PRAGMA
+ */
+final class SqlitePragmas {
+
+    private static final String URL_PREFIX = "jdbc:sqlite:";
+
+    private SqlitePragmas() {
+    }
+
+    /**
+     * 根据配置构建连接参数
+     *
+     * @param properties SQLite配置
+     * @param readOnly   是否以只读方式打开
+     * @return SQLiteConfig
+     */
+    static SQLiteConfig toConfig(SqliteProperties properties, boolean readOnly) {
+        SQLiteConfig config = new SQLiteConfig();
+        if (!readOnly) {
+            // journal_mode 持久化在数据库文件中，只需由写连接设置
+            config.setJournalMode(SQLiteConfig.JournalMode.valueOf(properties.getJournalMode().toUpperCase(Locale.ROOT)));
+            config.setSynchronous(SQLiteConfig.SynchronousMode.valueOf(properties.getSynchronous().toUpperCase(Locale.ROOT)));
+        }
+        config.setBusyTimeout(properties.getBusyTimeoutMs());
+        // 负数表示以KB为单位
+        config.setCacheSize(-properties.getCacheSizeKb());
+        config.setTempStore(SQLiteConfig.TempStore.MEMORY);
+        config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(properties.getMmapSizeBytes()));
+        config.setReadOnly(readOnly);
+        return config;
+    }
+
+    /**
+     * 确保数据库文件所在目录存在，SQLite 不会自动创建目录
+     *
+     * @param url JDBC URL
+     */
+    static void ensureParentDirectory(String url) {
+        Path file = databaseFile(url);
+        if (file == null) {
+            return;
+        }
+        Path parent = file.getParent();
+        if (parent == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(parent);
+        } catch (IOException e) {
+            throw new IllegalStateException("无法创建数据库目录: " + parent, e);
+        }
+    }
+
+    /**
+     * 从 JDBC URL 中解析数据库文件路径
+     *
+     * @param url JDBC URL
+     * @return 绝对路径；内存数据库或 file: URI 形式返回 null
+     */
+    static Path databaseFile(String url) {
+        if (url == null || !url.startsWith(URL_PREFIX)) {
+            return null;
+        }
+        String file = url.substring(URL_PREFIX.length());
+        int queryIndex = file.indexOf('?');
+        if (queryIndex >= 0) {
+            file = file.substring(0, queryIndex);
+        }
+        if (file.isEmpty() || file.startsWith(":memory:") || file.startsWith("file:")) {
+            return null;
+        }
+        return Paths.get(file).toAbsolutePath();
+    }
+}
@@ -0,0 +1,103 @@
+package io.github.don194.obsidianagent.storage;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SQLite 只读连接池
+ * <p>
+ * WAL 模式下读连接不会阻塞写线程，历史消息读取走这里，与 {@link SqliteWriter} 的写连接完全分离。
+ * 通过 {@link #attach} 登记的附加库（如冷库）在每个新建的只读连接上挂载。
+ */
+@Slf4j
+@Component
+public class SqliteReaderPool {
+
+    private final HikariDataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<String, Path> attachments = new ConcurrentHashMap<>();
+
+    public SqliteReaderPool(@Value("${spring.datasource.url}") String url,
+                            SqliteProperties properties,
+                            SqliteWriter writer) {
+        // 依赖 writer 保证数据库文件和 WAL 已经由写连接初始化
+        SQLiteDataSource sqliteDataSource = new SQLiteDataSource(SqlitePragmas.toConfig(properties, true)) {
+            @Override
+            public SQLiteConnection getConnection(String username, String password) throws SQLException {
+                SQLiteConnection connection = super.getConnection(username, password);
+                try {
+                    for (Map.Entry<String, Path> attachment : attachments.entrySet()) {
+                        attach(connection, attachment.getKey(), attachment.getValue());
+                    }
+                } catch (SQLException e) {
+                    connection.close();
+                    throw e;
+                }
+                return connection;
+            }
+        };
+        sqliteDataSource.setUrl(url);
+
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("sqlite-reader");
+        config.setDataSource(sqliteDataSource);
+        config.setMaximumPoolSize(properties.getReaderPoolSize());
+        config.setMinimumIdle(1);
+        // 必须与 SQLiteConfig 的只读标志一致，sqlite-jdbc 不允许连接建立后再修改
+        config.setReadOnly(true);
+        this.dataSource = new HikariDataSource(config);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        log.info("SQLite reader pool started with {} read-only connections", properties.getReaderPoolSize());
+    }
+
+    /**
+     * 在只读连接上以 schema 名挂载另一个数据库文件，已建立的空闲连接会被替换
+     *
+     * @param schema 挂载名
+     * @param file   数据库文件，必须已由写连接创建
+     */
+    public void attach(String schema, Path file) {
+        attachments.put(schema, file);
+        dataSource.getHikariPoolMXBean().softEvictConnections();
+    }
+
+    /**
+     * 只读连接上是否挂载了指定的数据库
+     */
+    public boolean isAttached(String schema) {
+        return attachments.containsKey(schema);
+    }
+
+    /**
+     * 基于只读连接池的 JdbcTemplate
+     */
+    public JdbcTemplate getJdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    @PreDestroy
+    public void close() {
+        dataSource.close();
+    }
+
+    private static void attach(SQLiteConnection connection, String schema, Path file) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("ATTACH DATABASE ? AS " + schema)) {
+            statement.setString(1, file.toString());
+            statement.execute();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package io.github.don194.obsidianagent.storage;
+
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 按会话分片的 SQLite 数据库
+ * <p>
+ * obsidian.sqlite.shard-count 大于 1 时，会话按 ID 的哈希分布到多个数据库文件中，
+ * 每个分片有自己的单写线程、只读连接池、全文索引和统计表，不同分片的写入互不等待。
+ * 0 号分片就是主库（表结构由 Hibernate 维护），其余分片是主库旁边的 “主库名_shardN.db”，启动时按同样的结构建表。
+ * <p>
+ * 分片数决定了会话所在的文件，已有数据后不能直接修改；需要调整时先导出再导入。
+ * 跨分片的查询通过 {@link #fanOut} 在各分片上并行执行。
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+public class SqliteShards {
+
+    /**
+     * 与 {@link io.github.don194.obsidianagent.entity.ChatSession} / {@link io.github.don194.obsidianagent.entity.ChatMessage} /
+     * {@link io.github.don194.obsidianagent.entity.ChatContextSummary} / {@link io.github.don194.obsidianagent.entity.ChatToolResult}
+     * 实体生成的表结构一致
+     */
+    private static final String[] SHARD_SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS chat_messages (id INTEGER PRIMARY KEY, content TEXT NOT NULL, " +
+                    "created_at TIMESTAMP NOT NULL, message_id VARCHAR(36) UNIQUE, message_type VARCHAR(255) NOT NULL, " +
+                    "session_id VARCHAR(36) NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS idx_session_id ON chat_messages (session_id)",
+            "CREATE INDEX IF NOT EXISTS idx_created_at ON chat_messages (created_at)",
+            "CREATE INDEX IF NOT EXISTS idx_session_created_id ON chat_messages (session_id, created_at, id)",
+            "CREATE TABLE IF NOT EXISTS chat_sessions (session_id VARCHAR(36) PRIMARY KEY, created_at TIMESTAMP, " +
+                    "message_count INTEGER, title VARCHAR(255), updated_at TIMESTAMP, archived_at TIMESTAMP, " +
+                    "restored_at TIMESTAMP)",
+            "CREATE INDEX IF NOT EXISTS idx_sessions_updated_at ON chat_sessions (updated_at, session_id)",
+            "CREATE TABLE IF NOT EXISTS chat_context_summaries (session_id VARCHAR(36) PRIMARY KEY, summary TEXT NOT NULL, " +
+                    "covered_messages BIGINT NOT NULL, summarized_tokens BIGINT NOT NULL, summary_tokens INTEGER NOT NULL, " +
+                    "updated_at TIMESTAMP)",
+            "CREATE TABLE IF NOT EXISTS chat_tool_results (id INTEGER PRIMARY KEY, session_id VARCHAR(36) NOT NULL, " +
+                    "call_id VARCHAR(100) NOT NULL, tool_name VARCHAR(100), content TEXT NOT NULL, created_at TIMESTAMP)",
+            "CREATE UNIQUE INDEX IF NOT EXISTS idx_tool_results_session_call ON chat_tool_results (session_id, call_id)"
+    };
+
+    /**
+     * 一个分片的读写组件
+     *
+     * @param index       分片序号，0 为主库
+     * @param url         JDBC URL
+     * @param writer      单写线程
+     * @param readerPool  只读连接池
+     * @param searchIndex 全文索引
+     * @param stats       统计表
+     */
+    public record Shard(int index, String url, SqliteWriter writer, SqliteReaderPool readerPool,
+                        MessageSearchIndex searchIndex, ChatStats stats) {
+    }
+
+    private final String url;
+    private final SqliteProperties properties;
+    private final PayloadCodec payloadCodec;
+    private final MeterRegistry meterRegistry;
+    private final List<Shard> shards = new ArrayList<>();
+    private ExecutorService executor;
+
+    public SqliteShards(@Value("${spring.datasource.url}") String url,
+                        SqliteProperties properties,
+                        SqliteWriter writer,
+                        SqliteReaderPool readerPool,
+                        MessageSearchIndex searchIndex,
+                        ChatStats stats,
+                        PayloadCodec payloadCodec,
+                        MeterRegistry meterRegistry) {
+        this.url = url;
+        this.properties = properties;
+        this.payloadCodec = payloadCodec;
+        this.meterRegistry = meterRegistry;
+        shards.add(new Shard(0, url, writer, readerPool, searchIndex, stats));
+    }
+
+    /**
+     * 打开其余分片：启动写线程和只读连接池，建表并创建全文索引和统计表
+     */
+    @PostConstruct
+    public void initialize() throws SQLException {
+        int count = properties.getShardCount();
+        if (count <= 1) {
+            return;
+        }
+        for (int index = 1; index < count; index++) {
+            String shardUrl = shardUrl(url, index);
+            SqliteWriter writer = new SqliteWriter(shardUrl, properties, meterRegistry);
+            writer.start();
+            writer.execute(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    for (String ddl : SHARD_SCHEMA) {
+                        statement.execute(ddl);
+                    }
+                }
+                return null;
+            });
+            SqliteReaderPool readerPool = new SqliteReaderPool(shardUrl, properties, writer);
+            MessageSearchIndex searchIndex = new MessageSearchIndex(writer, readerPool, payloadCodec);
+            searchIndex.initialize();
+            ChatStats stats = new ChatStats(writer, readerPool, payloadCodec);
+            stats.initialize();
+            shards.add(new Shard(index, shardUrl, writer, readerPool, searchIndex, stats));
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(count, runnable -> {
+            Thread thread = new Thread(runnable, "sqlite-shard-query-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("SQLite sharding enabled with {} shards", count);
+    }
+
+    /**
+     * 是否启用了多个分片
+     */
+    public boolean isSharded() {
+        return shards.size() > 1;
+    }
+
+    /**
+     * 全部分片，0 号为主库
+     */
+    public List<Shard> all() {
+        return shards;
+    }
+
+    /**
+     * 会话所在的分片
+     */
+    public Shard forSession(String sessionId) {
+        return shards.get(indexOf(sessionId, shards.size()));
+    }
+
+    /**
+     * 在每个分片上并行执行查询，按分片顺序返回结果
+     */
+    public <T> List<T> fanOut(Function<Shard, T> query) {
+        if (!isSharded()) {
+            return List.of(query.apply(shards.get(0)));
+        }
+        List<CompletableFuture<T>> futures = shards.stream()
+                .map(shard -> CompletableFuture.supplyAsync(() -> query.apply(shard), executor))
+                .toList();
+        return futures.stream().map(CompletableFuture::join).toList();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        for (Shard shard : shards.subList(1, shards.size())) {
+            shard.readerPool().close();
+            shard.writer().shutdown();
+        }
+    }
+
+    /**
+     * 会话到分片的映射，String.hashCode 的算法是固定的，重启后保持不变
+     */
+    static int indexOf(String sessionId, int shardCount) {
+        return shardCount <= 1 ? 0 : Math.floorMod(sessionId.hashCode(), shardCount);
+    }
+
+    /**
+     * 分片文件与主库在同一目录，名为 “主库名_shardN.db”
+     */
+    static String shardUrl(String url, int index) {
+        Path mainFile = SqlitePragmas.databaseFile(url);
+        if (mainFile == null) {
+            throw new IllegalStateException("分片只支持文件数据库: " + url);
+        }
+        String name = mainFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return "jdbc:sqlite:" + mainFile.resolveSibling(base + "_shard" + index + ".db");
+    }
+}
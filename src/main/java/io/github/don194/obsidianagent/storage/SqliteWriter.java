@@ -0,0 +1,363 @@
+package io.github.don194.obsidianagent.storage;
+
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQLite 单写线程
+ * <p>
+ * SQLite 同一时刻只允许一个写者。所有写操作都提交到这里的队列，由唯一的写线程
+ * 持有唯一的写连接依次执行，并把队列中积压的操作合并到同一个事务中提交（组提交）。
+ * 每个操作运行在独立的 SAVEPOINT 中，单个操作失败不会影响同批次的其它操作。
+ * VACUUM、ATTACH、wal_checkpoint 等不能在事务中执行的维护操作通过 {@link #executeStandalone} 提交，
+ * 写线程会先提交它之前的批次，再以自动提交模式单独执行。
+ */
+@Slf4j
+@Component
+public class SqliteWriter {
+
+    /**
+     * 在写连接上执行的写操作
+     */
+    @FunctionalInterface
+    public interface WriteTask<T> {
+        T execute(Connection connection) throws SQLException;
+    }
+
+    private record PendingWrite<T>(WriteTask<T> task, CompletableFuture<T> future, long enqueuedAt,
+                                   boolean standalone) {
+
+        void complete(Object result) {
+            @SuppressWarnings("unchecked")
+            T value = (T) result;
+            future.complete(value);
+        }
+    }
+
+    private static final int SQLITE_BUSY = 5;
+    private static final int SQLITE_LOCKED = 6;
+
+    private final String url;
+    private final SqliteProperties properties;
+    private final BlockingQueue<PendingWrite<?>> queue;
+
+    private final DistributionSummary batchSizeSummary;
+    private final Timer queueLatencyTimer;
+    private final Timer commitTimer;
+    private final Counter busyRetryCounter;
+
+    private Connection connection;
+    private Thread writerThread;
+    private volatile boolean running;
+    private volatile long lastWriteAt = System.currentTimeMillis();
+
+    public SqliteWriter(@Value("${spring.datasource.url}") String url,
+                        SqliteProperties properties,
+                        MeterRegistry meterRegistry) {
+        this.url = url;
+        this.properties = properties;
+        this.queue = new ArrayBlockingQueue<>(properties.getWriterQueueCapacity());
+
+        this.batchSizeSummary = DistributionSummary.builder("sqlite.writer.batch.size")
+                .description("每次组提交包含的写操作数量")
+                .register(meterRegistry);
+        this.queueLatencyTimer = Timer.builder("sqlite.writer.queue.latency")
+                .description("写操作在队列中等待的时间")
+                .register(meterRegistry);
+        this.commitTimer = Timer.builder("sqlite.writer.commit.time")
+                .description("单次组提交的执行时间")
+                .register(meterRegistry);
+        this.busyRetryCounter = Counter.builder("sqlite.writer.busy.retries")
+                .description("因 SQLITE_BUSY/SQLITE_LOCKED 进行的重试次数")
+                .register(meterRegistry);
+        Gauge.builder("sqlite.writer.queue.depth", queue, BlockingQueue::size)
+                .description("写队列中待执行的操作数量")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 打开写连接、应用PRAGMA并启动写线程
+     */
+    @PostConstruct
+    public void start() throws SQLException {
+        SqlitePragmas.ensureParentDirectory(url);
+        connection = SqlitePragmas.toConfig(properties, false).createConnection(url);
+        connection.setAutoCommit(false);
+        running = true;
+        writerThread = new Thread(this::drainLoop, "sqlite-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        log.info("SQLite writer started: {} (journal_mode={}, synchronous={}, batch={})",
+                url, properties.getJournalMode(), properties.getSynchronous(), properties.getWriterBatchSize());
+    }
+
+    /**
+     * 异步提交写操作
+     *
+     * @param task 写操作
+     * @return 在事务提交后完成的Future
+     */
+    public <T> CompletableFuture<T> submit(WriteTask<T> task) {
+        return enqueue(task, false);
+    }
+
+    private <T> CompletableFuture<T> enqueue(WriteTask<T> task, boolean standalone) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new IllegalStateException("SQLite writer 已关闭"));
+            return future;
+        }
+        PendingWrite<T> write = new PendingWrite<>(task, future, System.nanoTime(), standalone);
+        try {
+            queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        // 入队的同时写线程停止接收（关闭或被中断）：操作可能不会再被处理，还在队列中时直接失败
+        if (!running && queue.remove(write)) {
+            future.completeExceptionally(new IllegalStateException("SQLite writer 已关闭"));
+        }
+        return future;
+    }
+
+    /**
+     * 同步提交写操作，等待其所在批次提交完成
+     *
+     * @param task 写操作
+     * @return 写操作的返回值
+     */
+    public <T> T execute(WriteTask<T> task) {
+        return join(submit(task));
+    }
+
+    /**
+     * 在事务之外单独执行操作（自动提交模式），用于 VACUUM、ATTACH、wal_checkpoint 等维护语句
+     *
+     * @param task 维护操作
+     * @return 操作的返回值
+     */
+    public <T> T executeStandalone(WriteTask<T> task) {
+        return join(enqueue(task, true));
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("SQLite 写入失败: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 当前写队列深度
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * 最近一次提交的时间戳（毫秒）
+     */
+    public long getLastWriteAt() {
+        return lastWriteAt;
+    }
+
+    /**
+     * 停止接收新的写操作，执行完队列中剩余的操作后关闭连接
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (writerThread != null) {
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            log.warn("关闭SQLite写连接失败", e);
+        }
+        log.info("SQLite writer stopped");
+    }
+
+    private void drainLoop() {
+        List<PendingWrite<?>> batch = new ArrayList<>(properties.getWriterBatchSize());
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite<?> first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, properties.getWriterBatchSize() - 1);
+                // 维护操作把批次切开：先提交它之前的写操作，再单独执行
+                int from = 0;
+                for (int i = 0; i < batch.size(); i++) {
+                    if (batch.get(i).standalone()) {
+                        if (i > from) {
+                            commitBatch(batch.subList(from, i));
+                        }
+                        runStandalone(batch.get(i));
+                        from = i + 1;
+                    }
+                }
+                if (from < batch.size()) {
+                    commitBatch(batch.subList(from, batch.size()));
+                }
+            } catch (InterruptedException e) {
+                // 写线程被中断后不再继续：回滚未提交的事务，让所有等待中的调用方立即失败，而不是永远等下去
+                log.error("SQLite writer 被中断，放弃 {} 个在途和 {} 个排队中的写操作", batch.size(), queue.size());
+                running = false;
+                rollbackQuietly();
+                IllegalStateException failure = new IllegalStateException("SQLite writer 被中断", e);
+                batch.forEach(write -> write.future().completeExceptionally(failure));
+                List<PendingWrite<?>> abandoned = new ArrayList<>();
+                queue.drainTo(abandoned);
+                abandoned.forEach(write -> write.future().completeExceptionally(failure));
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("SQLite writer 处理批次失败", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commitBatch(List<PendingWrite<?>> batch) throws InterruptedException {
+        long now = System.nanoTime();
+        for (PendingWrite<?> write : batch) {
+            queueLatencyTimer.record(now - write.enqueuedAt(), TimeUnit.NANOSECONDS);
+        }
+        batchSizeSummary.record(batch.size());
+
+        Object[] results = new Object[batch.size()];
+        Throwable[] errors = new Throwable[batch.size()];
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    results[i] = runInSavepoint(batch.get(i).task());
+                } catch (SQLException | RuntimeException e) {
+                    errors[i] = e;
+                }
+            }
+            commitWithRetry();
+        } catch (SQLException e) {
+            log.error("SQLite 组提交失败，回滚 {} 个写操作", batch.size(), e);
+            rollbackQuietly();
+            batch.forEach(write -> write.future().completeExceptionally(e));
+            return;
+        } finally {
+            commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        lastWriteAt = System.currentTimeMillis();
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (errors[i] != null) {
+                batch.get(i).future().completeExceptionally(errors[i]);
+            } else {
+                batch.get(i).complete(results[i]);
+            }
+        }
+    }
+
+    private void runStandalone(PendingWrite<?> write) {
+        queueLatencyTimer.record(System.nanoTime() - write.enqueuedAt(), TimeUnit.NANOSECONDS);
+        try {
+            connection.setAutoCommit(true);
+            try {
+                write.complete(write.task().execute(connection));
+            } finally {
+                connection.setAutoCommit(false);
+            }
+        } catch (SQLException | RuntimeException e) {
+            write.future().completeExceptionally(e);
+        }
+    }
+
+    private Object runInSavepoint(WriteTask<?> task) throws SQLException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            Savepoint savepoint = connection.setSavepoint();
+            try {
+                Object result = task.execute(connection);
+                connection.releaseSavepoint(savepoint);
+                return result;
+            } catch (SQLException e) {
+                connection.rollback(savepoint);
+                connection.releaseSavepoint(savepoint);
+                if (!isBusy(e) || attempt >= properties.getBusyMaxRetries()) {
+                    throw e;
+                }
+                backoff(attempt);
+            } catch (RuntimeException e) {
+                connection.rollback(savepoint);
+                connection.releaseSavepoint(savepoint);
+                throw e;
+            }
+        }
+    }
+
+    private void commitWithRetry() throws SQLException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                connection.commit();
+                return;
+            } catch (SQLException e) {
+                if (!isBusy(e) || attempt >= properties.getBusyMaxRetries()) {
+                    throw e;
+                }
+                backoff(attempt);
+            }
+        }
+    }
+
+    private void backoff(int attempt) throws InterruptedException {
+        busyRetryCounter.increment();
+        Thread.sleep(properties.getBusyRetryBackoffMs() << Math.min(attempt, 6));
+    }
+
+    private void rollbackQuietly() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            log.warn("SQLite 回滚失败", e);
+        }
+    }
+
+    private static boolean isBusy(SQLException e) {
+        int primaryCode = e.getErrorCode() & 0xff;
+        return primaryCode == SQLITE_BUSY || primaryCode == SQLITE_LOCKED;
+    }
+}
@@ -0,0 +1,446 @@
+package io.github.don194.obsidianagent.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 紧凑的本地向量索引：单个只追加文件，启动时整体读入内存，按余弦相似度暴力检索
+ * <p>
+ * 向量先归一化为单位长度，再按分量的最大绝对值线性量化为 int8，每条记录的向量只占 维度 + 4 字节。
+ * 所有向量连续存放在一个字节数组中，检索时用整数点积逐条打分并用小顶堆保留前 k 个；
+ * 256 维时两万条记录的检索在几毫秒内完成，不需要近似索引。
+ * <p>
+ * 文件格式：魔数(int) 维度(int)，之后是记录：类别(byte)，条目为 创建时间(long) token 数(int) 量化比例(float)
+ * 向量(维度个 byte) 会话ID长度(short) 会话ID 文本长度(int) 文本；遗忘记录为 会话ID长度(short) 会话ID。
+ * 写入中断留下的不完整记录在打开时截掉；含有遗忘记录时打开后重写文件，去掉已遗忘的条目。
+ * <p>
+ * 读写由一把读写锁保护：追加和遗忘互斥，检索之间可以并行。
+ */
+@Slf4j
+public class VectorIndex implements AutoCloseable {
+
+    private static final int MAGIC = 0x4F41564D;
+    private static final int HEADER_BYTES = 8;
+    private static final byte KIND_ENTRY = 1;
+    private static final byte KIND_FORGET = 2;
+
+    /**
+     * 一条检索结果
+     *
+     * @param sessionId 条目来源的会话
+     * @param text      条目文本
+     * @param tokens    文本的 token 数
+     * @param createdAt 写入时间（毫秒）
+     * @param score     与查询的余弦相似度（量化后的近似值）
+     */
+    public record Hit(String sessionId, String text, int tokens, long createdAt, float score) {
+    }
+
+    private final Path file;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private int dimension;
+
+    private int size;
+    private int liveCount;
+    private byte[] codes = new byte[0];
+    private float[] scales = new float[16];
+    private int[] tokens = new int[16];
+    private long[] createdAt = new long[16];
+    private String[] sessionIds = new String[16];
+    private String[] texts = new String[16];
+    private boolean[] forgotten = new boolean[16];
+
+    private VectorIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * 打开索引文件并载入内存，文件不存在时在第一次写入时创建
+     *
+     * @param file 索引文件路径
+     */
+    public static VectorIndex open(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        VectorIndex index = new VectorIndex(file);
+        boolean rewrite = Files.exists(file) && index.load();
+        if (rewrite) {
+            index.rewrite();
+        }
+        index.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        index.channel.position(index.channel.size());
+        return index;
+    }
+
+    /**
+     * 追加一条向量
+     *
+     * @throws IllegalArgumentException 向量维度与索引不一致或为零向量
+     */
+    public void add(String sessionId, String text, int textTokens, long time, float[] vector) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (dimension == 0) {
+                initialize(vector.length);
+            } else if (vector.length != dimension) {
+                throw new IllegalArgumentException("向量维度 " + vector.length + " 与索引维度 " + dimension + " 不一致");
+            }
+            byte[] code = new byte[dimension];
+            float scale = quantize(vector, code);
+            byte[] sessionBytes = sessionId.getBytes(StandardCharsets.UTF_8);
+            byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 4 + 4 + dimension + 2 + sessionBytes.length
+                    + 4 + textBytes.length);
+            buffer.put(KIND_ENTRY).putLong(time).putInt(textTokens).putFloat(scale).put(code)
+                    .putShort((short) sessionBytes.length).put(sessionBytes)
+                    .putInt(textBytes.length).put(textBytes)
+                    .flip();
+            writeFully(buffer);
+            append(sessionId, text, textTokens, time, scale, code);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 遗忘会话的全部条目：内存中立即失效，文件中追加遗忘记录，下次打开时重写
+     *
+     * @return 遗忘的条目数
+     */
+    public int forget(String sessionId) throws IOException {
+        lock.writeLock().lock();
+        try {
+            int removed = markForgotten(sessionId);
+            if (removed > 0) {
+                byte[] sessionBytes = sessionId.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer buffer = ByteBuffer.allocate(1 + 2 + sessionBytes.length);
+                buffer.put(KIND_FORGET).putShort((short) sessionBytes.length).put(sessionBytes).flip();
+                writeFully(buffer);
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 清空索引并改用新的维度，用于更换嵌入模型后旧向量不再可比的情况
+     */
+    public void reset(int newDimension) throws IOException {
+        lock.writeLock().lock();
+        try {
+            size = 0;
+            liveCount = 0;
+            dimension = 0;
+            codes = new byte[0];
+            channel.truncate(0);
+            channel.position(0);
+            initialize(newDimension);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 取与查询最相似的 k 条
+     *
+     * @param query          查询向量
+     * @param k              最多返回的条数
+     * @param excludeSession 排除的会话，可以为 null
+     * @param minScore       最低相似度
+     * @return 按相似度从高到低排列；维度不一致时返回空列表
+     */
+    public List<Hit> search(float[] query, int k, String excludeSession, float minScore) {
+        lock.readLock().lock();
+        try {
+            if (k <= 0 || liveCount == 0 || query.length != dimension) {
+                return Collections.emptyList();
+            }
+            byte[] queryCode = new byte[dimension];
+            float queryScale = quantize(query, queryCode);
+            PriorityQueue<Hit> top = new PriorityQueue<>(k + 1, (a, b) -> Float.compare(a.score(), b.score()));
+            for (int i = 0; i < size; i++) {
+                if (forgotten[i] || sessionIds[i].equals(excludeSession)) {
+                    continue;
+                }
+                int dot = 0;
+                int offset = i * dimension;
+                for (int d = 0; d < dimension; d++) {
+                    dot += queryCode[d] * codes[offset + d];
+                }
+                float score = dot * queryScale * scales[i];
+                if (score < minScore || (top.size() == k && score <= top.peek().score())) {
+                    continue;
+                }
+                top.add(new Hit(sessionIds[i], texts[i], tokens[i], createdAt[i], score));
+                if (top.size() > k) {
+                    top.poll();
+                }
+            }
+            List<Hit> hits = new ArrayList<>(top);
+            hits.sort((a, b) -> Float.compare(b.score(), a.score()));
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int dimension() {
+        lock.readLock().lock();
+        try {
+            return dimension;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 索引文件的字节数
+     */
+    public long fileBytes() {
+        lock.readLock().lock();
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            return 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 把向量归一化后量化为 int8
+     *
+     * @return 量化比例：分量 ≈ code × 比例
+     */
+    static float quantize(float[] vector, byte[] code) {
+        double norm = 0;
+        float maxAbs = 0;
+        for (float v : vector) {
+            norm += (double) v * v;
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        if (norm == 0) {
+            throw new IllegalArgumentException("不能索引零向量");
+        }
+        float factor = 127f / maxAbs;
+        for (int d = 0; d < vector.length; d++) {
+            code[d] = (byte) Math.round(vector[d] * factor);
+        }
+        return (float) (maxAbs / 127f / Math.sqrt(norm));
+    }
+
+    /**
+     * 读取整个文件，截掉末尾不完整的记录
+     *
+     * @return 是否含有遗忘记录，需要重写文件
+     */
+    private boolean load() throws IOException {
+        long validBytes = 0;
+        boolean hasForget = false;
+        long fileSize = Files.size(file);
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024))) {
+            if (fileSize < HEADER_BYTES) {
+                validBytes = 0;
+            } else {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("不是向量索引文件: " + file);
+                }
+                dimension = in.readInt();
+                codes = new byte[16 * dimension];
+                validBytes = HEADER_BYTES;
+                while (true) {
+                    int kind = in.read();
+                    if (kind < 0) {
+                        break;
+                    }
+                    if (kind == KIND_ENTRY) {
+                        long time = in.readLong();
+                        int textTokens = in.readInt();
+                        float scale = in.readFloat();
+                        byte[] code = new byte[dimension];
+                        in.readFully(code);
+                        String sessionId = readString(in, in.readUnsignedShort());
+                        String text = readString(in, in.readInt());
+                        append(sessionId, text, textTokens, time, scale, code);
+                        validBytes += 1 + 8 + 4 + 4 + dimension + 2 + utf8Length(sessionId) + 4 + utf8Length(text);
+                    } else if (kind == KIND_FORGET) {
+                        String sessionId = readString(in, in.readUnsignedShort());
+                        markForgotten(sessionId);
+                        hasForget = true;
+                        validBytes += 1 + 2 + utf8Length(sessionId);
+                    } else {
+                        log.warn("Unknown record kind {} in vector index {}, ignoring the rest", kind, file);
+                        break;
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            log.warn("Truncated record at the end of vector index {}", file);
+        }
+        if (validBytes < fileSize) {
+            try (FileChannel truncating = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncating.truncate(validBytes);
+            }
+        }
+        log.info("Loaded {} vectors ({} dimensions) from {}", liveCount, dimension, file);
+        return hasForget;
+    }
+
+    /**
+     * 只写入仍然有效的条目，完成后替换原文件
+     */
+    private void rewrite() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int kept = 0;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(dimension).flip();
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            for (int i = 0; i < size; i++) {
+                if (forgotten[i]) {
+                    continue;
+                }
+                byte[] sessionBytes = sessionIds[i].getBytes(StandardCharsets.UTF_8);
+                byte[] textBytes = texts[i].getBytes(StandardCharsets.UTF_8);
+                ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 4 + 4 + dimension + 2 + sessionBytes.length
+                        + 4 + textBytes.length);
+                buffer.put(KIND_ENTRY).putLong(createdAt[i]).putInt(tokens[i]).putFloat(scales[i])
+                        .put(codes, i * dimension, dimension)
+                        .putShort((short) sessionBytes.length).put(sessionBytes)
+                        .putInt(textBytes.length).put(textBytes)
+                        .flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                moveEntry(i, kept++);
+            }
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Rewrote vector index {}: dropped {} forgotten vectors", file, size - kept);
+        size = kept;
+        Arrays.fill(forgotten, 0, forgotten.length, false);
+    }
+
+    private void initialize(int newDimension) throws IOException {
+        if (newDimension <= 0) {
+            throw new IllegalArgumentException("向量维度必须为正数: " + newDimension);
+        }
+        dimension = newDimension;
+        codes = new byte[scales.length * dimension];
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(dimension).flip();
+        channel.truncate(0);
+        channel.position(0);
+        writeFully(header);
+    }
+
+    private void append(String sessionId, String text, int textTokens, long time, float scale, byte[] code) {
+        if (size == scales.length) {
+            int capacity = size * 2;
+            scales = Arrays.copyOf(scales, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+            createdAt = Arrays.copyOf(createdAt, capacity);
+            sessionIds = Arrays.copyOf(sessionIds, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+            forgotten = Arrays.copyOf(forgotten, capacity);
+        }
+        if (codes.length < (size + 1) * dimension) {
+            codes = Arrays.copyOf(codes, scales.length * dimension);
+        }
+        System.arraycopy(code, 0, codes, size * dimension, dimension);
+        scales[size] = scale;
+        tokens[size] = textTokens;
+        createdAt[size] = time;
+        sessionIds[size] = sessionId;
+        texts[size] = text;
+        forgotten[size] = false;
+        size++;
+        liveCount++;
+    }
+
+    private int markForgotten(String sessionId) {
+        int removed = 0;
+        for (int i = 0; i < size; i++) {
+            if (!forgotten[i] && sessionIds[i].equals(sessionId)) {
+                forgotten[i] = true;
+                removed++;
+            }
+        }
+        liveCount -= removed;
+        return removed;
+    }
+
+    private void moveEntry(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        System.arraycopy(codes, from * dimension, codes, to * dimension, dimension);
+        scales[to] = scales[from];
+        tokens[to] = tokens[from];
+        createdAt[to] = createdAt[from];
+        sessionIds[to] = sessionIds[from];
+        texts[to] = texts[from];
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
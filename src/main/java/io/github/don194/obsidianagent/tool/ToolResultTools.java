@@ -0,0 +1,44 @@
+package io.github.don194.obsidianagent.tool;
+
+import io.github.don194.obsidianagent.memory.ToolResultCompactor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+
+/**
+ * 展开外存工具结果的工具（较长的工具结果在上下文中只保留摘录，需要时由模型按 handle 分段读取）
+ */
+@Slf4j
+public class ToolResultTools {
+
+    private final ToolResultCompactor toolResultCompactor;
+
+    public ToolResultTools(ToolResultCompactor toolResultCompactor) {
+        this.toolResultCompactor = toolResultCompactor;
+    }
+
+    /**
+     * 方法名与 {@link ToolResultCompactor#EXPAND_TOOL_NAME} 一致，结果不会再次被外存
+     */
+    @Tool(description = """
+            读取之前某个工具调用的完整结果。较长的工具结果在对话中只显示摘录和 handle，
+            只有摘录中没有所需信息时才调用，每次最多返回一页，可用 offset 继续读取后面的内容。
+            """)
+    public String expandToolResult(
+            @ToolParam(description = "工具结果摘录中给出的 handle") String handle,
+            @ToolParam(description = "起始字符位置，从 0 开始，默认 0", required = false) Integer offset,
+            @ToolParam(description = "读取的字符数，默认一页", required = false) Integer length,
+            ToolContext toolContext) {
+        log.info("展开工具结果 {}，offset={}，length={}", handle, offset, length);
+        // 会话ID来自 Agent，而不是模型给出的参数，只能展开当前会话的结果
+        Object sessionId = toolContext != null
+                ? toolContext.getContext().get(ToolResultCompactor.SESSION_CONTEXT_KEY) : null;
+        try {
+            return toolResultCompactor.expand(sessionId != null ? sessionId.toString() : null, handle,
+                    offset != null ? offset : 0, length != null ? length : 0);
+        } catch (IllegalArgumentException e) {
+            return "Error: " + e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.don194.obsidianagent.agent;
+
+import io.github.don194.obsidianagent.config.AgentProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * AgentRunExecutor 并发上限、等待队列和拒绝的单元测试
+ */
+class AgentRunExecutorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AgentProperties properties = new AgentProperties();
+    private AgentRunExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void queuesBeyondConcurrencyAndRejectsWhenQueueIsFull() throws Exception {
+        properties.setRunConcurrency(2);
+        properties.setRunQueueCapacity(1);
+        executor = new AgentRunExecutor(properties, meterRegistry);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(3);
+        Runnable blocking = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        };
+
+        executor.execute(blocking);
+        executor.execute(blocking);
+        assertThat(started.await(2, TimeUnit.SECONDS)).isTrue();
+        executor.execute(done::countDown);
+
+        assertThat(executor.activeRuns()).isEqualTo(2);
+        assertThat(executor.queuedRuns()).isEqualTo(1);
+        assertThat(meterRegistry.get("agent.runs.queue.depth").gauge().value()).isEqualTo(1.0);
+        // 并发数和队列都已满：立即拒绝
+        assertThatThrownBy(() -> executor.execute(() -> { }))
+                .isInstanceOf(RejectedExecutionException.class)
+                .hasMessageContaining("繁忙");
+        assertThat(meterRegistry.get("agent.runs.rejected").counter().count()).isEqualTo(1.0);
+
+        release.countDown();
+        assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(meterRegistry.get("agent.runs.wait").timer().count()).isEqualTo(3);
+    }
+
+    @Test
+    void fallsBackToPlatformThreadsWhenVirtualThreadsAreUnavailable() throws Exception {
+        properties.setRunVirtualThreads(true);
+        executor = new AgentRunExecutor(properties, meterRegistry);
+        CountDownLatch done = new CountDownLatch(1);
+        String[] threadName = new String[1];
+
+        executor.execute(() -> {
+            threadName[0] = Thread.currentThread().getName();
+            done.countDown();
+        });
+
+        assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(threadName[0]).startsWith("agent-run-");
+    }
+}
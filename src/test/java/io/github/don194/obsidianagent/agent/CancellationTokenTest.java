@@ -0,0 +1,72 @@
+package io.github.don194.obsidianagent.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * CancellationToken 中断绑定线程、记录排队期间的取消、不取消已结束的运行的单元测试
+ */
+class CancellationTokenTest {
+
+    @Test
+    void cancelInterruptsTheBoundRunOnlyOnce() throws Exception {
+        CancellationToken token = new CancellationToken();
+        CountDownLatch bound = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread worker = new Thread(() -> {
+            token.bind(Thread.currentThread());
+            bound.countDown();
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            } finally {
+                token.unbind();
+            }
+        });
+        worker.start();
+        assertThat(bound.await(2, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(token.cancel("disconnect")).isTrue();
+        assertThat(token.cancel("timeout")).isFalse();
+        worker.join(2000);
+
+        assertThat(interrupted).isTrue();
+        assertThat(token.isCancelled()).isTrue();
+        assertThat(token.reason()).isEqualTo("disconnect");
+    }
+
+    @Test
+    void ignoresCancelAfterRunHasEnded() {
+        CancellationToken token = new CancellationToken();
+        token.bind(Thread.currentThread());
+        token.unbind();
+
+        // 正常结束后的完成回调不算取消，也不会中断已经去做别的事的线程
+        assertThat(token.cancel("disconnect")).isFalse();
+        assertThat(token.isCancelled()).isFalse();
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+    }
+
+    @Test
+    void keepsCancelThatArrivesBeforeTheRunStarts() {
+        CancellationToken token = new CancellationToken();
+
+        // 运行还在排队时客户端断开：标记被记录，此时没有线程可以中断
+        assertThat(token.cancel("disconnect")).isTrue();
+        assertThat(token.cancel("timeout")).isFalse();
+        assertThat(token.isBound()).isFalse();
+
+        // 运行开始绑定线程时标记仍然有效，也不会中断执行线程
+        token.bind(Thread.currentThread());
+        assertThat(token.isCancelled()).isTrue();
+        assertThat(token.reason()).isEqualTo("disconnect");
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+        token.unbind();
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.don194.obsidianagent.agent;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ChatResponseAssembler 拼接文本增量、归并工具调用片段的单元测试
+ */
+class ChatResponseAssemblerTest {
+
+    @Test
+    void concatenatesTextDeltasAndKeepsUsage() {
+        ChatResponseAssembler assembler = new ChatResponseAssembler();
+        assertThat(assembler.hasContent()).isFalse();
+
+        assertThat(assembler.accept(chunk("你好", List.of()))).isEqualTo("你好");
+        assertThat(assembler.hasContent()).isTrue();
+        assertThat(assembler.accept(chunk("，世界", List.of()))).isEqualTo("，世界");
+        // 最后一个片段只带用量
+        ChatResponseMetadata usage = ChatResponseMetadata.builder().usage(new DefaultUsage(10, 5)).build();
+        assertThat(assembler.accept(new ChatResponse(List.of(new Generation(new AssistantMessage(""))), usage)))
+                .isEmpty();
+
+        ChatResponse response = assembler.toChatResponse();
+        assertThat(response.getResult().getOutput().getText()).isEqualTo("你好，世界");
+        assertThat(response.getResult().getOutput().getToolCalls()).isEmpty();
+        assertThat(response.getMetadata().getUsage().getTotalTokens()).isEqualTo(15);
+    }
+
+    @Test
+    void mergesFragmentedToolCallDeltas() {
+        ChatResponseAssembler assembler = new ChatResponseAssembler();
+
+        // 第一个调用的 ID 和名称只在首个片段中出现，参数分散在后续片段中
+        assembler.accept(chunk("", List.of(toolCall("c1", "readNote", "{\"pa"))));
+        assembler.accept(chunk("", List.of(toolCall("", null, "th\":\"a.md\"}"))));
+        // 一个片段中同时开始第二个调用
+        assembler.accept(chunk("", List.of(toolCall("c2", "searchNotes", "{\"query\":"))));
+        assembler.accept(chunk("", List.of(toolCall(null, "", "\"日记\"}"))));
+        assertThat(assembler.hasContent()).isTrue();
+
+        List<AssistantMessage.ToolCall> calls = assembler.toChatResponse().getResult().getOutput().getToolCalls();
+        assertThat(calls).containsExactly(
+                new AssistantMessage.ToolCall("c1", "function", "readNote", "{\"path\":\"a.md\"}"),
+                new AssistantMessage.ToolCall("c2", "function", "searchNotes", "{\"query\":\"日记\"}"));
+    }
+
+    @Test
+    void assignsPlaceholderIdWhenModelOmitsIt() {
+        ChatResponseAssembler assembler = new ChatResponseAssembler();
+
+        assembler.accept(chunk("我来查一下", List.of(toolCall(null, "getCurrentDateTime", "{}"))));
+
+        ChatResponse response = assembler.toChatResponse();
+        assertThat(response.getResult().getOutput().getText()).isEqualTo("我来查一下");
+        assertThat(response.getResult().getOutput().getToolCalls())
+                .containsExactly(new AssistantMessage.ToolCall("call_0", "function", "getCurrentDateTime", "{}"));
+    }
+
+    private static ChatResponse chunk(String text, List<AssistantMessage.ToolCall> toolCalls) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text, Map.of(), toolCalls))));
+    }
+
+    private static AssistantMessage.ToolCall toolCall(String id, String name, String arguments) {
+        return new AssistantMessage.ToolCall(id, "function", name, arguments);
+    }
+}
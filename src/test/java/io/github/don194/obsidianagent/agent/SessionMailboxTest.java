@@ -0,0 +1,155 @@
+package io.github.don194.obsidianagent.agent;
+
+import io.github.don194.obsidianagent.config.AgentProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * SessionMailbox 按会话串行执行、排队上限和拒绝策略的单元测试
+ */
+class SessionMailboxTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AgentProperties properties = new AgentProperties();
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void runsSameSessionInArrivalOrderAndOtherSessionsInParallel() throws Exception {
+        SessionMailbox mailbox = new SessionMailbox(properties, meterRegistry, pool);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherDone = new CountDownLatch(1);
+        CountDownLatch allDone = new CountDownLatch(3);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        mailbox.executorFor("s1").execute(() -> {
+            await(release);
+            order.add("s1-first");
+            allDone.countDown();
+        });
+        mailbox.executorFor("s1").execute(() -> {
+            order.add("s1-second");
+            allDone.countDown();
+        });
+        mailbox.executorFor("s2").execute(() -> {
+            order.add("s2");
+            otherDone.countDown();
+            allDone.countDown();
+        });
+
+        // s1 的第一个运行阻塞时 s2 照常执行，s1 的第二个运行在邮箱中等待
+        assertThat(otherDone.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(mailbox.isBusy("s1")).isTrue();
+        assertThat(mailbox.depth("s1")).isEqualTo(1);
+        assertThat(meterRegistry.get("agent.session.queue.depth").gauge().value()).isEqualTo(1.0);
+
+        release.countDown();
+        assertThat(allDone.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(order).containsExactly("s2", "s1-first", "s1-second");
+        waitUntilIdle(mailbox, "s1");
+        assertThat(meterRegistry.get("agent.session.queue.depth").gauge().value()).isZero();
+        assertThat(meterRegistry.get("agent.session.active").gauge().value()).isZero();
+    }
+
+    @Test
+    void rejectsBeyondQueueCapacityOrUnderRejectPolicy() throws Exception {
+        properties.setSessionQueueCapacity(1);
+        SessionMailbox mailbox = new SessionMailbox(properties, meterRegistry, pool);
+        CountDownLatch release = new CountDownLatch(1);
+
+        mailbox.executorFor("s1").execute(() -> await(release));
+        mailbox.executorFor("s1").execute(() -> { });
+        assertThatThrownBy(() -> mailbox.executorFor("s1").execute(() -> { }))
+                .isInstanceOf(RejectedExecutionException.class);
+
+        properties.setSessionQueuePolicy(SessionMailbox.POLICY_REJECT);
+        mailbox.executorFor("s2").execute(() -> await(release));
+        assertThatThrownBy(() -> mailbox.executorFor("s2").execute(() -> { }))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThat(meterRegistry.get("agent.session.rejected").counter().count()).isEqualTo(2.0);
+
+        release.countDown();
+        waitUntilIdle(mailbox, "s1");
+        waitUntilIdle(mailbox, "s2");
+
+        // 邮箱空闲后新的运行直接执行
+        CountDownLatch ran = new CountDownLatch(1);
+        mailbox.executorFor("s2").execute(ran::countDown);
+        assertThat(ran.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void notifiesQueuedRunsRejectedByTheExecutorInsteadOfRunningThemInline() throws Exception {
+        AtomicBoolean saturated = new AtomicBoolean();
+        Executor delegate = task -> {
+            if (saturated.get()) {
+                throw new RejectedExecutionException("服务繁忙");
+            }
+            pool.execute(task);
+        };
+        SessionMailbox mailbox = new SessionMailbox(properties, meterRegistry, delegate);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> events = new CopyOnWriteArrayList<>();
+
+        mailbox.executorFor("s1").execute(() -> await(release));
+        for (String name : List.of("second", "third")) {
+            mailbox.executorFor("s1").execute(new RejectableTask(events, name));
+        }
+        saturated.set(true);
+        release.countDown();
+
+        // 两个排队的运行都收到拒绝通知，没有在结束运行的线程上直接执行，邮箱随后空闲
+        waitUntilIdle(mailbox, "s1");
+        assertThat(events).containsExactly("rejected second", "rejected third");
+        assertThat(meterRegistry.get("agent.session.rejected").counter().count()).isEqualTo(2.0);
+        assertThat(meterRegistry.get("agent.session.active").gauge().value()).isZero();
+    }
+
+    private record RejectableTask(List<String> events, String name)
+            implements Runnable, SessionMailbox.RejectionAware {
+        @Override
+        public void run() {
+            events.add("ran " + name);
+        }
+
+        @Override
+        public void rejected(RejectedExecutionException e) {
+            events.add("rejected " + name);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntilIdle(SessionMailbox mailbox, String sessionId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((mailbox.isBusy(sessionId) || mailbox.depth(sessionId) > 0)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(mailbox.isBusy(sessionId)).isFalse();
+    }
+}
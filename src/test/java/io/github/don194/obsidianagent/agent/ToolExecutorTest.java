@@ -0,0 +1,153 @@
+package io.github.don194.obsidianagent.agent;
+
+import io.github.don194.obsidianagent.config.AgentProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ToolExecutor 并发执行、顺序保持、串行工具、从开始执行计算的超时和超时取消的单元测试
+ */
+class ToolExecutorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AgentProperties properties = new AgentProperties();
+    private ToolExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void runsIndependentCallsConcurrentlyInOriginalOrder() {
+        executor = new ToolExecutor(properties, meterRegistry);
+        List<AssistantMessage.ToolCall> calls = List.of(call("c1", "readNote", "300"),
+                call("c2", "readNote", "100"), call("c3", "searchNotes", "200"));
+
+        long start = System.nanoTime();
+        List<String> results = executor.execute(calls, this::sleepAndEcho);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // 耗时接近最慢的一个（300 ms），而不是总和（600 ms）
+        assertThat(results).containsExactly("c1", "c2", "c3");
+        assertThat(elapsedMs).isLessThan(550);
+        assertThat(meterRegistry.get("agent.tool.duration").tag("tool", "readNote").timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void runsSerialToolsAloneAndKeepsTheirPosition() {
+        executor = new ToolExecutor(properties, meterRegistry);
+        List<String> events = new CopyOnWriteArrayList<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        List<AssistantMessage.ToolCall> calls = List.of(call("r1", "readNote", "50"),
+                call("w1", "mcp_obsidian_append_content", "50"), call("w2", "obsidian_append_content", "50"),
+                call("r2", "readNote", "50"));
+
+        List<String> results = executor.execute(calls, toolCall -> {
+            boolean serial = toolCall.name().endsWith("append_content");
+            if (running.incrementAndGet() > 1 && serial) {
+                overlapped.set(true);
+            }
+            events.add("start " + toolCall.id());
+            String result = sleepAndEcho(toolCall);
+            events.add("end " + toolCall.id());
+            if (running.decrementAndGet() > 0 && serial) {
+                overlapped.set(true);
+            }
+            return result;
+        });
+
+        assertThat(results).containsExactly("r1", "w1", "w2", "r2");
+        assertThat(overlapped).isFalse();
+        assertThat(events).containsExactly("start r1", "end r1", "start w1", "end w1",
+                "start w2", "end w2", "start r2", "end r2");
+    }
+
+    @Test
+    void cancelsCallsThatExceedTheirTimeout() {
+        properties.setToolTimeoutMs(5000);
+        properties.setToolTimeouts(Map.of("slowTool", 100L));
+        executor = new ToolExecutor(properties, meterRegistry);
+        AtomicBoolean interrupted = new AtomicBoolean();
+
+        List<String> results = executor.execute(List.of(call("c1", "slowTool", "5000"), call("c2", "readNote", "10")),
+                toolCall -> {
+                    try {
+                        Thread.sleep(Long.parseLong(toolCall.arguments()));
+                    } catch (InterruptedException e) {
+                        interrupted.set(true);
+                        return "interrupted";
+                    }
+                    return toolCall.id();
+                });
+
+        assertThat(results).containsExactly(String.format(ToolExecutor.TIMEOUT_RESULT, 100), "c2");
+        assertThat(meterRegistry.get("agent.tool.timeouts").counter().count()).isEqualTo(1.0);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!interrupted.get() && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertThat(interrupted).isTrue();
+    }
+
+    @Test
+    void countsTheTimeoutFromWhenTheCallStartsRunning() {
+        // 只有一个工具线程：第二个调用要排队 300 ms，排队时间不占用它的 400 ms 预算
+        properties.setToolConcurrency(1);
+        properties.setToolTimeoutMs(400);
+        executor = new ToolExecutor(properties, meterRegistry);
+
+        List<String> results = executor.execute(List.of(call("c1", "readNote", "300"), call("c2", "readNote", "300")),
+                this::sleepAndEcho);
+
+        assertThat(results).containsExactly("c1", "c2");
+        assertThat(meterRegistry.get("agent.tool.timeouts").counter().count()).isZero();
+    }
+
+    @Test
+    void waitsForSerialToolsInsteadOfInterruptingThem() {
+        properties.setToolTimeouts(Map.of("obsidian_append_content", 100L));
+        executor = new ToolExecutor(properties, meterRegistry);
+        AtomicBoolean interrupted = new AtomicBoolean();
+
+        List<String> results = executor.execute(List.of(call("w1", "obsidian_append_content", "300")),
+                toolCall -> {
+                    try {
+                        Thread.sleep(Long.parseLong(toolCall.arguments()));
+                    } catch (InterruptedException e) {
+                        interrupted.set(true);
+                    }
+                    return toolCall.id();
+                });
+
+        // 写入没有被中断，结果按迟到的结果记录
+        assertThat(results).containsExactly("w1");
+        assertThat(interrupted).isFalse();
+        assertThat(meterRegistry.get("agent.tool.timeouts").counter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("agent.tool.late").counter().count()).isEqualTo(1.0);
+    }
+
+    private String sleepAndEcho(AssistantMessage.ToolCall toolCall) {
+        try {
+            Thread.sleep(Long.parseLong(toolCall.arguments()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return toolCall.id();
+    }
+
+    private static AssistantMessage.ToolCall call(String id, String name, String arguments) {
+        return new AssistantMessage.ToolCall(id, "function", name, arguments);
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.don194.obsidianagent.agent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.tool.ToolCallback;
+
+/**
+ * 工具注册表前后 Agent 构造、工具查找和读取工具定义的开销
+ * <p>
+ * “之前”按原来的做法：每个 Agent 用全部工具新建调用选项，按名称逐个比较 getToolDefinition().name() 查找工具。
+ * <p>
+ * 默认不运行：mvn test -Dtest=ToolRegistryBenchmark -Dbenchmark=true [-Dbenchmark.tools=60]
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ToolRegistryBenchmark {
+
+    private static final int ROUNDS = 20_000;
+
+    @Test
+    void compareBeforeAndAfter() {
+        int toolCount = Integer.getInteger("benchmark.tools", 60);
+        ToolCallback[] tools = new ToolCallback[toolCount];
+        for (int i = 0; i < toolCount; i++) {
+            tools[i] = new ToolRegistryTest.SchemaTool("obsidian_tool_" + i);
+        }
+        // 查找靠后的工具，接近线性查找的平均情况偏坏一侧
+        String target = "obsidian_tool_" + (toolCount * 3 / 4);
+
+        long start = System.nanoTime();
+        ToolRegistry registry = new ToolRegistry(tools);
+        System.out.printf("%d 个工具，构建注册表 %.2f ms%n", toolCount, (System.nanoTime() - start) / 1e6);
+
+        for (int warmup = 0; warmup < 2; warmup++) {
+            measure("Agent 构造（之前）", () -> ToolCallingChatOptions.builder()
+                    .toolCallbacks(tools).internalToolExecutionEnabled(false).build());
+            measure("Agent 构造（之后）", () -> new ToolCallAgent(registry));
+            measure("工具查找（之前）", () -> linearFind(tools, target));
+            measure("工具查找（之后）", () -> registry.find(target));
+            // 模型每次请求都会读取全部工具的定义
+            measure("读取全部定义（之前）", () -> readDefinitions(tools));
+            ToolCallback[] resolved = registry.chatOptions().getToolCallbacks().toArray(new ToolCallback[0]);
+            measure("读取全部定义（之后）", () -> readDefinitions(resolved));
+        }
+    }
+
+    private static void measure(String label, Runnable action) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            action.run();
+        }
+        System.out.printf("%s 平均 %.3f µs%n", label, (System.nanoTime() - start) / 1e3 / ROUNDS);
+    }
+
+    private static ToolCallback linearFind(ToolCallback[] tools, String name) {
+        for (ToolCallback tool : tools) {
+            if (tool.getToolDefinition().name().equals(name)) {
+                return tool;
+            }
+        }
+        return null;
+    }
+
+    private static int readDefinitions(ToolCallback[] tools) {
+        int length = 0;
+        for (ToolCallback tool : tools) {
+            length += tool.getToolDefinition().inputSchema().length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.don194.obsidianagent.agent;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.model.ModelOptionsUtils;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ToolRegistry 按名称查找、缓存工具定义和共享调用选项的单元测试
+ */
+class ToolRegistryTest {
+
+    @Test
+    void findsToolsByNameAndResolvesDefinitionsOnce() {
+        SchemaTool read = new SchemaTool("readNote");
+        SchemaTool search = new SchemaTool("searchNotes");
+        ToolRegistry registry = new ToolRegistry(new ToolCallback[]{read, search});
+
+        ToolCallback found = registry.find("searchNotes");
+        assertThat(found.call("{\"query\":\"日记\"}")).isEqualTo("searchNotes:{\"query\":\"日记\"}");
+        assertThat(registry.find("missing")).isNull();
+        assertThat(registry.find(null)).isNull();
+        assertThat(registry.names()).containsExactlyInAnyOrder("readNote", "searchNotes");
+
+        // 定义只在构建时读取一次，之后反复读取都返回缓存的同一个对象
+        for (int i = 0; i < 10; i++) {
+            found.getToolDefinition();
+        }
+        assertThat(search.definitionReads.get()).isEqualTo(1);
+        assertThat(found.getToolDefinition()).isSameAs(found.getToolDefinition());
+        assertThat(found.getToolDefinition().inputSchema()).contains("\"query\"");
+    }
+
+    @Test
+    void keepsFirstOfDuplicateNamesAndSharesOptions() {
+        ToolRegistry registry = new ToolRegistry(new ToolCallback[]{
+                new SchemaTool("readNote"), new SchemaTool("readNote"), new SchemaTool("doTerminate")});
+
+        assertThat(registry.size()).isEqualTo(2);
+        assertThat(registry.chatOptions().getToolCallbacks()).hasSize(2);
+        assertThat(registry.chatOptions().isInternalToolExecutionEnabled()).isFalse();
+
+        // 所有 Agent 直接使用注册表中的同一个选项对象
+        ToolCallAgent first = new ToolCallAgent(registry);
+        ToolCallAgent second = new ToolCallAgent(registry);
+        assertThat(first.getChatOptions()).isSameAs(second.getChatOptions()).isSameAs(registry.chatOptions());
+    }
+
+    /**
+     * 与 MCP 工具一样，每次读取定义时都重新序列化 JSON Schema
+     */
+    static final class SchemaTool implements ToolCallback {
+        private final String name;
+        final AtomicInteger definitionReads = new AtomicInteger();
+
+        SchemaTool(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            definitionReads.incrementAndGet();
+            return ToolDefinition.builder()
+                    .name(name)
+                    .description("工具 " + name)
+                    .inputSchema(ModelOptionsUtils.toJsonString(Map.of("type", "object",
+                            "properties", Map.of("query", Map.of("type", "string", "description", "查询内容")),
+                            "required", new String[]{"query"})))
+                    .build();
+        }
+
+        @Override
+        public String call(String toolInput) {
+            return name + ":" + toolInput;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.don194.obsidianagent.memory;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 各 ChatMemory 后端共同遵守的行为，每个实现的测试类继承并提供实例
+ */
+abstract class ChatMemoryContract {
+
+    /**
+     * 返回一个空的 ChatMemory 实例
+     */
+    protected abstract ChatMemory chatMemory();
+
+    @Test
+    void returnsLastMessagesInInsertionOrder() {
+        ChatMemory memory = chatMemory();
+        memory.add("s1", texts(0, 10));
+        memory.add("s1", texts(10, 5));
+
+        assertThat(textsOf(memory.get("s1", 4))).containsExactly("消息11", "消息12", "消息13", "消息14");
+        assertThat(memory.get("s1", 100)).hasSize(15);
+        assertThat(textsOf(memory.get("s1", 100))).startsWith("消息0");
+    }
+
+    @Test
+    void roundTripsEveryMessageType() {
+        ChatMemory memory = chatMemory();
+        AssistantMessage.ToolCall call = new AssistantMessage.ToolCall("call-1", "function", "searchNotes", "{\"q\":\"周报\"}");
+        ToolResponseMessage.ToolResponse response =
+                new ToolResponseMessage.ToolResponse("call-1", "searchNotes", "[\"周报.md\"]");
+        memory.add("s1", List.of(
+                new SystemMessage("你是笔记助手"),
+                new UserMessage("找一下周报"),
+                new AssistantMessage("", Map.of(), List.of(call)),
+                new ToolResponseMessage(List.of(response)),
+                new AssistantMessage("找到了 周报.md")));
+
+        List<Message> messages = memory.get("s1", 10);
+
+        assertThat(messages).hasSize(5);
+        assertThat(messages.get(0)).isInstanceOf(SystemMessage.class);
+        assertThat(messages.get(1)).isInstanceOf(UserMessage.class);
+        assertThat(((AssistantMessage) messages.get(2)).getToolCalls()).containsExactly(call);
+        assertThat(((ToolResponseMessage) messages.get(3)).getResponses()).containsExactly(response);
+        assertThat(messages.get(4).getText()).isEqualTo("找到了 周报.md");
+    }
+
+    @Test
+    void keepsSessionsSeparateAndClearsOneSession() {
+        ChatMemory memory = chatMemory();
+        memory.add("s1", texts(0, 3));
+        memory.add("s2", texts(100, 2));
+
+        memory.clear("s1");
+
+        assertThat(memory.get("s1", 10)).isEmpty();
+        assertThat(textsOf(memory.get("s2", 10))).containsExactly("消息100", "消息101");
+        memory.add("s1", texts(50, 1));
+        assertThat(textsOf(memory.get("s1", 10))).containsExactly("消息50");
+    }
+
+    @Test
+    void ignoresBlankConversationIds() {
+        ChatMemory memory = chatMemory();
+        memory.add(" ", texts(0, 1));
+
+        assertThat(memory.get(" ", 10)).isEmpty();
+        assertThat(memory.get("unknown", 10)).isEmpty();
+        memory.clear("unknown");
+    }
+
+    protected static List<Message> texts(int from, int count) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            messages.add(i % 2 == 0 ? new UserMessage("消息" + i) : new AssistantMessage("消息" + i));
+        }
+        return messages;
+    }
+
+    protected static List<String> textsOf(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+}
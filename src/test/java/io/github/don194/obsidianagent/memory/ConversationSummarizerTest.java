@@ -0,0 +1,163 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.entity.ChatContextSummary;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.repository.ChatJdbcRepository;
+import io.github.don194.obsidianagent.repository.ChatShardRouter;
+import io.github.don194.obsidianagent.storage.SqliteTestDatabase;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static io.github.don194.obsidianagent.storage.SqliteTestDatabase.message;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ConversationSummarizer 滚动摘要的压缩、持久化和恢复的单元测试
+ */
+class ConversationSummarizerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicReference<Prompt> lastPrompt = new AtomicReference<>();
+    private final MemoryProperties properties = new MemoryProperties();
+    private SqliteTestDatabase database;
+    private ChatJdbcRepository repository;
+    private ChatShardRouter router;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = new SqliteTestDatabase(tempDir.resolve("summary.db"));
+        repository = new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+        router = ChatShardRouter.single(repository, null, database.stats());
+        properties.setContextTokenBudget(50);
+        properties.setSummaryRetainRatio(0.5);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.close();
+    }
+
+    @Test
+    void foldsOldestTurnsInBackgroundAndPersistsSummary() {
+        List<Message> turns = turns(6);
+        repository.appendMessages("s1", turns.stream()
+                .map(turn -> message(turn instanceof UserMessage ? ChatMessage.MessageType.USER
+                        : ChatMessage.MessageType.ASSISTANT, turn.getText()))
+                .toList());
+        ConversationSummarizer summarizer = summarizer(prompt -> reply("用户在整理会议纪要"));
+        WorkingMemory memory = memory(turns);
+
+        summarizer.scheduleIfNeeded("s1", memory, () -> true);
+        summarizer.shutdown();
+
+        // 60 个 token 超出预算 50，压缩到剩余不超过 25
+        assertThat(memory.size()).isEqualTo(2);
+        assertThat(memory.coveredMessages()).isEqualTo(4);
+        assertThat(lastPrompt.get().getContents()).contains("[用户] 问题0", "[助手] 回答3").doesNotContain("问题4");
+        List<Message> window = memory.window(50);
+        assertThat(window.get(0)).isInstanceOf(SystemMessage.class);
+        assertThat(window.get(0).getText()).endsWith("用户在整理会议纪要");
+        assertThat(window.subList(1, 3)).containsExactlyElementsOf(turns.subList(4, 6));
+
+        ChatContextSummary saved = summarizer.load("s1");
+        assertThat(saved.getSummary()).isEqualTo("用户在整理会议纪要");
+        assertThat(saved.getCoveredMessages()).isEqualTo(4);
+        assertThat(saved.getSummarizedTokens()).isEqualTo(40);
+        assertThat(saved.getTokensSaved()).isEqualTo(40 - saved.getSummaryTokens());
+        assertThat(meterRegistry.get("memory.summary.folds").counter().count()).isEqualTo(1.0);
+
+        // 重新加载时跳过已并入摘要的消息
+        WorkingMemory reloaded = new WorkingMemory(message -> 10);
+        assertThat(summarizer.restore(reloaded, saved, turns)).containsExactlyElementsOf(turns.subList(4, 6));
+        assertThat(reloaded.summary()).isEqualTo("用户在整理会议纪要");
+        assertThat(reloaded.coveredMessages()).isEqualTo(4);
+
+        repository.deleteSession("s1");
+        assertThat(summarizer.load("s1")).isNull();
+    }
+
+    @Test
+    void keepsMessagesWhenSummarizationFailsOrSessionWasCleared() {
+        ConversationSummarizer failing = summarizer(prompt -> {
+            throw new IllegalStateException("模型不可用");
+        });
+        WorkingMemory memory = memory(turns(6));
+
+        WorkingMemory.Fold fold = memory.beginFold(50, 25);
+        failing.summarize("s1", memory, fold, () -> true);
+        assertThat(memory.size()).isEqualTo(6);
+        assertThat(memory.summary()).isNull();
+
+        // 失败后可以重试；会话已被清空时结果作废
+        ConversationSummarizer summarizer = summarizer(prompt -> reply("摘要"));
+        fold = memory.beginFold(50, 25);
+        assertThat(fold).isNotNull();
+        summarizer.summarize("s1", memory, fold, () -> false);
+        assertThat(memory.size()).isEqualTo(6);
+        assertThat(memory.beginFold(50, 25)).isNotNull();
+        assertThat(summarizer.load("s1")).isNull();
+    }
+
+    @Test
+    void rendersToolCallsAndPreviousSummary() {
+        AssistantMessage call = new AssistantMessage("", Map.of(), List.of(
+                new AssistantMessage.ToolCall("c1", "function", "searchNotes", "{\"query\":\"周报\"}")));
+        String text = ConversationSummarizer.render(new WorkingMemory.Fold(
+                List.of(new UserMessage("找周报"), call), 20, "之前的摘要"));
+
+        assertThat(text).startsWith("已有摘要：\n之前的摘要")
+                .contains("[用户] 找周报", "[助手调用工具 searchNotes] {\"query\":\"周报\"}");
+    }
+
+    private ConversationSummarizer summarizer(ChatModel chatModel) {
+        ChatModel recording = prompt -> {
+            lastPrompt.set(prompt);
+            return chatModel.call(prompt);
+        };
+        return new ConversationSummarizer(recording, router, new MessageTokenCounter(properties, ""),
+                properties, meterRegistry);
+    }
+
+    private static ChatResponse reply(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static List<Message> turns(int count) {
+        List<Message> turns = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            turns.add(i % 2 == 0 ? new UserMessage("问题" + i) : new AssistantMessage("回答" + i));
+        }
+        return turns;
+    }
+
+    /**
+     * 每条消息固定 10 个 token
+     */
+    private static WorkingMemory memory(List<Message> messages) {
+        WorkingMemory memory = new WorkingMemory(message -> 10);
+        messages.forEach(memory::add);
+        return memory;
+    }
+}
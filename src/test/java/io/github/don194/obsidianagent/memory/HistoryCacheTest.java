@@ -0,0 +1,131 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.repository.ChatJdbcRepository;
+import io.github.don194.obsidianagent.repository.ChatShardRouter;
+import io.github.don194.obsidianagent.storage.SqliteTestDatabase;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * HistoryCache 及其在 SqliteChatMemory 中使用方式的单元测试
+ */
+class HistoryCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void servesAnyLastNAsSuffixAndTracksAdds() throws Exception {
+        try (SqliteTestDatabase database = new SqliteTestDatabase(tempDir.resolve("history-cache.db"))) {
+            ChatJdbcRepository repository =
+                    new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+            HistoryCache cache = new HistoryCache(new MemoryProperties(), meterRegistry);
+            SqliteChatMemory chatMemory = new SqliteChatMemory(ChatShardRouter.single(repository, null, database.stats()),
+                    new MessageCodec(database.payloadCodec()), cache, database.sessionArchive());
+            chatMemory.add("s1", messages(0, 10));
+
+            // 会话只有 10 条，请求 50 条后缓存即包含全部消息
+            assertThat(texts(chatMemory.get("s1", 50))).hasSize(10).startsWith("消息0");
+            assertThat(texts(chatMemory.get("s1", 3))).containsExactly("消息7", "消息8", "消息9");
+            assertThat(texts(chatMemory.get("s1", 100))).hasSize(10);
+
+            // 新消息追加到缓存，不需要重新查询
+            chatMemory.add("s1", messages(10, 2));
+            assertThat(texts(chatMemory.get("s1", 4))).containsExactly("消息8", "消息9", "消息10", "消息11");
+            assertThat(meterRegistry.get("chat.history.cache.requests").tag("result", "miss").counter().count())
+                    .isEqualTo(1.0);
+            assertThat(meterRegistry.get("chat.history.cache.requests").tag("result", "hit").counter().count())
+                    .isEqualTo(3.0);
+
+            // 清除后重新从数据库加载
+            chatMemory.clear("s1");
+            assertThat(cache.size()).isZero();
+            assertThat(chatMemory.get("s1", 50)).isEmpty();
+        }
+    }
+
+    @Test
+    void reloadsWhenCachedTailIsShorterThanRequested() throws Exception {
+        try (SqliteTestDatabase database = new SqliteTestDatabase(tempDir.resolve("history-tail.db"))) {
+            ChatJdbcRepository repository =
+                    new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+            HistoryCache cache = new HistoryCache(new MemoryProperties(), meterRegistry);
+            SqliteChatMemory chatMemory = new SqliteChatMemory(ChatShardRouter.single(repository, null, database.stats()),
+                    new MessageCodec(database.payloadCodec()), cache, database.sessionArchive());
+            chatMemory.add("s1", messages(0, 30));
+
+            assertThat(texts(chatMemory.get("s1", 5))).startsWith("消息25");
+            assertThat(texts(chatMemory.get("s1", 20))).hasSize(20).startsWith("消息10").endsWith("消息29");
+            assertThat(meterRegistry.get("chat.history.cache.requests").tag("result", "miss").counter().count())
+                    .isEqualTo(2.0);
+        }
+    }
+
+    @Test
+    void rejectsLoadsThatRaceWithWrites() {
+        HistoryCache cache = new HistoryCache(new MemoryProperties(), meterRegistry);
+        List<Message> stale = messages(0, 2);
+
+        long version = cache.version("s1");
+        cache.beginAppend("s1");
+        cache.put("s1", 50, stale, version);
+        assertThat(cache.get("s1", 50)).isNull();
+
+        // 写入未完成时，即使版本号一致也不放入，避免与随后的追加重复
+        long duringWrite = cache.version("s1");
+        cache.put("s1", 50, messages(0, 3), duringWrite);
+        assertThat(cache.get("s1", 50)).isNull();
+
+        cache.completeAppend("s1", messages(2, 1));
+        long afterWrite = cache.version("s1");
+        cache.put("s1", 50, messages(0, 3), afterWrite);
+        assertThat(texts(cache.get("s1", 50))).containsExactly("消息0", "消息1", "消息2");
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedSessionsOverByteLimit() {
+        MemoryProperties properties = new MemoryProperties();
+        List<Message> history = messages(0, 20);
+        long perSession = history.stream().mapToLong(HistoryCache::estimateBytes).sum();
+        properties.setHistoryCacheMaxBytes(perSession * 3);
+        HistoryCache cache = new HistoryCache(properties, meterRegistry);
+
+        for (String session : List.of("a", "b", "c")) {
+            cache.put(session, 50, history, cache.version(session));
+        }
+        cache.get("a", 1);
+        cache.put("d", 50, history, cache.version("d"));
+
+        assertThat(cache.size()).isEqualTo(3);
+        assertThat(cache.get("b", 1)).isNull();
+        assertThat(cache.get("a", 1)).isNotNull();
+        assertThat(cache.estimatedBytes()).isLessThanOrEqualTo(properties.getHistoryCacheMaxBytes());
+        assertThat(meterRegistry.get("chat.history.cache.evictions").counter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("chat.history.cache.bytes").gauge().value()).isEqualTo(perSession * 3.0);
+    }
+
+    private static List<Message> messages(int from, int count) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            messages.add(i % 2 == 0 ? new UserMessage("消息" + i) : new AssistantMessage("消息" + i));
+        }
+        return messages;
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+}
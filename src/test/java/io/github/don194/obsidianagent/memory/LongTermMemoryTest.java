@@ -0,0 +1,154 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * LongTermMemory 跨会话写入、按 token 预算召回、遗忘和查询向量化超时的单元测试
+ */
+class LongTermMemoryTest {
+
+    /**
+     * 按关键词出现与否生成向量，相同主题的文本相似度高
+     */
+    private static final List<String> TOPICS = List.of("会议", "旅行", "代码");
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MemoryProperties properties = new MemoryProperties();
+
+    @Test
+    void recallsRelatedItemsFromOtherSessionsWithinBudget() {
+        LongTermMemory memory = longTermMemory();
+        memory.store("s1", "问：会议纪要放在哪\n答：会议纪要在 工作/会议 目录");
+        memory.store("s2", "问：下周的会议安排\n答：周三上午有项目会议");
+        memory.store("s2", "问：旅行清单\n答：护照、充电器");
+        memory.store("s3", "问：会议室预订\n答：" + "很长的回答".repeat(200));
+
+        LongTermMemory.Recall recall = memory.recall("current", "上次的会议纪要");
+
+        // 超出预算的长条目被跳过，无关的旅行条目低于相似度阈值
+        assertThat(recall.items()).isEqualTo(2);
+        assertThat(recall.text()).contains("工作/会议", "项目会议").doesNotContain("护照", "很长的回答");
+        assertThat(recall.tokens()).isLessThanOrEqualTo(properties.getLongTermRecallTokens());
+        assertThat(meterRegistry.get("memory.longterm.recalled").counter().count()).isEqualTo(2.0);
+        assertThat(meterRegistry.get("memory.longterm.items").gauge().value()).isEqualTo(4.0);
+
+        // 当前会话自己的内容不召回；遗忘后不再召回
+        assertThat(memory.recall("s1", "会议纪要").text()).doesNotContain("工作/会议");
+        memory.forget("s2");
+        assertThat(memory.recall("current", "会议纪要").items()).isEqualTo(1);
+        memory.shutdown();
+    }
+
+    @Test
+    void putsRecallIntoWindowAndSurvivesRestart() {
+        LongTermMemory memory = longTermMemory();
+        memory.remember("s1", "代码仓库地址", "仓库在 github 上的 obsidian-agent");
+        memory.remember("s1", null, " ");
+        memory.shutdown();
+
+        LongTermMemory reopened = longTermMemory();
+        LongTermMemory.Recall recall = reopened.recall("s2", "代码在哪");
+        assertThat(recall.items()).isEqualTo(1);
+
+        WorkingMemory workingMemory = new WorkingMemory(message -> 10);
+        workingMemory.add(new UserMessage("代码在哪"));
+        workingMemory.setRecalled(recall.text(), recall.tokens());
+        assertThat(workingMemory.window(1000)).hasSize(2).first()
+                .satisfies(message -> assertThat(message.getText())
+                        .startsWith(WorkingMemory.RECALL_PREFIX).contains("obsidian-agent"));
+        assertThat(workingMemory.lastUserText()).isEqualTo("代码在哪");
+        reopened.shutdown();
+    }
+
+    @Test
+    void requestsConfiguredDimensionsAndSkipsRecallWhenEmbeddingIsSlow() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TopicEmbeddingModel model = new TopicEmbeddingModel();
+        properties.setLongTermEmbeddingDimensions(64);
+        properties.setLongTermRecallTimeoutMs(100);
+        LongTermMemory memory = longTermMemory(model);
+        memory.store("s1", "问：会议纪要放在哪\n答：会议纪要在 工作/会议 目录");
+        assertThat(model.lastDimensions.get()).isEqualTo(64);
+
+        // 查询的向量化卡住时，召回在超时后放弃，不等待嵌入模型
+        model.block = release;
+        long start = System.nanoTime();
+        assertThat(memory.recall("current", "会议纪要")).isNull();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(2000);
+        assertThat(meterRegistry.get("memory.longterm.recall.skipped").tag("reason", "timeout")
+                .counter().count()).isEqualTo(1.0);
+
+        // 嵌入模型恢复后召回照常进行
+        release.countDown();
+        model.block = null;
+        assertThat(memory.recall("current", "会议纪要").items()).isEqualTo(1);
+        memory.shutdown();
+    }
+
+    private LongTermMemory longTermMemory() {
+        return longTermMemory(new TopicEmbeddingModel());
+    }
+
+    private LongTermMemory longTermMemory(TopicEmbeddingModel model) {
+        properties.setLongTermIndexPath(tempDir.resolve("long-term.idx").toString());
+        properties.setLongTermRecallTokens(200);
+        properties.setLongTermMinScore(0.5);
+        MessageTokenCounter tokenCounter = new MessageTokenCounter(properties, "gpt-4o");
+        return new LongTermMemory(model, tokenCounter, properties, meterRegistry);
+    }
+
+    private static final class TopicEmbeddingModel implements EmbeddingModel {
+        private final AtomicReference<Integer> lastDimensions = new AtomicReference<>();
+        private volatile CountDownLatch block;
+
+        @Override
+        public float[] embed(String text) {
+            float[] vector = new float[TOPICS.size() + 1];
+            for (int i = 0; i < TOPICS.size(); i++) {
+                vector[i] = text.contains(TOPICS.get(i)) ? 1 : 0;
+            }
+            vector[TOPICS.size()] = 0.1f;
+            return vector;
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            CountDownLatch latch = block;
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            lastDimensions.set(request.getOptions().getDimensions());
+            List<String> texts = request.getInstructions();
+            return new EmbeddingResponse(List.of(new Embedding(embed(texts.get(0)), 0)));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package io.github.don194.obsidianagent.memory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.storage.PayloadCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * 消息编解码吞吐量与分配量：旧的 Map + convertValue 路径与 MessageCodec 的对比
+ * <p>
+ * 默认不运行：mvn test -Dtest=MessageCodecBenchmark -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class MessageCodecBenchmark {
+
+    private static final int MESSAGES = 2_000;
+    private static final int ROUNDS = 20;
+
+    /**
+     * 旧实现使用的 ObjectMapper 配置
+     */
+    private final ObjectMapper legacyMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final PayloadCodec payloadCodec = new PayloadCodec(new SqliteProperties());
+    private final MessageCodec messageCodec = new MessageCodec(payloadCodec);
+
+    /**
+     * 保存最后一次的结果，避免被 JIT 当作死代码消除
+     */
+    private Object sink;
+
+    @Test
+    void compareLegacyMapRoundTripWithTypedCodec() throws Exception {
+        List<Message> messages = messages(new Random(11));
+        List<byte[]> legacyStored = new ArrayList<>();
+        List<byte[]> typedStored = new ArrayList<>();
+        for (Message message : messages) {
+            legacyStored.add(payloadCodec.encode(legacyEncode(message)));
+            typedStored.add(typedEncode(message));
+        }
+
+        measure("写入 旧实现", messages, message -> payloadCodec.encode(legacyEncode(message)));
+        measure("写入 MessageCodec", messages, this::typedEncode);
+        measure("读取 旧实现", indexes(), i -> legacyDecode(typeOf(messages.get(i)), legacyStored.get(i)));
+        measure("读取 MessageCodec", indexes(), i -> messageCodec.decode(typeOf(messages.get(i)), typedStored.get(i)));
+    }
+
+    private <T> void measure(String label, List<T> inputs, Function<T, Object> operation) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        // 预热
+        for (int round = 0; round < ROUNDS; round++) {
+            for (T input : inputs) {
+                sink = operation.apply(input);
+            }
+        }
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (T input : inputs) {
+                sink = operation.apply(input);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        long count = (long) ROUNDS * inputs.size();
+        System.out.printf("%-18s %,10.0f 条/秒  %,8d 字节/条%n", label, count / (elapsed / 1e9), allocated / count);
+    }
+
+    /**
+     * 旧实现：先打包成 Map 序列化为 JSON 文本，再由 PayloadCodec 转写为 Smile
+     */
+    private String legacyEncode(Message message) {
+        try {
+            Map<String, Object> data = new HashMap<>();
+            if (message instanceof AssistantMessage assistantMessage) {
+                data.put("text", assistantMessage.getText());
+                data.put("toolCalls", assistantMessage.getToolCalls());
+            } else {
+                data.put("responses", ((ToolResponseMessage) message).getResponses());
+            }
+            return legacyMapper.writeValueAsString(data);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 旧实现：存储字节还原为 JSON 文本，解析成 Map，再 convertValue 成工具调用/响应
+     */
+    private Message legacyDecode(ChatMessage.MessageType type, byte[] stored) {
+        try {
+            Map<String, Object> data = legacyMapper.readValue(payloadCodec.decode(stored), new TypeReference<>() {});
+            if (type == ChatMessage.MessageType.ASSISTANT) {
+                List<AssistantMessage.ToolCall> toolCalls =
+                        legacyMapper.convertValue(data.get("toolCalls"), new TypeReference<>() {});
+                return new AssistantMessage((String) data.get("text"), Collections.emptyMap(), toolCalls);
+            }
+            List<ToolResponseMessage.ToolResponse> responses =
+                    legacyMapper.convertValue(data.get("responses"), new TypeReference<>() {});
+            return new ToolResponseMessage(responses);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] typedEncode(Message message) {
+        if (message instanceof AssistantMessage assistantMessage) {
+            return messageCodec.encodeAssistant(assistantMessage.getText(), assistantMessage.getToolCalls());
+        }
+        return messageCodec.encodeTool(((ToolResponseMessage) message).getResponses());
+    }
+
+    private static ChatMessage.MessageType typeOf(Message message) {
+        return message instanceof AssistantMessage ? ChatMessage.MessageType.ASSISTANT : ChatMessage.MessageType.TOOL;
+    }
+
+    private static List<Integer> indexes() {
+        List<Integer> indexes = new ArrayList<>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            indexes.add(i);
+        }
+        return indexes;
+    }
+
+    /**
+     * 助手工具调用、工具结果（几百字节到 8KB 的笔记）和助手回答交替出现
+     */
+    private static List<Message> messages(Random random) {
+        List<Message> messages = new ArrayList<>(MESSAGES);
+        while (messages.size() < MESSAGES) {
+            String id = "call_" + random.nextInt(1_000_000);
+            messages.add(new AssistantMessage("", Map.of(), List.of(
+                    new AssistantMessage.ToolCall(id, "function", "readNote", "{\"path\":\"notes/" + id + ".md\"}"))));
+            messages.add(new ToolResponseMessage(List.of(
+                    new ToolResponseMessage.ToolResponse(id, "readNote", text(random, 256 + random.nextInt(8 * 1024))))));
+            messages.add(new AssistantMessage(text(random, 200 + random.nextInt(800)), Map.of(), List.of()));
+        }
+        return messages.subList(0, MESSAGES);
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append(random.nextBoolean() ? (char) (0x4E00 + random.nextInt(2000)) : (char) ('a' + random.nextInt(26)));
+            if (random.nextInt(12) == 0) {
+                text.append(random.nextInt(5) == 0 ? "\n- " : " ");
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.repository.ChatJdbcRepository;
+import io.github.don194.obsidianagent.repository.ChatShardRouter;
+import io.github.don194.obsidianagent.storage.PayloadCodec;
+import io.github.don194.obsidianagent.storage.SqliteTestDatabase;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * MessageCodec 类型化编解码的单元测试
+ */
+class MessageCodecTest {
+
+    private static final AssistantMessage.ToolCall TOOL_CALL =
+            new AssistantMessage.ToolCall("call_1", "function", "readNote", "{\"path\":\"周报.md\"}");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTripsAssistantAndToolMessages() {
+        MessageCodec codec = new MessageCodec(new PayloadCodec(new SqliteProperties()));
+        String note = "# 周报\n\n- 完成了笔记同步插件的重构\n".repeat(100);
+
+        byte[] assistant = codec.encodeAssistant("我去读一下", List.of(TOOL_CALL));
+        byte[] tool = codec.encodeTool(List.of(new ToolResponseMessage.ToolResponse("call_1", "readNote", note)));
+
+        assertThat(PayloadCodec.isSmile(assistant)).isTrue();
+        AssistantMessage decodedAssistant = (AssistantMessage) codec.decode(ChatMessage.MessageType.ASSISTANT, assistant);
+        assertThat(decodedAssistant.getText()).isEqualTo("我去读一下");
+        assertThat(decodedAssistant.getToolCalls()).containsExactly(TOOL_CALL);
+
+        ToolResponseMessage decodedTool = (ToolResponseMessage) codec.decode(ChatMessage.MessageType.TOOL, tool);
+        assertThat(decodedTool.getResponses()).singleElement()
+                .satisfies(response -> assertThat(response.responseData()).isEqualTo(note));
+    }
+
+    @Test
+    void readsLegacyJsonTextAndWritesJsonWhenBinaryDisabled() {
+        SqliteProperties disabled = new SqliteProperties();
+        disabled.setBinaryPayloads(false);
+        MessageCodec codec = new MessageCodec(new PayloadCodec(disabled));
+        // 旧版本经 Map 序列化写入的格式，toolCalls 可能为 null，也可能带有多余字段
+        String legacy = "{\"toolCalls\":null,\"text\":\"你好\",\"extra\":1}";
+
+        AssistantMessage decoded = (AssistantMessage) codec.decode(ChatMessage.MessageType.ASSISTANT,
+                legacy.getBytes(StandardCharsets.UTF_8));
+        assertThat(decoded.getText()).isEqualTo("你好");
+        assertThat(decoded.getToolCalls()).isEmpty();
+
+        byte[] stored = codec.encodeAssistant("你好", null);
+        assertThat(new String(stored, StandardCharsets.UTF_8)).isEqualTo("{\"text\":\"你好\",\"toolCalls\":[]}");
+        assertThatThrownBy(() -> codec.decode(ChatMessage.MessageType.TOOL, "旧的纯文本".getBytes(StandardCharsets.UTF_8)))
+                .isInstanceOf(RuntimeException.class);
+    }
+
+    @Test
+    void chatMemoryLoadsTypedHistoryFromRawBytes() throws Exception {
+        try (SqliteTestDatabase database = new SqliteTestDatabase(tempDir.resolve("codec-memory.db"))) {
+            ChatJdbcRepository repository =
+                    new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+            MemoryProperties noCache = new MemoryProperties();
+            noCache.setHistoryCacheMaxBytes(0);
+            SqliteChatMemory chatMemory = new SqliteChatMemory(ChatShardRouter.single(repository, null, database.stats()),
+                    new MessageCodec(database.payloadCodec()), new HistoryCache(noCache, new SimpleMeterRegistry()),
+                    database.sessionArchive());
+            chatMemory.add("s1", List.of(
+                    new UserMessage("读一下周报"),
+                    new AssistantMessage("", Map.of(), List.of(TOOL_CALL)),
+                    new ToolResponseMessage(List.of(new ToolResponseMessage.ToolResponse("call_1", "readNote", "内容")))));
+            // 旧版本以纯文本回退写入的助手消息
+            repository.appendMessages("s1", List.of(SqliteTestDatabase.message(ChatMessage.MessageType.ASSISTANT, "纯文本回答")));
+
+            List<Message> history = chatMemory.get("s1", 10);
+
+            assertThat(history).hasSize(4);
+            assertThat(history.get(0).getText()).isEqualTo("读一下周报");
+            assertThat(((AssistantMessage) history.get(1)).getToolCalls()).containsExactly(TOOL_CALL);
+            assertThat(((ToolResponseMessage) history.get(2)).getResponses()).singleElement()
+                    .satisfies(response -> assertThat(response.responseData()).isEqualTo("内容"));
+            assertThat(history.get(3).getText()).isEqualTo("纯文本回答");
+        }
+    }
+}
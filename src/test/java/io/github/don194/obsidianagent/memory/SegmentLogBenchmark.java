@@ -0,0 +1,135 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.github.don194.obsidianagent.repository.ChatJdbcRepository;
+import io.github.don194.obsidianagent.repository.ChatShardRouter;
+import io.github.don194.obsidianagent.storage.PayloadCodec;
+import io.github.don194.obsidianagent.storage.SqliteTestDatabase;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 追加/读取吞吐量：SqliteChatMemory 与 SegmentLogChatMemory 的对比
+ * <p>
+ * 多个线程同时向不同会话逐条追加消息（与回写队列的调用方式相同），再反复读取各会话最近 50 条。
+ * SQLite 后端关闭历史缓存，两者都从存储读取。
+ * <p>
+ * 默认不运行：mvn test -Dtest=SegmentLogBenchmark -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class SegmentLogBenchmark {
+
+    private static final int THREADS = 4;
+    private static final int SESSIONS = 64;
+    private static final int MESSAGES_PER_SESSION = 150;
+    private static final int READ_ROUNDS = 10;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void compareAppendAndReadThroughput() throws Exception {
+        List<Message> conversation = conversation(new Random(5));
+        try (SqliteTestDatabase database = new SqliteTestDatabase(tempDir.resolve("benchmark.db"))) {
+            ChatJdbcRepository repository =
+                    new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+            MemoryProperties noCache = new MemoryProperties();
+            noCache.setHistoryCacheMaxBytes(0);
+            SqliteChatMemory sqlite = new SqliteChatMemory(ChatShardRouter.single(repository, null, database.stats()),
+                    new MessageCodec(database.payloadCodec()), new HistoryCache(noCache, new SimpleMeterRegistry()),
+                    database.sessionArchive());
+            run("SQLite", sqlite, conversation);
+        }
+
+        MemoryProperties properties = new MemoryProperties();
+        properties.setSegmentLogPath(tempDir.resolve("chat-log").toString());
+        SegmentLogChatMemory segmentLog = new SegmentLogChatMemory(properties,
+                new MessageCodec(new PayloadCodec(new SqliteProperties())), new SimpleMeterRegistry());
+        try {
+            run("SegmentLog", segmentLog, conversation);
+        } finally {
+            segmentLog.close();
+        }
+    }
+
+    private void run(String label, ChatMemory memory, List<Message> conversation) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            long start = System.nanoTime();
+            forEachSession(executor, session -> {
+                for (Message message : conversation) {
+                    memory.add(session, List.of(message));
+                }
+                return 0;
+            });
+            double appendSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            long loaded = forEachSession(executor, session -> {
+                int count = 0;
+                for (int round = 0; round < READ_ROUNDS; round++) {
+                    count += memory.get(session, 50).size();
+                }
+                return count;
+            });
+            double readSeconds = (System.nanoTime() - start) / 1e9;
+
+            long appended = (long) SESSIONS * conversation.size();
+            System.out.printf("%-10s 追加 %,9.0f 条/秒  读取最近 50 条 %,8.0f 次/秒 (%,d 条)%n", label,
+                    appended / appendSeconds, SESSIONS * READ_ROUNDS / readSeconds, loaded);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private interface SessionTask {
+        int run(String sessionId) throws Exception;
+    }
+
+    private static long forEachSession(ExecutorService executor, SessionTask task) throws Exception {
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int s = 0; s < SESSIONS; s++) {
+            String sessionId = "session-" + s;
+            futures.add(executor.submit(() -> task.run(sessionId)));
+        }
+        long total = 0;
+        for (Future<Integer> future : futures) {
+            total += future.get();
+        }
+        return total;
+    }
+
+    /**
+     * 用户提问、工具调用、工具结果和回答依次出现
+     */
+    private static List<Message> conversation(Random random) {
+        List<Message> messages = new ArrayList<>(MESSAGES_PER_SESSION);
+        while (messages.size() < MESSAGES_PER_SESSION) {
+            String id = "call_" + random.nextInt(1_000_000);
+            messages.add(new UserMessage("帮我整理一下笔记 " + id));
+            messages.add(new AssistantMessage("", Map.of(), List.of(
+                    new AssistantMessage.ToolCall(id, "function", "readNote", "{\"path\":\"notes/" + id + ".md\"}"))));
+            messages.add(new ToolResponseMessage(List.of(
+                    new ToolResponseMessage.ToolResponse(id, "readNote", "笔记内容".repeat(50 + random.nextInt(400))))));
+            messages.add(new AssistantMessage("整理好了：" + "要点".repeat(20 + random.nextInt(100))));
+        }
+        return messages.subList(0, MESSAGES_PER_SESSION);
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.github.don194.obsidianagent.storage.PayloadCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.memory.ChatMemory;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * SegmentLogChatMemory 的 ChatMemory 行为测试
+ */
+class SegmentLogChatMemoryTest extends ChatMemoryContract {
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private MemoryProperties properties;
+    private SegmentLogChatMemory chatMemory;
+
+    @BeforeEach
+    void setUp() {
+        properties = new MemoryProperties();
+        properties.setSegmentLogPath(tempDir.resolve("chat-log").toString());
+        properties.setSegmentSizeBytes(8 * 1024);
+        chatMemory = open();
+    }
+
+    @AfterEach
+    void tearDown() {
+        chatMemory.close();
+    }
+
+    @Override
+    protected ChatMemory chatMemory() {
+        return chatMemory;
+    }
+
+    @Test
+    void survivesRestartAndCompaction() {
+        for (int session = 0; session < 20; session++) {
+            for (int batch = 0; batch < 5; batch++) {
+                chatMemory.add("s" + session, texts(batch * 10, 10));
+            }
+        }
+        for (int session = 0; session < 15; session++) {
+            chatMemory.clear("s" + session);
+        }
+        double filesBefore = meterRegistry.get("chat.segment.log.file.bytes").gauge().value();
+
+        chatMemory.compact();
+
+        assertThat(meterRegistry.get("chat.segment.log.file.bytes").gauge().value()).isLessThan(filesBefore);
+        assertThat(meterRegistry.get("chat.segment.log.compaction.reclaimed").counter().count()).isPositive();
+        chatMemory.close();
+
+        chatMemory = open();
+        assertThat(chatMemory.get("s3", 100)).isEmpty();
+        assertThat(textsOf(chatMemory.get("s17", 100))).hasSize(50).startsWith("消息0").endsWith("消息49");
+        chatMemory.add("s17", texts(50, 1));
+        assertThat(textsOf(chatMemory.get("s17", 2))).containsExactly("消息49", "消息50");
+    }
+
+    private SegmentLogChatMemory open() {
+        return new SegmentLogChatMemory(properties, new MessageCodec(new PayloadCodec(new SqliteProperties())),
+                meterRegistry);
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.model.StatsBucket;
+import io.github.don194.obsidianagent.repository.ChatJdbcRepository;
+import io.github.don194.obsidianagent.repository.ChatShardRouter;
+import io.github.don194.obsidianagent.storage.SqliteTestDatabase;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * SqliteChatMemory 的 ChatMemory 行为测试
+ */
+class SqliteChatMemoryTest extends ChatMemoryContract {
+
+    @TempDir
+    Path tempDir;
+
+    private SqliteTestDatabase database;
+    private SqliteChatMemory chatMemory;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = new SqliteTestDatabase(tempDir.resolve("memory.db"));
+        ChatJdbcRepository repository =
+                new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+        chatMemory = new SqliteChatMemory(ChatShardRouter.single(repository, null, database.stats()),
+                new MessageCodec(database.payloadCodec()),
+                new HistoryCache(new MemoryProperties(), new SimpleMeterRegistry()), database.sessionArchive());
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.close();
+    }
+
+    @Override
+    protected ChatMemory chatMemory() {
+        return chatMemory;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void countsToolCallsAndTokensFromMessageMetadata() {
+        chatMemory.add("s1", List.of(
+                new UserMessage("帮我找周报"),
+                new AssistantMessage("", Map.of(ConversationMemoryManager.PROMPT_TOKENS_METADATA, 120,
+                        ConversationMemoryManager.COMPLETION_TOKENS_METADATA, 30), List.of(
+                        new AssistantMessage.ToolCall("c1", "function", "searchNotes", "{}"),
+                        new AssistantMessage.ToolCall("c2", "function", "readNote", "{}")))));
+        chatMemory.add("s2", List.of(new UserMessage("你好")));
+        chatMemory.clear("s2");
+
+        Map<String, Object> stats = chatMemory.getStatistics(LocalDateTime.now().minusHours(1), null, "hour");
+
+        assertThat(stats).containsEntry("totalSessions", 1L)
+                .containsEntry("totalMessages", 2L)
+                .containsEntry("totalToolCalls", 2L)
+                .containsEntry("totalPromptTokens", 120L)
+                .containsEntry("totalCompletionTokens", 30L)
+                .containsEntry("granularity", "hour");
+        // 时间桶保留已删除会话当时的活动
+        List<StatsBucket> buckets = (List<StatsBucket>) stats.get("buckets");
+        assertThat(buckets).extracting(StatsBucket::getMessages).containsExactly(3L);
+        assertThat(buckets).extracting(StatsBucket::getSessions).containsExactly(2L);
+        // 只给结束时间时从最早的统计桶开始
+        List<StatsBucket> untilNow = (List<StatsBucket>) chatMemory.getStatistics(null, LocalDateTime.now().plusDays(1), "day")
+                .get("buckets");
+        assertThat(untilNow).extracting(StatsBucket::getMessages).containsExactly(3L);
+        assertThatThrownBy(() -> chatMemory.getStatistics(null, null, "week"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void readsArchivedSessionsAndRestoresThemOnAppend() {
+        chatMemory.add("old", List.of(new UserMessage("归档前的问题"), new AssistantMessage("归档前的回答")));
+        database.writer().execute(connection -> {
+            try (PreparedStatement update = connection.prepareStatement(
+                    "UPDATE chat_sessions SET updated_at = ? WHERE session_id = ?")) {
+                update.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now().minusDays(40)));
+                update.setString(2, "old");
+                return update.executeUpdate();
+            }
+        });
+        database.sessionArchive().archiveIdleSessions(LocalDateTime.now().minusDays(30), 10);
+        chatMemory.invalidateCachedHistory();
+
+        // 读取不会把会话移回主库
+        assertThat(chatMemory.get("old", 10)).extracting(Message::getText).containsExactly("归档前的问题", "归档前的回答");
+        assertThat(chatMemory.getMessagePage("old", null, null, 10).getItems()).hasSize(2);
+        assertThat(database.sessionArchive().isArchived("old")).isTrue();
+
+        chatMemory.add("old", List.of(new UserMessage("新的问题")));
+
+        assertThat(database.sessionArchive().isArchived("old")).isFalse();
+        chatMemory.invalidateCachedHistory();
+        assertThat(chatMemory.get("old", 10)).extracting(Message::getText)
+                .containsExactly("归档前的问题", "归档前的回答", "新的问题");
+    }
+}
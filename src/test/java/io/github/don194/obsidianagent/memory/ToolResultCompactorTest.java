@@ -0,0 +1,118 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.repository.ChatJdbcRepository;
+import io.github.don194.obsidianagent.repository.ChatShardRouter;
+import io.github.don194.obsidianagent.storage.SqliteTestDatabase;
+import io.github.don194.obsidianagent.tool.ToolResultTools;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ToolContext;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static io.github.don194.obsidianagent.storage.SqliteTestDatabase.message;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * ToolResultCompactor 外存过长工具结果、按需分段展开的单元测试
+ */
+class ToolResultCompactorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MemoryProperties properties = new MemoryProperties();
+    private SqliteTestDatabase database;
+    private ChatJdbcRepository repository;
+    private ToolResultCompactor compactor;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = new SqliteTestDatabase(tempDir.resolve("tool-results.db"));
+        repository = new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+        ChatShardRouter router = ChatShardRouter.single(repository, null, database.stats());
+        properties.setToolResultCompactChars(100);
+        properties.setToolResultDigestChars(40);
+        properties.setToolResultPageChars(300);
+        compactor = new ToolResultCompactor(router, properties, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.close();
+    }
+
+    @Test
+    void replacesOversizedResultsWithDigestAndHandle() {
+        String note = "开头" + "正文".repeat(500) + "结尾";
+        List<ToolResponseMessage.ToolResponse> responses = List.of(
+                new ToolResponseMessage.ToolResponse("c1", "getCurrentDateTime", "现在是 2025-01-01"),
+                new ToolResponseMessage.ToolResponse("c2", "readNote", note));
+
+        List<ToolResponseMessage.ToolResponse> compacted = compactor.compact("s1", responses);
+
+        // 短结果原样保留，长结果只剩摘录和 handle
+        assertThat(compacted.get(0)).isSameAs(responses.get(0));
+        String digest = compacted.get(1).responseData();
+        assertThat(compacted.get(1).id()).isEqualTo("c2");
+        assertThat(digest).contains("handle=c2", "开头", "结尾", "1004 个字符").hasSizeLessThan(250);
+        assertThat(repository.findToolResult("s1", "c2")).isEqualTo(note);
+        assertThat(meterRegistry.get("memory.tool.results.chars.saved").counter().count())
+                .isEqualTo(note.length() - digest.length());
+
+        // 展开工具自身的结果不再外存
+        List<ToolResponseMessage.ToolResponse> expanded = List.of(new ToolResponseMessage.ToolResponse(
+                "c3", ToolResultCompactor.EXPAND_TOOL_NAME, note));
+        assertThat(compactor.compact("s1", expanded)).isSameAs(expanded);
+    }
+
+    @Test
+    void onlyExpandsResultsOfTheCallingSession() {
+        compactor.compact("s1", List.of(new ToolResponseMessage.ToolResponse("c1", "readNote", "机密".repeat(100))));
+        ToolResultTools tools = new ToolResultTools(compactor);
+
+        // 另一个会话即使知道调用ID或旧格式的 handle，也读不到 s1 的结果
+        ToolContext s2 = new ToolContext(Map.of(ToolResultCompactor.SESSION_CONTEXT_KEY, "s2"));
+        assertThat(tools.expandToolResult("c1", 0, 0, s2)).startsWith("Error:").doesNotContain("机密");
+        assertThat(tools.expandToolResult("s1#c1", 0, 0, s2)).startsWith("Error:").doesNotContain("机密");
+        // 没有会话上下文时拒绝
+        assertThat(tools.expandToolResult("c1", 0, 0, null)).startsWith("Error:");
+        // 旧格式的 handle 在同一会话中仍然可用
+        assertThat(compactor.expand("s1", "s1#c1", 0, 0)).contains("机密");
+    }
+
+    @Test
+    void expandsStoredResultPageByPage() {
+        String note = "0123456789".repeat(50);
+        compactor.compact("s1", List.of(new ToolResponseMessage.ToolResponse("c1", "readNote", note)));
+        ToolResultTools tools = new ToolResultTools(compactor);
+        ToolContext s1 = new ToolContext(Map.of(ToolResultCompactor.SESSION_CONTEXT_KEY, "s1"));
+
+        String first = tools.expandToolResult("c1", null, null, s1);
+        assertThat(first).startsWith("[字符 0-300，共 500]").contains("offset=300");
+        String rest = tools.expandToolResult("c1", 300, 1000, s1);
+        assertThat(rest).startsWith("[字符 300-500，共 500]").doesNotContain("offset=");
+        assertThat(first.substring(first.indexOf('\n') + 1, first.lastIndexOf('\n'))
+                + rest.substring(rest.indexOf('\n') + 1)).isEqualTo(note);
+
+        assertThat(tools.expandToolResult("missing", 0, 0, s1)).startsWith("Error:");
+        assertThatThrownBy(() -> compactor.expand("s1", " ", 0, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        // 删除会话时一并删除外存的结果
+        repository.appendMessages("s1", List.of(message(ChatMessage.MessageType.USER, "读一下笔记")));
+        repository.deleteSession("s1");
+        assertThat(repository.findToolResult("s1", "c1")).isNull();
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * WorkingMemoryCache 命中、闲置淘汰和内存上限的单元测试
+ */
+class WorkingMemoryCacheTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MemoryProperties properties = new MemoryProperties();
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void reusesWorkingMemoryAcrossRunsUntilIdle() {
+        properties.setWorkingCacheIdleMs(60_000);
+        WorkingMemoryCache cache = new WorkingMemoryCache(properties, meterRegistry, now::get);
+
+        WorkingMemory first = cache.getOrLoad("s1", this::load);
+        assertThat(cache.getOrLoad("s1", this::load)).isSameAs(first);
+        cache.getOrLoad("s2", this::load);
+        assertThat(loads).hasValue(2);
+
+        now.addAndGet(30_000);
+        cache.getOrLoad("s1", this::load);
+        now.addAndGet(40_000);
+        cache.evictIdle();
+
+        // s2 闲置 70 秒被淘汰，s1 40 秒前刚用过
+        assertThat(cache.peek("s1")).isSameAs(first);
+        assertThat(cache.peek("s2")).isNull();
+        assertThat(meterRegistry.get("memory.working.cache.requests").tag("result", "hit").counter().count())
+                .isEqualTo(2.0);
+        assertThat(meterRegistry.get("memory.working.cache.requests").tag("result", "miss").counter().count())
+                .isEqualTo(2.0);
+        assertThat(meterRegistry.get("memory.working.cache.evictions").tag("reason", "idle").counter().count())
+                .isEqualTo(1.0);
+        assertThat(meterRegistry.get("memory.working.cache.hit.ratio").gauge().value()).isEqualTo(0.5);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedSessionsOverByteLimit() {
+        long perSession = load("s0").estimatedBytes();
+        properties.setWorkingCacheMaxBytes(perSession * 2);
+        WorkingMemoryCache cache = new WorkingMemoryCache(properties, meterRegistry, now::get);
+
+        cache.getOrLoad("s1", this::load);
+        cache.getOrLoad("s2", this::load);
+        cache.getOrLoad("s1", this::load);
+        cache.getOrLoad("s3", this::load);
+
+        assertThat(cache.peek("s2")).isNull();
+        assertThat(cache.peek("s1")).isNotNull();
+        assertThat(cache.peek("s3")).isNotNull();
+        assertThat(cache.estimatedBytes()).isEqualTo(perSession * 2);
+
+        // 会话变大后只保留最近使用的一个，即使它自己超出上限
+        WorkingMemory active = cache.peek("s3");
+        active.add(new UserMessage("x".repeat(1000)));
+        cache.touch("s3");
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.peek("s3")).isSameAs(active);
+        assertThat(meterRegistry.get("memory.working.cache.evictions").tag("reason", "size").counter().count())
+                .isEqualTo(2.0);
+    }
+
+    private WorkingMemory load(String sessionId) {
+        loads.incrementAndGet();
+        WorkingMemory memory = new WorkingMemory(message -> 10);
+        memory.add(new UserMessage("会话 " + sessionId));
+        return memory;
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * WorkingMemory 按 token 预算裁剪窗口、维护工具调用链，以及 MessageTokenCounter 的单元测试
+ */
+class WorkingMemoryTest {
+
+    private static final Message SYSTEM = new SystemMessage("你是笔记助手");
+    private static final Message QUESTION = new UserMessage("找一下会议纪要");
+    private static final Message CALL = new AssistantMessage("", Map.of(), List.of(
+            new AssistantMessage.ToolCall("c1", "function", "searchNotes", "{}"),
+            new AssistantMessage.ToolCall("c2", "function", "readNote", "{}")));
+    private static final Message RESULT_1 = new ToolResponseMessage(List.of(
+            new ToolResponseMessage.ToolResponse("c1", "searchNotes", "会议纪要.md")));
+    private static final Message RESULT_2 = new ToolResponseMessage(List.of(
+            new ToolResponseMessage.ToolResponse("c2", "readNote", "周会.md")));
+    private static final Message ANSWER = new AssistantMessage("找到了两篇");
+
+    @Test
+    void keepsWholeHistoryWithinBudget() {
+        WorkingMemory memory = memory(SYSTEM, QUESTION, ANSWER);
+
+        assertThat(memory.totalTokens()).isEqualTo(30);
+        assertThat(memory.window(30)).containsExactly(SYSTEM, QUESTION, ANSWER);
+    }
+
+    @Test
+    void dropsOldestMessagesButKeepsSystemMessage() {
+        WorkingMemory memory = memory(SYSTEM, QUESTION, ANSWER, QUESTION, ANSWER);
+
+        assertThat(memory.window(30)).containsExactly(SYSTEM, QUESTION, ANSWER);
+        assertThat(memory.window(25)).containsExactly(SYSTEM, ANSWER);
+    }
+
+    @Test
+    void neverSplitsToolCallFromItsResponses() {
+        WorkingMemory memory = memory(QUESTION, CALL, RESULT_1, RESULT_2, ANSWER);
+
+        // 工具调用和两条结果共 30，放不下时整体丢弃
+        assertThat(memory.window(39)).containsExactly(ANSWER);
+        assertThat(memory.window(40)).containsExactly(CALL, RESULT_1, RESULT_2, ANSWER);
+    }
+
+    @Test
+    void keepsLatestUnitEvenWhenItExceedsBudget() {
+        WorkingMemory memory = memory(QUESTION, CALL, RESULT_1, RESULT_2);
+
+        assertThat(memory.window(5)).containsExactly(CALL, RESULT_1, RESULT_2);
+    }
+
+    @Test
+    void closesInterruptedToolCallsWithErrorResponses() {
+        WorkingMemory memory = memory(QUESTION, CALL, RESULT_1, QUESTION);
+
+        // c2 没有结果就来了新的用户消息：在用户消息之前补上错误结果，且不计入持久化的消息
+        List<Message> history = memory.snapshot();
+        assertThat(history).hasSize(5);
+        assertThat(history.get(3)).isInstanceOf(ToolResponseMessage.class);
+        assertThat(((ToolResponseMessage) history.get(3)).getResponses())
+                .extracting(ToolResponseMessage.ToolResponse::id, ToolResponseMessage.ToolResponse::responseData)
+                .containsExactly(tuple("c2", WorkingMemory.MISSING_RESULT));
+        assertThat(history.get(4)).isSameAs(QUESTION);
+        assertThat(memory.repairedCalls()).isEqualTo(1);
+        assertThat(memory.repairChain()).isFalse();
+
+        // 停在工具调用上的历史在发送前补齐
+        WorkingMemory interrupted = memory(QUESTION, CALL);
+        assertThat(interrupted.repairChain()).isTrue();
+        assertThat(interrupted.snapshot()).hasSize(3).last().isInstanceOf(ToolResponseMessage.class);
+        assertThat(interrupted.repairChain()).isFalse();
+    }
+
+    @Test
+    void dropsToolResponsesWithoutMatchingCall() {
+        // 加载的历史从一条工具结果开始，发起调用的助手消息没有被加载
+        WorkingMemory memory = memory(RESULT_1, QUESTION, CALL, RESULT_1, RESULT_1, RESULT_2, ANSWER);
+
+        assertThat(memory.snapshot()).containsExactly(QUESTION, CALL, RESULT_1, RESULT_2, ANSWER);
+        assertThat(memory.droppedResponses()).isEqualTo(2);
+        assertThat(memory.repairedCalls()).isZero();
+
+        // 被丢弃的消息仍计入持久化位置，摘要覆盖的消息数与存储一致
+        assertThat(memory.coveredMessages()).isEqualTo(1);
+        WorkingMemory.Fold fold = memory.beginFold(40, 10);
+        assertThat(fold.messages()).containsExactly(QUESTION, CALL, RESULT_1, RESULT_2);
+        memory.completeFold(fold, "摘要", 5);
+        assertThat(memory.coveredMessages()).isEqualTo(6);
+    }
+
+    @Test
+    void countsToolCallsAndResolvesBudgetPerModel() {
+        MemoryProperties properties = new MemoryProperties();
+        properties.setContextTokenBudget(1000);
+        properties.setContextTokenBudgets(Map.of("gpt-4o", 50000));
+        MessageTokenCounter counter = new MessageTokenCounter(properties, "gpt-4o");
+
+        assertThat(counter.budget()).isEqualTo(50000);
+        assertThat(counter.budgetFor("deepseek-chat")).isEqualTo(1000);
+        assertThat(counter.budgetFor(null)).isEqualTo(1000);
+
+        assertThat(counter.count(new UserMessage(""))).isEqualTo(MessageTokenCounter.MESSAGE_OVERHEAD);
+        assertThat(counter.count(QUESTION)).isGreaterThan(MessageTokenCounter.MESSAGE_OVERHEAD);
+        assertThat(counter.count(CALL))
+                .isGreaterThan(MessageTokenCounter.MESSAGE_OVERHEAD + MessageTokenCounter.TOOL_ENTRY_OVERHEAD);
+        assertThat(counter.count(RESULT_1))
+                .isGreaterThan(MessageTokenCounter.MESSAGE_OVERHEAD + MessageTokenCounter.TOOL_ENTRY_OVERHEAD);
+    }
+
+    /**
+     * 每条消息固定 10 个 token，方便直接推算窗口边界
+     */
+    private static WorkingMemory memory(Message... messages) {
+        WorkingMemory memory = new WorkingMemory(message -> 10);
+        for (Message message : messages) {
+            memory.add(message);
+        }
+        return memory;
+    }
+}
@@ -0,0 +1,229 @@
+package io.github.don194.obsidianagent.memory;
+
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.github.don194.obsidianagent.storage.PayloadCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * WriteBehindQueue 回写顺序、flush、回写期间丢弃、写入失败和崩溃后按日志补写的单元测试
+ */
+class WriteBehindQueueTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MemoryProperties properties = new MemoryProperties();
+    private final MessageCodec messageCodec = new MessageCodec(new PayloadCodec(new SqliteProperties()));
+    private final RecordingMemory memory = new RecordingMemory();
+    private final List<WriteBehindQueue> queues = new ArrayList<>();
+    private WriteBehindQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        properties.setWriteBehindJournalPath(tempDir.resolve("journal").toString());
+        properties.setSegmentSizeBytes(64 * 1024);
+    }
+
+    @AfterEach
+    void tearDown() {
+        memory.release.release(100);
+        queues.forEach(WriteBehindQueue::flushAll);
+    }
+
+    @Test
+    void persistsEachSessionInOrderAndFlushWaitsForIt() {
+        queue = newQueue(memory);
+        for (int i = 0; i < 200; i++) {
+            queue.enqueue("s1", List.of(message("a" + i)));
+            queue.enqueue("s2", List.of(message("b" + i)));
+        }
+
+        queue.flush("s1");
+        queue.flush("s2");
+
+        assertThat(memory.texts("s1")).hasSize(200).startsWith("a0", "a1").endsWith("a199");
+        assertThat(memory.texts("s1")).isSortedAccordingTo((x, y) ->
+                Integer.compare(Integer.parseInt(x.substring(1)), Integer.parseInt(y.substring(1))));
+        assertThat(memory.texts("s2")).hasSize(200).endsWith("b199");
+        assertThat(meterRegistry.get("memory.write-behind.pending").gauge().value()).isZero();
+        // 全部落库的会话不再保留缓冲区
+        assertThat(meterRegistry.get("memory.write-behind.sessions").gauge().value()).isZero();
+    }
+
+    @Test
+    void discardWaitsForInFlightBatchAndDropsTheRest() throws Exception {
+        queue = newQueue(memory);
+        memory.blockAdds.set(1);
+        queue.enqueue("s1", List.of(message("in-flight")));
+        assertThat(memory.blocked.tryAcquire(2, TimeUnit.SECONDS)).isTrue();
+        queue.enqueue("s1", List.of(message("queued")));
+
+        CountDownLatch discarded = new CountDownLatch(1);
+        Thread discarder = new Thread(() -> {
+            queue.discard("s1");
+            discarded.countDown();
+        });
+        discarder.start();
+        // 已取出的一批还没写完，discard 必须等待
+        assertThat(discarded.await(200, TimeUnit.MILLISECONDS)).isFalse();
+
+        memory.release.release();
+        assertThat(discarded.await(2, TimeUnit.SECONDS)).isTrue();
+        // discard 返回时在途的一批已经落库（之后删除会话即可清掉），排队中的被丢弃且不会再写入
+        assertThat(memory.texts("s1")).containsExactly("in-flight");
+        Thread.sleep(100);
+        assertThat(memory.texts("s1")).containsExactly("in-flight");
+    }
+
+    @Test
+    void countsFailedBatchesAndKeepsDraining() {
+        queue = newQueue(memory);
+        memory.failNextAdd.set(true);
+
+        queue.enqueue("s1", List.of(message("lost")));
+        queue.flush("s1");
+        queue.enqueue("s1", List.of(message("kept")));
+        queue.flush("s1");
+
+        assertThat(memory.texts("s1")).containsExactly("kept");
+        assertThat(meterRegistry.get("memory.write-behind.failed").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void readsPendingMessagesWithoutWaitingForFlush() throws Exception {
+        queue = newQueue(memory);
+        memory.blockAdds.set(1);
+        queue.enqueue("s1", List.of(message("first")));
+        assertThat(memory.blocked.tryAcquire(2, TimeUnit.SECONDS)).isTrue();
+        queue.enqueue("s1", List.of(message("second")));
+
+        CountDownLatch read = new CountDownLatch(1);
+        List<String> seen = new ArrayList<>();
+        Thread reader = new Thread(() -> {
+            queue.readWithPending("s1", pending -> {
+                seen.addAll(memory.texts("s1"));
+                pending.forEach(m -> seen.add(m.getText()));
+                return null;
+            });
+            read.countDown();
+        });
+        reader.start();
+        memory.release.release();
+
+        // 历史与待写消息拼起来恰好是完整的会话，不重复也不遗漏
+        assertThat(read.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(seen).containsExactly("first", "second");
+    }
+
+    @Test
+    void replaysJournaledMessagesThatWereNotPersistedBeforeACrash() throws Exception {
+        queue = newQueue(memory);
+        // 第一批落库后第二批卡在写入中，第三条还在缓冲区里
+        memory.blockAdds.set(2);
+        queue.enqueue("s1", List.of(message("a")));
+        assertThat(memory.blocked.tryAcquire(2, TimeUnit.SECONDS)).isTrue();
+        queue.enqueue("s1", List.of(message("b")));
+        memory.release.release();
+        assertThat(memory.blocked.tryAcquire(2, TimeUnit.SECONDS)).isTrue();
+        queue.enqueue("s1", List.of(message("c")));
+        queue.enqueue("s2", List.of(message("d")));
+        queue.flush("s2");
+        assertThat(memory.texts("s1")).containsExactly("a");
+
+        // 进程在此时崩溃：新的实例从日志中补写未标记落库的消息，已落库的第一批不会重复
+        RecordingMemory recovered = new RecordingMemory();
+        newQueue(recovered);
+        assertThat(recovered.texts("s1")).containsExactly("b", "c");
+        assertThat(recovered.texts("s2")).isEmpty();
+
+        // 补写后日志被清空，再次启动不会重复补写
+        RecordingMemory restartedAgain = new RecordingMemory();
+        newQueue(restartedAgain);
+        assertThat(restartedAgain.texts("s1")).isEmpty();
+    }
+
+    @Test
+    void clearsTheJournalOnceEverythingIsPersisted() {
+        queue = newQueue(memory);
+        queue.enqueue("s1", List.of(message("a"), message("b")));
+        queue.flush("s1");
+
+        RecordingMemory recovered = new RecordingMemory();
+        newQueue(recovered);
+        assertThat(recovered.texts("s1")).isEmpty();
+    }
+
+    private WriteBehindQueue newQueue(RecordingMemory target) {
+        WriteBehindQueue created = new WriteBehindQueue(target, messageCodec, properties, meterRegistry);
+        queues.add(created);
+        return created;
+    }
+
+    private static Message message(String text) {
+        return new UserMessage(text);
+    }
+
+    /**
+     * 记录写入的持久化后端，可以让下一次写入阻塞或失败
+     */
+    private static final class RecordingMemory implements ChatMemory {
+        private final Map<String, List<Message>> stored = new ConcurrentHashMap<>();
+        // 接下来需要阻塞的写入次数，每次阻塞的写入释放一个 blocked，等待一个 release
+        private final AtomicInteger blockAdds = new AtomicInteger();
+        private final AtomicBoolean failNextAdd = new AtomicBoolean();
+        private final Semaphore blocked = new Semaphore(0);
+        private final Semaphore release = new Semaphore(0);
+
+        @Override
+        public void add(String conversationId, List<Message> messages) {
+            if (blockAdds.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                blocked.release();
+                try {
+                    release.tryAcquire(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failNextAdd.compareAndSet(true, false)) {
+                throw new IllegalStateException("database is locked");
+            }
+            stored.computeIfAbsent(conversationId, id -> new ArrayList<>()).addAll(messages);
+        }
+
+        @Override
+        public List<Message> get(String conversationId, int lastN) {
+            return stored.getOrDefault(conversationId, List.of());
+        }
+
+        @Override
+        public void clear(String conversationId) {
+            stored.remove(conversationId);
+        }
+
+        synchronized List<String> texts(String sessionId) {
+            return stored.getOrDefault(sessionId, List.of()).stream().map(Message::getText).toList();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package io.github.don194.obsidianagent.repository;
+
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.model.CursorPage;
+import io.github.don194.obsidianagent.model.KeysetCursor;
+import io.github.don194.obsidianagent.model.SessionSummary;
+import io.github.don194.obsidianagent.storage.SqliteTestDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static io.github.don194.obsidianagent.storage.SqliteTestDatabase.message;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ChatJdbcRepository 的单元测试（使用临时数据库文件）
+ */
+class ChatJdbcRepositoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SqliteTestDatabase database;
+    private ChatJdbcRepository repository;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = new SqliteTestDatabase(tempDir.resolve("repository-test.db"));
+        repository = new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.close();
+    }
+
+    @Test
+    void pagesThroughSessionsByLastActivity() {
+        // 每 3 个会话共用同一个 updated_at，验证并列时靠 session_id 区分
+        int total = 10_000;
+        database.writer().execute(connection -> {
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO chat_sessions (session_id, title, created_at, updated_at, message_count) VALUES (?, ?, ?, ?, 0)")) {
+                for (int i = 0; i < total; i++) {
+                    insert.setString(1, String.format("session-%05d", i));
+                    insert.setString(2, "会话" + i);
+                    insert.setLong(3, 1_000L);
+                    insert.setLong(4, 1_000L + i / 3);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            return null;
+        });
+
+        List<SessionSummary> all = new ArrayList<>();
+        KeysetCursor cursor = null;
+        int pages = 0;
+        do {
+            CursorPage<SessionSummary> page = repository.findSessionPage(cursor, 500);
+            all.addAll(page.getItems());
+            cursor = KeysetCursor.decode(page.getNextCursor());
+            pages++;
+        } while (cursor != null);
+
+        assertThat(pages).isEqualTo(20);
+        assertThat(all).hasSize(total);
+        Set<String> ids = new HashSet<>();
+        all.forEach(summary -> ids.add(summary.getSessionId()));
+        assertThat(ids).hasSize(total);
+        assertThat(all.get(0).getSessionId()).isEqualTo("session-09999");
+        assertThat(all.get(total - 1).getSessionId()).isEqualTo("session-00000");
+    }
+
+    @Test
+    void projectsCountAndLastMessagePreview() {
+        repository.appendMessages("s1", List.of(
+                message(ChatMessage.MessageType.USER, "帮我查一下周报"),
+                message(ChatMessage.MessageType.ASSISTANT,
+                        "{\"text\":\"找到了   3 篇\\n周报\",\"toolCalls\":[]}")));
+        repository.upsertSessionTitle("s2", "空会话");
+
+        SessionSummary summary = repository.findSessionSummary("s1");
+        assertThat(summary.getMessageCount()).isEqualTo(2);
+        assertThat(summary.getLastMessageType()).isEqualTo("assistant");
+        assertThat(summary.getLastMessagePreview()).isEqualTo("找到了 3 篇 周报");
+        assertThat(summary.getCreatedAt()).isNotNull();
+
+        SessionSummary empty = repository.findSessionSummary("s2");
+        assertThat(empty.getTitle()).isEqualTo("空会话");
+        assertThat(empty.getLastMessagePreview()).isNull();
+        assertThat(repository.findSessionSummary("missing")).isNull();
+    }
+
+    @Test
+    void sessionPageIsServedByIndexWithoutSorting() {
+        List<String> plan = database.readerPool().getJdbcTemplate().query(
+                "EXPLAIN QUERY PLAN SELECT session_id FROM chat_sessions s " +
+                        "WHERE (s.updated_at, s.session_id) < (?, ?) " +
+                        "ORDER BY s.updated_at DESC, s.session_id DESC LIMIT 50",
+                (rs, rowNum) -> rs.getString("detail"), 1_000L, "x");
+
+        assertThat(String.join("\n", plan))
+                .contains("idx_sessions_updated_at")
+                .doesNotContain("TEMP B-TREE");
+    }
+
+    @Test
+    void pagesThroughMessagesInBothDirections() {
+        // 消息时间戳全部相同，顺序只能靠 id 区分
+        List<ChatMessage> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ChatMessage message = message(ChatMessage.MessageType.USER, "消息" + i);
+            message.setCreatedAt(batch.isEmpty() ? message.getCreatedAt() : batch.get(0).getCreatedAt());
+            batch.add(message);
+        }
+        repository.appendMessages("s1", batch);
+        repository.appendMessages("s2", List.of(message(ChatMessage.MessageType.USER, "其它会话")));
+
+        CursorPage<ChatMessage> latest = repository.findMessagePage("s1", null, null, 100);
+        assertThat(latest.getItems()).extracting(ChatMessage::getContent).startsWith("消息900").endsWith("消息999");
+        assertThat(latest.getNextCursor()).isNull();
+
+        List<String> backwards = new ArrayList<>();
+        CursorPage<ChatMessage> page = latest;
+        while (true) {
+            List<String> contents = new ArrayList<>();
+            page.getItems().forEach(message -> contents.add(message.getContent()));
+            backwards.addAll(0, contents);
+            if (page.getPrevCursor() == null) {
+                break;
+            }
+            page = repository.findMessagePage("s1", KeysetCursor.decode(page.getPrevCursor()), null, 100);
+        }
+        assertThat(backwards).hasSize(1000).startsWith("消息0").endsWith("消息999");
+
+        // 从最早的一页向后翻
+        CursorPage<ChatMessage> forward = repository.findMessagePage("s1", null,
+                KeysetCursor.decode(page.getNextCursor()), 300);
+        assertThat(forward.getItems()).extracting(ChatMessage::getContent).startsWith("消息100").endsWith("消息399");
+        assertThat(forward.getPrevCursor()).isNotNull();
+        assertThat(forward.getNextCursor()).isNotNull();
+    }
+
+    @Test
+    void messagePageIsServedByCompositeIndex() {
+        List<String> plan = database.readerPool().getJdbcTemplate().query(
+                "EXPLAIN QUERY PLAN SELECT id FROM chat_messages WHERE session_id = ? AND (created_at, id) < (?, ?) " +
+                        "ORDER BY created_at DESC, id DESC LIMIT 50",
+                (rs, rowNum) -> rs.getString("detail"), "s1", 1_000L, 10L);
+
+        assertThat(String.join("\n", plan))
+                .contains("idx_session_created_id")
+                .doesNotContain("TEMP B-TREE");
+    }
+}
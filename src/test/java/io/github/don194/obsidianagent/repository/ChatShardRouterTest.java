@@ -0,0 +1,119 @@
+package io.github.don194.obsidianagent.repository;
+
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.model.CursorPage;
+import io.github.don194.obsidianagent.model.KeysetCursor;
+import io.github.don194.obsidianagent.model.MessageSearchResult;
+import io.github.don194.obsidianagent.model.SessionSummary;
+import io.github.don194.obsidianagent.storage.SqliteShards;
+import io.github.don194.obsidianagent.storage.SqliteTestDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static io.github.don194.obsidianagent.storage.SqliteTestDatabase.message;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ChatShardRouter 的单元测试：三个分片的临时数据库
+ */
+class ChatShardRouterTest {
+
+    private static final int SESSIONS = 30;
+
+    @TempDir
+    Path tempDir;
+
+    private SqliteTestDatabase database;
+    private SqliteShards shards;
+    private ChatShardRouter router;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        SqliteProperties properties = new SqliteProperties();
+        properties.setShardCount(3);
+        properties.setArchiveEnabled(false);
+        database = new SqliteTestDatabase(tempDir.resolve("chat.db"), properties);
+        shards = database.shards();
+        router = new ChatShardRouter(shards,
+                new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec()),
+                database.payloadCodec());
+        for (int i = 0; i < SESSIONS; i++) {
+            String sessionId = String.format("session-%02d", i);
+            router.repositoryFor(sessionId).appendMessages(sessionId, List.of(
+                    message(ChatMessage.MessageType.USER, "第" + i + "个会话的问题"),
+                    message(ChatMessage.MessageType.USER, i % 5 == 0 ? "整理会议纪要" : "随便聊聊")));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.close();
+    }
+
+    @Test
+    void routesEachSessionToOneShard() {
+        assertThat(shards.isSharded()).isTrue();
+        assertThat(tempDir.resolve("chat_shard1.db")).satisfies(file -> assertThat(Files.exists(file)).isTrue());
+        assertThat(tempDir.resolve("chat_shard2.db")).satisfies(file -> assertThat(Files.exists(file)).isTrue());
+
+        long total = 0;
+        for (SqliteShards.Shard shard : shards.all()) {
+            long count = shard.stats().totals().getSessions();
+            assertThat(count).isPositive().isLessThan(SESSIONS);
+            total += count;
+        }
+        assertThat(total).isEqualTo(SESSIONS);
+        assertThat(router.statsTotals().getSessions()).isEqualTo(SESSIONS);
+        assertThat(router.statsTotals().getMessages()).isEqualTo(SESSIONS * 2);
+
+        assertThat(router.repositoryFor("session-07").findRecentMessages("session-07", 10))
+                .extracting(ChatMessage::getContent)
+                .containsExactly("第7个会话的问题", "随便聊聊");
+    }
+
+    @Test
+    void mergesSessionPagesAcrossShards() {
+        List<SessionSummary> all = new ArrayList<>();
+        KeysetCursor cursor = null;
+        int pages = 0;
+        do {
+            CursorPage<SessionSummary> page = router.findSessionPage(cursor, 7);
+            assertThat(page.getItems()).hasSizeLessThanOrEqualTo(7);
+            all.addAll(page.getItems());
+            cursor = page.getNextCursor() != null ? KeysetCursor.decode(page.getNextCursor()) : null;
+            pages++;
+        } while (cursor != null);
+
+        assertThat(pages).isEqualTo(5);
+        Set<String> ids = new HashSet<>();
+        all.forEach(summary -> ids.add(summary.getSessionId()));
+        assertThat(ids).hasSize(SESSIONS);
+        // 合并后仍按最后活动时间倒序
+        for (int i = 1; i < all.size(); i++) {
+            assertThat(all.get(i - 1).getLastActivity()).isAfterOrEqualTo(all.get(i).getLastActivity());
+        }
+    }
+
+    @Test
+    void searchesAllShardsOrOnlyTheSessionShard() {
+        List<MessageSearchResult> results = router.search("会议", null, 10);
+        assertThat(results).extracting(MessageSearchResult::getSessionId)
+                .containsExactlyInAnyOrder("session-00", "session-05", "session-10", "session-15",
+                        "session-20", "session-25");
+        assertThat(router.search("会议", null, 2)).hasSize(2);
+        assertThat(router.search("会议", "session-15", 10))
+                .extracting(MessageSearchResult::getSessionId)
+                .containsExactly("session-15");
+    }
+}
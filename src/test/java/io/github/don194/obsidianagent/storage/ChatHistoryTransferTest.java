@@ -0,0 +1,246 @@
+package io.github.don194.obsidianagent.storage;
+
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.repository.ChatJdbcRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static io.github.don194.obsidianagent.storage.SqliteTestDatabase.message;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * ChatHistoryTransfer 流式导出/导入的单元测试
+ */
+class ChatHistoryTransferTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTripsHistoryIntoAnotherDatabase() throws Exception {
+        SqliteProperties properties = new SqliteProperties();
+        properties.setExportFetchSize(7);
+        properties.setImportBatchSize(9);
+        try (SqliteTestDatabase source = new SqliteTestDatabase(tempDir.resolve("source.db"), properties);
+             SqliteTestDatabase target = new SqliteTestDatabase(tempDir.resolve("target.db"), properties)) {
+            ChatJdbcRepository sourceRepository = repository(source);
+            appendConversation(sourceRepository, "s1", 25);
+            appendConversation(sourceRepository, "s2", 4);
+            sourceRepository.upsertSessionTitle("s1", "周报整理");
+
+            ByteArrayOutputStream exported = new ByteArrayOutputStream();
+            ChatHistoryTransfer.ExportResult exportResult = transfer(source, properties).export(exported, null);
+            assertThat(exportResult).isEqualTo(new ChatHistoryTransfer.ExportResult(2, 29));
+
+            List<String> lines = gunzipLines(exported.toByteArray());
+            assertThat(lines).hasSize(1 + 2 + 29);
+            assertThat(lines.get(0)).contains("\"type\":\"header\"");
+            // 助手消息的内容以 JSON 对象内嵌，而不是字符串
+            assertThat(lines).anySatisfy(line -> assertThat(line).contains("\"content\":{\"text\":\"回答1\""));
+
+            ChatHistoryTransfer importer = transfer(target, properties);
+            ChatHistoryTransfer.ImportResult imported = importer.importFrom(new ByteArrayInputStream(exported.toByteArray()));
+            assertThat(imported).isEqualTo(new ChatHistoryTransfer.ImportResult(2, 29, 0));
+
+            ChatJdbcRepository targetRepository = repository(target);
+            List<ChatMessage> copied = targetRepository.findRecentMessages("s1", 50);
+            List<ChatMessage> original = sourceRepository.findRecentMessages("s1", 50);
+            assertThat(copied).extracting(ChatMessage::getMessageId)
+                    .containsExactlyElementsOf(original.stream().map(ChatMessage::getMessageId).toList());
+            assertThat(target.payloadCodec().decode(copied.get(1).getPayload()))
+                    .isEqualTo(source.payloadCodec().decode(original.get(1).getPayload()));
+            assertThat(targetRepository.findSessionSummary("s1").getTitle()).isEqualTo("周报整理");
+            assertThat(targetRepository.findSessionSummary("s1").getMessageCount()).isEqualTo(25);
+
+            // 重复导入不会产生重复消息，计数保持不变
+            ChatHistoryTransfer.ImportResult again = importer.importFrom(new ByteArrayInputStream(exported.toByteArray()));
+            assertThat(again).isEqualTo(new ChatHistoryTransfer.ImportResult(2, 0, 29));
+            assertThat(targetRepository.findSessionSummary("s1").getMessageCount()).isEqualTo(25);
+        }
+    }
+
+    @Test
+    void exportsArchivedSessionsAndSingleSession() throws Exception {
+        SqliteProperties properties = new SqliteProperties();
+        try (SqliteTestDatabase database = new SqliteTestDatabase(tempDir.resolve("archived.db"))) {
+            ChatJdbcRepository repository = repository(database);
+            appendConversation(repository, "old", 6);
+            appendConversation(repository, "recent", 3);
+            ageSession(database, "old", 40);
+            database.sessionArchive().archiveIdleSessions(LocalDateTime.now().minusDays(30), 10);
+            repository.appendMessages("old", List.of(message(ChatMessage.MessageType.USER, "归档后的新问题")));
+            ChatHistoryTransfer transfer = transfer(database, properties);
+
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            assertThat(transfer.export(all, null)).isEqualTo(new ChatHistoryTransfer.ExportResult(2, 10));
+
+            ByteArrayOutputStream single = new ByteArrayOutputStream();
+            assertThat(transfer.export(single, "old")).isEqualTo(new ChatHistoryTransfer.ExportResult(1, 7));
+            List<String> lines = gunzipLines(single.toByteArray());
+            // 冷库中的旧消息排在归档后写入的消息之前
+            assertThat(lines.get(2)).contains("问题0");
+            assertThat(lines.get(lines.size() - 1)).contains("归档后的新问题");
+
+            // 导入冷库中已有的消息同样被跳过
+            ChatHistoryTransfer.ImportResult imported = transfer.importFrom(new ByteArrayInputStream(single.toByteArray()));
+            assertThat(imported.messages()).isZero();
+            assertThat(database.sessionArchive().restore("old")).isEqualTo(6);
+            assertThat(repository.findRecentMessages("old", 50)).hasSize(7);
+        }
+    }
+
+    @Test
+    void reshardsThroughExportAndImport() throws Exception {
+        SqliteProperties single = new SqliteProperties();
+        SqliteProperties sharded = new SqliteProperties();
+        sharded.setShardCount(3);
+        sharded.setArchiveEnabled(false);
+        sharded.setImportBatchSize(5);
+        try (SqliteTestDatabase source = new SqliteTestDatabase(tempDir.resolve("single.db"), single);
+             SqliteTestDatabase target = new SqliteTestDatabase(tempDir.resolve("sharded.db"), sharded);
+             SqliteTestDatabase back = new SqliteTestDatabase(tempDir.resolve("back.db"), single)) {
+            ChatJdbcRepository sourceRepository = repository(source);
+            for (int i = 0; i < 12; i++) {
+                appendConversation(sourceRepository, "s" + i, 3);
+            }
+            ByteArrayOutputStream exported = new ByteArrayOutputStream();
+            transfer(source, single).export(exported, null);
+
+            // 导入时按会话拆到三个分片
+            ChatHistoryTransfer shardedTransfer = transfer(target, sharded);
+            assertThat(shardedTransfer.importFrom(new ByteArrayInputStream(exported.toByteArray())))
+                    .isEqualTo(new ChatHistoryTransfer.ImportResult(12, 36, 0));
+            for (SqliteShards.Shard shard : target.shards().all()) {
+                assertThat(shard.stats().totals().getSessions()).isPositive();
+            }
+            SqliteShards.Shard shard = target.shards().forSession("s4");
+            assertThat(new ChatJdbcRepository(shard.writer(), shard.readerPool(), target.payloadCodec())
+                    .findRecentMessages("s4", 10)).hasSize(3);
+
+            // 导出时依次读取每个分片，合并回单库后内容不变
+            ByteArrayOutputStream reexported = new ByteArrayOutputStream();
+            assertThat(shardedTransfer.export(reexported, null)).isEqualTo(new ChatHistoryTransfer.ExportResult(12, 36));
+            ByteArrayOutputStream one = new ByteArrayOutputStream();
+            assertThat(shardedTransfer.export(one, "s4")).isEqualTo(new ChatHistoryTransfer.ExportResult(1, 3));
+            transfer(back, single).importFrom(new ByteArrayInputStream(reexported.toByteArray()));
+            assertThat(repository(back).findRecentMessages("s4", 10)).extracting(ChatMessage::getMessageId)
+                    .containsExactlyElementsOf(sourceRepository.findRecentMessages("s4", 10).stream()
+                            .map(ChatMessage::getMessageId).toList());
+        }
+    }
+
+    @Test
+    void importsPlainNdjsonAndRejectsBadLines() throws Exception {
+        SqliteProperties properties = new SqliteProperties();
+        try (SqliteTestDatabase database = new SqliteTestDatabase(tempDir.resolve("plain.db"))) {
+            ChatHistoryTransfer transfer = transfer(database, properties);
+            String ndjson = """
+                    {"type":"session","sessionId":"p1","title":"手写导入","extra":{"ignored":[1,2]}}
+                    {"type":"message","sessionId":"p1","messageType":"USER","content":"你好","createdAt":"2024-05-01T10:00:00"}
+                    {"type":"message","sessionId":"p1","messageType":"ASSISTANT","content":{"text":"你好！","toolCalls":[]},"createdAt":"2024-05-01T10:00:01"}
+                    {"type":"message","sessionId":"p2","messageType":"TOOL","content":"{\\"responses\\":[]}"}
+                    """;
+
+            ChatHistoryTransfer.ImportResult result = transfer.importFrom(utf8(ndjson));
+
+            assertThat(result).isEqualTo(new ChatHistoryTransfer.ImportResult(1, 3, 0));
+            ChatJdbcRepository repository = repository(database);
+            List<ChatMessage> messages = repository.findRecentMessages("p1", 10);
+            assertThat(messages).extracting(ChatMessage::getContent).first().isEqualTo("你好");
+            assertThat(database.payloadCodec().decode(messages.get(1).getPayload())).contains("你好！");
+            assertThat(repository.findSessionSummary("p2").getMessageCount()).isEqualTo(1);
+
+            assertThatThrownBy(() -> transfer.importFrom(utf8(
+                    "{\"type\":\"message\",\"sessionId\":\"p1\",\"messageType\":\"UNKNOWN\",\"content\":\"x\"}\n")))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("第 1 行");
+            assertThatThrownBy(() -> transfer.importFrom(utf8("{\"type\":\"session\",\"sessionId\":\n")))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void exportQueriesStreamInIndexOrder() throws Exception {
+        try (SqliteTestDatabase database = new SqliteTestDatabase(tempDir.resolve("plan.db"))) {
+            for (String sql : List.of(ChatHistoryTransfer.sessionQuery(false), ChatHistoryTransfer.messageQuery(false),
+                    ChatHistoryTransfer.messageQuery(true))) {
+                List<String> plan = database.writer().execute(connection -> {
+                    List<String> details = new ArrayList<>();
+                    try (PreparedStatement explain = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+                        if (sql.contains("?")) {
+                            explain.setString(1, "s1");
+                        }
+                        try (ResultSet rs = explain.executeQuery()) {
+                            while (rs.next()) {
+                                details.add(rs.getString("detail"));
+                            }
+                        }
+                    }
+                    return details;
+                });
+                // 不需要把整个结果集排序后再返回
+                assertThat(plan).noneMatch(detail -> detail.contains("TEMP B-TREE"));
+            }
+        }
+    }
+
+    private ChatHistoryTransfer transfer(SqliteTestDatabase database, SqliteProperties properties)
+            throws SQLException {
+        return new ChatHistoryTransfer(database.shards(), properties, database.payloadCodec(), database.sessionArchive());
+    }
+
+    private static ChatJdbcRepository repository(SqliteTestDatabase database) {
+        return new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+    }
+
+    private static void appendConversation(ChatJdbcRepository repository, String sessionId, int count) {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ChatMessage message = i % 2 == 0
+                    ? message(ChatMessage.MessageType.USER, "问题" + i)
+                    : message(ChatMessage.MessageType.ASSISTANT, "{\"text\":\"回答" + i + "\",\"toolCalls\":[]}");
+            message.setCreatedAt(message.getCreatedAt().minusSeconds(count - i));
+            messages.add(message);
+        }
+        repository.appendMessages(sessionId, messages);
+    }
+
+    private static void ageSession(SqliteTestDatabase database, String sessionId, int days) {
+        database.writer().execute(connection -> {
+            try (PreparedStatement update = connection.prepareStatement(
+                    "UPDATE chat_sessions SET updated_at = ? WHERE session_id = ?")) {
+                update.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now().minusDays(days)));
+                update.setString(2, sessionId);
+                return update.executeUpdate();
+            }
+        });
+    }
+
+    private static List<String> gunzipLines(byte[] gzip) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            String text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            return text.lines().toList();
+        }
+    }
+
+    private static InputStream utf8(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,143 @@
+package io.github.don194.obsidianagent.storage;
+
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.model.StatsBucket;
+import io.github.don194.obsidianagent.repository.ChatJdbcRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static io.github.don194.obsidianagent.storage.SqliteTestDatabase.message;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * ChatStats 写路径计数和时间桶的单元测试
+ */
+class ChatStatsTest {
+
+    private static final String TOOL_CALLS = "{\"text\":\"\",\"toolCalls\":[" +
+            "{\"id\":\"c1\",\"type\":\"function\",\"name\":\"searchNotes\",\"arguments\":\"{}\"}," +
+            "{\"id\":\"c2\",\"type\":\"function\",\"name\":\"readNote\",\"arguments\":\"{}\"}]}";
+
+    @TempDir
+    Path tempDir;
+
+    private SqliteTestDatabase database;
+    private ChatJdbcRepository repository;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = new SqliteTestDatabase(tempDir.resolve("stats.db"));
+        repository = new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.close();
+    }
+
+    @Test
+    void maintainsTotalsAndBucketsOnWritePath() {
+        LocalDateTime twoDaysAgo = LocalDateTime.now().minusDays(2);
+        ChatMessage old = message(ChatMessage.MessageType.USER, "前天的问题");
+        old.setCreatedAt(twoDaysAgo);
+        ChatMessage answer = message(ChatMessage.MessageType.ASSISTANT, TOOL_CALLS);
+        answer.setToolCallCount(2);
+        answer.setPromptTokens(500);
+        answer.setCompletionTokens(40);
+        repository.appendMessages("s1", List.of(old, answer));
+        repository.appendMessages("s1", List.of(message(ChatMessage.MessageType.USER, "追问")));
+        repository.upsertSessionTitle("s2", "只有标题的会话");
+        repository.upsertSessionTitle("s2", "改个标题");
+
+        StatsBucket totals = database.stats().totals();
+        assertThat(totals).isEqualTo(new StatsBucket(null, 2, 3, 2, 500, 40));
+
+        List<StatsBucket> days = database.stats().buckets(ChatStats.DAY, twoDaysAgo, LocalDateTime.now().plusDays(1));
+        assertThat(days).hasSize(2);
+        assertThat(days.get(0).getBucketStart()).isEqualTo(twoDaysAgo.truncatedTo(ChronoUnit.DAYS));
+        assertThat(days.get(0).getMessages()).isEqualTo(1);
+        assertThat(days.get(1)).isEqualTo(new StatsBucket(LocalDateTime.now().truncatedTo(ChronoUnit.DAYS),
+                2, 2, 2, 500, 40));
+        assertThat(database.stats().buckets(ChatStats.HOUR, LocalDateTime.now().minusHours(1),
+                LocalDateTime.now().plusHours(1))).extracting(StatsBucket::getMessages).containsExactly(2L);
+        // 不指定起始时间时从最早的统计桶开始
+        assertThat(database.stats().buckets(ChatStats.DAY, null, LocalDateTime.now().plusDays(1)))
+                .isEqualTo(days);
+        assertThat(database.stats().buckets(ChatStats.DAY, null, LocalDateTime.now().truncatedTo(ChronoUnit.DAYS)))
+                .extracting(StatsBucket::getMessages).containsExactly(1L);
+
+        // 删除只扣减总计，时间桶保留当时的活动
+        repository.deleteSession("s1");
+        assertThat(database.stats().totals().getSessions()).isEqualTo(1);
+        assertThat(database.stats().totals().getMessages()).isZero();
+        assertThat(database.stats().buckets(ChatStats.DAY, twoDaysAgo, LocalDateTime.now().plusDays(1)))
+                .extracting(StatsBucket::getMessages).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void rebuildsCountsForExistingHistory() {
+        repository.appendMessages("s1", List.of(message(ChatMessage.MessageType.USER, "问题"),
+                message(ChatMessage.MessageType.ASSISTANT, TOOL_CALLS)));
+        repository.appendMessages("s2", List.of(message(ChatMessage.MessageType.USER, "另一个问题")));
+        database.writer().execute(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DROP TABLE chat_stats");
+            }
+            return null;
+        });
+
+        database.stats().initialize();
+
+        assertThat(database.stats().totals()).isEqualTo(new StatsBucket(null, 2, 3, 2, 0, 0));
+        // 表已存在时不再重建
+        repository.appendMessages("s2", List.of(message(ChatMessage.MessageType.USER, "再问一次")));
+        database.stats().initialize();
+        assertThat(database.stats().totals().getMessages()).isEqualTo(4);
+    }
+
+    @Test
+    void countsImportedSessionsAndMessagesOnce() throws Exception {
+        ChatHistoryTransfer transfer = new ChatHistoryTransfer(database.shards(), new SqliteProperties(),
+                database.payloadCodec(), database.sessionArchive());
+        repository.appendMessages("existing", List.of(message(ChatMessage.MessageType.USER, "已有会话")));
+        String ndjson = """
+                {"type":"session","sessionId":"p1","title":"导入","createdAt":"2024-05-01T09:00:00"}
+                {"type":"message","messageId":"m1","sessionId":"p1","messageType":"USER","content":"你好","createdAt":"2024-05-01T10:00:00"}
+                {"type":"message","messageId":"m2","sessionId":"p1","messageType":"ASSISTANT","content":%s,"createdAt":"2024-05-01T10:00:01"}
+                {"type":"message","messageId":"m3","sessionId":"existing","messageType":"USER","content":"补一条","createdAt":"2024-05-01T11:00:00"}
+                """.formatted(TOOL_CALLS);
+
+        transfer.importFrom(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+        transfer.importFrom(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(database.stats().totals()).isEqualTo(new StatsBucket(null, 2, 4, 2, 0, 0));
+        assertThat(database.stats().buckets(ChatStats.HOUR, LocalDateTime.of(2024, 5, 1, 0, 0),
+                LocalDateTime.of(2024, 5, 2, 0, 0)))
+                .extracting(StatsBucket::getBucketStart, StatsBucket::getSessions, StatsBucket::getMessages)
+                .containsExactly(
+                        tuple(LocalDateTime.of(2024, 5, 1, 9, 0), 1L, 0L),
+                        tuple(LocalDateTime.of(2024, 5, 1, 10, 0), 0L, 2L),
+                        tuple(LocalDateTime.of(2024, 5, 1, 11, 0), 0L, 1L));
+    }
+
+    @Test
+    void rejectsUnknownGranularity() {
+        assertThat(ChatStats.granularity(null)).isEqualTo(ChatStats.DAY);
+        assertThat(ChatStats.granularity(" Hour ")).isEqualTo(ChatStats.HOUR);
+        assertThatThrownBy(() -> ChatStats.granularity("minute")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,113 @@
+package io.github.don194.obsidianagent.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * 全文索引与 LIKE 扫描的搜索延迟对比
+ * <p>
+ * 默认不运行：mvn test -Dtest=MessageSearchBenchmark -Dbenchmark=true [-Dbenchmark.messages=1000000]
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class MessageSearchBenchmark {
+
+    /**
+     * 约千分之一的消息包含被检索的短语
+     */
+    private static final String NEEDLE = "季度周报";
+    private static final int NEEDLE_EVERY = 1000;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void compareFtsWithLike() throws Exception {
+        int total = Integer.getInteger("benchmark.messages", 1_000_000);
+        SqliteTestDatabase database = new SqliteTestDatabase(tempDir.resolve("search-benchmark.db"));
+        SqliteWriter writer = database.writer();
+        SqliteReaderPool readerPool = database.readerPool();
+        MessageSearchIndex searchIndex = new MessageSearchIndex(writer, readerPool, database.payloadCodec());
+        searchIndex.initialize();
+
+        long start = System.nanoTime();
+        Random random = new Random(42);
+        int chunk = 50_000;
+        for (int offset = 0; offset < total; offset += chunk) {
+            int size = Math.min(chunk, total - offset);
+            int base = offset;
+            writer.execute(connection -> {
+                try (PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO chat_messages (message_id, session_id, message_type, content, created_at) " +
+                                "VALUES (?, ?, 'USER', ?, ?)")) {
+                    for (int i = 0; i < size; i++) {
+                        insert.setString(1, UUID.randomUUID().toString());
+                        insert.setString(2, "session-" + ((base + i) % 1000));
+                        insert.setString(3, randomSentence(random, (base + i) % NEEDLE_EVERY == 0));
+                        insert.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                }
+                return null;
+            });
+        }
+        System.out.printf("写入 %d 条消息（含索引维护）耗时 %d ms%n", total, (System.nanoTime() - start) / 1_000_000);
+
+        measure("FTS 全局", () -> searchIndex.search(NEEDLE, null, 20).size());
+        measure("FTS 会话内", () -> searchIndex.search(NEEDLE, "session-0", 20).size());
+        measure("LIKE 全局", () -> readerPool.getJdbcTemplate().queryForList(
+                "SELECT id FROM chat_messages WHERE content LIKE ? ORDER BY created_at DESC LIMIT 20",
+                Long.class, "%" + NEEDLE + "%").size());
+        measure("LIKE 会话内", () -> readerPool.getJdbcTemplate().queryForList(
+                "SELECT id FROM chat_messages WHERE session_id = ? AND content LIKE ? ORDER BY created_at DESC LIMIT 20",
+                Long.class, "session-0", "%" + NEEDLE + "%").size());
+
+        database.close();
+    }
+
+    private static void measure(String name, Supplier<Integer> query) {
+        for (int i = 0; i < 3; i++) {
+            query.get();
+        }
+        int rounds = 20;
+        long start = System.nanoTime();
+        int hits = 0;
+        for (int i = 0; i < rounds; i++) {
+            hits = query.get();
+        }
+        System.out.printf("%-12s 平均 %.2f ms（%d 条结果）%n", name, (System.nanoTime() - start) / 1e6 / rounds, hits);
+    }
+
+    /**
+     * 由常用汉字区间内的随机字符和少量英文单词组成的句子
+     */
+    private static String randomSentence(Random random, boolean withNeedle) {
+        StringBuilder sentence = new StringBuilder();
+        int length = 20 + random.nextInt(80);
+        int needleAt = withNeedle ? random.nextInt(length) : -1;
+        for (int i = 0; i < length; i++) {
+            if (i == needleAt) {
+                sentence.append(NEEDLE);
+            }
+            int kind = random.nextInt(20);
+            if (kind == 0) {
+                sentence.append(' ').append(Integer.toString(random.nextInt(50_000), 36)).append(' ');
+            } else if (kind == 1) {
+                sentence.append('，');
+            } else {
+                // 近似常用字的长尾分布
+                double r = random.nextDouble();
+                sentence.append((char) (0x4E00 + (int) (3000 * r * r * r)));
+            }
+        }
+        return sentence.toString();
+    }
+}
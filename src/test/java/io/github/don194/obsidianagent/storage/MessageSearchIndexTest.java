@@ -0,0 +1,150 @@
+package io.github.don194.obsidianagent.storage;
+
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.model.MessageSearchResult;
+import io.github.don194.obsidianagent.repository.ChatJdbcRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+
+import static io.github.don194.obsidianagent.storage.SqliteTestDatabase.message;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * MessageSearchIndex 全文索引的单元测试（使用临时数据库文件）
+ */
+class MessageSearchIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SqliteTestDatabase database;
+    private ChatJdbcRepository repository;
+    private MessageSearchIndex searchIndex;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = new SqliteTestDatabase(tempDir.resolve("search-test.db"));
+        repository = new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+        searchIndex = new MessageSearchIndex(database.writer(), database.readerPool(), database.payloadCodec());
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.close();
+    }
+
+    @Test
+    void findsChineseSubstringsWithHighlightedSnippet() {
+        searchIndex.initialize();
+        repository.appendMessages("s1", List.of(
+                message(ChatMessage.MessageType.USER, "帮我整理一下今天的会议记录"),
+                message(ChatMessage.MessageType.USER, "明天记得买牛奶")));
+
+        List<MessageSearchResult> results = searchIndex.search("会议", null, 10);
+
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0).getSnippet()).contains("<mark>会议</mark>");
+        assertThat(searchIndex.search("议记", null, 10)).hasSize(1);
+        assertThat(searchIndex.search("会", null, 10)).hasSize(1);
+        assertThat(searchIndex.search("会议 牛奶", null, 10)).isEmpty();
+    }
+
+    @Test
+    void findsSingleCharacterAnywhereInTheText() {
+        searchIndex.initialize();
+        repository.appendMessages("s1", List.of(
+                message(ChatMessage.MessageType.USER, "下午要开会"),
+                message(ChatMessage.MessageType.USER, "会议改到明天")));
+
+        // 单个汉字既能命中词首（会议），也能命中二元组的第二个字（开会）
+        assertThat(searchIndex.search("会", null, 10)).hasSize(2);
+        assertThat(searchIndex.search("会 下午", null, 10))
+                .extracting(MessageSearchResult::getContent)
+                .containsExactly("下午要开会");
+    }
+
+    @Test
+    void escapesSnippetTextAndHandlesCaseFoldingThatChangesLength() {
+        String snippet = MessageSearchIndex.buildSnippet("<img src=x onerror=alert(1)> 笔记 & \"Note\"",
+                List.of("笔记", "note"));
+
+        assertThat(snippet).isEqualTo("&lt;img src=x onerror=alert(1)&gt; <mark>笔记</mark> &amp; &quot;<mark>Note</mark>&quot;");
+        // "İ" 转小写后变成两个字符，匹配位置仍然要对应原文
+        assertThat(MessageSearchIndex.buildSnippet("İİİ obsidian <b>", List.of("obsidian")))
+                .isEqualTo("İİİ <mark>obsidian</mark> &lt;b&gt;");
+    }
+
+    @Test
+    void rebuildsIndexCreatedWithoutCharsColumn() {
+        database.writer().execute(connection -> {
+            try (java.sql.Statement statement = connection.createStatement()) {
+                statement.execute("CREATE VIRTUAL TABLE chat_messages_fts USING fts5(" +
+                        "body, content='', contentless_delete=1, tokenize='unicode61 remove_diacritics 2')");
+            }
+            return null;
+        });
+        repository.appendMessages("s1", List.of(message(ChatMessage.MessageType.USER, "周末开会")));
+
+        searchIndex.initialize();
+
+        assertThat(searchIndex.search("会", null, 10)).hasSize(1);
+    }
+
+    @Test
+    void scopesSearchToSessionInsideQuery() {
+        searchIndex.initialize();
+        repository.appendMessages("s1", List.of(message(ChatMessage.MessageType.USER, "Obsidian 插件开发")));
+        repository.appendMessages("s2", List.of(message(ChatMessage.MessageType.USER, "obsidian vault 同步")));
+
+        assertThat(searchIndex.search("obsid", null, 10)).hasSize(2);
+        assertThat(searchIndex.search("obsidian", "s2", 10))
+                .extracting(MessageSearchResult::getSessionId)
+                .containsExactly("s2");
+    }
+
+    @Test
+    void indexesToolCallsAndResponses() {
+        searchIndex.initialize();
+        repository.appendMessages("s1", List.of(
+                message(ChatMessage.MessageType.ASSISTANT,
+                        "{\"text\":\"\",\"toolCalls\":[{\"id\":\"c1\",\"type\":\"function\",\"name\":\"searchNotes\",\"arguments\":\"{\\\"query\\\":\\\"周报\\\"}\"}]}"),
+                message(ChatMessage.MessageType.TOOL,
+                        "{\"responses\":[{\"id\":\"c1\",\"name\":\"searchNotes\",\"responseData\":\"找到3篇周报笔记\"}]}")));
+
+        assertThat(searchIndex.search("周报", null, 10)).hasSize(2);
+        assertThat(searchIndex.search("笔记", null, 10))
+                .extracting(MessageSearchResult::getType)
+                .containsExactly("tool");
+    }
+
+    @Test
+    void backfillsExistingMessagesAndFollowsDeletes() {
+        repository.appendMessages("s1", List.of(message(ChatMessage.MessageType.USER, "历史消息中的关键词")));
+        searchIndex.initialize();
+
+        assertThat(searchIndex.search("关键词", null, 10)).hasSize(1);
+
+        repository.deleteSession("s1");
+        assertThat(searchIndex.search("关键词", null, 10)).isEmpty();
+    }
+
+    @Test
+    void ranksDenserMatchesFirst() {
+        searchIndex.initialize();
+        repository.appendMessages("s1", List.of(
+                message(ChatMessage.MessageType.USER, "笔记 笔记 笔记"),
+                message(ChatMessage.MessageType.USER, "这是一段很长的内容，其中只在结尾提到了一次笔记这个词，其它部分都是无关的文字")));
+
+        List<MessageSearchResult> results = searchIndex.search("笔记", null, 10);
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).getContent()).isEqualTo("笔记 笔记 笔记");
+        assertThat(results.get(0).getScore()).isLessThan(results.get(1).getScore());
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.don194.obsidianagent.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.repository.ChatJdbcRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.util.List;
+import java.util.Map;
+
+import static io.github.don194.obsidianagent.storage.SqliteTestDatabase.message;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * PayloadCodec 存储编码的单元测试
+ */
+class PayloadCodecTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTripsSmallPayloadWithoutCompression() throws Exception {
+        PayloadCodec codec = new PayloadCodec(new SqliteProperties());
+        String json = "{\"text\":\"你好\",\"toolCalls\":[{\"id\":\"c1\",\"name\":\"search\",\"arguments\":\"{}\"}]}";
+
+        byte[] stored = codec.encode(json);
+
+        assertThat(stored[0]).isEqualTo(PayloadCodec.FORMAT_SMILE);
+        assertThat(JSON.readTree(codec.decode(stored))).isEqualTo(JSON.readTree(json));
+    }
+
+    @Test
+    void compressesPayloadAboveThreshold() throws Exception {
+        PayloadCodec codec = new PayloadCodec(new SqliteProperties());
+        String note = "# 周报\n\n- 完成了笔记同步插件的重构\n- 修复了标签索引的问题\n".repeat(200);
+        String json = JSON.writeValueAsString(
+                Map.of("responses", List.of(Map.of("id", "c1", "name", "readNote", "responseData", note))));
+
+        byte[] stored = codec.encode(json);
+
+        assertThat(stored[0]).isEqualTo(PayloadCodec.FORMAT_SMILE_DEFLATE);
+        assertThat(stored.length).isLessThan(json.getBytes(StandardCharsets.UTF_8).length / 10);
+        assertThat(JSON.readTree(codec.decode(stored))).isEqualTo(JSON.readTree(json));
+    }
+
+    @Test
+    void keepsLegacyAndPlainTextReadable() {
+        SqliteProperties disabled = new SqliteProperties();
+        disabled.setBinaryPayloads(false);
+        PayloadCodec codec = new PayloadCodec(new SqliteProperties());
+        String legacy = "{\"responses\":[]}";
+
+        assertThat(codec.decode(legacy.getBytes(StandardCharsets.UTF_8))).isEqualTo(legacy);
+        assertThat(codec.decode(codec.encode("不是JSON的旧回退内容"))).isEqualTo("不是JSON的旧回退内容");
+        assertThat(new PayloadCodec(disabled).encode(legacy)).isEqualTo(legacy.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void storesStructuredMessagesAsBlobAndReadsOldTextRows() throws Exception {
+        try (SqliteTestDatabase database = new SqliteTestDatabase(tempDir.resolve("codec-test.db"))) {
+            ChatJdbcRepository repository =
+                    new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+            String toolJson = "{\"responses\":[{\"id\":\"c1\",\"name\":\"readNote\",\"responseData\":\"笔记内容\"}]}";
+            repository.appendMessages("s1", List.of(
+                    message(ChatMessage.MessageType.USER, "读一下笔记"),
+                    message(ChatMessage.MessageType.TOOL, toolJson)));
+            // 模拟升级前以 JSON 文本写入的行
+            database.writer().execute(connection -> {
+                try (PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO chat_messages (message_id, session_id, message_type, content, created_at) " +
+                                "VALUES ('legacy', 's1', 'TOOL', ?, 9999999999999)")) {
+                    insert.setString(1, toolJson);
+                    insert.executeUpdate();
+                }
+                return null;
+            });
+
+            List<String> storageTypes = database.readerPool().getJdbcTemplate().queryForList(
+                    "SELECT typeof(content) FROM chat_messages ORDER BY id", String.class);
+            assertThat(storageTypes).containsExactly("text", "blob", "text");
+
+            List<ChatMessage> messages = repository.findRecentMessages("s1", 10);
+            assertThat(messages).hasSize(3);
+            assertThat(messages.get(0).getContent()).isEqualTo("读一下笔记");
+            // 助手/工具消息保留原始存储字节，由上层直接解码
+            assertThat(PayloadCodec.isSmile(messages.get(1).getPayload())).isTrue();
+            assertThat(JSON.readTree(database.payloadCodec().decode(messages.get(1).getPayload())))
+                    .isEqualTo(JSON.readTree(toolJson));
+            assertThat(database.payloadCodec().decode(messages.get(2).getPayload())).isEqualTo(toolJson);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package io.github.don194.obsidianagent.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.don194.obsidianagent.config.MemoryProperties;
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.memory.HistoryCache;
+import io.github.don194.obsidianagent.memory.MessageCodec;
+import io.github.don194.obsidianagent.memory.SqliteChatMemory;
+import io.github.don194.obsidianagent.repository.ChatJdbcRepository;
+import io.github.don194.obsidianagent.repository.ChatShardRouter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static io.github.don194.obsidianagent.storage.SqliteTestDatabase.message;
+
+/**
+ * 助手/工具消息以 JSON 文本存储与以压缩 Smile 存储的对比：数据库大小和历史加载耗时
+ * <p>
+ * 默认不运行：mvn test -Dtest=PayloadStorageBenchmark -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class PayloadStorageBenchmark {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private static final String[] WORDS = {
+            "笔记", "整理", "项目", "进度", "会议", "记录", "计划", "读书", "摘要", "任务", "同步", "标签",
+            "链接", "模板", "日记", "复盘", "目标", "需求", "设计", "实现", "测试", "发布", "问题", "方案",
+            "我们", "需要", "已经", "完成", "继续", "讨论", "确认", "调整", "优化", "性能", "数据", "接口",
+            "obsidian", "vault", "plugin", "markdown", "dataview", "frontmatter", "TODO", "2024", "v2"
+    };
+
+    private static final int SESSIONS = 200;
+    private static final int ROUNDS_PER_SESSION = 15;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void compareJsonTextWithCompressedSmile() throws Exception {
+        for (boolean binary : new boolean[]{false, true}) {
+            SqliteProperties properties = new SqliteProperties();
+            properties.setBinaryPayloads(binary);
+            Path file = tempDir.resolve(binary ? "smile.db" : "json.db");
+            double perSession;
+            int loaded = 0;
+            try (SqliteTestDatabase database = new SqliteTestDatabase(file, properties)) {
+                ChatJdbcRepository repository =
+                        new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+                // get() 只依赖 JDBC 仓库，其余依赖不参与；关闭历史缓存，每次都从数据库加载
+                MemoryProperties noCache = new MemoryProperties();
+                noCache.setHistoryCacheMaxBytes(0);
+                SqliteChatMemory chatMemory = new SqliteChatMemory(ChatShardRouter.single(repository, null, database.stats()),
+                        new MessageCodec(database.payloadCodec()), new HistoryCache(noCache, new SimpleMeterRegistry()),
+                    database.sessionArchive());
+                Random random = new Random(7);
+                for (int s = 0; s < SESSIONS; s++) {
+                    repository.appendMessages("session-" + s, conversation(random));
+                }
+                // 预热后加载每个会话最近 50 条消息并还原为 Spring AI 消息
+                for (int s = 0; s < SESSIONS; s++) {
+                    chatMemory.get("session-" + s, 50);
+                }
+                long start = System.nanoTime();
+                for (int round = 0; round < 5; round++) {
+                    for (int s = 0; s < SESSIONS; s++) {
+                        loaded += chatMemory.get("session-" + s, 50).size();
+                    }
+                }
+                perSession = (System.nanoTime() - start) / 1e6 / (5 * SESSIONS);
+            }
+            // 关闭最后一个连接时 WAL 会合并回主文件
+            long bytes = Files.size(file);
+            System.out.printf("%-6s 数据库 %.1f MB，加载最近50条 平均 %.3f ms/会话（共 %d 条）%n",
+                    binary ? "Smile" : "JSON", bytes / 1024.0 / 1024.0, perSession, loaded);
+        }
+    }
+
+    /**
+     * 一轮对话：用户提问 → 助手调用读取笔记的工具 → 工具返回整篇笔记 → 助手回答
+     */
+    private static List<ChatMessage> conversation(Random random) throws Exception {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (int i = 0; i < ROUNDS_PER_SESSION; i++) {
+            String path = "notes/" + WORDS[random.nextInt(WORDS.length)] + "-" + random.nextInt(1000) + ".md";
+            messages.add(message(ChatMessage.MessageType.USER, sentence(random, 20)));
+            messages.add(message(ChatMessage.MessageType.ASSISTANT, JSON.writeValueAsString(Map.of(
+                    "text", "",
+                    "toolCalls", List.of(Map.of("id", "call_" + random.nextInt(1_000_000), "type", "function",
+                            "name", "readNote", "arguments", JSON.writeValueAsString(Map.of("path", path))))))));
+            messages.add(message(ChatMessage.MessageType.TOOL, JSON.writeValueAsString(Map.of(
+                    "responses", List.of(Map.of("id", "call", "name", "readNote",
+                            "responseData", JSON.writeValueAsString(Map.of("path", path, "content", note(random)))))))));
+            Map<String, Object> answer = new HashMap<>();
+            answer.put("text", sentence(random, 120));
+            answer.put("toolCalls", List.of());
+            messages.add(message(ChatMessage.MessageType.ASSISTANT, JSON.writeValueAsString(answer)));
+        }
+        return messages;
+    }
+
+    /**
+     * 2KB 到 16KB 的 Markdown 笔记
+     */
+    private static String note(Random random) {
+        StringBuilder note = new StringBuilder("---\ntags: [" + WORDS[random.nextInt(WORDS.length)] + "]\n---\n");
+        int target = 2048 + random.nextInt(14 * 1024);
+        while (note.length() < target / 3) {
+            note.append("\n## ").append(sentence(random, 4)).append("\n\n");
+            for (int i = 0; i < 3 + random.nextInt(5); i++) {
+                note.append("- ").append(sentence(random, 12)).append('\n');
+            }
+            note.append('\n').append(sentence(random, 60)).append('\n');
+        }
+        return note.toString();
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            if (sentence.length() > 0 && word.charAt(0) < 0x80) {
+                sentence.append(' ');
+            }
+            sentence.append(word);
+        }
+        return sentence.append('。').toString();
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.don194.obsidianagent.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * SegmentLog 段文件格式、恢复和压缩的单元测试
+ */
+class SegmentLogTest {
+
+    private static final int SEGMENT_SIZE = 4 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rollsSegmentsAndRebuildsIndexOnOpen() throws IOException {
+        try (SegmentLog log = SegmentLog.open(tempDir, SEGMENT_SIZE, false)) {
+            for (int i = 0; i < 400; i++) {
+                log.append(i % 2 == 0 ? "a" : "b", List.of(entry("记录" + i)));
+            }
+            // 超过段大小的记录单独占用一个更大的段
+            log.append("a", List.of(entry("大".repeat(SEGMENT_SIZE))));
+            assertThat(log.segmentCount()).isGreaterThan(3);
+        }
+
+        try (SegmentLog log = SegmentLog.open(tempDir, SEGMENT_SIZE, false)) {
+            assertThat(log.size("a")).isEqualTo(201);
+            assertThat(log.size("b")).isEqualTo(200);
+            assertThat(texts(log.readLast("b", 2))).containsExactly("记录397", "记录399");
+            assertThat(texts(log.readLast("a", 2)).get(0)).isEqualTo("记录398");
+        }
+    }
+
+    @Test
+    void ignoresTornRecordAtTail() throws IOException {
+        try (SegmentLog log = SegmentLog.open(tempDir, SEGMENT_SIZE, false)) {
+            log.append("a", List.of(entry("完整的记录"), entry("写了一半的记录")));
+        }
+        // 模拟写到一半时崩溃：第二条记录的内容被破坏
+        Path segment = segmentFiles().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, 0);
+            channel.write(ByteBuffer.wrap(new byte[]{0x7f, 0x7f}), length.flip().getInt() + 30);
+        }
+
+        try (SegmentLog log = SegmentLog.open(tempDir, SEGMENT_SIZE, false)) {
+            assertThat(texts(log.readLast("a", 10))).containsExactly("完整的记录");
+            log.append("a", List.of(entry("恢复后追加")));
+        }
+        try (SegmentLog log = SegmentLog.open(tempDir, SEGMENT_SIZE, false)) {
+            assertThat(texts(log.readLast("a", 10))).containsExactly("完整的记录", "恢复后追加");
+        }
+    }
+
+    @Test
+    void compactionKeepsOrderAndHonoursTombstones() throws IOException {
+        try (SegmentLog log = SegmentLog.open(tempDir, SEGMENT_SIZE, false)) {
+            for (int i = 0; i < 300; i++) {
+                log.append(i % 3 == 0 ? "keep" : "drop-" + (i % 3), List.of(entry("记录" + i)));
+            }
+            log.clear("drop-1");
+            log.clear("drop-2");
+            int segmentsBefore = log.segmentCount();
+            long filesBefore = log.fileBytes();
+
+            SegmentLog.CompactionResult result = log.compact(0.5);
+
+            assertThat(result.segments()).isPositive();
+            assertThat(log.segmentCount()).isLessThan(segmentsBefore);
+            assertThat(log.fileBytes()).isLessThan(filesBefore);
+            assertThat(log.size("keep")).isEqualTo(100);
+            assertThat(texts(log.readLast("keep", 3))).containsExactly("记录291", "记录294", "记录297");
+            // 被复制到新段的记录之后，会话仍按原顺序追加
+            log.append("keep", List.of(entry("压缩后追加")));
+        }
+
+        try (SegmentLog log = SegmentLog.open(tempDir, SEGMENT_SIZE, false)) {
+            assertThat(log.size("drop-1")).isZero();
+            assertThat(log.size("drop-2")).isZero();
+            List<String> keep = texts(log.readLast("keep", 200));
+            assertThat(keep).hasSize(101).startsWith("记录0").endsWith("记录297", "压缩后追加");
+        }
+    }
+
+    @Test
+    void deduplicatesRecordsCopiedBeforeOldSegmentWasDeleted() throws IOException {
+        try (SegmentLog log = SegmentLog.open(tempDir, SEGMENT_SIZE, false)) {
+            for (int i = 0; i < 300; i++) {
+                log.append(i % 2 == 0 ? "keep" : "drop", List.of(entry("记录" + i)));
+            }
+            log.clear("drop");
+        }
+        Path oldest = segmentFiles().get(0);
+        byte[] oldestCopy = Files.readAllBytes(oldest);
+
+        try (SegmentLog log = SegmentLog.open(tempDir, SEGMENT_SIZE, false)) {
+            assertThat(log.compact(0.4).segments()).isPositive();
+        }
+        // 模拟复制完成后旧段没能删除
+        Files.write(oldest, oldestCopy);
+
+        try (SegmentLog log = SegmentLog.open(tempDir, SEGMENT_SIZE, false)) {
+            List<String> keep = texts(log.readLast("keep", 300));
+            assertThat(keep).hasSize(150).doesNotHaveDuplicates().startsWith("记录0").endsWith("记录298");
+            assertThat(log.size("drop")).isZero();
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static SegmentLog.Entry entry(String text) {
+        return new SegmentLog.Entry((byte) 1, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> texts(List<SegmentLog.Entry> entries) {
+        List<String> texts = new ArrayList<>();
+        for (SegmentLog.Entry entry : entries) {
+            texts.add(new String(entry.payload(), StandardCharsets.UTF_8));
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,244 @@
+package io.github.don194.obsidianagent.storage;
+
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.github.don194.obsidianagent.model.CursorPage;
+import io.github.don194.obsidianagent.model.KeysetCursor;
+import io.github.don194.obsidianagent.model.SessionSummary;
+import io.github.don194.obsidianagent.repository.ChatJdbcRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.github.don194.obsidianagent.storage.SqliteTestDatabase.message;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * SessionArchive 冷热分层的单元测试
+ */
+class SessionArchiveTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SqliteTestDatabase database;
+    private ChatJdbcRepository repository;
+    private SessionArchive archive;
+    private MessageSearchIndex searchIndex;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = new SqliteTestDatabase(tempDir.resolve("tiering.db"));
+        repository = new ChatJdbcRepository(database.writer(), database.readerPool(), database.payloadCodec());
+        archive = database.sessionArchive();
+        searchIndex = new MessageSearchIndex(database.writer(), database.readerPool(), database.payloadCodec());
+        searchIndex.initialize();
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.close();
+    }
+
+    @Test
+    void movesIdleSessionsToArchiveFile() {
+        appendConversation("old", 20, "归档前的周报");
+        appendConversation("recent", 5, "最近的会议");
+        ageSession("old", 40);
+
+        SessionArchive.ArchiveResult result = archive.archiveIdleSessions(LocalDateTime.now().minusDays(30), 10);
+
+        assertThat(result).isEqualTo(new SessionArchive.ArchiveResult(1, 20));
+        assertThat(Files.exists(tempDir.resolve("tiering_archive.db"))).isTrue();
+        assertThat(repository.findRecentMessages("old", 50)).isEmpty();
+        assertThat(repository.findRecentMessages("recent", 50)).hasSize(5);
+        assertThat(archive.isArchived("old")).isTrue();
+        // 会话行和消息计数仍在主库，会话列表不受影响
+        assertThat(repository.findSessionSummary("old").getMessageCount()).isEqualTo(20);
+        // 归档期间不出现在全文搜索中
+        assertThat(searchIndex.search("周报", null, 10)).isEmpty();
+
+        assertThat(archive.archiveIdleSessions(LocalDateTime.now().minusDays(30), 10).sessions()).isZero();
+    }
+
+    @Test
+    void readsArchivedSessionWithoutRestoringIt() {
+        appendConversation("old", 20, "归档前的周报");
+        ageSession("old", 40);
+        CursorPage<ChatMessage> firstPage = repository.findMessagePage("old", null, null, 5);
+        String preview = repository.findSessionSummary("old").getLastMessagePreview();
+        archive.archiveIdleSessions(LocalDateTime.now().minusDays(30), 10);
+
+        List<ChatMessage> messages = repository.findRecentMessages("old", 50, true);
+
+        assertThat(messages).hasSize(20);
+        assertThat(messages.get(0).getContent()).isEqualTo("归档前的周报0");
+        // 归档前拿到的游标继续有效
+        CursorPage<ChatMessage> older = repository.findMessagePage("old",
+                KeysetCursor.decode(firstPage.getPrevCursor()), null, 5, true);
+        assertThat(older.getItems()).extracting(ChatMessage::getId)
+                .containsExactlyElementsOf(messages.subList(10, 15).stream().map(ChatMessage::getId).toList());
+        assertThat(repository.findSessionSummary("old").getLastMessagePreview()).isNotNull().isEqualTo(preview);
+        assertThat(repository.findSessionPage(null, 10).getItems())
+                .extracting(SessionSummary::getLastMessagePreview).containsExactly(preview);
+        assertThat(archive.isArchived("old")).isTrue();
+    }
+
+    @Test
+    void restoresArchivedSessionInOriginalOrder() {
+        appendConversation("old", 20, "归档前的周报");
+        List<Long> ids = repository.findRecentMessages("old", 50).stream().map(ChatMessage::getId).toList();
+        ageSession("old", 40);
+        archive.archiveIdleSessions(LocalDateTime.now().minusDays(30), 10);
+        // 归档期间其它会话写入的消息可能占用被移走的 id
+        appendConversation("other", 1, "新会话");
+        // 归档期间导入的消息直接写入主库
+        repository.appendMessages("old", List.of(message(ChatMessage.MessageType.USER, "归档后的新问题")));
+        assertThat(repository.findRecentMessages("old", 50, true)).hasSize(21);
+
+        assertThat(archive.restore("old")).isEqualTo(20);
+
+        List<ChatMessage> messages = repository.findRecentMessages("old", 50);
+        assertThat(messages).hasSize(21);
+        assertThat(messages.get(0).getContent()).isEqualTo("归档前的周报0");
+        assertThat(database.payloadCodec().decode(messages.get(19).getPayload())).contains("归档前的周报19");
+        assertThat(messages.get(20).getContent()).isEqualTo("归档后的新问题");
+        // 主库清空后新消息从 id 1 开始，占用了前两条消息的原 id；其余消息沿用原 id
+        List<Long> restoredIds = messages.subList(0, 20).stream().map(ChatMessage::getId).toList();
+        assertThat(restoredIds.subList(2, 20)).isEqualTo(ids.subList(2, 20));
+        assertThat(restoredIds.subList(0, 2)).doesNotContainAnyElementsOf(ids);
+        assertThat(archive.isArchived("old")).isFalse();
+        assertThat(searchIndex.search("周报", "old", 50)).hasSize(20);
+        assertThat(archive.restore("old")).isZero();
+
+        // 刚加载回来的会话不会马上再次被归档
+        ageSession("old", 40);
+        assertThat(archive.archiveIdleSessions(LocalDateTime.now().minusDays(30), 10).sessions()).isZero();
+    }
+
+    @Test
+    void purgesArchivedMessagesOnDelete() {
+        appendConversation("old", 3, "要删除的会话");
+        ageSession("old", 40);
+        archive.archiveIdleSessions(LocalDateTime.now().minusDays(30), 10);
+
+        repository.deleteSession("old");
+        archive.purge("old");
+
+        Integer remaining = database.writer().execute(connection -> {
+            try (ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*) FROM archive.chat_messages")) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        });
+        assertThat(remaining).isZero();
+    }
+
+    @Test
+    void maintenanceArchivesReclaimsSpaceAndCheckpoints() throws SQLException {
+        for (int s = 0; s < 20; s++) {
+            appendConversation("session-" + s, 50, "很长的笔记内容".repeat(40));
+        }
+        for (int s = 0; s < 10; s++) {
+            ageSession("session-" + s, 40);
+        }
+        SqliteMaintenance maintenance = new SqliteMaintenance(new SqliteProperties(), database.shards(), archive,
+                new SimpleMeterRegistry());
+
+        SqliteMaintenance.Report first = maintenance.runMaintenance();
+
+        assertThat(first.archivedSessions()).isEqualTo(10);
+        assertThat(first.archivedMessages()).isEqualTo(500);
+        assertThat(first.freedPages()).isPositive();
+        assertThat(first.fileBytesAfter()).isLessThan(first.fileBytesBefore() + first.walBytesBefore());
+        assertThat(first.walBytesAfter()).isZero();
+        assertThat(first.checkpointComplete()).isTrue();
+        Long autoVacuum = database.writer().execute(connection -> {
+            try (ResultSet rs = connection.createStatement().executeQuery("PRAGMA main.auto_vacuum")) {
+                return rs.next() ? rs.getLong(1) : -1L;
+            }
+        });
+        assertThat(autoVacuum).isEqualTo(2L);
+
+        // 已切换为增量模式后，删除产生的空闲页由增量 VACUUM 回收
+        repository.deleteSession("session-15");
+        SqliteMaintenance.Report second = maintenance.runMaintenance();
+        assertThat(second.freedPages()).isPositive();
+        assertThat(maintenance.getLastReport()).isEqualTo(second);
+    }
+
+    @Test
+    void maintenanceRunsOnEveryShard() throws SQLException {
+        SqliteProperties properties = new SqliteProperties();
+        properties.setShardCount(3);
+        properties.setArchiveEnabled(false);
+        try (SqliteTestDatabase sharded = new SqliteTestDatabase(tempDir.resolve("sharded.db"), properties)) {
+            SqliteShards shards = sharded.shards();
+            for (SqliteShards.Shard shard : shards.all()) {
+                new ChatJdbcRepository(shard.writer(), shard.readerPool(), sharded.payloadCodec())
+                        .appendMessages("session-" + shard.index(), List.of(message(ChatMessage.MessageType.USER, "分片消息")));
+            }
+            SqliteMaintenance maintenance = new SqliteMaintenance(properties, shards, sharded.sessionArchive(),
+                    new SimpleMeterRegistry());
+
+            SqliteMaintenance.Report report = maintenance.runMaintenance();
+
+            assertThat(report.archivedSessions()).isZero();
+            assertThat(report.walBytesBefore()).isPositive();
+            assertThat(report.walBytesAfter()).isZero();
+            assertThat(report.checkpointComplete()).isTrue();
+            for (SqliteShards.Shard shard : shards.all()) {
+                Long autoVacuum = shard.writer().execute(connection -> {
+                    try (ResultSet rs = connection.createStatement().executeQuery("PRAGMA main.auto_vacuum")) {
+                        return rs.next() ? rs.getLong(1) : -1L;
+                    }
+                });
+                assertThat(autoVacuum).isEqualTo(2L);
+            }
+        }
+    }
+
+    @Test
+    void refusesToArchiveWhenSharded() {
+        SqliteProperties properties = new SqliteProperties();
+        properties.setShardCount(2);
+        SessionArchive sharded = new SessionArchive("jdbc:sqlite:" + tempDir.resolve("tiering.db"), properties,
+                database.writer(), database.readerPool(), new SimpleMeterRegistry());
+
+        assertThatThrownBy(sharded::initialize).isInstanceOf(IllegalStateException.class);
+    }
+
+    private void appendConversation(String sessionId, int count, String text) {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ChatMessage message = message(i % 2 == 0 ? ChatMessage.MessageType.USER : ChatMessage.MessageType.ASSISTANT,
+                    i % 2 == 0 ? text + i : "{\"text\":\"" + text + i + "\",\"toolCalls\":[]}");
+            message.setCreatedAt(message.getCreatedAt().minusSeconds(count - i));
+            messages.add(message);
+        }
+        repository.appendMessages(sessionId, messages);
+    }
+
+    private void ageSession(String sessionId, int days) {
+        database.writer().execute(connection -> {
+            try (PreparedStatement update = connection.prepareStatement(
+                    "UPDATE chat_sessions SET updated_at = ? WHERE session_id = ?")) {
+                update.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now().minusDays(days)));
+                update.setString(2, sessionId);
+                return update.executeUpdate();
+            }
+        });
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.don194.obsidianagent.storage;
+
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.github.don194.obsidianagent.entity.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * 测试用的临时 SQLite 数据库：启动写线程和只读连接池，并建好与实体一致的表结构
+ */
+public class SqliteTestDatabase implements AutoCloseable {
+
+    /**
+     * 与 Hibernate 根据实体生成的表结构一致
+     */
+    public static final String[] CHAT_SCHEMA = {
+            "CREATE TABLE chat_messages (id INTEGER PRIMARY KEY, content TEXT NOT NULL, created_at TIMESTAMP NOT NULL, " +
+                    "message_id VARCHAR(36) UNIQUE, message_type VARCHAR(255) NOT NULL, session_id VARCHAR(36) NOT NULL)",
+            "CREATE INDEX idx_session_id ON chat_messages (session_id)",
+            "CREATE INDEX idx_created_at ON chat_messages (created_at)",
+            "CREATE INDEX idx_session_created_id ON chat_messages (session_id, created_at, id)",
+            "CREATE TABLE chat_sessions (session_id VARCHAR(36) PRIMARY KEY, created_at TIMESTAMP, " +
+                    "message_count INTEGER, title VARCHAR(255), updated_at TIMESTAMP, archived_at TIMESTAMP, restored_at TIMESTAMP)",
+            "CREATE INDEX idx_sessions_updated_at ON chat_sessions (updated_at, session_id)",
+            "CREATE TABLE chat_context_summaries (session_id VARCHAR(36) PRIMARY KEY, summary TEXT NOT NULL, " +
+                    "covered_messages BIGINT NOT NULL, summarized_tokens BIGINT NOT NULL, summary_tokens INTEGER NOT NULL, " +
+                    "updated_at TIMESTAMP)",
+            "CREATE TABLE chat_tool_results (id INTEGER PRIMARY KEY, session_id VARCHAR(36) NOT NULL, " +
+                    "call_id VARCHAR(100) NOT NULL, tool_name VARCHAR(100), content TEXT NOT NULL, created_at TIMESTAMP)",
+            "CREATE UNIQUE INDEX idx_tool_results_session_call ON chat_tool_results (session_id, call_id)"
+    };
+
+    private final String url;
+    private final SqliteProperties properties;
+    private final SqliteWriter writer;
+    private final SqliteReaderPool readerPool;
+    private final PayloadCodec payloadCodec;
+    private final SessionArchive sessionArchive;
+    private final ChatStats stats;
+    private SqliteShards shards;
+
+    public SqliteTestDatabase(Path file) throws SQLException {
+        this(file, new SqliteProperties());
+    }
+
+    public SqliteTestDatabase(Path file, SqliteProperties properties) throws SQLException {
+        url = "jdbc:sqlite:" + file;
+        this.properties = properties;
+        writer = new SqliteWriter(url, properties, new SimpleMeterRegistry());
+        writer.start();
+        writer.execute(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String ddl : CHAT_SCHEMA) {
+                    statement.execute(ddl);
+                }
+            }
+            return null;
+        });
+        readerPool = new SqliteReaderPool(url, properties, writer);
+        payloadCodec = new PayloadCodec(properties);
+        sessionArchive = new SessionArchive(url, properties, writer, readerPool, new SimpleMeterRegistry());
+        sessionArchive.initialize();
+        stats = new ChatStats(writer, readerPool, payloadCodec);
+        stats.initialize();
+    }
+
+    public SqliteWriter writer() {
+        return writer;
+    }
+
+    public SqliteReaderPool readerPool() {
+        return readerPool;
+    }
+
+    public PayloadCodec payloadCodec() {
+        return payloadCodec;
+    }
+
+    public SessionArchive sessionArchive() {
+        return sessionArchive;
+    }
+
+    public ChatStats stats() {
+        return stats;
+    }
+
+    /**
+     * 以本库为主库的分片，分片数取自构造时的配置
+     */
+    public SqliteShards shards() throws SQLException {
+        if (shards == null) {
+            MessageSearchIndex searchIndex = new MessageSearchIndex(writer, readerPool, payloadCodec);
+            searchIndex.initialize();
+            shards = new SqliteShards(url, properties, writer, readerPool, searchIndex, stats, payloadCodec,
+                    new SimpleMeterRegistry());
+            shards.initialize();
+        }
+        return shards;
+    }
+
+    /**
+     * 构造一条待写入的消息
+     */
+    public static ChatMessage message(ChatMessage.MessageType type, String content) {
+        ChatMessage message = new ChatMessage();
+        message.setMessageId(UUID.randomUUID().toString());
+        message.setMessageType(type);
+        message.setContent(content);
+        message.setCreatedAt(LocalDateTime.now());
+        return message;
+    }
+
+    @Override
+    public void close() {
+        if (shards != null) {
+            shards.shutdown();
+        }
+        readerPool.close();
+        writer.shutdown();
+    }
+}
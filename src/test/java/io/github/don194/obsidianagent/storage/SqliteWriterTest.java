@@ -0,0 +1,156 @@
+package io.github.don194.obsidianagent.storage;
+
+import io.github.don194.obsidianagent.config.SqliteProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * SqliteWriter 单写线程的单元测试（使用临时数据库文件）
+ */
+class SqliteWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SimpleMeterRegistry meterRegistry;
+    private SqliteProperties properties;
+    private SqliteWriter writer;
+    private SqliteReaderPool readerPool;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        String url = "jdbc:sqlite:" + tempDir.resolve("data/writer-test.db");
+        properties = new SqliteProperties();
+        properties.setReaderPoolSize(2);
+        meterRegistry = new SimpleMeterRegistry();
+        writer = new SqliteWriter(url, properties, meterRegistry);
+        writer.start();
+        writer.execute(connection -> {
+            connection.createStatement().execute("CREATE TABLE items (id INTEGER PRIMARY KEY, name TEXT NOT NULL)");
+            return null;
+        });
+        readerPool = new SqliteReaderPool(url, properties, writer);
+    }
+
+    @AfterEach
+    void tearDown() {
+        readerPool.close();
+        writer.shutdown();
+    }
+
+    @Test
+    void appliesWalModeOnStartup() {
+        String journalMode = readerPool.getJdbcTemplate().queryForObject("PRAGMA journal_mode", String.class);
+        assertThat(journalMode).isEqualToIgnoringCase("wal");
+    }
+
+    @Test
+    void groupsQueuedWritesIntoCommitsAndKeepsOrder() throws Exception {
+        // 先用一个阻塞的写操作占住写线程，让后续写操作在队列中积压
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> blocker = blockWriter(release);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int id = i;
+            futures.add(writer.submit(connection -> insert(connection, id, "item-" + id)));
+        }
+        release.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        blocker.join();
+
+        List<Integer> ids = readerPool.getJdbcTemplate().queryForList("SELECT id FROM items ORDER BY rowid", Integer.class);
+        assertThat(ids).hasSize(20).isSorted();
+        // 积压的20个写操作应当在远少于20次提交中完成
+        assertThat(meterRegistry.get("sqlite.writer.batch.size").summary().max()).isGreaterThan(1);
+        assertThat(meterRegistry.get("sqlite.writer.queue.latency").timer().count()).isGreaterThanOrEqualTo(21);
+    }
+
+    @Test
+    void failedWriteDoesNotRollBackOthersInSameBatch() {
+        CountDownLatch release = new CountDownLatch(1);
+        blockWriter(release);
+        CompletableFuture<Integer> first = writer.submit(connection -> insert(connection, 1, "one"));
+        CompletableFuture<Integer> duplicate = writer.submit(connection -> insert(connection, 1, "duplicate"));
+        CompletableFuture<Integer> second = writer.submit(connection -> insert(connection, 2, "two"));
+        release.countDown();
+
+        assertThat(first.join()).isEqualTo(1);
+        assertThat(second.join()).isEqualTo(1);
+        assertThatThrownBy(duplicate::join).hasCauseInstanceOf(SQLException.class);
+        assertThat(readerPool.getJdbcTemplate().queryForList("SELECT name FROM items ORDER BY id", String.class))
+                .containsExactly("one", "two");
+    }
+
+    @Test
+    void readerPoolIsReadOnly() {
+        assertThatThrownBy(() -> readerPool.getJdbcTemplate().update("INSERT INTO items (id, name) VALUES (9, 'x')"))
+                .hasMessageContaining("readonly");
+    }
+
+    @Test
+    void interruptDuringBusyRetryFailsAllPendingWritesAndRollsBack() throws Exception {
+        // 退避时间足够长，保证中断发生在重试等待期间
+        properties.setBusyRetryBackoffMs(10_000);
+        CountDownLatch release = new CountDownLatch(1);
+        blockWriter(release);
+        AtomicReference<Thread> writerThread = new AtomicReference<>();
+        CountDownLatch retrying = new CountDownLatch(1);
+        CompletableFuture<Integer> inserted = writer.submit(connection -> insert(connection, 1, "one"));
+        CompletableFuture<Object> busy = writer.submit(connection -> {
+            writerThread.set(Thread.currentThread());
+            retrying.countDown();
+            throw new SQLException("database is locked", null, 5);
+        });
+        release.countDown();
+        assertThat(retrying.await(2, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Integer> queued = writer.submit(connection -> insert(connection, 2, "two"));
+
+        writerThread.get().interrupt();
+
+        // 在途批次和排队中的写操作都以异常结束，调用方不会一直等待
+        assertThatThrownBy(() -> inserted.get(2, TimeUnit.SECONDS)).hasRootCauseInstanceOf(InterruptedException.class);
+        assertThatThrownBy(() -> busy.get(2, TimeUnit.SECONDS)).hasRootCauseInstanceOf(InterruptedException.class);
+        assertThatThrownBy(() -> queued.get(2, TimeUnit.SECONDS)).hasRootCauseInstanceOf(InterruptedException.class);
+        writerThread.get().join(2000);
+        assertThat(writerThread.get().isAlive()).isFalse();
+        // 同一批次中已执行的写操作随事务回滚，之后的提交立即失败
+        assertThat(readerPool.getJdbcTemplate().queryForObject("SELECT COUNT(*) FROM items", Integer.class)).isZero();
+        assertThatThrownBy(() -> writer.execute(connection -> insert(connection, 3, "three")))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    private CompletableFuture<Object> blockWriter(CountDownLatch release) {
+        return writer.submit(connection -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+    }
+
+    private static int insert(java.sql.Connection connection, int id, String name) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO items (id, name) VALUES (?, ?)")) {
+            statement.setInt(1, id);
+            statement.setString(2, name);
+            return statement.executeUpdate();
+        }
+    }
+}
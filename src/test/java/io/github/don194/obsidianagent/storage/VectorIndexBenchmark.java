@@ -0,0 +1,63 @@
+package io.github.don194.obsidianagent.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * 长期记忆向量索引的加载和检索延迟
+ * <p>
+ * 默认不运行：mvn test -Dtest=VectorIndexBenchmark -Dbenchmark=true [-Dbenchmark.vectors=20000] [-Dbenchmark.dimension=256]
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class VectorIndexBenchmark {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void measureSearchLatency() throws Exception {
+        int total = Integer.getInteger("benchmark.vectors", 20_000);
+        int dimension = Integer.getInteger("benchmark.dimension", 256);
+        Path file = tempDir.resolve("long-term.idx");
+        Random random = new Random(42);
+
+        long start = System.nanoTime();
+        try (VectorIndex index = VectorIndex.open(file)) {
+            for (int i = 0; i < total; i++) {
+                index.add("session-" + (i % 500), "问答" + i, 50, i, randomVector(random, dimension));
+            }
+        }
+        System.out.printf("写入 %d 条 %d 维向量耗时 %d ms，文件 %.1f MB%n", total, dimension,
+                (System.nanoTime() - start) / 1_000_000, Files.size(file) / 1024.0 / 1024.0);
+
+        start = System.nanoTime();
+        try (VectorIndex index = VectorIndex.open(file)) {
+            System.out.printf("加载耗时 %d ms%n", (System.nanoTime() - start) / 1_000_000);
+            float[] query = randomVector(random, dimension);
+            for (int i = 0; i < 200; i++) {
+                index.search(query, 8, "session-0", 0.0f);
+            }
+            int rounds = 200;
+            start = System.nanoTime();
+            int hits = 0;
+            for (int i = 0; i < rounds; i++) {
+                hits = index.search(query, 8, "session-0", 0.0f).size();
+            }
+            System.out.printf("检索前 8 条 平均 %.2f ms（%d 条结果）%n",
+                    (System.nanoTime() - start) / 1e6 / rounds, hits);
+        }
+    }
+
+    private static float[] randomVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,103 @@
+package io.github.don194.obsidianagent.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * VectorIndex 量化检索、文件恢复和遗忘的单元测试
+ */
+class VectorIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void returnsMostSimilarEntriesExcludingSession() throws IOException {
+        try (VectorIndex index = VectorIndex.open(tempDir.resolve("memory.idx"))) {
+            index.add("s1", "笔记同步", 5, 1000, new float[]{1, 0, 0, 0});
+            index.add("s2", "周报模板", 5, 2000, new float[]{0.9f, 0.1f, 0, 0});
+            index.add("s3", "旅行计划", 5, 3000, new float[]{0, 0, 1, 0});
+            index.add("s3", "无关内容", 5, 4000, new float[]{0, 0, 0, -1});
+
+            var hits = index.search(new float[]{2, 0, 0, 0}, 2, null, 0.0f);
+            assertThat(hits).extracting(VectorIndex.Hit::text).containsExactly("笔记同步", "周报模板");
+            assertThat(hits.get(0).score()).isCloseTo(1.0f, within(0.01f));
+
+            // 当前会话自身的内容不召回，低于阈值的不返回
+            assertThat(index.search(new float[]{1, 0, 0, 0}, 5, "s1", 0.5f))
+                    .extracting(VectorIndex.Hit::text).containsExactly("周报模板");
+            assertThatThrownBy(() -> index.add("s1", "x", 1, 0, new float[]{1, 0}))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void reloadsFromFileAndDropsTornTail() throws IOException {
+        Path file = tempDir.resolve("memory.idx");
+        try (VectorIndex index = VectorIndex.open(file)) {
+            index.add("s1", "第一条", 3, 1000, new float[]{1, 0, 0});
+            index.add("s2", "第二条", 3, 2000, new float[]{0, 1, 0});
+        }
+        long intact = Files.size(file);
+        // 模拟写入中断：末尾多出半条记录
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 0, 0, 0, 0, 7}));
+        }
+
+        try (VectorIndex index = VectorIndex.open(file)) {
+            assertThat(index.size()).isEqualTo(2);
+            assertThat(index.dimension()).isEqualTo(3);
+            assertThat(Files.size(file)).isEqualTo(intact);
+            assertThat(index.search(new float[]{0, 1, 0}, 1, null, 0.0f))
+                    .extracting(VectorIndex.Hit::text, VectorIndex.Hit::createdAt)
+                    .containsExactly(tuple("第二条", 2000L));
+            index.add("s3", "第三条", 3, 3000, new float[]{0, 0, 1});
+        }
+        try (VectorIndex index = VectorIndex.open(file)) {
+            assertThat(index.size()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    void forgetsSessionAndRewritesFileOnNextOpen() throws IOException {
+        Path file = tempDir.resolve("memory.idx");
+        try (VectorIndex index = VectorIndex.open(file)) {
+            for (int i = 0; i < 10; i++) {
+                index.add(i % 2 == 0 ? "keep" : "drop", "条目" + i, 3, i, new float[]{1, i, 0});
+            }
+            assertThat(index.forget("drop")).isEqualTo(5);
+            assertThat(index.forget("missing")).isZero();
+            assertThat(index.size()).isEqualTo(5);
+            assertThat(index.search(new float[]{1, 1, 0}, 10, null, -1f))
+                    .extracting(VectorIndex.Hit::sessionId).containsOnly("keep");
+        }
+        long withForgotten = Files.size(file);
+
+        try (VectorIndex index = VectorIndex.open(file)) {
+            assertThat(index.size()).isEqualTo(5);
+            assertThat(Files.size(file)).isLessThan(withForgotten);
+            assertThat(index.search(new float[]{1, 8, 0}, 1, null, -1f))
+                    .extracting(VectorIndex.Hit::text).containsExactly("条目8");
+
+            // 更换嵌入模型后清空并改用新维度
+            index.reset(2);
+            index.add("keep", "新条目", 3, 0, new float[]{0, 1});
+        }
+        try (VectorIndex index = VectorIndex.open(file)) {
+            assertThat(index.dimension()).isEqualTo(2);
+            assertThat(index.size()).isEqualTo(1);
+        }
+    }
+}